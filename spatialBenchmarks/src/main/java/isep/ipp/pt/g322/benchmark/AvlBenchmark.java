@@ -0,0 +1,70 @@
+package isep.ipp.pt.g322.benchmark;
+
+import isep.ipp.pt.g322.datastructures.tree.AVL;
+import isep.ipp.pt.g322.model.LatitudeKey;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AVL latitude index: bulk insert (the cost of loading the CSV), exact lookup and range lookup.
+ * <p>
+ * BST.height is recursive, so every insert walks its subtree and building the tree is quadratic:
+ * insertAll measures that baseline, and the setup alone takes minutes past 100k keys. Larger sizes
+ * have to be asked for explicitly, e.g. {@code -p stations=1000000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g"})
+public class AvlBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int stations;
+
+    private List<LatitudeKey> keys;
+    private AVL<LatitudeKey> tree;
+    private LatitudeKey[] probes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = SyntheticStations.latitudeKeys(SyntheticStations.generate(stations, SyntheticStations.SEED));
+        Collections.shuffle(keys, new Random(SyntheticStations.SEED));
+        tree = SyntheticStations.avlOf(keys);
+
+        probes = new LatitudeKey[1024];
+        Random random = new Random(SyntheticStations.SEED + 1);
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = keys.get(random.nextInt(keys.size()));
+        }
+    }
+
+    private LatitudeKey nextProbe() {
+        return probes[next++ & (probes.length - 1)];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public AVL<LatitudeKey> insertAll() {
+        return SyntheticStations.avlOf(keys);
+    }
+
+    @Benchmark
+    public LatitudeKey find() {
+        return tree.find(nextProbe());
+    }
+
+    // about a 0.1 degree latitude band (~11 km)
+    @Benchmark
+    public List<LatitudeKey> findRange() {
+        double lat = nextProbe().getLatitude();
+        return tree.findRange(new LatitudeKey(lat), new LatitudeKey(lat + 0.1));
+    }
+}
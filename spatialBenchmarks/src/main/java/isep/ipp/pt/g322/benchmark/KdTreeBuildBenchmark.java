@@ -0,0 +1,51 @@
+package isep.ipp.pt.g322.benchmark;
+
+import isep.ipp.pt.g322.datastructures.tree.AVL;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.model.LatitudeKey;
+import isep.ipp.pt.g322.model.LongitudeKey;
+import isep.ipp.pt.g322.model.Station;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KD-tree construction, from the AVL indices (StationManager.buildSpatialIndex) and from a plain
+ * station list (the direct CSV load used by US08).
+ * <p>
+ * The setup fills both AVL indices, which is quadratic (see AvlBenchmark), so the defaults stop at
+ * 100k stations; pass {@code -p stations=1000000} or more explicitly and expect a long setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g"})
+public class KdTreeBuildBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int stations;
+
+    private List<Station> stationList;
+    private AVL<LatitudeKey> latitudeIndex;
+    private AVL<LongitudeKey> longitudeIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stationList = SyntheticStations.generate(stations, SyntheticStations.SEED);
+        latitudeIndex = SyntheticStations.avlOf(SyntheticStations.latitudeKeys(stationList));
+        longitudeIndex = SyntheticStations.avlOf(SyntheticStations.longitudeKeys(stationList));
+    }
+
+    @Benchmark
+    public KDTree2 fromAvlIndices() {
+        return new KDTree2(latitudeIndex, longitudeIndex);
+    }
+
+    @Benchmark
+    public KDTree2 fromStationList() {
+        return new KDTree2(stationList);
+    }
+}
@@ -0,0 +1,95 @@
+package isep.ipp.pt.g322.benchmark;
+
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.datastructures.tree.OffHeapKdTree;
+import isep.ipp.pt.g322.model.Station;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KD-tree queries on a prebuilt tree. Each invocation uses the next of 1024 query points drawn from
+ * the station distribution, so dense and sparse areas are both covered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g"})
+public class KdTreeQueryBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int stations;
+
+    @Param({"10"})
+    int k;
+
+    private KDTree2 tree;
+    private OffHeapKdTree offHeapTree;
+    private double[][] points;
+    private KDTree2.StationFilterCriteria criteria;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tree = new KDTree2(SyntheticStations.generate(stations, SyntheticStations.SEED));
+        offHeapTree = OffHeapKdTree.build(tree);
+        points = SyntheticStations.queryPoints(1024, SyntheticStations.SEED);
+        criteria = new KDTree2.StationFilterCriteria().country("FR").mainStationOnly(true);
+    }
+
+    private double[] nextPoint() {
+        return points[next++ & (points.length - 1)];
+    }
+
+    // 0.5 x 0.5 degree box
+    @Benchmark
+    public List<Station> rangeQuery() {
+        double[] p = nextPoint();
+        return tree.rangeQuery(p[0] - 0.25, p[0] + 0.25, p[1] - 0.25, p[1] + 0.25);
+    }
+
+    @Benchmark
+    public List<KDTree2.StationDistance> circularRangeQuery() {
+        double[] p = nextPoint();
+        return tree.circularRangeQuery(p[0], p[1], 25.0);
+    }
+
+    @Benchmark
+    public KDTree2.StationDistance nearestNeighbor() {
+        double[] p = nextPoint();
+        return tree.nearestNeighbor(p[0], p[1]);
+    }
+
+    @Benchmark
+    public List<KDTree2.StationDistance> kNearestNeighbors() {
+        double[] p = nextPoint();
+        return tree.kNearestNeighbors(p[0], p[1], k);
+    }
+
+    @Benchmark
+    public List<KDTree2.StationDistance> kNearestNeighborsByTimezone() {
+        double[] p = nextPoint();
+        return tree.kNearestNeighborsWithFilter(p[0], p[1], k, "EET");
+    }
+
+    @Benchmark
+    public List<KDTree2.StationDistance> kNearestNeighborsByCriteria() {
+        double[] p = nextPoint();
+        return tree.kNearestNeighborsWithCriteria(p[0], p[1], k, criteria);
+    }
+
+    @Benchmark
+    public List<KDTree2.StationDistance> offHeapKNearestNeighbors() {
+        double[] p = nextPoint();
+        return offHeapTree.kNearestNeighbors(p[0], p[1], k);
+    }
+
+    @Benchmark
+    public List<KDTree2.StationDistance> offHeapCircularRangeQuery() {
+        double[] p = nextPoint();
+        return offHeapTree.circularRangeQuery(p[0], p[1], 25.0);
+    }
+}
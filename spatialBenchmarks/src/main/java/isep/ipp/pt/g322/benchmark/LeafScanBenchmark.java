@@ -0,0 +1,59 @@
+package isep.ipp.pt.g322.benchmark;
+
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.datastructures.tree.LeafKdTree;
+import isep.ipp.pt.g322.model.Station;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leaf-bucketed KD-tree with batched (chord filter) and scalar (haversine per point) leaf scans.
+ * Same query points, radius and box as KdTreeQueryBenchmark, so its circularRangeQuery and rangeQuery
+ * scores are the KDTree2 baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g"})
+public class LeafScanBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int stations;
+
+    @Param({"16", "32", "64"})
+    int leafSize;
+
+    @Param({"BATCHED", "SCALAR"})
+    LeafKdTree.Scan scan;
+
+    private LeafKdTree tree;
+    private double[][] points;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tree = new LeafKdTree(SyntheticStations.generate(stations, SyntheticStations.SEED), leafSize);
+        points = SyntheticStations.queryPoints(1024, SyntheticStations.SEED);
+    }
+
+    private double[] nextPoint() {
+        return points[next++ & (points.length - 1)];
+    }
+
+    @Benchmark
+    public List<KDTree2.StationDistance> circularRangeQuery() {
+        double[] p = nextPoint();
+        return tree.circularRangeQuery(p[0], p[1], 25.0, scan);
+    }
+
+    // 0.5 x 0.5 degree box
+    @Benchmark
+    public List<Station> rangeQuery() {
+        double[] p = nextPoint();
+        return tree.rangeQuery(p[0] - 0.25, p[0] + 0.25, p[1] - 0.25, p[1] + 0.25, scan);
+    }
+}
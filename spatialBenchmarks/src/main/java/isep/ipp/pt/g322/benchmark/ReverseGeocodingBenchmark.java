@@ -0,0 +1,76 @@
+package isep.ipp.pt.g322.benchmark;
+
+import isep.ipp.pt.g322.datastructures.tree.DelaunayTriangulation;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.datastructures.tree.StreamingReverseGeocoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest station for a train-like stream of GPS fixes (~100 m apart, slowly turning, kept over central
+ * Europe), answered by KDTree2.nearestNeighbor from the root every time, by StreamingReverseGeocoder and
+ * by a walk over the Delaunay triangulation from the previous answer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g"})
+public class ReverseGeocodingBenchmark {
+    private static final int FIXES = 1 << 16;
+
+    @Param({"1000", "100000", "1000000"})
+    int stations;
+
+    private KDTree2 tree;
+    private StreamingReverseGeocoder geocoder;
+    private DelaunayTriangulation.Cursor cursor;
+    private double[] lat;
+    private double[] lon;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tree = new KDTree2(SyntheticStations.generate(stations, SyntheticStations.SEED));
+        geocoder = new StreamingReverseGeocoder(tree);
+        cursor = new DelaunayTriangulation(tree).cursor();
+
+        lat = new double[FIXES];
+        lon = new double[FIXES];
+        Random random = new Random(SyntheticStations.SEED);
+        double heading = 0.0;
+        double currentLat = 48.0, currentLon = 2.0;
+        for (int i = 0; i < FIXES; i++) {
+            heading += (random.nextDouble() - 0.5) * 0.2;
+            // turn back towards central Europe instead of leaving the stations behind
+            if (currentLat < 42 || currentLat > 54 || currentLon < -4 || currentLon > 16) {
+                heading = Math.atan2(9.0 - currentLon, (48.0 - currentLat) * 1.5);
+            }
+            currentLat += 0.0009 * Math.cos(heading);
+            currentLon += 0.0013 * Math.sin(heading);
+            lat[i] = currentLat;
+            lon[i] = currentLon;
+        }
+    }
+
+    @Benchmark
+    public KDTree2.StationDistance nearestNeighbor() {
+        int i = next++ & (FIXES - 1);
+        return tree.nearestNeighbor(lat[i], lon[i]);
+    }
+
+    @Benchmark
+    public KDTree2.StationDistance streamingGeocoder() {
+        int i = next++ & (FIXES - 1);
+        return geocoder.locate(lat[i], lon[i]);
+    }
+
+    @Benchmark
+    public KDTree2.StationDistance delaunayCursor() {
+        int i = next++ & (FIXES - 1);
+        return cursor.nearest(lat[i], lon[i]);
+    }
+}
@@ -0,0 +1,63 @@
+package isep.ipp.pt.g322.benchmark;
+
+import isep.ipp.pt.g322.Service.SyntheticStationGenerator;
+import isep.ipp.pt.g322.datastructures.tree.AVL;
+import isep.ipp.pt.g322.model.LatitudeKey;
+import isep.ipp.pt.g322.model.LongitudeKey;
+import isep.ipp.pt.g322.model.Station;
+
+import java.util.*;
+
+/**
+ * Benchmark datasets from SyntheticStationGenerator (clustered around European cities, with shared
+ * coordinates), plus the AVL indices built from them. The same size and seed always give the same stations.
+ */
+final class SyntheticStations {
+    static final long SEED = 20251019L;
+
+    private SyntheticStations() {
+    }
+
+    static List<Station> generate(int count, long seed) {
+        List<Station> stations = new ArrayList<>(count);
+        new SyntheticStationGenerator(seed).stations(count).forEachRemaining(stations::add);
+        return stations;
+    }
+
+    /**
+     * Query points drawn from the same distribution as the stations, cycled through by the benchmarks
+     * so every invocation does not hit the same cached path.
+     */
+    static double[][] queryPoints(int count, long seed) {
+        List<Station> stations = generate(count, seed ^ 0x5DEECE66DL);
+        double[][] points = new double[count][];
+        for (int i = 0; i < count; i++) {
+            points[i] = new double[]{stations.get(i).getLatitude(), stations.get(i).getLongitude()};
+        }
+        return points;
+    }
+
+    static List<LatitudeKey> latitudeKeys(List<Station> stations) {
+        Map<Double, LatitudeKey> keys = new HashMap<>();
+        for (Station station : stations) {
+            keys.computeIfAbsent(station.getLatitude(), LatitudeKey::new).addStation(station);
+        }
+        return new ArrayList<>(keys.values());
+    }
+
+    static List<LongitudeKey> longitudeKeys(List<Station> stations) {
+        Map<Double, LongitudeKey> keys = new HashMap<>();
+        for (Station station : stations) {
+            keys.computeIfAbsent(station.getLongitude(), LongitudeKey::new).addStation(station);
+        }
+        return new ArrayList<>(keys.values());
+    }
+
+    static <E extends Comparable<E>> AVL<E> avlOf(List<E> keys) {
+        AVL<E> tree = new AVL<>();
+        for (E key : keys) {
+            tree.insert(key);
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,499 @@
+package isep.ipp.pt.g322.Service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.model.Station;
+import isep.ipp.pt.g322.model.StationDensitySummary;
+import isep.ipp.pt.g322.model.StationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP front end for a StationManager whose spatial index is built, so several clients in the
+ * process (or on the machine) share one warm index instead of each loading the CSV. Every request runs
+ * on its own virtual thread. The server only queries the manager; the views the manager builds on
+ * first use (time zone groups, name index, query planner) are created once under its lock, but
+ * loading stations or rebuilding the index while the server runs is not safe.
+ * <p>
+ * GET endpoints, answering JSON:
+ * <pre>
+ *   /nearest?lat=&amp;lon=&amp;k=[&amp;timezone=]              k nearest stations (US09)
+ *   /radius?lat=&amp;lon=&amp;radiusKm=[&amp;limit=]              summary of the circle plus its nearest stations (US10)
+ *   /rectangle?minLat=&amp;maxLat=&amp;minLon=&amp;maxLon=[&amp;limit=]   stations in the box, by name
+ *   /timezone?group=CET[,EET...][&amp;byCountry=true][&amp;limit=]  stations of time zone groups
+ *   /metrics                                        request count, errors and latency per endpoint
+ * </pre>
+ * POST /batch takes one query per line ("nearest?lat=..&amp;lon=..&amp;k=3") and answers a JSON array with one
+ * element per line, in order, so many small queries cost one round trip. At most MAX_BATCH_BYTES of body
+ * are read; a larger body answers 413.
+ * Bad parameters answer 400 with {"error": ...}.
+ * <p>
+ * Radius searches take their scratch buffer from a small pool in the manager rather than a ThreadLocal,
+ * since with one virtual thread per request a per-thread buffer would be allocated for every request.
+ */
+public class StationQueryServer implements AutoCloseable {
+    public static final int MAX_K = 1000;
+    public static final int MAX_BATCH = 1000;
+    // room for MAX_BATCH queries of 256 bytes each
+    public static final int MAX_BATCH_BYTES = MAX_BATCH * 256;
+    public static final int DEFAULT_LIMIT = 1000;
+
+    private final StationManager manager;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private final Map<String, LatencyMetrics> metrics = new LinkedHashMap<>();
+
+    @FunctionalInterface
+    private interface Endpoint {
+        void answer(Map<String, String> params, StringBuilder json);
+    }
+
+    /**
+     * @param port Port on the loopback interface, 0 picks a free one (see getPort)
+     */
+    public StationQueryServer(StationManager manager, int port) throws IOException {
+        this.manager = Objects.requireNonNull(manager, "manager");
+        if (manager.getKdTree() == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+
+        endpoints.put("nearest", this::nearest);
+        endpoints.put("radius", this::radius);
+        endpoints.put("rectangle", this::rectangle);
+        endpoints.put("timezone", this::timezone);
+        for (String name : endpoints.keySet()) {
+            metrics.put(name, new LatencyMetrics());
+        }
+        metrics.put("batch", new LatencyMetrics());
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests and waits up to delaySeconds for the running ones.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    @Override
+    public void close() {
+        stop(0);
+    }
+
+    // ==================== DISPATCH ====================
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String name = path.startsWith("/") ? path.substring(1) : path;
+            String method = exchange.getRequestMethod();
+
+            if (name.equals("metrics")) {
+                send(exchange, 200, metricsJson());
+            } else if (name.equals("batch")) {
+                if (!method.equals("POST")) {
+                    send(exchange, 405, error("Use POST for /batch"));
+                    return;
+                }
+                long start = System.nanoTime();
+                try (InputStream body = exchange.getRequestBody()) {
+                    // never buffers more than the limit, whatever the client sends or claims to send
+                    byte[] bytes = body.readNBytes(MAX_BATCH_BYTES + 1);
+                    Response response = bytes.length > MAX_BATCH_BYTES
+                            ? new Response(413, error("Batch body larger than " + MAX_BATCH_BYTES + " bytes"))
+                            : batch(new String(bytes, StandardCharsets.UTF_8));
+                    metrics.get("batch").record(System.nanoTime() - start, response.status != 200);
+                    send(exchange, response.status, response.json);
+                }
+            } else if (endpoints.containsKey(name)) {
+                if (!method.equals("GET")) {
+                    send(exchange, 405, error("Use GET for /" + name));
+                    return;
+                }
+                Response response = query(name, exchange.getRequestURI().getRawQuery());
+                send(exchange, response.status, response.json);
+            } else {
+                send(exchange, 404, error("Unknown endpoint: " + path));
+            }
+        }
+    }
+
+    private record Response(int status, String json) {
+    }
+
+    private Response query(String name, String rawQuery) {
+        long start = System.nanoTime();
+        Response response;
+        try {
+            StringBuilder json = new StringBuilder();
+            endpoints.get(name).answer(parseQuery(rawQuery), json);
+            response = new Response(200, json.toString());
+        } catch (IllegalArgumentException e) {
+            response = new Response(400, error(e.getMessage()));
+        } catch (IllegalStateException e) {
+            response = new Response(503, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            response = new Response(500, error(e.toString()));
+        }
+        metrics.get(name).record(System.nanoTime() - start, response.status != 200);
+        return response;
+    }
+
+    private Response batch(String body) {
+        List<String> lines = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            if (!line.isBlank()) lines.add(line.strip());
+        }
+        if (lines.size() > MAX_BATCH) {
+            return new Response(400, error("At most " + MAX_BATCH + " queries per batch"));
+        }
+
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).startsWith("/") ? lines.get(i).substring(1) : lines.get(i);
+            int question = line.indexOf('?');
+            String name = question < 0 ? line : line.substring(0, question);
+            if (i > 0) json.append(',');
+            if (endpoints.containsKey(name)) {
+                json.append(query(name, question < 0 ? null : line.substring(question + 1)).json);
+            } else {
+                json.append(error("Unknown endpoint: " + name));
+            }
+        }
+        return new Response(200, json.append(']').toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // ==================== ENDPOINTS ====================
+
+    private void nearest(Map<String, String> params, StringBuilder json) {
+        double lat = latitude(params, "lat");
+        double lon = longitude(params, "lon");
+        int k = intParam(params, "k", null);
+        if (k < 1 || k > MAX_K) {
+            throw new IllegalArgumentException("k must be between 1 and " + MAX_K);
+        }
+        String timezone = params.get("timezone");
+
+        List<KDTree2.StationDistance> result = timezone == null
+                ? manager.kNearestStations(lat, lon, k)
+                : manager.kNearestStationsWithTimezone(lat, lon, k, timezone);
+
+        json.append("{\"count\":").append(result.size()).append(",\"results\":[");
+        for (int i = 0; i < result.size(); i++) {
+            if (i > 0) json.append(',');
+            appendStation(json, result.get(i).station, result.get(i).distanceKm);
+        }
+        json.append("]}");
+    }
+
+    private void radius(Map<String, String> params, StringBuilder json) {
+        double lat = latitude(params, "lat");
+        double lon = longitude(params, "lon");
+        double radiusKm = doubleParam(params, "radiusKm");
+        if (radiusKm < 0) {
+            throw new IllegalArgumentException("radiusKm must not be negative");
+        }
+        int limit = limit(params);
+
+        // the summary comes from subtree counters and the list from a bounded k-nearest search, so a
+        // radius covering every station costs no more than the limit
+        StationDensitySummary summary = manager.radiusDensitySummary(lat, lon, radiusKm);
+        List<KDTree2.StationDistance> nearest = manager.kNearestStationsWithin(lat, lon, limit, radiusKm, null);
+
+        json.append("{\"total\":").append(summary.getTotalStations())
+                .append(",\"count\":").append(nearest.size())
+                .append(",\"cityStations\":").append(summary.getCityStations())
+                .append(",\"nonCityStations\":").append(summary.getNonCityStations())
+                .append(",\"countByCountry\":{");
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : summary.getCountByCountry().entrySet()) {
+            if (!first) json.append(',');
+            appendString(json, entry.getKey());
+            json.append(':').append(entry.getValue());
+            first = false;
+        }
+        json.append("},\"results\":[");
+        for (int i = 0; i < nearest.size(); i++) {
+            if (i > 0) json.append(',');
+            appendStation(json, nearest.get(i).station, nearest.get(i).distanceKm);
+        }
+        json.append("]}");
+    }
+
+    private void rectangle(Map<String, String> params, StringBuilder json) {
+        double minLat = latitude(params, "minLat");
+        double maxLat = latitude(params, "maxLat");
+        double minLon = longitude(params, "minLon");
+        double maxLon = longitude(params, "maxLon");
+        int limit = limit(params);
+
+        appendStations(json, manager.rectangleSearch(minLat, maxLat, minLon, maxLon, limit), -1, limit);
+    }
+
+    private void timezone(Map<String, String> params, StringBuilder json) {
+        String group = params.get("group");
+        if (group == null || group.isBlank()) {
+            throw new IllegalArgumentException("Missing parameter: group");
+        }
+        boolean byCountry = Boolean.parseBoolean(params.get("byCountry"));
+        String[] groups = group.split(",");
+        int limit = limit(params);
+
+        List<Station> stations;
+        if (groups.length > 1) {
+            if (byCountry) {
+                throw new IllegalArgumentException("byCountry is only supported for a single group");
+            }
+            stations = manager.getStationsByTimeZoneWindow(groups);
+        } else {
+            stations = byCountry ? manager.getStationsByTimeZoneGroupByCountry(group)
+                    : manager.getStationsByTimeZoneGroup(group);
+        }
+        appendStations(json, stations, stations.size(), limit);
+    }
+
+    /**
+     * @param total Matching stations before the limit, or -1 when unknown
+     */
+    private static void appendStations(StringBuilder json, List<Station> stations, int total, int limit) {
+        int count = Math.min(stations.size(), limit);
+        json.append('{');
+        if (total >= 0) json.append("\"total\":").append(total).append(',');
+        json.append("\"count\":").append(count).append(",\"results\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) json.append(',');
+            appendStation(json, stations.get(i), -1);
+        }
+        json.append("]}");
+    }
+
+    // ==================== PARAMETERS ====================
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private static double doubleParam(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        try {
+            double parsed = Double.parseDouble(value);
+            if (!Double.isFinite(parsed)) {
+                throw new IllegalArgumentException("Invalid number for " + name + ": " + value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + name + ": " + value);
+        }
+    }
+
+    private static double latitude(Map<String, String> params, String name) {
+        double value = doubleParam(params, name);
+        if (value < -90 || value > 90) {
+            throw new IllegalArgumentException(name + " must be between -90 and 90");
+        }
+        return value;
+    }
+
+    private static double longitude(Map<String, String> params, String name) {
+        double value = doubleParam(params, name);
+        if (value < -180 || value > 180) {
+            throw new IllegalArgumentException(name + " must be between -180 and 180");
+        }
+        return value;
+    }
+
+    private static int intParam(Map<String, String> params, String name, Integer defaultValue) {
+        String value = params.get(name);
+        if (value == null) {
+            if (defaultValue == null) {
+                throw new IllegalArgumentException("Missing parameter: " + name);
+            }
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer for " + name + ": " + value);
+        }
+    }
+
+    private static int limit(Map<String, String> params) {
+        int limit = intParam(params, "limit", DEFAULT_LIMIT);
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return limit;
+    }
+
+    // ==================== JSON ====================
+
+    /**
+     * @param distanceKm Distance to the query point, or a negative value to leave it out
+     */
+    private static void appendStation(StringBuilder json, Station station, double distanceKm) {
+        json.append("{\"station\":");
+        appendString(json, station.getStation());
+        json.append(",\"latitude\":").append(station.getLatitude())
+                .append(",\"longitude\":").append(station.getLongitude())
+                .append(",\"country\":");
+        appendString(json, station.getCountry());
+        json.append(",\"timeZone\":");
+        appendString(json, station.getTimeZone());
+        json.append(",\"timeZoneGroup\":");
+        appendString(json, station.getTimeZoneGroup());
+        json.append(",\"isCity\":").append(station.isCity())
+                .append(",\"isMainStation\":").append(station.isMainStation())
+                .append(",\"isAirport\":").append(station.isAirport());
+        if (distanceKm >= 0) {
+            json.append(",\"distanceKm\":").append(distanceKm);
+        }
+        json.append('}');
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        return json.append('}').toString();
+    }
+
+    // ==================== METRICS ====================
+
+    private String metricsJson() {
+        StringBuilder json = new StringBuilder("{");
+        boolean first = true;
+        for (Map.Entry<String, LatencyMetrics> entry : metrics.entrySet()) {
+            if (!first) json.append(',');
+            appendString(json, entry.getKey());
+            json.append(':');
+            entry.getValue().appendJson(json);
+            first = false;
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Request latency of one endpoint, in power-of-two nanosecond buckets like QueryStatsAggregator.
+     */
+    private static class LatencyMetrics {
+        private static final int BUCKETS = 64;
+
+        private long count;
+        private long errors;
+        private long totalNanos;
+        private long maxNanos;
+        private final long[] histogram = new long[BUCKETS];
+
+        synchronized void record(long nanos, boolean error) {
+            count++;
+            if (error) errors++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            histogram[nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos)]++;
+        }
+
+        private long percentile(double percentile) {
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += histogram[b];
+                if (seen >= rank) {
+                    return Math.min(b == 0 ? 0 : (1L << b) - 1, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        synchronized void appendJson(StringBuilder json) {
+            json.append("{\"count\":").append(count)
+                    .append(",\"errors\":").append(errors)
+                    .append(String.format(Locale.ROOT, ",\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                            count == 0 ? 0.0 : totalNanos / 1e6 / count,
+                            count == 0 ? 0.0 : percentile(50) / 1e6,
+                            count == 0 ? 0.0 : percentile(99) / 1e6,
+                            maxNanos / 1e6));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String csv = args.length > 0 ? args[0] : "/test_stations.csv";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+
+        StationManager manager = new StationManager();
+        int loaded = manager.loadStationsFromCSV(csv);
+        manager.buildSpatialIndex();
+
+        StationQueryServer server = new StationQueryServer(manager, port);
+        server.start();
+        System.out.printf("%d stations from %s served on http://localhost:%d/%n", loaded, csv, server.getPort());
+    }
+}
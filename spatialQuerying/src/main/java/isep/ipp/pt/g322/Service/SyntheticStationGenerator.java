@@ -0,0 +1,315 @@
+package isep.ipp.pt.g322.Service;
+
+import isep.ipp.pt.g322.model.Station;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator of European station datasets in the train_stations_europe.csv format, for
+ * load and query tests at sizes the real file does not reach (10^6 to 10^8 rows).
+ *
+ * Stations are clustered around weighted cities of each country: a few main stations and airports
+ * per city, city stations close to the center and local stops further out. Like the real data some
+ * stations share the exact coordinate of another one (the "Lisbon Oriente / Lisbon Gama" case).
+ * Rows are produced one at a time, so writing a file needs constant memory, and the same seed always
+ * gives the same rows: the first n rows of a larger dataset are the dataset of size n.
+ */
+public class SyntheticStationGenerator {
+
+    public static final String HEADER =
+            "country,time_zone,time_zone_group,station,latitude,longitude,is_city,is_main_station,is_airport";
+
+    // share of rows that reuse the coordinate of the previous station generated for the same city
+    private static final double SHARED_COORDINATE_SHARE = 0.03;
+    private static final double AIRPORT_SHARE = 0.01;
+    private static final double MAIN_STATION_SHARE = 0.05;
+    private static final double CITY_STATION_SHARE = 0.25;
+
+    private static final Country[] COUNTRIES = {
+            new Country("PT", "Europe/Lisbon", "WET", 4, new City[]{
+                    new City("Lisboa", 38.7223, -9.1393, 5), new City("Porto", 41.1496, -8.6109, 3),
+                    new City("Coimbra", 40.2033, -8.4103, 1), new City("Braga", 41.5454, -8.4265, 1),
+                    new City("Faro", 37.0194, -7.9304, 1)}),
+            new Country("ES", "Europe/Madrid", "CET", 10, new City[]{
+                    new City("Madrid", 40.4168, -3.7038, 5), new City("Barcelona", 41.3851, 2.1734, 4),
+                    new City("Valencia", 39.4699, -0.3763, 2), new City("Sevilla", 37.3891, -5.9845, 2),
+                    new City("Bilbao", 43.2630, -2.9350, 1)}),
+            new Country("FR", "Europe/Paris", "CET", 16, new City[]{
+                    new City("Paris", 48.8566, 2.3522, 8), new City("Lyon", 45.7640, 4.8357, 3),
+                    new City("Marseille", 43.2965, 5.3698, 3), new City("Toulouse", 43.6047, 1.4442, 2),
+                    new City("Lille", 50.6292, 3.0573, 2)}),
+            new Country("DE", "Europe/Berlin", "CET", 18, new City[]{
+                    new City("Berlin", 52.5200, 13.4050, 5), new City("Hamburg", 53.5511, 9.9937, 3),
+                    new City("München", 48.1351, 11.5820, 3), new City("Köln", 50.9375, 6.9603, 3),
+                    new City("Frankfurt", 50.1109, 8.6821, 3)}),
+            new Country("IT", "Europe/Rome", "CET", 12, new City[]{
+                    new City("Roma", 41.9028, 12.4964, 4), new City("Milano", 45.4642, 9.1900, 4),
+                    new City("Napoli", 40.8518, 14.2681, 2), new City("Torino", 45.0703, 7.6869, 2),
+                    new City("Firenze", 43.7696, 11.2558, 2)}),
+            new Country("GB", "Europe/London", "GMT", 10, new City[]{
+                    new City("London", 51.5074, -0.1278, 8), new City("Manchester", 53.4808, -2.2426, 3),
+                    new City("Birmingham", 52.4862, -1.8904, 3), new City("Glasgow", 55.8642, -4.2518, 2)}),
+            new Country("NL", "Europe/Amsterdam", "CET", 4, new City[]{
+                    new City("Amsterdam", 52.3676, 4.9041, 3), new City("Rotterdam", 51.9244, 4.4777, 2),
+                    new City("Utrecht", 52.0907, 5.1214, 2)}),
+            new Country("BE", "Europe/Brussels", "CET", 3, new City[]{
+                    new City("Bruxelles", 50.8503, 4.3517, 3), new City("Antwerpen", 51.2194, 4.4025, 2)}),
+            new Country("CH", "Europe/Zurich", "CET", 4, new City[]{
+                    new City("Zürich", 47.3769, 8.5417, 3), new City("Genève", 46.2044, 6.1432, 2),
+                    new City("Bern", 46.9480, 7.4474, 1)}),
+            new Country("AT", "Europe/Vienna", "CET", 3, new City[]{
+                    new City("Wien", 48.2082, 16.3738, 4), new City("Graz", 47.0707, 15.4395, 1),
+                    new City("Salzburg", 47.8095, 13.0550, 1)}),
+            new Country("PL", "Europe/Warsaw", "CET", 7, new City[]{
+                    new City("Warszawa", 52.2297, 21.0122, 4), new City("Kraków", 50.0647, 19.9450, 2),
+                    new City("Gdańsk", 54.3520, 18.6466, 2), new City("Wrocław", 51.1079, 17.0385, 2)}),
+            new Country("CZ", "Europe/Prague", "CET", 3, new City[]{
+                    new City("Praha", 50.0755, 14.4378, 3), new City("Brno", 49.1951, 16.6068, 1)}),
+            new Country("SE", "Europe/Stockholm", "CET", 3, new City[]{
+                    new City("Stockholm", 59.3293, 18.0686, 3), new City("Göteborg", 57.7089, 11.9746, 2),
+                    new City("Malmö", 55.6050, 13.0038, 1)}),
+            new Country("GR", "Europe/Athens", "EET", 1, new City[]{
+                    new City("Athína", 37.9838, 23.7275, 3), new City("Thessaloníki", 40.6401, 22.9444, 1)}),
+            new Country("RO", "Europe/Bucharest", "EET", 2, new City[]{
+                    new City("București", 44.4268, 26.1025, 3), new City("Cluj-Napoca", 46.7712, 23.6236, 1)}),
+            new Country("FI", "Europe/Helsinki", "EET", 1, new City[]{
+                    new City("Helsinki", 60.1699, 24.9384, 3), new City("Tampere", 61.4978, 23.7610, 1)}),
+    };
+    private static final int COUNTRY_WEIGHT_TOTAL;
+
+    static {
+        int total = 0;
+        for (Country country : COUNTRIES) total += country.weight;
+        COUNTRY_WEIGHT_TOTAL = total;
+    }
+
+    private final long seed;
+
+    public SyntheticStationGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Streams `rows` stations, one at a time, without keeping them.
+     */
+    public Iterator<Station> stations(long rows) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("rows must be >= 0");
+        }
+        Cursor cursor = new Cursor();
+        return new Iterator<>() {
+            private long produced;
+
+            @Override
+            public boolean hasNext() {
+                return produced < rows;
+            }
+
+            @Override
+            public Station next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                produced++;
+                cursor.advance();
+                return new Station(cursor.name, cursor.lat, cursor.lon, cursor.country.code,
+                        cursor.country.timeZone, cursor.country.timeZoneGroup,
+                        cursor.isCity, cursor.isMainStation, cursor.isAirport);
+            }
+        };
+    }
+
+    /**
+     * Writes header plus `rows` stations to the file (replacing it).
+     *
+     * @return Number of rows written
+     */
+    public long writeCsv(Path file, long rows) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            return writeCsv(writer, rows);
+        }
+    }
+
+    public long writeCsv(Writer writer, long rows) throws IOException {
+        if (rows < 0) {
+            throw new IllegalArgumentException("rows must be >= 0");
+        }
+        writer.write(HEADER);
+        writer.write('\n');
+
+        Cursor cursor = new Cursor();
+        StringBuilder line = new StringBuilder(128);
+        for (long i = 0; i < rows; i++) {
+            cursor.advance();
+            line.setLength(0);
+            line.append(cursor.country.code)
+                    .append(",\"('").append(cursor.country.timeZone).append("',)\",")
+                    .append(cursor.country.timeZoneGroup).append(',')
+                    .append(cursor.name).append(',');
+            appendCoordinate(line, cursor.lat).append(',');
+            appendCoordinate(line, cursor.lon).append(',');
+            line.append(cursor.isCity ? "True" : "False").append(',')
+                    .append(cursor.isMainStation ? "True" : "False").append(',')
+                    .append(cursor.isAirport ? "True" : "False").append('\n');
+            writer.append(line);
+        }
+        return rows;
+    }
+
+    // fixed 7 decimals (~1 cm), never in exponent notation
+    private static StringBuilder appendCoordinate(StringBuilder sb, double value) {
+        long scaled = Math.round(value * 1e7);
+        if (scaled < 0) {
+            sb.append('-');
+            scaled = -scaled;
+        }
+        sb.append(scaled / 10_000_000).append('.');
+        String fraction = Long.toString(scaled % 10_000_000);
+        for (int i = fraction.length(); i < 7; i++) sb.append('0');
+        return sb.append(fraction);
+    }
+
+    /**
+     * Usage: SyntheticStationGenerator &lt;output.csv&gt; &lt;rows&gt; [seed]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticStationGenerator <output.csv> <rows> [seed]");
+            return;
+        }
+        long rows = Long.parseLong(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+
+        long start = System.nanoTime();
+        new SyntheticStationGenerator(seed).writeCsv(Path.of(args[0]), rows);
+        System.out.printf("%d stations written to %s in %.1f s%n", rows, args[0],
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    // ==================== GENERATION STATE ====================
+
+    /**
+     * Current row, overwritten by every advance. The per-city last coordinate and counters are the
+     * only state carried between rows.
+     */
+    private final class Cursor {
+        private final SplittableRandom random = new SplittableRandom(seed);
+        private final double[][] lastCoordinate = new double[COUNTRIES.length][];
+        private final int[][] stationCounter = new int[COUNTRIES.length][];
+
+        Country country;
+        String name;
+        double lat;
+        double lon;
+        boolean isCity;
+        boolean isMainStation;
+        boolean isAirport;
+
+        void advance() {
+            int c = pickCountry();
+            country = COUNTRIES[c];
+            int k = pickCity(country);
+            City city = country.cities[k];
+            if (lastCoordinate[c] == null) {
+                lastCoordinate[c] = new double[country.cities.length * 2];
+                stationCounter[c] = new int[country.cities.length];
+            }
+            int number = ++stationCounter[c][k];
+
+            double kind = random.nextDouble();
+            isAirport = kind < AIRPORT_SHARE;
+            isMainStation = !isAirport && kind < AIRPORT_SHARE + MAIN_STATION_SHARE;
+            isCity = isMainStation || (!isAirport && kind < AIRPORT_SHARE + MAIN_STATION_SHARE + CITY_STATION_SHARE);
+
+            double radiusKm;
+            if (isAirport) {
+                name = city.name + " Airport " + number;
+                radiusKm = 15;
+            } else if (isMainStation) {
+                name = city.name + " Central " + number;
+                radiusKm = 3;
+            } else if (isCity) {
+                name = city.name + " " + number;
+                radiusKm = 8;
+            } else {
+                name = city.name + " Stop " + number;
+                radiusKm = 60;
+            }
+
+            double[] last = lastCoordinate[c];
+            if (number > 1 && random.nextDouble() < SHARED_COORDINATE_SHARE) {
+                lat = last[2 * k];
+                lon = last[2 * k + 1];
+            } else {
+                // exponential distance from the center, uniform bearing: dense core, sparse outskirts
+                double distanceKm = -Math.log(1.0 - random.nextDouble()) * radiusKm / 2;
+                double bearing = random.nextDouble() * 2 * Math.PI;
+                lat = city.lat + distanceKm * Math.cos(bearing) / 111.0;
+                lon = city.lon + distanceKm * Math.sin(bearing) / (111.0 * Math.cos(Math.toRadians(city.lat)));
+                // rounded to the 7 decimals written to the CSV, so streamed and loaded stations are equal
+                lat = Math.round(Math.max(-90.0, Math.min(90.0, lat)) * 1e7) / 1e7;
+                lon = Math.round(Math.max(-180.0, Math.min(180.0, lon)) * 1e7) / 1e7;
+            }
+            last[2 * k] = lat;
+            last[2 * k + 1] = lon;
+        }
+
+        private int pickCountry() {
+            int r = random.nextInt(COUNTRY_WEIGHT_TOTAL);
+            for (int i = 0; i < COUNTRIES.length; i++) {
+                r -= COUNTRIES[i].weight;
+                if (r < 0) return i;
+            }
+            return COUNTRIES.length - 1;
+        }
+
+        private int pickCity(Country country) {
+            int r = random.nextInt(country.cityWeightTotal);
+            for (int i = 0; i < country.cities.length; i++) {
+                r -= country.cities[i].weight;
+                if (r < 0) return i;
+            }
+            return country.cities.length - 1;
+        }
+    }
+
+    private static final class Country {
+        final String code;
+        final String timeZone;
+        final String timeZoneGroup;
+        final int weight;
+        final City[] cities;
+        final int cityWeightTotal;
+
+        Country(String code, String timeZone, String timeZoneGroup, int weight, City[] cities) {
+            this.code = code;
+            this.timeZone = timeZone;
+            this.timeZoneGroup = timeZoneGroup;
+            this.weight = weight;
+            this.cities = cities;
+            int total = 0;
+            for (City city : cities) total += city.weight;
+            this.cityWeightTotal = total;
+        }
+    }
+
+    private static final class City {
+        final String name;
+        final double lat;
+        final double lon;
+        final int weight;
+
+        City(String name, double lat, double lon, int weight) {
+            this.name = name;
+            this.lat = lat;
+            this.lon = lon;
+            this.weight = weight;
+        }
+    }
+}
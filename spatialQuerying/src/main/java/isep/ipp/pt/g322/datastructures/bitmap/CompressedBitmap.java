@@ -0,0 +1,487 @@
+package isep.ipp.pt.g322.datastructures.bitmap;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints (roaring layout).
+ * Values are split by their high 16 bits into chunks of 65536; each chunk is stored as a sorted
+ * char array while it has at most 4096 values, and as a 65536-bit bitmap (1024 longs) once denser,
+ * so sparse sets cost ~2 bytes per value and dense ones at most 8 KB per chunk.
+ *
+ * and/or/andNot return new bitmaps and never modify their operands.
+ */
+public class CompressedBitmap {
+    static final int ARRAY_MAX = 4096;
+
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    public CompressedBitmap() {
+        this.keys = new char[4];
+        this.containers = new Container[4];
+        this.size = 0;
+    }
+
+    /**
+     * @return Bitmap with every value in [from, toExclusive)
+     */
+    public static CompressedBitmap range(int from, int toExclusive) {
+        CompressedBitmap result = new CompressedBitmap();
+        int value = from;
+        while (value < toExclusive) {
+            int chunkEnd = Math.min(toExclusive, ((value >>> 16) + 1) << 16);
+            if (chunkEnd <= value) chunkEnd = toExclusive; // last chunk of the int range
+            int count = chunkEnd - value;
+            Container container;
+            if (count <= ARRAY_MAX) {
+                ArrayContainer array = new ArrayContainer(count);
+                for (int v = value; v < chunkEnd; v++) array.values[array.cardinality++] = (char) v;
+                container = array;
+            } else {
+                BitmapContainer bitmap = new BitmapContainer();
+                for (int v = value; v < chunkEnd; v++) bitmap.set((char) v);
+                container = bitmap;
+            }
+            result.append((char) (value >>> 16), container);
+            value = chunkEnd;
+        }
+        return result;
+    }
+
+    /**
+     * @return Independent copy: adding to either bitmap leaves the other unchanged
+     */
+    public CompressedBitmap copy() {
+        CompressedBitmap result = new CompressedBitmap();
+        for (int i = 0; i < size; i++) {
+            result.append(keys[i], containers[i].copy());
+        }
+        return result;
+    }
+
+    public void add(int value) {
+        char high = (char) (value >>> 16);
+        int i = indexOf(high);
+        if (i >= 0) {
+            containers[i] = containers[i].add((char) value);
+        } else {
+            i = -(i + 1);
+            ArrayContainer container = new ArrayContainer(4);
+            container.add((char) value);
+            insertAt(i, high, container);
+        }
+    }
+
+    public boolean contains(int value) {
+        int i = indexOf((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) total += containers[i].cardinality();
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return true if some value lies in [from, toExclusive)
+     */
+    public boolean intersects(int from, int toExclusive) {
+        if (from >= toExclusive) return false;
+        int last = toExclusive - 1;
+        char firstKey = (char) (from >>> 16);
+        char lastKey = (char) (last >>> 16);
+
+        int i = indexOf(firstKey);
+        if (i < 0) i = -(i + 1);
+        for (; i < size && keys[i] <= lastKey; i++) {
+            int lo = keys[i] == firstKey ? (from & 0xFFFF) : 0;
+            int hi = keys[i] == lastKey ? (last & 0xFFFF) : 0xFFFF;
+            if (containers[i].intersects(lo, hi)) return true;
+        }
+        return false;
+    }
+
+    public CompressedBitmap and(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality() > 0) result.append(keys[i], container);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public CompressedBitmap or(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i >= size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public CompressedBitmap andNot(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) j++;
+            Container container = j < other.size && other.keys[j] == keys[i]
+                    ? containers[i].andNot(other.containers[j])
+                    : containers[i].copy();
+            if (container.cardinality() > 0) result.append(keys[i], container);
+        }
+        return result;
+    }
+
+    /**
+     * Calls the consumer with every value in ascending order.
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int[] pos = {0};
+        forEach(value -> result[pos[0]++] = value);
+        return result;
+    }
+
+    /**
+     * Approximate heap footprint of the containers in bytes.
+     */
+    public long sizeInBytes() {
+        long bytes = size * 2L;
+        for (int i = 0; i < size; i++) bytes += containers[i].sizeInBytes();
+        return bytes;
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    // keys arrive in ascending order when building results
+    private void append(char key, Container container) {
+        insertAt(size, key, container);
+    }
+
+    private void insertAt(int i, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = container;
+        size++;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompressedBitmap other)) return false;
+        return Arrays.equals(toArray(), other.toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompressedBitmap{cardinality=%d, chunks=%d}", cardinality(), size);
+    }
+
+    // ==================== CONTAINERS ====================
+
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        // any value in [lo, hi], both inclusive
+        abstract boolean intersects(int lo, int hi);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        abstract void forEach(int base, IntConsumer consumer);
+
+        abstract long sizeInBytes();
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        int cardinality;
+
+        ArrayContainer(int capacity) {
+            this.values = new char[Math.max(1, capacity)];
+        }
+
+        @Override
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) return this;
+            if (cardinality >= ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            i = -(i + 1);
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean intersects(int lo, int hi) {
+            int i = Arrays.binarySearch(values, 0, cardinality, (char) lo);
+            if (i >= 0) return true;
+            i = -(i + 1);
+            return i < cardinality && values[i] <= hi;
+        }
+
+        @Override
+        Container and(Container other) {
+            ArrayContainer result = new ArrayContainer(cardinality);
+            for (int i = 0; i < cardinality; i++) {
+                if (other.contains(values[i])) result.values[result.cardinality++] = values[i];
+            }
+            return result;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            if (cardinality + array.cardinality > ARRAY_MAX) {
+                return toBitmap().or(array);
+            }
+            ArrayContainer result = new ArrayContainer(cardinality + array.cardinality);
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                char next;
+                if (j >= array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    next = values[i++];
+                } else if (i >= cardinality || values[i] > array.values[j]) {
+                    next = array.values[j++];
+                } else {
+                    next = values[i++];
+                    j++;
+                }
+                result.values[result.cardinality++] = next;
+            }
+            return result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            ArrayContainer result = new ArrayContainer(cardinality);
+            for (int i = 0; i < cardinality; i++) {
+                if (!other.contains(values[i])) result.values[result.cardinality++] = values[i];
+            }
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            ArrayContainer result = new ArrayContainer(cardinality);
+            System.arraycopy(values, 0, result.values, 0, cardinality);
+            result.cardinality = cardinality;
+            return result;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < cardinality; i++) consumer.accept(base | values[i]);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16L + values.length * 2L;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) bitmap.set(values[i]);
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words = new long[1024];
+        int cardinality;
+
+        void set(char value) {
+            long before = words[value >>> 6];
+            words[value >>> 6] = before | (1L << value);
+            if (before != words[value >>> 6]) cardinality++;
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean intersects(int lo, int hi) {
+            int firstWord = lo >>> 6;
+            int lastWord = hi >>> 6;
+            for (int w = firstWord; w <= lastWord; w++) {
+                long mask = -1L;
+                if (w == firstWord) mask &= -1L << lo;
+                if (w == lastWord) mask &= -1L >>> (63 - (hi & 63));
+                if ((words[w] & mask) != 0) return true;
+            }
+            return false;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            BitmapContainer bitmap = (BitmapContainer) other;
+            BitmapContainer result = new BitmapContainer();
+            for (int w = 0; w < words.length; w++) {
+                result.words[w] = words[w] & bitmap.words[w];
+                result.cardinality += Long.bitCount(result.words[w]);
+            }
+            return result.shrink();
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (other instanceof ArrayContainer array) {
+                for (int i = 0; i < array.cardinality; i++) result.set(array.values[i]);
+            } else {
+                BitmapContainer bitmap = (BitmapContainer) other;
+                result.cardinality = 0;
+                for (int w = 0; w < words.length; w++) {
+                    result.words[w] |= bitmap.words[w];
+                    result.cardinality += Long.bitCount(result.words[w]);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (other instanceof ArrayContainer array) {
+                for (int i = 0; i < array.cardinality; i++) {
+                    char value = array.values[i];
+                    if (result.contains(value)) {
+                        result.words[value >>> 6] &= ~(1L << value);
+                        result.cardinality--;
+                    }
+                }
+            } else {
+                BitmapContainer bitmap = (BitmapContainer) other;
+                result.cardinality = 0;
+                for (int w = 0; w < words.length; w++) {
+                    result.words[w] &= ~bitmap.words[w];
+                    result.cardinality += Long.bitCount(result.words[w]);
+                }
+            }
+            return result.shrink();
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer result = new BitmapContainer();
+            System.arraycopy(words, 0, result.words, 0, words.length);
+            result.cardinality = cardinality;
+            return result;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    consumer.accept(base | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16L + words.length * 8L;
+        }
+
+        // back to an array once sparse enough
+        Container shrink() {
+            if (cardinality > ARRAY_MAX) return this;
+            ArrayContainer array = new ArrayContainer(cardinality);
+            forEach(0, value -> array.values[array.cardinality++] = (char) value);
+            return array;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package isep.ipp.pt.g322.datastructures.merge;
+
+import java.util.*;
+
+/**
+ * Merges runs that are each already sorted into one sorted list using a heap of run cursors.
+ * Costs O(r) to set up plus O(log r) per element emitted, so taking the first `limit` elements of
+ * m results spread over r runs is O(r + limit log r) instead of the O(m log m) of sorting everything.
+ * Equal elements come out in run order, then in their order inside the run (same as a stable sort
+ * of the concatenated runs).
+ */
+public final class KWayMerge {
+
+    private KWayMerge() {
+    }
+
+    /**
+     * @param runs Lists each sorted by the comparator
+     * @param comparator Order of the runs and of the result
+     * @param limit Maximum number of elements returned
+     */
+    public static <T> List<T> merge(List<? extends List<T>> runs, Comparator<? super T> comparator, int limit) {
+        if (limit <= 0) return new ArrayList<>();
+        if (runs.size() == 1) {
+            List<T> run = runs.get(0);
+            return new ArrayList<>(run.size() <= limit ? run : run.subList(0, limit));
+        }
+
+        int total = 0;
+        for (List<T> run : runs) total += run.size();
+        List<T> result = new ArrayList<>(Math.min(total, limit));
+        if (total == 0) return result;
+
+        int[] cursor = new int[runs.size()];
+        PriorityQueue<Integer> heap = new PriorityQueue<>(runs.size(), (a, b) -> {
+            int byValue = comparator.compare(runs.get(a).get(cursor[a]), runs.get(b).get(cursor[b]));
+            return byValue != 0 ? byValue : Integer.compare(a, b);
+        });
+        for (int r = 0; r < runs.size(); r++) {
+            if (!runs.get(r).isEmpty()) heap.add(r);
+        }
+
+        while (!heap.isEmpty() && result.size() < limit) {
+            int r = heap.poll();
+            List<T> run = runs.get(r);
+            result.add(run.get(cursor[r]++));
+            if (cursor[r] < run.size()) heap.add(r);
+        }
+        return result;
+    }
+}
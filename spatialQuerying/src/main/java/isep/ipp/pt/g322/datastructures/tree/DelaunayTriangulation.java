@@ -0,0 +1,795 @@
+package isep.ipp.pt.g322.datastructures.tree;
+
+import isep.ipp.pt.g322.datastructures.tree.KDTree2.KdNode;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2.StationDistance;
+import isep.ipp.pt.g322.model.Station;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Delaunay triangulation of the distinct coordinates of a KDTree2, with each point's Voronoi neighbors
+ * (the points it shares a triangle edge with) kept as an adjacency list.
+ * <p>
+ * The points are projected stereographically from the antipode of their centre. That projection maps
+ * circles on the sphere to circles in the plane, so the planar Delaunay triangulation is the spherical
+ * one and the neighbors are those for great-circle distance. It is built incrementally (points in
+ * Hilbert curve order, walk to the containing triangle, split, flip illegal edges) around a large
+ * enclosing triangle, with orientation and in-circle tests that fall back to exact arithmetic when the
+ * floating point result is too close to call.
+ * <p>
+ * Queries:
+ * <ul>
+ *   <li>nearestVertex / Cursor: greedy walk along neighbors towards the query. A point with no neighbor
+ *   closer to the query is its nearest point, since its Voronoi cell is bounded by its neighbors only.
+ *   From a nearby start, e.g. the previous answer of a stream, that is a few steps. Points on the hull
+ *   have neighbors outside the triangulation (around the far side of the sphere), so a walk that ends on
+ *   one is checked against the KD-tree.</li>
+ *   <li>getNeighbors / neighboringStations: the Voronoi neighbors of a point, which no KD-tree query
+ *   returns directly.</li>
+ *   <li>naturalNeighbors: the points whose Voronoi cells would shrink if the query point were added,
+ *   the input of natural-neighbor interpolation.</li>
+ * </ul>
+ * Read-only after construction, so queries can run from several threads (one Cursor per thread).
+ */
+public class DelaunayTriangulation {
+    private static final double EPSILON = Math.ulp(1.0) / 2;
+    private static final double ORIENT_ERROR_BOUND = (3.0 + 16.0 * EPSILON) * EPSILON;
+    private static final double INCIRCLE_ERROR_BOUND = (10.0 + 96.0 * EPSILON) * EPSILON;
+    private static final int HILBERT_BITS = 16;
+    // the KD-tree check bound starts just above the walk's distance so its point is found again
+    private static final double BOUND_SLACK_KM = 1e-9;
+
+    private final KDTree2 tree;
+    private final int vertexCount;
+    // vertex -> tree node, in tree in-order so the bucket ids ascend
+    private final KdNode[] points;
+    private final int[] bucketIds;
+    // the vertex itself, or an earlier vertex with the same projected position
+    private final int[] alias;
+    private final double[] ux;
+    private final double[] uy;
+    private final double[] uz;
+
+    // projection: centre direction and tangent basis
+    private final double[] center = new double[3];
+    private final double[] east = new double[3];
+    private final double[] north = new double[3];
+    // stereographic coordinates, the 3 enclosing triangle corners at vertexCount .. vertexCount + 2
+    private final double[] x;
+    private final double[] y;
+
+    // triangle t has vertices tv[3t .. 3t + 2] counter-clockwise, tn[3t + i] is the triangle across
+    // the edge opposite tv[3t + i] (-1 outside the enclosing triangle)
+    private int[] tv;
+    private int[] tn;
+    private int triangleCount;
+    private final int[] vertexTriangle;
+    private int[] flipStack = new int[64];
+
+    // Voronoi neighbors of v, counter-clockwise: neighbors[neighborStart[v] .. neighborStart[v + 1])
+    private final int[] neighborStart;
+    private final int[] neighbors;
+    private final boolean[] onHull;
+    private final int centralVertex;
+
+    public DelaunayTriangulation(KDTree2 tree) {
+        if (tree == null) {
+            throw new IllegalArgumentException("tree must not be null");
+        }
+        this.tree = tree;
+
+        List<KdNode> nodes = new ArrayList<>(tree.size());
+        collectInOrder(tree.getRoot(), nodes);
+        int n = nodes.size();
+        this.vertexCount = n;
+        this.points = nodes.toArray(new KdNode[0]);
+        this.bucketIds = new int[n];
+        this.alias = new int[n];
+        this.ux = new double[n];
+        this.uy = new double[n];
+        this.uz = new double[n];
+        this.x = new double[n + 3];
+        this.y = new double[n + 3];
+        this.vertexTriangle = new int[n + 3];
+        Arrays.fill(vertexTriangle, -1);
+
+        for (int v = 0; v < n; v++) {
+            bucketIds[v] = points[v].bucketId;
+            alias[v] = v;
+            double[] unit = unitVector(points[v].lat, points[v].lon);
+            ux[v] = unit[0];
+            uy[v] = unit[1];
+            uz[v] = unit[2];
+        }
+
+        this.tv = new int[Math.max(12, 6 * n + 12)];
+        this.tn = new int[tv.length];
+        if (n > 0) {
+            setUpProjection();
+            triangulate();
+        }
+
+        this.neighborStart = new int[n + 1];
+        this.onHull = new boolean[n];
+        this.neighbors = buildAdjacency();
+        this.centralVertex = findCentralVertex();
+    }
+
+    // ==================== QUERIES ====================
+
+    /**
+     * Nearest point to the query, walking from a central point.
+     *
+     * @return Vertex id, -1 if there are no points
+     */
+    public int nearestVertex(double lat, double lon) {
+        return nearestVertex(lat, lon, centralVertex);
+    }
+
+    /**
+     * Nearest point to the query, walking from startVertex. Expected steps grow with the distance
+     * between the start and the answer, not with the number of points.
+     *
+     * @return Vertex id, -1 if there are no points
+     */
+    public int nearestVertex(double lat, double lon, int startVertex) {
+        if (vertexCount == 0) return -1;
+        checkVertex(startVertex);
+
+        double[] q = unitVector(lat, lon);
+        int v = alias[startVertex];
+        double best = dot(v, q);
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            int current = v;
+            for (int k = neighborStart[current]; k < neighborStart[current + 1]; k++) {
+                int u = neighbors[k];
+                double d = dot(u, q);
+                if (d > best) {
+                    best = d;
+                    v = u;
+                    moved = true;
+                }
+            }
+        }
+
+        if (onHull[v]) {
+            v = nearestInTree(lat, lon, v);
+        }
+        return v;
+    }
+
+    /**
+     * Nearest station to the query; among stations sharing a coordinate the first by name, as in
+     * KDTree2.nearestNeighbor.
+     *
+     * @return Closest station with its distance, null if there are no points
+     */
+    public StationDistance nearestStation(double lat, double lon) {
+        int v = nearestVertex(lat, lon);
+        return v < 0 ? null : stationDistance(v, lat, lon);
+    }
+
+    /**
+     * Nearest-station lookups that start each walk at the previous answer, for streams of nearby
+     * queries. Not thread-safe, use one per stream.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Points whose Voronoi cells would lose area to the query point if it were added: the corners of
+     * every triangle whose circumcircle contains it, counter-clockwise around it. Just the point itself
+     * if the query falls on one. Outside the hull this includes the hull points that would connect to it.
+     */
+    public int[] naturalNeighbors(double lat, double lon) {
+        if (vertexCount == 0) return new int[0];
+
+        int nearest = nearestVertex(lat, lon);
+        if (points[nearest].lat == lat && points[nearest].lon == lon) {
+            return new int[]{nearest};
+        }
+
+        double[] projected = project(unitVector(lat, lon));
+        if (projected == null) return new int[0];
+        double qx = projected[0];
+        double qy = projected[1];
+        int start = locate(qx, qy, vertexTriangle[nearest]);
+        if (start < 0) return new int[0];
+
+        Set<Integer> cavity = new HashSet<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        cavity.add(start);
+        pending.push(start);
+        Set<Integer> corners = new LinkedHashSet<>();
+        while (!pending.isEmpty()) {
+            int t = pending.pop();
+            for (int i = 0; i < 3; i++) {
+                int corner = tv[3 * t + i];
+                if (corner < vertexCount) corners.add(corner);
+
+                int across = tn[3 * t + i];
+                if (across >= 0 && !cavity.contains(across)
+                        && inCircle(tv[3 * across], tv[3 * across + 1], tv[3 * across + 2], qx, qy) > 0) {
+                    cavity.add(across);
+                    pending.push(across);
+                }
+            }
+        }
+
+        Integer[] sorted = corners.toArray(new Integer[0]);
+        Arrays.sort(sorted, Comparator.comparingDouble(v -> Math.atan2(y[v] - qy, x[v] - qx)));
+        int[] result = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) result[i] = sorted[i];
+        return result;
+    }
+
+    /**
+     * @return Voronoi neighbors of the vertex, counter-clockwise
+     */
+    public int[] getNeighbors(int vertex) {
+        checkVertex(vertex);
+        int v = alias[vertex];
+        return Arrays.copyOfRange(neighbors, neighborStart[v], neighborStart[v + 1]);
+    }
+
+    /**
+     * Stations at the Voronoi neighbors of the vertex with their distance to it, closest first.
+     */
+    public List<StationDistance> neighboringStations(int vertex) {
+        checkVertex(vertex);
+        List<StationDistance> result = new ArrayList<>();
+        for (int u : getNeighbors(vertex)) {
+            double distance = SphericalDistances.haversineKm(points[vertex].lat, points[vertex].lon,
+                    points[u].lat, points[u].lon);
+            for (Station station : points[u].stationsAtPoint) {
+                result.add(new StationDistance(station, distance));
+            }
+        }
+        result.sort(Comparator.comparingDouble((StationDistance hit) -> hit.distanceKm)
+                .thenComparing(hit -> hit.station.getStation()));
+        return result;
+    }
+
+    /**
+     * @return True if the vertex is on the triangulation's outer boundary
+     */
+    public boolean isOnHull(int vertex) {
+        checkVertex(vertex);
+        return onHull[alias[vertex]];
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getTriangleCount() {
+        int count = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            if (isInner(t)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return Vertex ids of every triangle, three per triangle, counter-clockwise in the projection
+     */
+    public int[] getTriangles() {
+        int[] result = new int[3 * getTriangleCount()];
+        int next = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            if (isInner(t)) {
+                System.arraycopy(tv, 3 * t, result, next, 3);
+                next += 3;
+            }
+        }
+        return result;
+    }
+
+    public double getLatitude(int vertex) {
+        checkVertex(vertex);
+        return points[vertex].lat;
+    }
+
+    public double getLongitude(int vertex) {
+        checkVertex(vertex);
+        return points[vertex].lon;
+    }
+
+    /**
+     * @return Stations at the vertex's coordinate, sorted by name
+     */
+    public List<Station> getStations(int vertex) {
+        checkVertex(vertex);
+        return Collections.unmodifiableList(points[vertex].stationsAtPoint);
+    }
+
+    public class Cursor {
+        private int vertex = centralVertex;
+
+        private Cursor() {
+        }
+
+        public StationDistance nearest(double lat, double lon) {
+            if (vertexCount == 0) return null;
+            vertex = nearestVertex(lat, lon, vertex);
+            return stationDistance(vertex, lat, lon);
+        }
+
+        /**
+         * @return Vertex of the last answer, where the next walk starts
+         */
+        public int getVertex() {
+            return vertex;
+        }
+    }
+
+    // ==================== QUERY HELPERS ====================
+
+    private StationDistance stationDistance(int vertex, double lat, double lon) {
+        KdNode point = points[vertex];
+        return new StationDistance(point.stationsAtPoint.get(0),
+                SphericalDistances.haversineKm(lat, lon, point.lat, point.lon));
+    }
+
+    // exact nearest point from the KD-tree, bounded by the walk's answer so little of the tree is visited
+    private int nearestInTree(double lat, double lon, int walked) {
+        KdNode[] best = {points[walked]};
+        double[] bound = {SphericalDistances.haversineKm(lat, lon, points[walked].lat, points[walked].lon)
+                + BOUND_SLACK_KM};
+        nearestInSubtree(tree.getRoot(), lat, lon, best, bound);
+        return alias[Arrays.binarySearch(bucketIds, best[0].bucketId)];
+    }
+
+    private static void nearestInSubtree(KdNode node, double lat, double lon, KdNode[] best, double[] bound) {
+        if (node == null) return;
+        if (SphericalDistances.minDistanceToBoxKm(lat, lon, node.minLat, node.maxLat, node.minLon, node.maxLon)
+                >= bound[0]) {
+            return;
+        }
+        double distance = SphericalDistances.haversineKm(lat, lon, node.lat, node.lon);
+        if (distance < bound[0]) {
+            best[0] = node;
+            bound[0] = distance;
+        }
+        boolean goLeft = node.axis == 0 ? lat < node.lat : lon < node.lon;
+        nearestInSubtree(goLeft ? node.left : node.right, lat, lon, best, bound);
+        nearestInSubtree(goLeft ? node.right : node.left, lat, lon, best, bound);
+    }
+
+    private double dot(int v, double[] q) {
+        return ux[v] * q[0] + uy[v] * q[1] + uz[v] * q[2];
+    }
+
+    private boolean isInner(int t) {
+        return tv[3 * t] < vertexCount && tv[3 * t + 1] < vertexCount && tv[3 * t + 2] < vertexCount;
+    }
+
+    private void checkVertex(int vertex) {
+        if (vertex < 0 || vertex >= vertexCount) {
+            throw new IllegalArgumentException("Vertex out of range: " + vertex);
+        }
+    }
+
+    private static double[] unitVector(double lat, double lon) {
+        double latRad = Math.toRadians(lat);
+        double lonRad = Math.toRadians(lon);
+        double cosLat = Math.cos(latRad);
+        return new double[]{cosLat * Math.cos(lonRad), cosLat * Math.sin(lonRad), Math.sin(latRad)};
+    }
+
+    private static void collectInOrder(KdNode node, List<KdNode> out) {
+        if (node == null) return;
+        collectInOrder(node.left, out);
+        out.add(node);
+        collectInOrder(node.right, out);
+    }
+
+    // ==================== CONSTRUCTION ====================
+
+    private void setUpProjection() {
+        double cx = 0, cy = 0, cz = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            cx += ux[v];
+            cy += uy[v];
+            cz += uz[v];
+        }
+        double norm = Math.sqrt(cx * cx + cy * cy + cz * cz);
+        if (norm < 1e-9) {
+            // evenly spread over the sphere, any centre is as good
+            cx = ux[0];
+            cy = uy[0];
+            cz = uz[0];
+            norm = 1.0;
+        }
+        center[0] = cx / norm;
+        center[1] = cy / norm;
+        center[2] = cz / norm;
+
+        // east = z x centre (x axis if the centre is a pole), north = centre x east
+        double ex = -center[1], ey = center[0], ez = 0;
+        double eNorm = Math.sqrt(ex * ex + ey * ey);
+        if (eNorm < 1e-12) {
+            ex = 1;
+            ey = 0;
+            eNorm = 1;
+        }
+        east[0] = ex / eNorm;
+        east[1] = ey / eNorm;
+        east[2] = ez;
+        north[0] = center[1] * east[2] - center[2] * east[1];
+        north[1] = center[2] * east[0] - center[0] * east[2];
+        north[2] = center[0] * east[1] - center[1] * east[0];
+
+        for (int v = 0; v < vertexCount; v++) {
+            double[] projected = project(new double[]{ux[v], uy[v], uz[v]});
+            if (projected == null) {
+                throw new IllegalArgumentException("Stations surround the whole sphere, cannot project them");
+            }
+            x[v] = projected[0];
+            y[v] = projected[1];
+        }
+    }
+
+    // stereographic projection from the antipode of the centre onto the plane tangent at the centre
+    private double[] project(double[] unit) {
+        double denominator = 1.0 + unit[0] * center[0] + unit[1] * center[1] + unit[2] * center[2];
+        if (denominator < 1e-12) return null;
+        double scale = 2.0 / denominator;
+        return new double[]{
+                scale * (unit[0] * east[0] + unit[1] * east[1] + unit[2] * east[2]),
+                scale * (unit[0] * north[0] + unit[1] * north[1] + unit[2] * north[2])};
+    }
+
+    private void triangulate() {
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int v = 0; v < vertexCount; v++) {
+            minX = Math.min(minX, x[v]);
+            maxX = Math.max(maxX, x[v]);
+            minY = Math.min(minY, y[v]);
+            maxY = Math.max(maxY, y[v]);
+        }
+        double span = Math.max(Math.max(maxX - minX, maxY - minY), 1e-6);
+        double midX = (minX + maxX) / 2;
+        double midY = (minY + maxY) / 2;
+
+        // enclosing triangle far outside every point, counter-clockwise
+        int s0 = vertexCount, s1 = vertexCount + 1, s2 = vertexCount + 2;
+        x[s0] = midX - 100 * span;
+        y[s0] = midY - 100 * span;
+        x[s1] = midX + 100 * span;
+        y[s1] = midY - 100 * span;
+        x[s2] = midX;
+        y[s2] = midY + 100 * span;
+        int first = newTriangle();
+        setTriangle(first, s0, s1, s2, -1, -1, -1);
+        vertexTriangle[s0] = first;
+        vertexTriangle[s1] = first;
+        vertexTriangle[s2] = first;
+
+        int last = first;
+        for (int v : hilbertOrder(minX, minY, span)) {
+            last = insert(v, last);
+        }
+    }
+
+    // vertices sorted along a Hilbert curve, so each insertion starts its walk next to the previous one
+    private int[] hilbertOrder(double minX, double minY, double span) {
+        int side = 1 << HILBERT_BITS;
+        double scale = (side - 1) / span;
+        long[] keys = new long[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            int hx = (int) Math.min(side - 1, Math.max(0, (x[v] - minX) * scale));
+            int hy = (int) Math.min(side - 1, Math.max(0, (y[v] - minY) * scale));
+            keys[v] = (hilbertIndex(hx, hy, side) << 31) | v;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            order[i] = (int) (keys[i] & 0x7FFFFFFFL);
+        }
+        return order;
+    }
+
+    private static long hilbertIndex(int hx, int hy, int side) {
+        long d = 0;
+        for (int s = side / 2; s > 0; s /= 2) {
+            int rx = (hx & s) > 0 ? 1 : 0;
+            int ry = (hy & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    hx = side - 1 - hx;
+                    hy = side - 1 - hy;
+                }
+                int swap = hx;
+                hx = hy;
+                hy = swap;
+            }
+        }
+        return d;
+    }
+
+    // inserts v and restores the Delaunay property, returns a triangle next to v
+    private int insert(int v, int start) {
+        int t = locate(x[v], y[v], start);
+        int base = 3 * t;
+        int[] side = new int[3];
+        int zeros = 0;
+        for (int i = 0; i < 3; i++) {
+            side[i] = orient(tv[base + (i + 1) % 3], tv[base + (i + 2) % 3], x[v], y[v]);
+            if (side[i] == 0) zeros++;
+        }
+
+        if (zeros >= 2) {
+            // same projected position as a corner: the corner is the one between both zero edges
+            for (int i = 0; i < 3; i++) {
+                if (side[i] != 0) alias[v] = alias[tv[base + i]];
+            }
+            return t;
+        }
+        if (zeros == 1) {
+            for (int i = 0; i < 3; i++) {
+                if (side[i] == 0) splitEdge(t, i, v);
+            }
+        } else {
+            splitTriangle(t, v);
+        }
+        return vertexTriangle[v];
+    }
+
+    // walks towards the point, crossing any edge it lies beyond, until no edge separates them
+    private int locate(double px, double py, int start) {
+        int t = start;
+        while (t >= 0) {
+            int base = 3 * t;
+            int next = t;
+            for (int i = 0; i < 3; i++) {
+                if (orient(tv[base + (i + 1) % 3], tv[base + (i + 2) % 3], px, py) < 0) {
+                    next = tn[base + i];
+                    break;
+                }
+            }
+            if (next == t) return t;
+            t = next;
+        }
+        return -1;
+    }
+
+    private void splitTriangle(int t, int p) {
+        int base = 3 * t;
+        int a = tv[base], b = tv[base + 1], c = tv[base + 2];
+        int na = tn[base], nb = tn[base + 1], nc = tn[base + 2];
+        int t1 = newTriangle();
+        int t2 = newTriangle();
+
+        setTriangle(t, a, b, p, t1, t2, nc);
+        setTriangle(t1, b, c, p, t2, t, na);
+        setTriangle(t2, c, a, p, t, t1, nb);
+        replaceNeighbor(na, t, t1);
+        replaceNeighbor(nb, t, t2);
+        vertexTriangle[a] = t;
+        vertexTriangle[b] = t;
+        vertexTriangle[c] = t1;
+        vertexTriangle[p] = t;
+
+        legalize(t, 2);
+        legalize(t1, 2);
+        legalize(t2, 2);
+    }
+
+    // p lies on the edge opposite corner i of t, shared with the triangle across it
+    private void splitEdge(int t, int i, int p) {
+        int base = 3 * t;
+        int a = tv[base + i], b = tv[base + (i + 1) % 3], c = tv[base + (i + 2) % 3];
+        int nbT = tn[base + (i + 1) % 3];
+        int ncT = tn[base + (i + 2) % 3];
+        int o = tn[base + i];
+        int oBase = 3 * o;
+        int j = indexOfNeighbor(o, t);
+        int d = tv[oBase + j];
+        int ncO = tn[oBase + (j + 1) % 3];
+        int nbO = tn[oBase + (j + 2) % 3];
+        int t2 = newTriangle();
+        int o2 = newTriangle();
+
+        setTriangle(t, a, b, p, o2, t2, ncT);
+        setTriangle(t2, a, p, c, o, nbT, t);
+        setTriangle(o, d, c, p, t2, o2, nbO);
+        setTriangle(o2, d, p, b, t, ncO, o);
+        replaceNeighbor(nbT, t, t2);
+        replaceNeighbor(ncO, o, o2);
+        vertexTriangle[a] = t;
+        vertexTriangle[b] = t;
+        vertexTriangle[c] = t2;
+        vertexTriangle[d] = o;
+        vertexTriangle[p] = t;
+
+        legalize(t, 2);
+        legalize(t2, 1);
+        legalize(o, 2);
+        legalize(o2, 1);
+    }
+
+    // flips the edge opposite corner i of t while the corner across it lies inside t's circumcircle
+    private void legalize(int startTriangle, int startCorner) {
+        int size = 0;
+        flipStack[size++] = startTriangle;
+        flipStack[size++] = startCorner;
+        while (size > 0) {
+            int i = flipStack[--size];
+            int t = flipStack[--size];
+            int base = 3 * t;
+            int o = tn[base + i];
+            if (o < 0) continue;
+
+            int oBase = 3 * o;
+            int j = indexOfNeighbor(o, t);
+            int p = tv[base + i], a = tv[base + (i + 1) % 3], b = tv[base + (i + 2) % 3];
+            int q = tv[oBase + j];
+            if (inCircle(p, a, b, x[q], y[q]) <= 0) continue;
+
+            int naT = tn[base + (i + 1) % 3];
+            int nbT = tn[base + (i + 2) % 3];
+            int naqO = tn[oBase + (j + 1) % 3];
+            int nqbO = tn[oBase + (j + 2) % 3];
+            setTriangle(t, p, a, q, naqO, o, nbT);
+            setTriangle(o, p, q, b, nqbO, naT, t);
+            replaceNeighbor(naqO, o, t);
+            replaceNeighbor(naT, t, o);
+            vertexTriangle[p] = t;
+            vertexTriangle[a] = t;
+            vertexTriangle[q] = t;
+            vertexTriangle[b] = o;
+
+            if (size + 4 > flipStack.length) {
+                flipStack = Arrays.copyOf(flipStack, flipStack.length * 2);
+            }
+            flipStack[size++] = t;
+            flipStack[size++] = 0;
+            flipStack[size++] = o;
+            flipStack[size++] = 0;
+        }
+    }
+
+    private int newTriangle() {
+        if (3 * (triangleCount + 1) > tv.length) {
+            tv = Arrays.copyOf(tv, tv.length * 2);
+            tn = Arrays.copyOf(tn, tn.length * 2);
+        }
+        return triangleCount++;
+    }
+
+    private void setTriangle(int t, int v0, int v1, int v2, int n0, int n1, int n2) {
+        int base = 3 * t;
+        tv[base] = v0;
+        tv[base + 1] = v1;
+        tv[base + 2] = v2;
+        tn[base] = n0;
+        tn[base + 1] = n1;
+        tn[base + 2] = n2;
+    }
+
+    private void replaceNeighbor(int t, int previous, int replacement) {
+        if (t < 0) return;
+        int base = 3 * t;
+        for (int i = 0; i < 3; i++) {
+            if (tn[base + i] == previous) {
+                tn[base + i] = replacement;
+                return;
+            }
+        }
+    }
+
+    private int indexOfNeighbor(int t, int neighbor) {
+        int base = 3 * t;
+        for (int i = 0; i < 3; i++) {
+            if (tn[base + i] == neighbor) return i;
+        }
+        throw new IllegalStateException("Triangles " + t + " and " + neighbor + " are not adjacent");
+    }
+
+    // counter-clockwise around each vertex, recording whether it touches the enclosing triangle
+    private int[] buildAdjacency() {
+        int[] list = new int[Math.max(16, 6 * vertexCount)];
+        int size = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            neighborStart[v] = size;
+            int first = vertexTriangle[v];
+            if (alias[v] != v || first < 0) continue;
+
+            int t = first;
+            do {
+                int base = 3 * t;
+                int i = tv[base] == v ? 0 : tv[base + 1] == v ? 1 : 2;
+                int u = tv[base + (i + 1) % 3];
+                if (u >= vertexCount) {
+                    onHull[v] = true;
+                } else {
+                    if (size == list.length) list = Arrays.copyOf(list, list.length * 2);
+                    list[size++] = u;
+                }
+                t = tn[base + (i + 1) % 3];
+            } while (t != first);
+        }
+        neighborStart[vertexCount] = size;
+        return Arrays.copyOf(list, size);
+    }
+
+    // vertex closest to the projection centre, where walks without a better start begin
+    private int findCentralVertex() {
+        int best = 0;
+        double bestDistance = Double.MAX_VALUE;
+        for (int v = 0; v < vertexCount; v++) {
+            double distance = x[v] * x[v] + y[v] * y[v];
+            if (alias[v] == v && distance < bestDistance) {
+                best = v;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    // ==================== PREDICATES ====================
+
+    /**
+     * Sign of the area of (a, b, p): positive if p is left of a -> b.
+     */
+    private int orient(int a, int b, double px, double py) {
+        double detLeft = (x[a] - px) * (y[b] - py);
+        double detRight = (y[a] - py) * (x[b] - px);
+        double det = detLeft - detRight;
+        if (Math.abs(det) > ORIENT_ERROR_BOUND * (Math.abs(detLeft) + Math.abs(detRight))) {
+            return det > 0 ? 1 : -1;
+        }
+
+        BigDecimal pX = new BigDecimal(px), pY = new BigDecimal(py);
+        BigDecimal adx = new BigDecimal(x[a]).subtract(pX), ady = new BigDecimal(y[a]).subtract(pY);
+        BigDecimal bdx = new BigDecimal(x[b]).subtract(pX), bdy = new BigDecimal(y[b]).subtract(pY);
+        return adx.multiply(bdy).subtract(ady.multiply(bdx)).signum();
+    }
+
+    /**
+     * Positive if p lies inside the circumcircle of the counter-clockwise triangle (a, b, c).
+     */
+    private int inCircle(int a, int b, int c, double px, double py) {
+        double adx = x[a] - px, ady = y[a] - py;
+        double bdx = x[b] - px, bdy = y[b] - py;
+        double cdx = x[c] - px, cdy = y[c] - py;
+
+        double bdxcdy = bdx * cdy, cdxbdy = cdx * bdy;
+        double cdxady = cdx * ady, adxcdy = adx * cdy;
+        double adxbdy = adx * bdy, bdxady = bdx * ady;
+        double aLift = adx * adx + ady * ady;
+        double bLift = bdx * bdx + bdy * bdy;
+        double cLift = cdx * cdx + cdy * cdy;
+
+        double det = aLift * (bdxcdy - cdxbdy) + bLift * (cdxady - adxcdy) + cLift * (adxbdy - bdxady);
+        double permanent = (Math.abs(bdxcdy) + Math.abs(cdxbdy)) * aLift
+                + (Math.abs(cdxady) + Math.abs(adxcdy)) * bLift
+                + (Math.abs(adxbdy) + Math.abs(bdxady)) * cLift;
+        if (Math.abs(det) > INCIRCLE_ERROR_BOUND * permanent) {
+            return det > 0 ? 1 : -1;
+        }
+        return exactInCircle(a, b, c, px, py);
+    }
+
+    private int exactInCircle(int a, int b, int c, double px, double py) {
+        BigDecimal pX = new BigDecimal(px), pY = new BigDecimal(py);
+        BigDecimal adx = new BigDecimal(x[a]).subtract(pX), ady = new BigDecimal(y[a]).subtract(pY);
+        BigDecimal bdx = new BigDecimal(x[b]).subtract(pX), bdy = new BigDecimal(y[b]).subtract(pY);
+        BigDecimal cdx = new BigDecimal(x[c]).subtract(pX), cdy = new BigDecimal(y[c]).subtract(pY);
+
+        BigDecimal aLift = adx.multiply(adx).add(ady.multiply(ady));
+        BigDecimal bLift = bdx.multiply(bdx).add(bdy.multiply(bdy));
+        BigDecimal cLift = cdx.multiply(cdx).add(cdy.multiply(cdy));
+        return aLift.multiply(bdx.multiply(cdy).subtract(cdx.multiply(bdy)))
+                .add(bLift.multiply(cdx.multiply(ady).subtract(adx.multiply(cdy))))
+                .add(cLift.multiply(adx.multiply(bdy).subtract(bdx.multiply(ady))))
+                .signum();
+    }
+}
@@ -1,18 +1,47 @@
 package isep.ipp.pt.g322.datastructures.tree;
 
+import isep.ipp.pt.g322.datastructures.bitmap.CompressedBitmap;
+import isep.ipp.pt.g322.datastructures.merge.KWayMerge;
+import isep.ipp.pt.g322.model.GeoPolygon;
 import isep.ipp.pt.g322.model.LatitudeKey;
 import isep.ipp.pt.g322.model.LongitudeKey;
 import isep.ipp.pt.g322.model.Station;
+import isep.ipp.pt.g322.model.StationDensitySummary;
 
 import java.util.*;
+import java.util.function.Predicate;
 
 public class KDTree2 {
 
+    // subtrees with fewer stations than this don't keep per-country counters, they are cheap to walk
+    private static final int AGGREGATE_MIN_STATIONS = 8;
+    // candidate sets up to this size are answered by checking each candidate instead of walking the tree
+    private static final int CANDIDATE_SCAN_MAX = 64;
+
     private final KdNode root;
     private final int totalNodes;
+    private final String[] countryCodes;
+    private final Map<String, Integer> countryIds;
+    // station ids follow an in-order walk, so every subtree owns a contiguous id range
+    private final Station[] stationsById;
+
+    // query instrumentation, off by default; counters go to the calling thread's QueryStats
+    private volatile boolean recordingStats;
+    private final ThreadLocal<QueryStats> threadStats = ThreadLocal.withInitial(QueryStats::new);
 
     public KDTree2(AVL<LatitudeKey> latitudeIndex, AVL<LongitudeKey> longitudeIndex) {
-        BucketExtractionResult extraction = extractBucketsOptimized(latitudeIndex, longitudeIndex);
+        this(extractBucketsOptimized(latitudeIndex, longitudeIndex));
+    }
+
+    /**
+     * Builds the tree straight from a station list, for callers that have no AVL indices (US08 loads
+     * the CSV directly). Same buckets and shape as the AVL constructor for the same stations.
+     */
+    public KDTree2(List<Station> stations) {
+        this(extractBuckets(Objects.requireNonNull(stations, "stations")));
+    }
+
+    private KDTree2(BucketExtractionResult extraction) {
         this.root = buildBalancedOptimized(
                 extraction.latitudeSortedBuckets,
                 extraction.longitudeSortedBuckets,
@@ -21,9 +50,88 @@ public class KDTree2 {
                 0
         );
         this.totalNodes = extraction.latitudeSortedBuckets.size();
+
+        Set<String> countries = new TreeSet<>();
+        for (PointBucket bucket : extraction.latitudeSortedBuckets) {
+            for (Station station : bucket.stations) {
+                countries.add(station.getCountry());
+            }
+        }
+        this.countryCodes = countries.toArray(new String[0]);
+        this.countryIds = new HashMap<>();
+        for (int i = 0; i < countryCodes.length; i++) {
+            countryIds.put(countryCodes[i], i);
+        }
+        computeAggregates(root);
+
+        this.stationsById = new Station[root == null ? 0 : root.subtreeStations];
+        assignIds(root, 0);
     }
 
-    private BucketExtractionResult extractBucketsOptimized(
+    private int assignIds(KdNode node, int nextId) {
+        if (node == null) return nextId;
+
+        node.firstId = nextId;
+        nextId = assignIds(node.left, nextId);
+        node.bucketId = nextId;
+        for (Station station : node.stationsAtPoint) {
+            stationsById[nextId++] = station;
+        }
+        nextId = assignIds(node.right, nextId);
+        node.endId = nextId;
+        return nextId;
+    }
+
+    private void computeAggregates(KdNode node) {
+        computeTotals(node);
+        computeCountryCounts(node, null);
+    }
+
+    private void computeTotals(KdNode node) {
+        if (node == null) return;
+        computeTotals(node.left);
+        computeTotals(node.right);
+
+        int total = node.stationsAtPoint.size();
+        int city = 0;
+        for (Station station : node.stationsAtPoint) {
+            if (station.isCity()) city++;
+        }
+        if (node.left != null) {
+            total += node.left.subtreeStations;
+            city += node.left.subtreeCityStations;
+        }
+        if (node.right != null) {
+            total += node.right.subtreeStations;
+            city += node.right.subtreeCityStations;
+        }
+        node.subtreeStations = total;
+        node.subtreeCityStations = city;
+    }
+
+    // only subtrees of at least AGGREGATE_MIN_STATIONS get an array, smaller ones count straight into
+    // the nearest ancestor's; below a root that is too small nothing is stored at all
+    private void computeCountryCounts(KdNode node, int[] ancestorCounts) {
+        if (node == null) return;
+        boolean stored = node.subtreeStations >= AGGREGATE_MIN_STATIONS;
+        if (!stored && ancestorCounts == null) return;
+
+        int[] counts = stored ? new int[countryCodes.length] : ancestorCounts;
+        for (Station station : node.stationsAtPoint) {
+            counts[countryIds.get(station.getCountry())]++;
+        }
+        computeCountryCounts(node.left, counts);
+        computeCountryCounts(node.right, counts);
+
+        if (stored) {
+            node.subtreeCountryCounts = counts;
+            if (ancestorCounts != null) {
+                for (int i = 0; i < counts.length; i++) ancestorCounts[i] += counts[i];
+            }
+        }
+    }
+
+    private static BucketExtractionResult extractBucketsOptimized(
             AVL<LatitudeKey> latitudeIndex,
             AVL<LongitudeKey> longitudeIndex) {
 
@@ -34,15 +142,7 @@ public class KDTree2 {
         inOrderTraversal(latitudeIndex.root(), latKeys);
 
         for (LatitudeKey latKey : latKeys) {
-            for (Station station : latKey.getStations()) {
-                String key = makeCoordinateKey(station.getLatitude(), station.getLongitude());
-
-                coordinateMap.computeIfAbsent(key, k ->
-                        new PointBucket(station.getLatitude(), station.getLongitude())
-                );
-
-                coordinateMap.get(key).addStation(station);
-            }
+            addToBuckets(latKey.getStations(), coordinateMap);
         }
 
         // cross-check with longitude AVL (longitudeKey) for consistency
@@ -63,6 +163,28 @@ public class KDTree2 {
             System.err.println("  Longitude AVL: " + stationsFromLongitude);
         }
 
+        return sortBuckets(coordinateMap);
+    }
+
+    private static BucketExtractionResult extractBuckets(List<Station> stations) {
+        Map<String, PointBucket> coordinateMap = new HashMap<>();
+        addToBuckets(stations, coordinateMap);
+        return sortBuckets(coordinateMap);
+    }
+
+    private static void addToBuckets(List<Station> stations, Map<String, PointBucket> coordinateMap) {
+        for (Station station : stations) {
+            String key = makeCoordinateKey(station.getLatitude(), station.getLongitude());
+
+            coordinateMap.computeIfAbsent(key, k ->
+                    new PointBucket(station.getLatitude(), station.getLongitude())
+            );
+
+            coordinateMap.get(key).addStation(station);
+        }
+    }
+
+    private static BucketExtractionResult sortBuckets(Map<String, PointBucket> coordinateMap) {
         // sort stations within each bucket by name as per US07 requirement
         for (PointBucket bucket : coordinateMap.values()) {
             bucket.sortStations();
@@ -83,11 +205,11 @@ public class KDTree2 {
     /**
      * Creates a unique key for a coordinate pair with high precision.
      */
-    private String makeCoordinateKey(double lat, double lon) {
+    private static String makeCoordinateKey(double lat, double lon) {
         return String.format("%.8f#%.8f", lat, lon);
     }
 
-    private <T extends Comparable<T>> void inOrderTraversal(BST.Node<T> node, List<T> result) {
+    private static <T extends Comparable<T>> void inOrderTraversal(BST.Node<T> node, List<T> result) {
         if (node == null) return;
         inOrderTraversal(node.getLeft(), result);
         result.add(node.getElement());
@@ -155,6 +277,7 @@ public class KDTree2 {
             );
         }
 
+        node.updateBounds();
         return node;
     }
 
@@ -209,36 +332,148 @@ public class KDTree2 {
     // ==================== QUERY METHODS ====================
 
     public List<Station> rangeQuery(double minLat, double maxLat, double minLon, double maxLon) {
-        List<Station> result = new ArrayList<>();
-        rangeQueryRecursive(root, minLat, maxLat, minLon, maxLon, result);
-        result.sort(Comparator.comparing(Station::getStation));
-        return result;
+        return rangeQuery(minLat, maxLat, minLon, maxLon, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Range query returning only the first `limit` stations by name. Each coordinate bucket is already
+     * sorted by name, so the matching buckets are k-way merged instead of collecting and sorting
+     * every station in the rectangle.
+     */
+    public List<Station> rangeQuery(double minLat, double maxLat, double minLon, double maxLon, int limit) {
+        return rangeQuery(minLat, maxLat, minLon, maxLon, null, limit);
+    }
+
+    /**
+     * Range query keeping only the stations accepted by the filter (null accepts all), sorted by name
+     * and cut to the first `limit`.
+     */
+    public List<Station> rangeQuery(double minLat, double maxLat, double minLon, double maxLon,
+                                    Predicate<Station> filter, int limit) {
+        QueryStats stats = beginQuery("rangeQuery");
+        try {
+            List<Station> result = KWayMerge.merge(rangeRuns(minLat, maxLat, minLon, maxLon, filter),
+                    Comparator.comparing(Station::getStation), limit);
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
+    }
+
+    /**
+     * Matching stations of each bucket in the rectangle, in traversal order; each run is sorted by name.
+     * Buckets that match entirely are returned as they are (not copied), callers must not modify them.
+     */
+    List<List<Station>> rangeRuns(double minLat, double maxLat, double minLon, double maxLon,
+                                  Predicate<Station> filter) {
+        QueryStats stats = beginQuery("rangeQuery");
+        try {
+            List<List<Station>> runs = new ArrayList<>();
+            rangeQueryRecursive(root, minLat, maxLat, minLon, maxLon, filter, runs);
+            if (stats != null) {
+                int size = 0;
+                for (List<Station> run : runs) size += run.size();
+                endQuery(stats, size);
+            }
+            return runs;
+        } finally {
+            exitQuery(stats);
+        }
     }
 
-    private void rangeQueryRecursive(KdNode node, double minLat, double maxLat,
-                                     double minLon, double maxLon, List<Station> result) {
+    private void rangeQueryRecursive(KdNode node, double minLat, double maxLat, double minLon, double maxLon,
+                                     Predicate<Station> filter, List<List<Station>> result) {
         if (node == null) return;
+        countNode();
 
         if (node.lat >= minLat && node.lat <= maxLat &&
                 node.lon >= minLon && node.lon <= maxLon) {
-            result.addAll(node.stationsAtPoint);
+            List<Station> run = filter == null ? node.stationsAtPoint : filterBucket(node.stationsAtPoint, filter);
+            if (!run.isEmpty()) result.add(run);
         }
 
         if (node.axis == 0) {  // latitude split aka axis 0
             if (minLat <= node.lat) {
-                rangeQueryRecursive(node.left, minLat, maxLat, minLon, maxLon, result);
+                rangeQueryRecursive(node.left, minLat, maxLat, minLon, maxLon, filter, result);
+            } else {
+                countPruned(node.left);
             }
             if (maxLat >= node.lat) {
-                rangeQueryRecursive(node.right, minLat, maxLat, minLon, maxLon, result);
+                rangeQueryRecursive(node.right, minLat, maxLat, minLon, maxLon, filter, result);
+            } else {
+                countPruned(node.right);
             }
         } else {  // longitude split aka axis 1
             if (minLon <= node.lon) {
-                rangeQueryRecursive(node.left, minLat, maxLat, minLon, maxLon, result);
+                rangeQueryRecursive(node.left, minLat, maxLat, minLon, maxLon, filter, result);
+            } else {
+                countPruned(node.left);
             }
             if (maxLon >= node.lon) {
-                rangeQueryRecursive(node.right, minLat, maxLat, minLon, maxLon, result);
+                rangeQueryRecursive(node.right, minLat, maxLat, minLon, maxLon, filter, result);
+            } else {
+                countPruned(node.right);
+            }
+        }
+    }
+
+    // stations of the bucket accepted by the filter; the bucket itself when all are
+    private static List<Station> filterBucket(List<Station> bucket, Predicate<Station> filter) {
+        List<Station> matching = null;
+        for (int i = 0; i < bucket.size(); i++) {
+            Station station = bucket.get(i);
+            if (filter.test(station)) {
+                if (matching != null) matching.add(station);
+            } else if (matching == null) {
+                // first rejected station, copy the ones accepted so far
+                matching = new ArrayList<>(bucket.subList(0, i));
             }
         }
+        return matching == null ? bucket : matching;
+    }
+
+    /**
+     * Polygon query: all stations inside a polygon (holes excluded), sorted by name.
+     * Subtrees whose bounding box is outside the polygon are skipped, subtrees fully inside are
+     * copied without tests; point-in-polygon tests only run for nodes along the border.
+     */
+    public List<Station> polygonQuery(GeoPolygon polygon) {
+        QueryStats stats = beginQuery("polygonQuery");
+        try {
+            List<Station> result = new ArrayList<>();
+            polygonQueryRecursive(root, polygon, result);
+            result.sort(Comparator.comparing(Station::getStation));
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
+    }
+
+    private void polygonQueryRecursive(KdNode node, GeoPolygon polygon, List<Station> result) {
+        if (node == null) return;
+
+        switch (polygon.classify(node.minLat, node.maxLat, node.minLon, node.maxLon)) {
+            case OUTSIDE -> countPruned(node);
+            case INSIDE -> collectSubtree(node, result);
+            case PARTIAL -> {
+                countNode();
+                if (polygon.contains(node.lat, node.lon)) {
+                    result.addAll(node.stationsAtPoint);
+                }
+                polygonQueryRecursive(node.left, polygon, result);
+                polygonQueryRecursive(node.right, polygon, result);
+            }
+        }
+    }
+
+    private void collectSubtree(KdNode node, List<Station> result) {
+        if (node == null) return;
+        countNode();
+        result.addAll(node.stationsAtPoint);
+        collectSubtree(node.left, result);
+        collectSubtree(node.right, result);
     }
 
     /**
@@ -250,21 +485,55 @@ public class KDTree2 {
      * @return List of stations within the circle, sorted by distance
      */
     public List<StationDistance> circularRangeQuery(double centerLat, double centerLon, double radiusKm) {
-        List<StationDistance> result = new ArrayList<>();
-        circularRangeQueryRecursive(root, centerLat, centerLon, radiusKm, result);
-        result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
-        return result;
+        return circularRangeQuery(centerLat, centerLon, radiusKm, new StationHits()).toStationDistances();
+    }
+
+    /**
+     * Circular range query into a reusable primitive container (ids + distances, sorted by distance),
+     * without allocating per hit.
+     *
+     * @param out Container to clear and fill
+     * @return out
+     */
+    public StationHits circularRangeQuery(double centerLat, double centerLon, double radiusKm, StationHits out) {
+        QueryStats stats = beginQuery("circularRangeQuery");
+        try {
+            out.reset(this);
+            circularRangeQueryRecursive(root, centerLat, centerLon, radiusKm, out);
+            // buckets are added whole and in name order, the stable sort keeps that order within a distance
+            out.sortByDistance();
+            endQuery(stats, out.size());
+            return out;
+        } finally {
+            exitQuery(stats);
+        }
+    }
+
+    /**
+     * Circular range query returning only the `limit` closest stations; uses the bounded k-nearest
+     * search so the circle is not fully enumerated.
+     */
+    public List<StationDistance> circularRangeQuery(double centerLat, double centerLon, double radiusKm, int limit) {
+        QueryStats stats = beginQuery("circularRangeQuery");
+        try {
+            List<StationDistance> result = kNearestWithin(centerLat, centerLon, limit, radiusKm, null);
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
     }
 
     private void circularRangeQueryRecursive(KdNode node, double centerLat, double centerLon,
-                                             double radiusKm, List<StationDistance> result) {
+                                             double radiusKm, StationHits result) {
         if (node == null) return;
+        countNode();
 
         double distance = haversineDistance(centerLat, centerLon, node.lat, node.lon);
 
         if (distance <= radiusKm) {
-            for (Station station : node.stationsAtPoint) {
-                result.add(new StationDistance(station, distance));
+            for (int i = 0; i < node.stationsAtPoint.size(); i++) {
+                result.add(node.bucketId + i, distance);
             }
         }
 
@@ -284,19 +553,9 @@ public class KDTree2 {
             circularRangeQueryRecursive(node.right, centerLat, centerLon, radiusKm, result);
         } else {
             // only searches the side containing the center of the circle.
-            if (node.axis == 0) {
-                if (centerLat < node.lat) {
-                    circularRangeQueryRecursive(node.left, centerLat, centerLon, radiusKm, result);
-                } else {
-                    circularRangeQueryRecursive(node.right, centerLat, centerLon, radiusKm, result);
-                }
-            } else {
-                if (centerLon < node.lon) {
-                    circularRangeQueryRecursive(node.left, centerLat, centerLon, radiusKm, result);
-                } else {
-                    circularRangeQueryRecursive(node.right, centerLat, centerLon, radiusKm, result);
-                }
-            }
+            boolean goLeft = node.axis == 0 ? centerLat < node.lat : centerLon < node.lon;
+            circularRangeQueryRecursive(goLeft ? node.left : node.right, centerLat, centerLon, radiusKm, result);
+            countPruned(goLeft ? node.right : node.left);
         }
     }
 
@@ -312,15 +571,22 @@ public class KDTree2 {
     public StationDistance nearestNeighbor(double lat, double lon) {
         if (root == null) return null;
 
-        NearestNeighborResult result = new NearestNeighborResult();
-        nearestNeighborRecursive(root, lat, lon, result);
+        QueryStats stats = beginQuery("nearestNeighbor");
+        try {
+            NearestNeighborResult result = new NearestNeighborResult();
+            nearestNeighborRecursive(root, lat, lon, result);
 
-        return result.best;
+            endQuery(stats, 1);
+            return result.best;
+        } finally {
+            exitQuery(stats);
+        }
     }
 
     private void nearestNeighborRecursive(KdNode node, double queryLat, double queryLon,
                                           NearestNeighborResult result) {
         if (node == null) return;
+        countNode();
 
         // calc distance to cur point
         double distance = haversineDistance(queryLat, queryLon, node.lat, node.lon);
@@ -351,6 +617,8 @@ public class KDTree2 {
 
         if (result.best == null || distanceToPlane < result.bestDistanceKm) {
             nearestNeighborRecursive(secondSide, queryLat, queryLon, result);
+        } else {
+            countPruned(secondSide);
         }
     }
 
@@ -364,39 +632,43 @@ public class KDTree2 {
      * @return List of k closest stations, sorted by distance
      */
     public List<StationDistance> kNearestNeighbors(double lat, double lon, int k) {
-        if (root == null || k <= 0) return new ArrayList<>();
-
-        PriorityQueue<StationDistance> maxHeap = new PriorityQueue<>(
-                k,
-                Comparator.comparingDouble((StationDistance sd) -> sd.distanceKm).reversed()
-        );
-
-        kNearestRecursive(root, lat, lon, k, maxHeap);
-
-        List<StationDistance> result = new ArrayList<>(maxHeap);
-        result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
+        return kNearestNeighbors(lat, lon, k, new StationHits(Math.max(1, Math.min(k, 1024)))).toStationDistances();
+    }
 
-        return result;
+    /**
+     * K-nearest neighbors into a reusable primitive container, used as a bounded max-heap during the
+     * search and sorted by distance at the end.
+     *
+     * @param out Container to clear and fill
+     * @return out
+     */
+    public StationHits kNearestNeighbors(double lat, double lon, int k, StationHits out) {
+        QueryStats stats = beginQuery("kNearestNeighbors");
+        try {
+            out.reset(this);
+            if (k > 0) {
+                kNearestRecursive(root, lat, lon, k, out);
+            }
+            out.sortByDistance();
+            endQuery(stats, out.size());
+            return out;
+        } finally {
+            exitQuery(stats);
+        }
     }
 
-    // goal of using priorityQueue here is to maintain the k closest stations found at the moment of the method recursive stack call
-    // also it's more efficient to add. the root contains the farthest element, which is the max distance. to get it use peek()
+    // the heap keeps the k closest stations found so far, its root is the farthest of them (heapMax)
     private void kNearestRecursive(KdNode node, double queryLat, double queryLon,
-                                   int k, PriorityQueue<StationDistance> maxHeap) {
+                                   int k, StationHits maxHeap) {
         if (node == null) return;
+        countNode();
 
         double distance = haversineDistance(queryLat, queryLon, node.lat, node.lon);
 
-        for (Station station : node.stationsAtPoint) {
-            StationDistance sd = new StationDistance(station, distance);
-
-            if (maxHeap.size() < k) {
-                maxHeap.offer(sd);
-            } else if (distance < maxHeap.peek().distanceKm) {
-                maxHeap.poll();
-                maxHeap.offer(sd);
-            }
+        for (int i = 0; i < node.stationsAtPoint.size(); i++) {
+            maxHeap.heapOffer(k, node.bucketId + i, distance);
         }
+        countHeapOperations(node.stationsAtPoint.size());
 
         boolean goLeft;
         double distanceToPlane;
@@ -415,8 +687,10 @@ public class KDTree2 {
 
         kNearestRecursive(firstSide, queryLat, queryLon, k, maxHeap);
 
-        if (maxHeap.size() < k || distanceToPlane < maxHeap.peek().distanceKm) {
+        if (maxHeap.size() < k || distanceToPlane < maxHeap.heapMax()) {
             kNearestRecursive(secondSide, queryLat, queryLon, k, maxHeap);
+        } else {
+            countPruned(secondSide);
         }
     }
 
@@ -426,6 +700,7 @@ public class KDTree2 {
      * @return Distance in kilometers
      */
     private double haversineDistance(double lat1, double lon1, double lat2, double lon2) {
+        if (recordingStats) threadStats.get().distanceEvaluations++;
         final double R = 6371.0; // earth's radius in kilometers
 
         double dLat = Math.toRadians(lat2 - lat1);
@@ -440,6 +715,68 @@ public class KDTree2 {
         return R * c;
     }
 
+    // ==================== QUERY INSTRUMENTATION ====================
+
+    /**
+     * Turns per-query counters on or off (off by default). While off a query pays one flag check per
+     * node; while on each query's counters are kept for the calling thread, see getLastQueryStats.
+     */
+    public void setStatsRecording(boolean enabled) {
+        this.recordingStats = enabled;
+    }
+
+    public boolean isStatsRecording() {
+        return recordingStats;
+    }
+
+    /**
+     * @return Counters of the last query finished by the calling thread while recording, or null if none
+     */
+    public QueryStats getLastQueryStats() {
+        QueryStats stats = threadStats.get();
+        return stats.finished && stats.depth == 0 ? stats.copy() : null;
+    }
+
+    /**
+     * Same as getLastQueryStats but only once per query: returns null when the calling thread ran no
+     * recorded query since the previous call (e.g. the result came from a cache).
+     */
+    public QueryStats takeLastQueryStats() {
+        QueryStats stats = threadStats.get();
+        if (!stats.fresh || stats.depth > 0) return null;
+        stats.fresh = false;
+        return stats.copy();
+    }
+
+    private QueryStats beginQuery(String queryType) {
+        if (!recordingStats) return null;
+        QueryStats stats = threadStats.get();
+        if (stats.depth++ == 0) stats.start(queryType);
+        return stats;
+    }
+
+    // records the outermost query's result; the depth is only unwound by exitQuery, in a finally block,
+    // so a query that throws (e.g. from a caller's filter) does not leave the thread's stats stuck
+    private void endQuery(QueryStats stats, int resultSize) {
+        if (stats != null && stats.depth == 1) stats.finish(resultSize);
+    }
+
+    private void exitQuery(QueryStats stats) {
+        if (stats != null) stats.depth--;
+    }
+
+    private void countNode() {
+        if (recordingStats) threadStats.get().nodesVisited++;
+    }
+
+    private void countPruned(KdNode skipped) {
+        if (skipped != null && recordingStats) threadStats.get().subtreesPruned++;
+    }
+
+    private void countHeapOperations(int offered) {
+        if (recordingStats) threadStats.get().heapOperations += offered;
+    }
+
     // ==================== STATISTICS METHODS ====================
 
     /**
@@ -484,38 +821,60 @@ public class KDTree2 {
         return root;
     }
 
+    /**
+     * Number of stations indexed; station ids go from 0 to this value - 1.
+     */
+    public int getStationCount() {
+        return stationsById.length;
+    }
+
+    public Station getStation(int id) {
+        return stationsById[id];
+    }
+
+    /**
+     * Copy of the id table: element i is the station with id i. Holding it does not keep the tree alive.
+     */
+    public Station[] getStationsById() {
+        return stationsById.clone();
+    }
+
+    /**
+     * Depth distribution, split skew per axis, memory estimate and expected descent cost, all from
+     * one walk over the nodes.
+     */
+    public TreeDiagnostics diagnose() {
+        return new TreeDiagnostics(root, countryCodes.length);
+    }
+
     /**
      * Generates detailed summary of the KD-tree structure.
      */
     public String getSummary() {
+        TreeDiagnostics diagnostics = diagnose();
+        int size = diagnostics.getNodeCount();
+
         StringBuilder sb = new StringBuilder();
         sb.append("=== OPTIMIZED KD-Tree Summary ===\n");
-        sb.append("Size (nodes): ").append(size()).append("\n");
-        sb.append("Height: ").append(height()).append("\n");
+        sb.append("Size (nodes): ").append(size).append("\n");
+        sb.append("Height: ").append(diagnostics.getHeight()).append("\n");
         sb.append("Expected height for balanced tree: ≈")
-                .append((int)Math.ceil(Math.log(size()) / Math.log(2))).append("\n");
+                .append(diagnostics.getOptimalHeight()).append("\n");
 
-        int actualHeight = height();
-        int expectedHeight = (int)Math.ceil(Math.log(size()) / Math.log(2));
-        double balance = (double) actualHeight / expectedHeight;
+        double balance = size == 0 ? 1.0 : (double) diagnostics.getHeight() / diagnostics.getOptimalHeight();
         sb.append("Balance factor: ").append(String.format("%.2f", balance))
                 .append(" (1.0 = perfect, <1.5 = good)\n\n");
 
         sb.append("Bucket Size Distribution:\n");
-        Map<Integer, Integer> dist = getBucketSizeDistribution();
-        int totalStations = 0;
-        for (Map.Entry<Integer, Integer> entry : dist.entrySet()) {
-            int stationsPerBucket = entry.getKey();
-            int numBuckets = entry.getValue();
-            totalStations += stationsPerBucket * numBuckets;
-
+        for (Map.Entry<Integer, Integer> entry : diagnostics.getBucketDistribution().entrySet()) {
             sb.append(String.format("  %d station(s) per coordinate: %d nodes (%.2f%%)\n",
-                    stationsPerBucket,
-                    numBuckets,
-                    100.0 * numBuckets / size()));
+                    entry.getKey(),
+                    entry.getValue(),
+                    100.0 * entry.getValue() / size));
         }
-        sb.append("\nTotal stations indexed: ").append(totalStations).append("\n");
+        sb.append("\nTotal stations indexed: ").append(diagnostics.getStationCount()).append("\n\n");
 
+        sb.append("Diagnostics:\n").append(diagnostics).append("\n");
         return sb.toString();
     }
 
@@ -564,6 +923,169 @@ public class KDTree2 {
         double bestDistanceKm = Double.MAX_VALUE;
     }
 
+    // route segments as great-circle arcs: unit vectors of the ends, unit normal of the arc's plane,
+    // the arc's own bounding box and cumulative lengths
+    private static class CorridorRoute {
+        final double bufferKm;
+        final double[] ax, ay, az, bx, by, bz, nx, ny, nz;
+        final double[] minLat, maxLat, minLon, maxLon;
+        final double[] startKm;
+        final double[] lengthKm;
+        // active segments of every node on the current path, each level written after its parent's
+        int[] active;
+
+        // set by distance(): position along the route of the closest point
+        double routeKm;
+
+        CorridorRoute(double[][] route, double bufferKm) {
+            this.bufferKm = bufferKm;
+            int n = route.length - 1;
+            ax = new double[n];
+            ay = new double[n];
+            az = new double[n];
+            bx = new double[n];
+            by = new double[n];
+            bz = new double[n];
+            nx = new double[n];
+            ny = new double[n];
+            nz = new double[n];
+            minLat = new double[n];
+            maxLat = new double[n];
+            minLon = new double[n];
+            maxLon = new double[n];
+            startKm = new double[n];
+            lengthKm = new double[n];
+            active = new int[4 * n];
+
+            double travelled = 0;
+            for (int i = 0; i < n; i++) {
+                double lat1 = Math.toRadians(route[i][0]), lon1 = Math.toRadians(route[i][1]);
+                double lat2 = Math.toRadians(route[i + 1][0]), lon2 = Math.toRadians(route[i + 1][1]);
+                ax[i] = Math.cos(lat1) * Math.cos(lon1);
+                ay[i] = Math.cos(lat1) * Math.sin(lon1);
+                az[i] = Math.sin(lat1);
+                bx[i] = Math.cos(lat2) * Math.cos(lon2);
+                by[i] = Math.cos(lat2) * Math.sin(lon2);
+                bz[i] = Math.sin(lat2);
+
+                double cx = ay[i] * bz[i] - az[i] * by[i];
+                double cy = az[i] * bx[i] - ax[i] * bz[i];
+                double cz = ax[i] * by[i] - ay[i] * bx[i];
+                double norm = Math.sqrt(cx * cx + cy * cy + cz * cz);
+                if (norm > 1e-15) {
+                    nx[i] = cx / norm;
+                    ny[i] = cy / norm;
+                    nz[i] = cz / norm;
+                }
+                // a zero normal marks a segment whose ends coincide
+
+                minLat[i] = Math.min(route[i][0], route[i + 1][0]);
+                maxLat[i] = Math.max(route[i][0], route[i + 1][0]);
+                minLon[i] = Math.min(route[i][1], route[i + 1][1]);
+                maxLon[i] = Math.max(route[i][1], route[i + 1][1]);
+                if (norm > 1e-15) {
+                    // an arc bulges poleward: include the great circle's northernmost and southernmost
+                    // points when they fall inside the arc
+                    double vx = -nz[i] * nx[i], vy = -nz[i] * ny[i], vz = 1 - nz[i] * nz[i];
+                    double vNorm = Math.sqrt(vx * vx + vy * vy + vz * vz);
+                    if (vNorm > 1e-15) {
+                        vx /= vNorm;
+                        vy /= vNorm;
+                        vz /= vNorm;
+                        if (onArc(i, vx, vy, vz)) maxLat[i] = Math.max(maxLat[i], Math.toDegrees(Math.asin(vz)));
+                        if (onArc(i, -vx, -vy, -vz)) minLat[i] = Math.min(minLat[i], Math.toDegrees(Math.asin(-vz)));
+                    }
+                }
+
+                startKm[i] = travelled;
+                lengthKm[i] = SphericalDistances.EARTH_RADIUS_KM * angle(ax[i], ay[i], az[i], bx[i], by[i], bz[i]);
+                travelled += lengthKm[i];
+            }
+        }
+
+        // whether a point of the segment's great circle lies between its ends
+        boolean onArc(int s, double cx, double cy, double cz) {
+            double fromA = (ay[s] * cz - az[s] * cy) * nx[s] + (az[s] * cx - ax[s] * cz) * ny[s]
+                    + (ax[s] * cy - ay[s] * cx) * nz[s];
+            double toB = (cy * bz[s] - cz * by[s]) * nx[s] + (cz * bx[s] - cx * bz[s]) * ny[s]
+                    + (cx * by[s] - cy * bx[s]) * nz[s];
+            return fromA >= 0 && toB >= 0;
+        }
+
+        /**
+         * Great-circle distance from the point to the closest point of the segment: the foot of the
+         * cross-track perpendicular when it falls inside the arc, otherwise the nearer end. Sets routeKm.
+         */
+        double distance(int s, double lat, double lon) {
+            double latRad = Math.toRadians(lat), lonRad = Math.toRadians(lon);
+            double px = Math.cos(latRad) * Math.cos(lonRad);
+            double py = Math.cos(latRad) * Math.sin(lonRad);
+            double pz = Math.sin(latRad);
+
+            double sin = px * nx[s] + py * ny[s] + pz * nz[s];
+            double cx = px - sin * nx[s], cy = py - sin * ny[s], cz = pz - sin * nz[s];
+            double cos = Math.sqrt(cx * cx + cy * cy + cz * cz);
+            if (cos > 1e-15 && onArc(s, cx, cy, cz)) {
+                routeKm = startKm[s] + SphericalDistances.EARTH_RADIUS_KM * angle(ax[s], ay[s], az[s], cx, cy, cz);
+                return SphericalDistances.EARTH_RADIUS_KM * Math.atan2(Math.abs(sin), cos);
+            }
+            double toA = SphericalDistances.EARTH_RADIUS_KM * angle(px, py, pz, ax[s], ay[s], az[s]);
+            double toB = SphericalDistances.EARTH_RADIUS_KM * angle(px, py, pz, bx[s], by[s], bz[s]);
+            if (toA <= toB) {
+                routeKm = startKm[s];
+                return toA;
+            }
+            routeKm = startKm[s] + lengthKm[s];
+            return toB;
+        }
+
+        // angle between two vectors (the second need not be unit length), stable for small angles
+        private static double angle(double ux, double uy, double uz, double vx, double vy, double vz) {
+            double cx = uy * vz - uz * vy, cy = uz * vx - ux * vz, cz = ux * vy - uy * vx;
+            return Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), ux * vx + uy * vy + uz * vz);
+        }
+
+        // room for one more level of active segments after position 'to'
+        void ensureCapacity(int to, int count) {
+            if (to + count > active.length) {
+                active = Arrays.copyOf(active, Math.max(2 * active.length, to + count));
+            }
+        }
+    }
+
+    private static class AggregateAccumulator {
+        final int[] countryCounts;
+        int total;
+        int city;
+
+        AggregateAccumulator(int countries) {
+            this.countryCounts = new int[countries];
+        }
+    }
+
+    // per query node state, indexed by the node's bucketId (unique, every node holds a station)
+    private static class NearestJoinState {
+        final KdNode[] best;
+        final double[] bestKm;
+        // worst best-distance inside each query subtree
+        final double[] bound;
+
+        NearestJoinState(int queryStations) {
+            best = new KdNode[queryStations];
+            bestKm = new double[queryStations];
+            bound = new double[queryStations];
+            Arrays.fill(bestKm, Double.MAX_VALUE);
+            Arrays.fill(bound, Double.MAX_VALUE);
+        }
+
+        void refreshBound(KdNode q) {
+            double worst = bestKm[q.bucketId];
+            if (q.left != null) worst = Math.max(worst, bound[q.left.bucketId]);
+            if (q.right != null) worst = Math.max(worst, bound[q.right.bucketId]);
+            bound[q.bucketId] = worst;
+        }
+    }
+
     public static class KdNode {
         final int axis;
         final double lat;
@@ -571,12 +1093,39 @@ public class KDTree2 {
         final List<Station> stationsAtPoint;
         KdNode left;
         KdNode right;
+        // bounding box of every coordinate in this subtree, used to prune whole subtrees
+        double minLat;
+        double maxLat;
+        double minLon;
+        double maxLon;
+        // aggregated counters of the subtree, per-country counts only on large subtrees
+        int subtreeStations;
+        int subtreeCityStations;
+        int[] subtreeCountryCounts;
+        // station ids: subtree owns [firstId, endId), this node's stations start at bucketId
+        int firstId;
+        int bucketId;
+        int endId;
 
         KdNode(int axis, double lat, double lon, List<Station> stationsAtPoint) {
             this.axis = axis;
             this.lat = lat;
             this.lon = lon;
             this.stationsAtPoint = new ArrayList<>(stationsAtPoint);
+            this.minLat = lat;
+            this.maxLat = lat;
+            this.minLon = lon;
+            this.maxLon = lon;
+        }
+
+        void updateBounds() {
+            for (KdNode child : new KdNode[]{left, right}) {
+                if (child == null) continue;
+                minLat = Math.min(minLat, child.minLat);
+                maxLat = Math.max(maxLat, child.maxLat);
+                minLon = Math.min(minLon, child.minLon);
+                maxLon = Math.max(maxLon, child.maxLon);
+            }
         }
     }
 
@@ -599,18 +1148,25 @@ public class KDTree2 {
                 Comparator.comparingDouble((StationDistance sd) -> sd.distanceKm).reversed()
         );
 
-        kNearestWithFilter(root, lat, lon, k, timezoneFilter, maxHeap);
+        QueryStats stats = beginQuery("kNearestNeighborsWithFilter");
+        try {
+            kNearestWithFilter(root, lat, lon, k, timezoneFilter, maxHeap);
 
-        List<StationDistance> result = new ArrayList<>(maxHeap);
-        result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
+            List<StationDistance> result = new ArrayList<>(maxHeap);
+            result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
 
-        return result;
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
     }
 
     private void kNearestWithFilter(KdNode node, double queryLat, double queryLon,
                                              int k, String timezoneFilter,
                                              PriorityQueue<StationDistance> maxHeap) {
         if (node == null) return;
+        countNode();
 
         // shortest distance between 2 points on the surface of a sphere (earth in this case)
         double distance = haversineDistance(queryLat, queryLon, node.lat, node.lon);
@@ -619,6 +1175,7 @@ public class KDTree2 {
         for (Station station : node.stationsAtPoint) {
             if (timezoneFilter == null || station.getTimeZoneGroup().equals(timezoneFilter)) {
                 StationDistance sd = new StationDistance(station, distance);
+                countHeapOperations(1);
 
                 if (maxHeap.size() < k) {
                     maxHeap.offer(sd);
@@ -650,6 +1207,8 @@ public class KDTree2 {
         // to check other side if it contains nearer points/locations
         if (maxHeap.size() < k || distanceToPlane < maxHeap.peek().distanceKm) {
             kNearestWithFilter(secondSide, queryLat, queryLon, k, timezoneFilter, maxHeap);
+        } else {
+            countPruned(secondSide);
         }
     }
 
@@ -673,24 +1232,32 @@ public class KDTree2 {
                 Comparator.comparingDouble((StationDistance sd) -> sd.distanceKm).reversed()
         );
 
-        kNearestWithCriteria(root, lat, lon, k, criteria, maxHeap);
+        QueryStats stats = beginQuery("kNearestNeighborsWithCriteria");
+        try {
+            kNearestWithCriteria(root, lat, lon, k, criteria, maxHeap);
 
-        List<StationDistance> result = new ArrayList<>(maxHeap);
-        result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
+            List<StationDistance> result = new ArrayList<>(maxHeap);
+            result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
 
-        return result;
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
     }
 
     private void kNearestWithCriteria(KdNode node, double queryLat, double queryLon,
                                                int k, StationFilterCriteria criteria,
                                                PriorityQueue<StationDistance> maxHeap) {
         if (node == null) return;
+        countNode();
 
         double distance = haversineDistance(queryLat, queryLon, node.lat, node.lon);
 
         for (Station station : node.stationsAtPoint) {
             if (criteria == null || criteria.matches(station)) {
                 StationDistance sd = new StationDistance(station, distance);
+                countHeapOperations(1);
 
                 if (maxHeap.size() < k) {
                     maxHeap.offer(sd);
@@ -720,9 +1287,707 @@ public class KDTree2 {
 
         if (maxHeap.size() < k || distanceToPlane < maxHeap.peek().distanceKm) {
             kNearestWithCriteria(secondSide, queryLat, queryLon, k, criteria, maxHeap);
+        } else {
+            countPruned(secondSide);
+        }
+    }
+
+    /**
+     * K-Nearest neighbors limited to a maximum distance ("up to k stations within maxKm").
+     * The search bound starts at maxKm and shrinks to the heap's farthest element once k matches
+     * are found, so sparse areas are not explored beyond the radius and dense areas stop as soon
+     * as the k closest are known.
+     *
+     * @param lat Query latitude
+     * @param lon Query longitude
+     * @param k Maximum number of neighbors to return
+     * @param maxKm Maximum distance in kilometers (inclusive)
+     * @param criteria Filter criteria (can be null for no filter)
+     * @return Up to k closest stations within maxKm matching the criteria, sorted by distance
+     */
+    public List<StationDistance> kNearestWithin(double lat, double lon, int k, double maxKm,
+                                                StationFilterCriteria criteria) {
+        if (root == null || k <= 0 || maxKm < 0) return new ArrayList<>();
+
+        PriorityQueue<StationDistance> maxHeap = new PriorityQueue<>(
+                k,
+                Comparator.comparingDouble((StationDistance sd) -> sd.distanceKm).reversed()
+        );
+
+        QueryStats stats = beginQuery("kNearestWithin");
+        try {
+            kNearestWithinRecursive(root, lat, lon, k, maxKm, criteria, maxHeap);
+
+            List<StationDistance> result = new ArrayList<>(maxHeap);
+            result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
+
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
+    }
+
+    private void kNearestWithinRecursive(KdNode node, double queryLat, double queryLon,
+                                         int k, double maxKm, StationFilterCriteria criteria,
+                                         PriorityQueue<StationDistance> maxHeap) {
+        if (node == null) return;
+        countNode();
+
+        double distance = haversineDistance(queryLat, queryLon, node.lat, node.lon);
+
+        if (distance <= maxKm) {
+            for (Station station : node.stationsAtPoint) {
+                if (criteria == null || criteria.matches(station)) {
+                    countHeapOperations(1);
+                    if (maxHeap.size() < k) {
+                        maxHeap.offer(new StationDistance(station, distance));
+                    } else if (distance < maxHeap.peek().distanceKm) {
+                        maxHeap.poll();
+                        maxHeap.offer(new StationDistance(station, distance));
+                    } else {
+                        // stations in a bucket share the same distance, the rest can't get in either
+                        break;
+                    }
+                }
+            }
+        }
+
+        boolean goLeft;
+        double distanceToPlane;
+
+        if (node.axis == 0) {
+            goLeft = queryLat < node.lat;
+            distanceToPlane = Math.abs(node.lat - queryLat) * 111.0;
+        } else {
+            goLeft = queryLon < node.lon;
+            double latRadians = Math.toRadians(queryLat);
+            distanceToPlane = Math.abs(node.lon - queryLon) * 111.0 * Math.cos(latRadians);
+        }
+
+        KdNode firstSide = goLeft ? node.left : node.right;
+        KdNode secondSide = goLeft ? node.right : node.left;
+
+        kNearestWithinRecursive(firstSide, queryLat, queryLon, k, maxKm, criteria, maxHeap);
+
+        // the far side must beat both the radius and (once the heap is full) the current k-th distance
+        double bound = maxHeap.size() < k ? maxKm : Math.min(maxKm, maxHeap.peek().distanceKm);
+        if (distanceToPlane <= bound) {
+            kNearestWithinRecursive(secondSide, queryLat, queryLon, k, maxKm, criteria, maxHeap);
+        } else {
+            countPruned(secondSide);
+        }
+    }
+
+    // ==================== CANDIDATE SET QUERY METHODS ====================
+
+    /**
+     * K-Nearest neighbors restricted to a set of station ids (e.g. from StationAttributeIndex).
+     * Subtrees whose id range holds no candidate are skipped without being visited, and very small
+     * candidate sets are checked one by one.
+     *
+     * @param lat Query latitude
+     * @param lon Query longitude
+     * @param k Number of neighbors to find
+     * @param candidates Ids of the stations allowed in the result
+     * @return Up to k closest candidate stations, sorted by distance
+     */
+    public List<StationDistance> kNearestAmong(double lat, double lon, int k, CompressedBitmap candidates) {
+        if (root == null || k <= 0 || candidates.isEmpty()) return new ArrayList<>();
+
+        PriorityQueue<StationDistance> maxHeap = new PriorityQueue<>(
+                k,
+                Comparator.comparingDouble((StationDistance sd) -> sd.distanceKm).reversed()
+        );
+
+        QueryStats stats = beginQuery("kNearestAmong");
+        try {
+            if (candidates.cardinality() <= CANDIDATE_SCAN_MAX) {
+                candidates.forEach(id -> {
+                    if (id >= stationsById.length) return;
+                    Station station = stationsById[id];
+                    offer(maxHeap, k, station, haversineDistance(lat, lon, station.getLatitude(), station.getLongitude()));
+                });
+            } else {
+                kNearestAmongRecursive(root, lat, lon, k, candidates, maxHeap);
+            }
+
+            List<StationDistance> result = new ArrayList<>(maxHeap);
+            result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
+    }
+
+    private void kNearestAmongRecursive(KdNode node, double queryLat, double queryLon, int k,
+                                        CompressedBitmap candidates, PriorityQueue<StationDistance> maxHeap) {
+        if (node == null) return;
+        if (!candidates.intersects(node.firstId, node.endId)
+                || (maxHeap.size() == k && minDistanceToBox(queryLat, queryLon, node) >= maxHeap.peek().distanceKm)) {
+            countPruned(node);
+            return;
+        }
+        countNode();
+
+        if (candidates.intersects(node.bucketId, node.bucketId + node.stationsAtPoint.size())) {
+            double distance = haversineDistance(queryLat, queryLon, node.lat, node.lon);
+            for (int i = 0; i < node.stationsAtPoint.size(); i++) {
+                if (candidates.contains(node.bucketId + i)) {
+                    offer(maxHeap, k, node.stationsAtPoint.get(i), distance);
+                }
+            }
+        }
+
+        boolean goLeft = node.axis == 0 ? queryLat < node.lat : queryLon < node.lon;
+        kNearestAmongRecursive(goLeft ? node.left : node.right, queryLat, queryLon, k, candidates, maxHeap);
+        kNearestAmongRecursive(goLeft ? node.right : node.left, queryLat, queryLon, k, candidates, maxHeap);
+    }
+
+    private void offer(PriorityQueue<StationDistance> maxHeap, int k, Station station, double distance) {
+        countHeapOperations(1);
+        if (maxHeap.size() < k) {
+            maxHeap.offer(new StationDistance(station, distance));
+        } else if (distance < maxHeap.peek().distanceKm) {
+            maxHeap.poll();
+            maxHeap.offer(new StationDistance(station, distance));
+        }
+    }
+
+    /**
+     * Circular range query restricted to a set of station ids.
+     *
+     * @return Candidate stations within radiusKm of the center, sorted by distance
+     */
+    public List<StationDistance> circularRangeQueryAmong(double centerLat, double centerLon, double radiusKm,
+                                                         CompressedBitmap candidates) {
+        List<StationDistance> result = new ArrayList<>();
+        if (root == null || candidates.isEmpty()) return result;
+
+        QueryStats stats = beginQuery("circularRangeQueryAmong");
+        try {
+            if (candidates.cardinality() <= CANDIDATE_SCAN_MAX) {
+                candidates.forEach(id -> {
+                    if (id >= stationsById.length) return;
+                    Station station = stationsById[id];
+                    double distance = haversineDistance(centerLat, centerLon, station.getLatitude(), station.getLongitude());
+                    if (distance <= radiusKm) result.add(new StationDistance(station, distance));
+                });
+            } else {
+                circularRangeAmongRecursive(root, centerLat, centerLon, radiusKm, candidates, result);
+            }
+
+            result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
+    }
+
+    private void circularRangeAmongRecursive(KdNode node, double centerLat, double centerLon, double radiusKm,
+                                             CompressedBitmap candidates, List<StationDistance> result) {
+        if (node == null) return;
+        if (!candidates.intersects(node.firstId, node.endId) || minDistanceToBox(centerLat, centerLon, node) > radiusKm) {
+            countPruned(node);
+            return;
+        }
+        countNode();
+
+        double distance = haversineDistance(centerLat, centerLon, node.lat, node.lon);
+        if (distance <= radiusKm) {
+            for (int i = 0; i < node.stationsAtPoint.size(); i++) {
+                if (candidates.contains(node.bucketId + i)) {
+                    result.add(new StationDistance(node.stationsAtPoint.get(i), distance));
+                }
+            }
+        }
+
+        circularRangeAmongRecursive(node.left, centerLat, centerLon, radiusKm, candidates, result);
+        circularRangeAmongRecursive(node.right, centerLat, centerLon, radiusKm, candidates, result);
+    }
+
+    // ==================== CORRIDOR QUERY METHODS ====================
+
+    /**
+     * Corridor query: every station within bufferKm of a route polyline, ordered along the route.
+     * Each segment is the great-circle arc between two vertices. A subtree is only visited while the
+     * distance from its bounding box to some segment's box is within the buffer, and only those
+     * segments are carried down, so each station is reached (and reported) once no matter how many
+     * segment buffers cover it. The distance to a segment is the exact great-circle distance to its
+     * closest point (cross-track to the arc, or to the nearer end). Routes must not cross the
+     * antimeridian or pass over a pole.
+     *
+     * @param route {lat, lon} vertices of the route, at least 2
+     * @param bufferKm Corridor half-width in kilometers
+     * @return Hits sorted by position along the route, then distance to it, then name
+     */
+    public List<CorridorHit> corridorQuery(double[][] route, double bufferKm) {
+        if (route.length < 2) {
+            throw new IllegalArgumentException("A route needs at least 2 points");
+        }
+        if (bufferKm < 0) {
+            throw new IllegalArgumentException("bufferKm must be >= 0");
+        }
+
+        List<CorridorHit> result = new ArrayList<>();
+        if (root == null) return result;
+
+        CorridorRoute corridor = new CorridorRoute(route, bufferKm);
+        int segments = route.length - 1;
+        for (int i = 0; i < segments; i++) corridor.active[i] = i;
+
+        QueryStats stats = beginQuery("corridorQuery");
+        try {
+            corridorRecursive(root, corridor, 0, segments, result);
+
+            result.sort(Comparator.comparingDouble((CorridorHit h) -> h.routeKm)
+                    .thenComparingDouble(h -> h.distanceKm)
+                    .thenComparing(h -> h.station.getStation()));
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
         }
     }
 
+    // the node's candidate segments are corridor.active[from, to)
+    private void corridorRecursive(KdNode node, CorridorRoute corridor, int from, int to, List<CorridorHit> result) {
+        if (node == null) return;
+
+        // keep the segments whose arc box is within the buffer of the node's box
+        corridor.ensureCapacity(to, to - from);
+        int[] active = corridor.active;
+        int end = to;
+        for (int i = from; i < to; i++) {
+            int segment = active[i];
+            if (minDistanceBetweenBoxes(node.minLat, node.maxLat, node.minLon, node.maxLon,
+                    corridor.minLat[segment], corridor.maxLat[segment],
+                    corridor.minLon[segment], corridor.maxLon[segment]) <= corridor.bufferKm) {
+                active[end++] = segment;
+            }
+        }
+        if (end == to) {
+            countPruned(node);
+            return;
+        }
+        countNode();
+
+        double bestDistance = Double.MAX_VALUE;
+        double bestRouteKm = 0;
+        for (int i = to; i < end; i++) {
+            if (recordingStats) threadStats.get().distanceEvaluations++;
+            double distance = corridor.distance(active[i], node.lat, node.lon);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestRouteKm = corridor.routeKm;
+            }
+        }
+        if (bestDistance <= corridor.bufferKm) {
+            for (Station station : node.stationsAtPoint) {
+                result.add(new CorridorHit(station, bestDistance, bestRouteKm));
+            }
+        }
+
+        corridorRecursive(node.left, corridor, to, end, result);
+        corridorRecursive(node.right, corridor, to, end, result);
+    }
+
+    // ==================== AGGREGATE QUERY METHODS ====================
+
+    /**
+     * Estimated number of stations in a rectangle, for query planning. Subtrees whose bounding box lies
+     * inside count fully and disjoint ones not at all; once maxDepth levels have been expanded, a partially
+     * overlapping subtree counts in proportion to the share of its box that overlaps. Exact when maxDepth
+     * reaches the leaves, and never visits more than 2^maxDepth nodes.
+     */
+    public double estimateRangeCount(double minLat, double maxLat, double minLon, double maxLon, int maxDepth) {
+        return estimateRangeCount(root, minLat, maxLat, minLon, maxLon, maxDepth);
+    }
+
+    private double estimateRangeCount(KdNode node, double minLat, double maxLat, double minLon, double maxLon,
+                                      int depthLeft) {
+        if (node == null) return 0;
+        if (node.maxLat < minLat || node.minLat > maxLat || node.maxLon < minLon || node.minLon > maxLon) return 0;
+        if (node.minLat >= minLat && node.maxLat <= maxLat && node.minLon >= minLon && node.maxLon <= maxLon) {
+            return node.subtreeStations;
+        }
+        if (depthLeft <= 0) {
+            return node.subtreeStations
+                    * overlapShare(node.minLat, node.maxLat, minLat, maxLat)
+                    * overlapShare(node.minLon, node.maxLon, minLon, maxLon);
+        }
+
+        double own = node.lat >= minLat && node.lat <= maxLat && node.lon >= minLon && node.lon <= maxLon
+                ? node.stationsAtPoint.size() : 0;
+        return own
+                + estimateRangeCount(node.left, minLat, maxLat, minLon, maxLon, depthLeft - 1)
+                + estimateRangeCount(node.right, minLat, maxLat, minLon, maxLon, depthLeft - 1);
+    }
+
+    // share of [from, to] covered by [queryFrom, queryTo], 1 for a degenerate (single value) interval inside it
+    private static double overlapShare(double from, double to, double queryFrom, double queryTo) {
+        if (to <= from) return from >= queryFrom && from <= queryTo ? 1.0 : 0.0;
+        return Math.max(0, Math.min(to, queryTo) - Math.max(from, queryFrom)) / (to - from);
+    }
+
+    /**
+     * Density summary of the stations within a radius without listing them. Subtrees whose bounding
+     * box lies entirely inside the circle contribute their precomputed counters at once, so the cost
+     * depends on the nodes along the circle's boundary rather than on the number of stations inside.
+     *
+     * @param centerLat Center latitude
+     * @param centerLon Center longitude
+     * @param radiusKm Radius in kilometers
+     * @return Counts by country and city vs non-city for the circle
+     */
+    public StationDensitySummary aggregateRadiusQuery(double centerLat, double centerLon, double radiusKm) {
+        QueryStats stats = beginQuery("aggregateRadiusQuery");
+        try {
+            AggregateAccumulator acc = new AggregateAccumulator(countryCodes.length);
+            aggregateRecursive(root, centerLat, centerLon, radiusKm, acc);
+            endQuery(stats, acc.total);
+
+            Map<String, Integer> countByCountry = new TreeMap<>();
+            for (int i = 0; i < countryCodes.length; i++) {
+                if (acc.countryCounts[i] > 0) {
+                    countByCountry.put(countryCodes[i], acc.countryCounts[i]);
+                }
+            }
+            return new StationDensitySummary(countByCountry, acc.city, acc.total - acc.city,
+                    radiusKm, centerLat, centerLon);
+        } finally {
+            exitQuery(stats);
+        }
+    }
+
+    private void aggregateRecursive(KdNode node, double centerLat, double centerLon, double radiusKm,
+                                    AggregateAccumulator acc) {
+        if (node == null) return;
+        if (minDistanceToBox(centerLat, centerLon, node) > radiusKm) {
+            countPruned(node);
+            return;
+        }
+        countNode();
+
+        if (node.subtreeCountryCounts != null && maxDistanceToBox(centerLat, centerLon, node) <= radiusKm) {
+            acc.total += node.subtreeStations;
+            acc.city += node.subtreeCityStations;
+            for (int i = 0; i < acc.countryCounts.length; i++) {
+                acc.countryCounts[i] += node.subtreeCountryCounts[i];
+            }
+            return;
+        }
+
+        if (haversineDistance(centerLat, centerLon, node.lat, node.lon) <= radiusKm) {
+            for (Station station : node.stationsAtPoint) {
+                acc.total++;
+                if (station.isCity()) acc.city++;
+                acc.countryCounts[countryIds.get(station.getCountry())]++;
+            }
+        }
+
+        aggregateRecursive(node.left, centerLat, centerLon, radiusKm, acc);
+        aggregateRecursive(node.right, centerLat, centerLon, radiusKm, acc);
+    }
+
+    /**
+     * Exact farthest distance (km) from a point to a subtree's bounding box: along parallels and
+     * meridians the distance is largest at the segment ends, so the farthest point is a corner.
+     */
+    private double maxDistanceToBox(double lat, double lon, KdNode node) {
+        double max = haversineDistance(lat, lon, node.minLat, node.minLon);
+        max = Math.max(max, haversineDistance(lat, lon, node.minLat, node.maxLon));
+        max = Math.max(max, haversineDistance(lat, lon, node.maxLat, node.minLon));
+        return Math.max(max, haversineDistance(lat, lon, node.maxLat, node.maxLon));
+    }
+
+    // ==================== SPATIAL JOIN METHODS ====================
+
+    /**
+     * Nearest-neighbor join: for every station indexed in queryTree, the closest station in this tree.
+     * Both trees are traversed together; a pair of subtrees is skipped when the distance between their
+     * bounding boxes already exceeds the worst best-distance found so far inside the query subtree.
+     *
+     * @param queryTree Tree holding the stations to match (e.g. freight depots)
+     * @return One pair per query station (query station, nearest station here), sorted by query station name
+     */
+    public List<StationPair> nearestNeighborJoin(KDTree2 queryTree) {
+        List<StationPair> result = new ArrayList<>();
+        if (root == null || queryTree == null || queryTree.root == null) return result;
+
+        QueryStats stats = beginQuery("nearestNeighborJoin");
+        try {
+            NearestJoinState state = new NearestJoinState(queryTree.stationsById.length);
+            nearestJoinRecursive(queryTree.root, root, state);
+            collectNearestJoin(queryTree.root, state, result);
+            result.sort(Comparator.comparing((StationPair p) -> p.first.getStation())
+                    .thenComparingDouble(p -> p.distanceKm));
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
+    }
+
+    private void nearestJoinRecursive(KdNode q, KdNode r, NearestJoinState state) {
+        if (q == null || r == null) return;
+        if (minDistanceBetweenBoxes(q, r) > state.bound[q.bucketId]) {
+            countPruned(r);
+            return;
+        }
+
+        // q's own point against the whole reference subtree
+        nearestForPoint(q, r, state);
+
+        // r's point as a candidate for the rest of the query subtree
+        offerCandidate(q.left, r, state);
+        offerCandidate(q.right, r, state);
+
+        // remaining pairs: children x children
+        joinChildren(q.left, r, state);
+        joinChildren(q.right, r, state);
+
+        state.refreshBound(q);
+    }
+
+    // query child against both reference children, closest reference child first
+    private void joinChildren(KdNode qChild, KdNode r, NearestJoinState state) {
+        if (qChild == null) return;
+        KdNode first = r.left;
+        KdNode second = r.right;
+        if (first != null && second != null
+                && minDistanceBetweenBoxes(qChild, second) < minDistanceBetweenBoxes(qChild, first)) {
+            first = r.right;
+            second = r.left;
+        }
+        nearestJoinRecursive(qChild, first, state);
+        nearestJoinRecursive(qChild, second, state);
+    }
+
+    private static void collectNearestJoin(KdNode q, NearestJoinState state, List<StationPair> result) {
+        if (q == null) return;
+        int i = q.bucketId;
+        for (Station station : q.stationsAtPoint) {
+            result.add(new StationPair(station, state.best[i].stationsAtPoint.get(0), state.bestKm[i]));
+        }
+        collectNearestJoin(q.left, state, result);
+        collectNearestJoin(q.right, state, result);
+    }
+
+    private void nearestForPoint(KdNode q, KdNode r, NearestJoinState state) {
+        if (r == null) return;
+        int i = q.bucketId;
+        if (minDistanceToBox(q.lat, q.lon, r) > state.bestKm[i]) {
+            countPruned(r);
+            return;
+        }
+        countNode();
+
+        double distance = haversineDistance(q.lat, q.lon, r.lat, r.lon);
+        if (distance < state.bestKm[i]) {
+            state.bestKm[i] = distance;
+            state.best[i] = r;
+        }
+
+        boolean goLeft = r.axis == 0 ? q.lat < r.lat : q.lon < r.lon;
+        nearestForPoint(q, goLeft ? r.left : r.right, state);
+        nearestForPoint(q, goLeft ? r.right : r.left, state);
+    }
+
+    private void offerCandidate(KdNode q, KdNode candidate, NearestJoinState state) {
+        if (q == null) return;
+        int i = q.bucketId;
+        if (minDistanceToBox(candidate.lat, candidate.lon, q) > state.bound[i]) return;
+
+        double distance = haversineDistance(q.lat, q.lon, candidate.lat, candidate.lon);
+        if (distance < state.bestKm[i]) {
+            state.bestKm[i] = distance;
+            state.best[i] = candidate;
+        }
+
+        offerCandidate(q.left, candidate, state);
+        offerCandidate(q.right, candidate, state);
+        state.refreshBound(q);
+    }
+
+    /**
+     * Distance join: every pair (station of this tree, station of other) at most maxKm apart.
+     *
+     * @param other Tree to join against
+     * @param maxKm Maximum distance in kilometers (inclusive)
+     * @return Pairs (station here, station in other) sorted by distance
+     */
+    public List<StationPair> withinDistanceJoin(KDTree2 other, double maxKm) {
+        List<StationPair> result = new ArrayList<>();
+        if (other == null || maxKm < 0) return result;
+
+        QueryStats stats = beginQuery("withinDistanceJoin");
+        try {
+            withinJoinRecursive(root, other.root, maxKm, result);
+            result.sort(Comparator.comparingDouble(p -> p.distanceKm));
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
+    }
+
+    /**
+     * Self distance join: every unordered pair of distinct stations of this tree at most maxKm apart,
+     * including stations sharing the same coordinate (distance 0). Used for near-duplicate detection.
+     *
+     * @param maxKm Maximum distance in kilometers (inclusive)
+     * @return Pairs sorted by distance
+     */
+    public List<StationPair> selfWithinDistanceJoin(double maxKm) {
+        List<StationPair> result = new ArrayList<>();
+        if (maxKm < 0) return result;
+
+        QueryStats stats = beginQuery("selfWithinDistanceJoin");
+        try {
+            selfJoinRecursive(root, maxKm, result);
+            result.sort(Comparator.comparingDouble(p -> p.distanceKm));
+            endQuery(stats, result.size());
+            return result;
+        } finally {
+            exitQuery(stats);
+        }
+    }
+
+    private void selfJoinRecursive(KdNode node, double maxKm, List<StationPair> result) {
+        if (node == null) return;
+
+        List<Station> bucket = node.stationsAtPoint;
+        for (int i = 0; i < bucket.size(); i++) {
+            for (int j = i + 1; j < bucket.size(); j++) {
+                result.add(new StationPair(bucket.get(i), bucket.get(j), 0.0));
+            }
+        }
+
+        pointJoin(node, node.left, maxKm, false, result);
+        pointJoin(node, node.right, maxKm, false, result);
+        selfJoinRecursive(node.left, maxKm, result);
+        selfJoinRecursive(node.right, maxKm, result);
+        withinJoinRecursive(node.left, node.right, maxKm, result);
+    }
+
+    private void withinJoinRecursive(KdNode a, KdNode b, double maxKm, List<StationPair> result) {
+        if (a == null || b == null) return;
+        if (minDistanceBetweenBoxes(a, b) > maxKm) {
+            countPruned(b);
+            return;
+        }
+
+        emitPairs(a, b, haversineDistance(a.lat, a.lon, b.lat, b.lon), maxKm, result);
+
+        pointJoin(a, b.left, maxKm, false, result);
+        pointJoin(a, b.right, maxKm, false, result);
+        pointJoin(b, a.left, maxKm, true, result);
+        pointJoin(b, a.right, maxKm, true, result);
+
+        withinJoinRecursive(a.left, b.left, maxKm, result);
+        withinJoinRecursive(a.left, b.right, maxKm, result);
+        withinJoinRecursive(a.right, b.left, maxKm, result);
+        withinJoinRecursive(a.right, b.right, maxKm, result);
+    }
+
+    // pairs between a single node's point and a whole subtree; swapped keeps (this tree, other tree) order
+    private void pointJoin(KdNode point, KdNode subtree, double maxKm, boolean swapped,
+                           List<StationPair> result) {
+        if (subtree == null) return;
+        if (minDistanceToBox(point.lat, point.lon, subtree) > maxKm) {
+            countPruned(subtree);
+            return;
+        }
+        countNode();
+
+        double distance = haversineDistance(point.lat, point.lon, subtree.lat, subtree.lon);
+        if (swapped) {
+            emitPairs(subtree, point, distance, maxKm, result);
+        } else {
+            emitPairs(point, subtree, distance, maxKm, result);
+        }
+
+        pointJoin(point, subtree.left, maxKm, swapped, result);
+        pointJoin(point, subtree.right, maxKm, swapped, result);
+    }
+
+    private void emitPairs(KdNode a, KdNode b, double distance, double maxKm,
+                           List<StationPair> result) {
+        if (distance > maxKm) return;
+        for (Station first : a.stationsAtPoint) {
+            for (Station second : b.stationsAtPoint) {
+                result.add(new StationPair(first, second, distance));
+            }
+        }
+    }
+
+    /**
+     * Exact shortest distance (km) from a point to a subtree's bounding box on the sphere. Inside the
+     * box's longitude band the closest point lies straight north/south; otherwise it lies on the nearer
+     * meridian edge, either at the foot of the perpendicular great circle or at one of that edge's corners.
+     */
+    private double minDistanceToBox(double lat, double lon, KdNode node) {
+        if (lon >= node.minLon && lon <= node.maxLon) {
+            double latGap = Math.max(0, Math.max(node.minLat - lat, lat - node.maxLat));
+            return Math.toRadians(latGap) * 6371.0;
+        }
+
+        // nearer edge meridian, possibly the other way round across the antimeridian
+        double toMin = floorMod360(node.minLon - lon);
+        double toMax = floorMod360(lon - node.maxLon);
+        double edgeLon = toMin < toMax ? node.minLon : node.maxLon;
+        double dLon = Math.toRadians(Math.min(toMin, toMax));
+        if (dLon < Math.PI / 2) {
+            double latRad = Math.toRadians(lat);
+            double footLat = Math.toDegrees(Math.atan2(Math.tan(latRad), Math.cos(dLon)));
+            if (footLat >= node.minLat && footLat <= node.maxLat) {
+                return 6371.0 * Math.asin(Math.min(1.0, Math.abs(Math.cos(latRad) * Math.sin(dLon))));
+            }
+        }
+        return Math.min(haversineDistance(lat, lon, node.minLat, edgeLon),
+                haversineDistance(lat, lon, node.maxLat, edgeLon));
+    }
+
+    // angle in [0, 360)
+    private static double floorMod360(double degrees) {
+        double mod = degrees % 360.0;
+        return mod < 0 ? mod + 360.0 : mod;
+    }
+
+    /**
+     * Lower bound (km) on the great-circle distance between two subtrees' bounding boxes. Boxes apart
+     * in latitude are at least the latitude gap apart along any path. Boxes apart in longitude are at
+     * least as far apart as a point of either box is from the nearer edge meridian's great circle; that
+     * distance, asin(cos(lat) * sin(gap)), is smallest at the box latitude closest to a pole, and the
+     * better of the two boxes' bounds holds. The larger of both bounds is returned.
+     */
+    private double minDistanceBetweenBoxes(KdNode a, KdNode b) {
+        return minDistanceBetweenBoxes(a.minLat, a.maxLat, a.minLon, a.maxLon, b.minLat, b.maxLat, b.minLon, b.maxLon);
+    }
+
+    private static double minDistanceBetweenBoxes(double aMinLat, double aMaxLat, double aMinLon, double aMaxLon,
+                                                  double bMinLat, double bMaxLat, double bMinLon, double bMaxLon) {
+        double latGap = Math.max(0, Math.max(aMinLat - bMaxLat, bMinLat - aMaxLat));
+        double lonGap = Math.max(0, Math.max(aMinLon - bMaxLon, bMinLon - aMaxLon));
+        // the other way round, across the antimeridian
+        double span = Math.max(aMaxLon, bMaxLon) - Math.min(aMinLon, bMinLon);
+        lonGap = Math.min(lonGap, Math.max(0, 360.0 - span));
+
+        double bound = Math.toRadians(latGap) * 6371.0;
+        if (lonGap > 0) {
+            double poleward = Math.min(Math.max(Math.abs(aMinLat), Math.abs(aMaxLat)),
+                    Math.max(Math.abs(bMinLat), Math.abs(bMaxLat)));
+            // past 90 degrees the closest point of the edge meridian is a pole, same value as at 90
+            double sinGap = Math.sin(Math.toRadians(Math.min(lonGap, 90.0)));
+            double lonBound = 6371.0 * Math.asin(Math.min(1.0, Math.cos(Math.toRadians(poleward)) * sinGap));
+            bound = Math.max(bound, lonBound);
+        }
+        return bound;
+    }
+
     public static class StationFilterCriteria {
         private String timezoneGroup;
         private String country;
@@ -757,6 +2022,33 @@ public class KDTree2 {
             return this;
         }
 
+        public String getTimezoneGroup() {
+            return timezoneGroup;
+        }
+
+        public String getCountry() {
+            return country;
+        }
+
+        /**
+         * @return Required main station flag, null if not filtered
+         */
+        public Boolean getMainStation() {
+            return isMainStation;
+        }
+
+        public Boolean getCity() {
+            return isCity;
+        }
+
+        public Boolean getAirport() {
+            return isAirport;
+        }
+
+        public boolean isEmpty() {
+            return timezoneGroup == null && country == null && isMainStation == null && isCity == null && isAirport == null;
+        }
+
         public boolean matches(Station station) {
             if (timezoneGroup != null && !station.getTimeZoneGroup().equals(timezoneGroup)) {
                 return false;
@@ -802,4 +2094,38 @@ public class KDTree2 {
             return String.format("%s (%.2f km)", station.getStation(), distanceKm);
         }
     }
-}
\ No newline at end of file
+
+    public static class StationPair {
+        public final Station first;
+        public final Station second;
+        public final double distanceKm;
+
+        public StationPair(Station first, Station second, double distanceKm) {
+            this.first = first;
+            this.second = second;
+            this.distanceKm = distanceKm;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s <-> %s (%.2f km)", first.getStation(), second.getStation(), distanceKm);
+        }
+    }
+
+    public static class CorridorHit {
+        public final Station station;
+        public final double distanceKm;
+        public final double routeKm;
+
+        public CorridorHit(Station station, double distanceKm, double routeKm) {
+            this.station = station;
+            this.distanceKm = distanceKm;
+            this.routeKm = routeKm;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s at route km %.2f (%.2f km off route)", station.getStation(), routeKm, distanceKm);
+        }
+    }
+}
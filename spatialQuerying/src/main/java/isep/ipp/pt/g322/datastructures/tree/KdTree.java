@@ -3,8 +3,13 @@ package isep.ipp.pt.g322.datastructures.tree;
 import isep.ipp.pt.g322.model.Station;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
+/**
+ * US08 view of the spatial index. The tree itself is a KDTree2 (the engine shared with US07/09/10),
+ * this class only keeps the searchRegion / computeStats API, so a StationManager and the CLI can use
+ * one tree instead of building two.
+ */
 public class KdTree {
     /**
      * US08 — Queries de exemplo:
@@ -25,7 +30,27 @@ public class KdTree {
      * List<Station> q5 = kdTree.searchRegion(36.0, 44.0, -10.0, 4.0, null, null, null);
      */
 
-    private final KdNode root;
+    private final KDTree2 engine;
+
+    public KdTree(List<Station> stations) {
+        this(new KDTree2(stations));
+    }
+
+    private KdTree(KDTree2 engine) {
+        this.engine = Objects.requireNonNull(engine, "engine");
+    }
+
+    /**
+     * Wraps an already built engine, no copy is made.
+     */
+    public static KdTree of(KDTree2 engine) {
+        return new KdTree(engine);
+    }
+
+    public KDTree2 getEngine() {
+        return engine;
+    }
+
         /**
          * @param latMin 
          * @param latMax 
@@ -39,141 +64,47 @@ public class KdTree {
         public List<Station> searchRegion(double latMin, double latMax, double lonMin, double lonMax,
                                           Boolean isCity, Boolean isMainStation, String country) {
             List<Station> result = new ArrayList<>();
-            searchRegionRecursive(root, latMin, latMax, lonMin, lonMax, isCity, isMainStation, country, result);
+            for (List<Station> run : engine.rangeRuns(latMin, latMax, lonMin, lonMax,
+                    regionFilter(isCity, isMainStation, country))) {
+                result.addAll(run);
+            }
             return result;
         }
 
-        private void searchRegionRecursive(KdNode node, double latMin, double latMax, double lonMin, double lonMax,
-                                           Boolean isCity, Boolean isMainStation, String country, List<Station> result) {
-            if (node == null) return;
-            // Prune if node is outside region
-            if (node.lat < latMin || node.lat > latMax || node.lon < lonMin || node.lon > lonMax) {
-                // Check which side to recurse
-                if (node.axis == 0) { // latitude split
-                    if (node.lat > latMax) searchRegionRecursive(node.left, latMin, latMax, lonMin, lonMax, isCity, isMainStation, country, result);
-                    else if (node.lat < latMin) searchRegionRecursive(node.right, latMin, latMax, lonMin, lonMax, isCity, isMainStation, country, result);
-                } else { // longitude split
-                    if (node.lon > lonMax) searchRegionRecursive(node.left, latMin, latMax, lonMin, lonMax, isCity, isMainStation, country, result);
-                    else if (node.lon < lonMin) searchRegionRecursive(node.right, latMin, latMax, lonMin, lonMax, isCity, isMainStation, country, result);
-                }
-                return;
-            }
-            // Node is inside region
-            for (Station s : node.stationsAtPoint) {
-                // Apply filters
-                boolean matchesCity = (isCity == null) || (s.isCity() == isCity);
-                boolean matchesMain = (isMainStation == null) || (s.isMainStation() == isMainStation);
-                boolean matchesCountry = (country == null) || country.equalsIgnoreCase("all") || s.getCountry().equalsIgnoreCase(country);
-                
-                if (matchesCity && matchesMain && matchesCountry) {
-                    result.add(s);
-                }
-            }
-            // Recurse both sides
-            searchRegionRecursive(node.left, latMin, latMax, lonMin, lonMax, isCity, isMainStation, country, result);
-            searchRegionRecursive(node.right, latMin, latMax, lonMin, lonMax, isCity, isMainStation, country, result);
+        /**
+         * Same as searchRegion but sorted by station name and cut to the first `limit` results. Buckets are
+         * already sorted by name, so the filtered buckets are k-way merged instead of sorting the whole region.
+         */
+        public List<Station> searchRegionSorted(double latMin, double latMax, double lonMin, double lonMax,
+                                                Boolean isCity, Boolean isMainStation, String country, int limit) {
+            return engine.rangeQuery(latMin, latMax, lonMin, lonMax,
+                    regionFilter(isCity, isMainStation, country), limit);
         }
 
-    public KdTree(List<Station> stations) {
-
-        Map<String, List<Station>> grouped = stations.stream()
-                .collect(Collectors.groupingBy(s ->
-                        s.getLatitude() + "#" + s.getLongitude()));
+        // null when nothing is filtered, so whole buckets are used without copying
+        private static Predicate<Station> regionFilter(Boolean isCity, Boolean isMainStation, String country) {
+            boolean anyCountry = country == null || country.equalsIgnoreCase("all");
+            if (isCity == null && isMainStation == null && anyCountry) return null;
 
-        List<PointBucket> buckets = new ArrayList<>();
-        for (var e : grouped.entrySet()) {
-            List<Station> samePoint = e.getValue();
-            Station ref = samePoint.get(0);
-            samePoint.sort(Comparator.comparing(Station::getStation));
-            buckets.add(new PointBucket(ref.getLatitude(), ref.getLongitude(), samePoint));
+            return s -> (isCity == null || s.isCity() == isCity)
+                    && (isMainStation == null || s.isMainStation() == isMainStation)
+                    && (anyCountry || s.getCountry().equalsIgnoreCase(country));
         }
 
-        this.root = buildBalanced(buckets, 0);
-    }
-
-
-
     public int size() {
-        return size(root);
+        return engine.size();
     }
 
     public int height() {
-        return height(root);
+        return engine.height();
     }
 
-    public KdNode getRoot() {
-        return root;
+    public KDTree2.KdNode getRoot() {
+        return engine.getRoot();
     }
 
     public Map<Integer, Integer> getBucketSizeDistribution() {
-        Map<Integer, Integer> bucketSizeMap = new HashMap<>();
-        collectBucketSizes(root, bucketSizeMap);
-        return bucketSizeMap;
-    }
-
-    private void collectBucketSizes(KdNode n, Map<Integer, Integer> bucketSizeMap) {
-        if (n == null) return;
-        int size = n.stationsAtPoint.size();
-        bucketSizeMap.merge(size, 1, Integer::sum);
-        collectBucketSizes(n.left, bucketSizeMap);
-        collectBucketSizes(n.right, bucketSizeMap);
-    }
-
-    private int size(KdNode n) {
-        if (n == null) return 0;
-        return 1 + size(n.left) + size(n.right);
-    }
-
-    private int height(KdNode n) {
-        if (n == null) return 0;
-        return 1 + Math.max(height(n.left), height(n.right));
-    }
-
-    private KdNode buildBalanced(List<PointBucket> pts, int depth) {
-        if (pts == null || pts.isEmpty()) return null;
-
-        int axis = depth % 2; // 0 = latitude, 1 = longitude
-        pts.sort(axis == 0
-                ? Comparator.comparingDouble(p -> p.lat)
-                : Comparator.comparingDouble(p -> p.lon));
-
-        int mid = pts.size() / 2;
-        PointBucket median = pts.get(mid);
-
-        KdNode node = new KdNode(axis, median.lat, median.lon, median.stations);
-        node.left = buildBalanced(pts.subList(0, mid), depth + 1);
-        node.right = buildBalanced(pts.subList(mid + 1, pts.size()), depth + 1);
-        return node;
-    }
-
-
-
-    private static class PointBucket {
-        double lat;
-        double lon;
-        List<Station> stations;
-
-        PointBucket(double lat, double lon, List<Station> stations) {
-            this.lat = lat;
-            this.lon = lon;
-            this.stations = stations;
-        }
-    }
-
-    public static class KdNode {
-        final int axis;
-        final double lat;
-        final double lon;
-        final List<Station> stationsAtPoint;
-        KdNode left;
-        KdNode right;
-
-        KdNode(int axis, double lat, double lon, List<Station> stationsAtPoint) {
-            this.axis = axis;
-            this.lat = lat;
-            this.lon = lon;
-            this.stationsAtPoint = stationsAtPoint;
-        }
+        return engine.getBucketSizeDistribution();
     }
 
     public static class Stats {
@@ -193,40 +124,13 @@ public class KdTree {
 
 
     public Stats computeStats() {
-        Map<Integer, Integer> histogram = new HashMap<>();
-        StatAcc acc = computeStatsRecursive(root, histogram);
-        return new Stats(acc.nodes, acc.height, histogram);
+        TreeDiagnostics diagnostics = engine.diagnose();
+        return new Stats(diagnostics.getNodeCount(), diagnostics.getHeight(),
+                new HashMap<>(diagnostics.getBucketDistribution()));
     }
 
-
-    private static class StatAcc {
-        final int nodes;
-        final int height;
-
-        StatAcc(int nodes, int height) {
-            this.nodes = nodes;
-            this.height = height;
-        }
-    }
-
-    private StatAcc computeStatsRecursive(KdNode node, Map<Integer, Integer> histogram) {
-
-        if (node == null) {
-            return new StatAcc(0, 0);
-        }
-
-
-        int bucketSize = (node.stationsAtPoint == null ? 0 : node.stationsAtPoint.size());
-        histogram.merge(bucketSize, 1, Integer::sum);
-
-
-        StatAcc left  = computeStatsRecursive(node.left,  histogram);
-        StatAcc right = computeStatsRecursive(node.right, histogram);
-
-        int nodes  = 1 + left.nodes + right.nodes;
-        int height = 1 + Math.max(left.height, right.height); // folha -> height = 1
-
-        return new StatAcc(nodes, height);
+    public TreeDiagnostics diagnose() {
+        return engine.diagnose();
     }
 
 
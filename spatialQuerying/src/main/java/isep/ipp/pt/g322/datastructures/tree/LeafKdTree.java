@@ -0,0 +1,378 @@
+package isep.ipp.pt.g322.datastructures.tree;
+
+import isep.ipp.pt.g322.model.Station;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * KD-tree that stops splitting at leafSize points and keeps every point in flat primitive arrays,
+ * ordered so that each leaf, and each subtree, is one contiguous range. Nodes are only used to prune;
+ * the work happens in linear scans over those ranges, which run as tight loops over double arrays
+ * that the JIT can unroll and vectorize instead of a node hop per point.
+ * <p>
+ * Radius queries work on unit vectors precomputed per point: the squared chord to the query point is
+ * three subtractions and three multiply-adds, compared against the chord of the radius, and only points
+ * that pass pay for an asin to turn the chord into a great-circle distance. Subtrees of up to 4 leaves
+ * are scanned as a whole instead of being descended ("brute force"), since at that size the scan is
+ * cheaper than the pruning tests. {@link Scan#SCALAR} computes the haversine distance point by point,
+ * as KDTree2 does, and is kept for comparison.
+ */
+public class LeafKdTree {
+    public static final int DEFAULT_LEAF_SIZE = 32;
+    private static final int NONE = -1;
+    // widens the chord filter by ~6 mm so rounding never drops a point the distance check would keep
+    private static final double FILTER_SLACK_RADIANS = 1e-9;
+
+    public enum Scan {
+        /** Chord filter over the whole range first, great-circle distance only for the candidates. */
+        BATCHED,
+        /** Haversine per point. */
+        SCALAR
+    }
+
+    private final int leafSize;
+    private final int bruteForcePoints;
+
+    // points in leaf order
+    private final Station[] stations;
+    private final double[] lat;
+    private final double[] lon;
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+
+    // nodes, subtree of node i owns points [from[i], to[i])
+    private int nodeCount;
+    private double[] minLat = new double[16];
+    private double[] maxLat = new double[16];
+    private double[] minLon = new double[16];
+    private double[] maxLon = new double[16];
+    private int[] left = new int[16];
+    private int[] right = new int[16];
+    private int[] from = new int[16];
+    private int[] to = new int[16];
+
+    public LeafKdTree(List<Station> stations) {
+        this(stations, DEFAULT_LEAF_SIZE);
+    }
+
+    public LeafKdTree(List<Station> stations, int leafSize) {
+        Objects.requireNonNull(stations, "stations");
+        if (leafSize < 1) {
+            throw new IllegalArgumentException("leafSize must be at least 1");
+        }
+        this.leafSize = leafSize;
+        this.bruteForcePoints = leafSize * 4;
+
+        int n = stations.size();
+        double[] inputLat = new double[n];
+        double[] inputLon = new double[n];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            inputLat[i] = stations.get(i).getLatitude();
+            inputLon[i] = stations.get(i).getLongitude();
+            order[i] = i;
+        }
+        if (n > 0) {
+            build(order, inputLat, inputLon, 0, n);
+        }
+
+        this.stations = new Station[n];
+        this.lat = new double[n];
+        this.lon = new double[n];
+        this.x = new double[n];
+        this.y = new double[n];
+        this.z = new double[n];
+        for (int i = 0; i < n; i++) {
+            int source = order[i];
+            this.stations[i] = stations.get(source);
+            this.lat[i] = inputLat[source];
+            this.lon[i] = inputLon[source];
+            double latRad = Math.toRadians(lat[i]);
+            double lonRad = Math.toRadians(lon[i]);
+            this.x[i] = Math.cos(latRad) * Math.cos(lonRad);
+            this.y[i] = Math.cos(latRad) * Math.sin(lonRad);
+            this.z[i] = Math.sin(latRad);
+        }
+    }
+
+    /**
+     * Splits at the median of the wider side of the range's box (longitude scaled by the cosine of
+     * the mid latitude, so the comparison is in distance rather than degrees).
+     *
+     * @return Index of the node owning [start, end)
+     */
+    private int build(int[] order, double[] inputLat, double[] inputLon, int start, int end) {
+        int node = newNode();
+        double boxMinLat = Double.POSITIVE_INFINITY, boxMaxLat = Double.NEGATIVE_INFINITY;
+        double boxMinLon = Double.POSITIVE_INFINITY, boxMaxLon = Double.NEGATIVE_INFINITY;
+        for (int i = start; i < end; i++) {
+            double pointLat = inputLat[order[i]];
+            double pointLon = inputLon[order[i]];
+            boxMinLat = Math.min(boxMinLat, pointLat);
+            boxMaxLat = Math.max(boxMaxLat, pointLat);
+            boxMinLon = Math.min(boxMinLon, pointLon);
+            boxMaxLon = Math.max(boxMaxLon, pointLon);
+        }
+        minLat[node] = boxMinLat;
+        maxLat[node] = boxMaxLat;
+        minLon[node] = boxMinLon;
+        maxLon[node] = boxMaxLon;
+        from[node] = start;
+        to[node] = end;
+        left[node] = NONE;
+        right[node] = NONE;
+        if (end - start <= leafSize) return node;
+
+        double lonSpread = (boxMaxLon - boxMinLon) * Math.cos(Math.toRadians((boxMinLat + boxMaxLat) / 2));
+        double[] key = boxMaxLat - boxMinLat >= lonSpread ? inputLat : inputLon;
+        int mid = (start + end) >>> 1;
+        select(order, key, start, end, mid);
+
+        int leftChild = build(order, inputLat, inputLon, start, mid);
+        int rightChild = build(order, inputLat, inputLon, mid, end);
+        left[node] = leftChild;
+        right[node] = rightChild;
+        return node;
+    }
+
+    private int newNode() {
+        if (nodeCount == left.length) {
+            int capacity = nodeCount * 2;
+            minLat = Arrays.copyOf(minLat, capacity);
+            maxLat = Arrays.copyOf(maxLat, capacity);
+            minLon = Arrays.copyOf(minLon, capacity);
+            maxLon = Arrays.copyOf(maxLon, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            from = Arrays.copyOf(from, capacity);
+            to = Arrays.copyOf(to, capacity);
+        }
+        return nodeCount++;
+    }
+
+    /**
+     * Quickselect with a three-way partition, so ranges full of identical coordinates do not degrade.
+     * Afterwards order[k] holds the k-th smallest key of [start, end), smaller keys before it, larger after.
+     */
+    private static void select(int[] order, double[] key, int start, int end, int k) {
+        int lo = start;
+        int hi = end - 1;
+        while (hi > lo) {
+            double pivot = key[order[(lo + hi) >>> 1]];
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+                double value = key[order[i]];
+                if (value < pivot) {
+                    swap(order, lt++, i++);
+                } else if (value > pivot) {
+                    swap(order, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                hi = lt - 1;
+            } else if (k > gt) {
+                lo = gt + 1;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(int[] order, int a, int b) {
+        int tmp = order[a];
+        order[a] = order[b];
+        order[b] = tmp;
+    }
+
+    public int size() {
+        return stations.length;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    // ==================== RADIUS QUERY ====================
+
+    public List<KDTree2.StationDistance> circularRangeQuery(double lat, double lon, double radiusKm) {
+        return circularRangeQuery(lat, lon, radiusKm, Scan.BATCHED);
+    }
+
+    /**
+     * Stations within radiusKm of the point, closest first (the order of stations at the same distance
+     * is unspecified).
+     */
+    public List<KDTree2.StationDistance> circularRangeQuery(double lat, double lon, double radiusKm, Scan scan) {
+        if (nodeCount == 0 || radiusKm < 0) return new ArrayList<>();
+
+        RadiusScan query = new RadiusScan(lat, lon, radiusKm, scan);
+        circular(0, query);
+
+        List<KDTree2.StationDistance> result = new ArrayList<>(query.size);
+        for (int i = 0; i < query.size; i++) {
+            result.add(new KDTree2.StationDistance(stations[query.points[i]], query.distances[i]));
+        }
+        result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
+        return result;
+    }
+
+    private void circular(int node, RadiusScan query) {
+        if (SphericalDistances.minDistanceToBoxKm(query.lat, query.lon,
+                minLat[node], maxLat[node], minLon[node], maxLon[node]) > query.radiusKm) {
+            return;
+        }
+        if (left[node] == NONE || to[node] - from[node] <= bruteForcePoints) {
+            if (query.scan == Scan.BATCHED) {
+                scanBatched(from[node], to[node], query);
+            } else {
+                scanScalar(from[node], to[node], query);
+            }
+            return;
+        }
+        circular(left[node], query);
+        circular(right[node], query);
+    }
+
+    private void scanBatched(int start, int end, RadiusScan query) {
+        int length = end - start;
+        double[] chords = query.scratch(length);
+        double qx = query.x, qy = query.y, qz = query.z;
+
+        // straight-line loop over the arrays, no branches: this is the part the JIT vectorizes
+        for (int i = 0; i < length; i++) {
+            double dx = x[start + i] - qx;
+            double dy = y[start + i] - qy;
+            double dz = z[start + i] - qz;
+            chords[i] = dx * dx + dy * dy + dz * dz;
+        }
+
+        double maxChordSquared = query.maxChordSquared;
+        for (int i = 0; i < length; i++) {
+            if (chords[i] <= maxChordSquared) {
+                double distance = 2 * SphericalDistances.EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(chords[i]) / 2));
+                if (distance <= query.radiusKm) query.add(start + i, distance);
+            }
+        }
+    }
+
+    private void scanScalar(int start, int end, RadiusScan query) {
+        for (int point = start; point < end; point++) {
+            double distance = SphericalDistances.haversineKm(query.lat, query.lon, lat[point], lon[point]);
+            if (distance <= query.radiusKm) query.add(point, distance);
+        }
+    }
+
+    // ==================== BOX QUERY ====================
+
+    public List<Station> rangeQuery(double minLat, double maxLat, double minLon, double maxLon) {
+        return rangeQuery(minLat, maxLat, minLon, maxLon, Scan.BATCHED);
+    }
+
+    /**
+     * Stations inside the latitude/longitude box, in no particular order. Subtrees whose box lies
+     * completely inside the query box are copied without looking at their points.
+     */
+    public List<Station> rangeQuery(double minLat, double maxLat, double minLon, double maxLon, Scan scan) {
+        List<Station> result = new ArrayList<>();
+        if (nodeCount == 0) return result;
+        range(0, minLat, maxLat, minLon, maxLon, scan, new boolean[bruteForcePoints], result);
+        return result;
+    }
+
+    private void range(int node, double qMinLat, double qMaxLat, double qMinLon, double qMaxLon,
+                       Scan scan, boolean[] inside, List<Station> out) {
+        if (maxLat[node] < qMinLat || minLat[node] > qMaxLat || maxLon[node] < qMinLon || minLon[node] > qMaxLon) {
+            return;
+        }
+        int start = from[node];
+        int end = to[node];
+        if (minLat[node] >= qMinLat && maxLat[node] <= qMaxLat && minLon[node] >= qMinLon && maxLon[node] <= qMaxLon) {
+            out.addAll(Arrays.asList(stations).subList(start, end));
+            return;
+        }
+        if (left[node] != NONE && end - start > bruteForcePoints) {
+            range(left[node], qMinLat, qMaxLat, qMinLon, qMaxLon, scan, inside, out);
+            range(right[node], qMinLat, qMaxLat, qMinLon, qMaxLon, scan, inside, out);
+            return;
+        }
+
+        if (scan == Scan.BATCHED) {
+            int length = end - start;
+            for (int i = 0; i < length; i++) {
+                double pointLat = lat[start + i];
+                double pointLon = lon[start + i];
+                inside[i] = (pointLat >= qMinLat) & (pointLat <= qMaxLat) & (pointLon >= qMinLon) & (pointLon <= qMaxLon);
+            }
+            for (int i = 0; i < length; i++) {
+                if (inside[i]) out.add(stations[start + i]);
+            }
+        } else {
+            for (int point = start; point < end; point++) {
+                if (lat[point] >= qMinLat && lat[point] <= qMaxLat && lon[point] >= qMinLon && lon[point] <= qMaxLon) {
+                    out.add(stations[point]);
+                }
+            }
+        }
+    }
+
+    /**
+     * State of one radius query: the query point as a unit vector, the chord threshold and the hits.
+     */
+    private static class RadiusScan {
+        final double lat;
+        final double lon;
+        final double radiusKm;
+        final Scan scan;
+        final double x;
+        final double y;
+        final double z;
+        final double maxChordSquared;
+
+        int[] points = new int[16];
+        double[] distances = new double[16];
+        int size;
+        private double[] scratch = new double[0];
+
+        RadiusScan(double lat, double lon, double radiusKm, Scan scan) {
+            this.lat = lat;
+            this.lon = lon;
+            this.radiusKm = radiusKm;
+            this.scan = scan;
+            double latRad = Math.toRadians(lat);
+            double lonRad = Math.toRadians(lon);
+            this.x = Math.cos(latRad) * Math.cos(lonRad);
+            this.y = Math.cos(latRad) * Math.sin(lonRad);
+            this.z = Math.sin(latRad);
+            double angle = radiusKm / SphericalDistances.EARTH_RADIUS_KM + FILTER_SLACK_RADIANS;
+            double chord = angle >= Math.PI ? 2.0 : 2 * Math.sin(angle / 2);
+            this.maxChordSquared = chord * chord;
+        }
+
+        double[] scratch(int length) {
+            if (scratch.length < length) scratch = new double[length];
+            return scratch;
+        }
+
+        void add(int point, double distanceKm) {
+            if (size == points.length) {
+                points = Arrays.copyOf(points, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            points[size] = point;
+            distances[size++] = distanceKm;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package isep.ipp.pt.g322.datastructures.tree;
+
+import isep.ipp.pt.g322.model.Station;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+/**
+ * Read-only copy of a KDTree2 whose nodes live outside the Java heap, in direct or file-mapped buffers.
+ * Each node is a fixed 64 byte record (coordinates, subtree bounding box, children, split axis and the
+ * offset of its stations in the KDTree2 id order), so the GC only sees a handful of buffer objects no
+ * matter how many nodes there are. Stations are only looked up, by id, for the results a query returns.
+ * <p>
+ * A file written by {@link #build(KDTree2, Path)} can be reopened with {@link #open(Path, IntFunction)}
+ * without rebuilding; the lookup must then return the stations in the id order of the KDTree2 it was
+ * built from (which is the same for the same input). Queries only read the buffers, so they can run
+ * from several threads.
+ */
+public class OffHeapKdTree {
+    private static final int MAGIC = 0x4B44_4F48; // "KDOH"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    static final int NODE_BYTES = 64;
+    private static final int CHUNK_SHIFT = 20; // 2^20 nodes = 64 MiB per buffer
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    private static final long CHUNK_BYTES = (long) NODE_BYTES << CHUNK_SHIFT;
+
+    private static final int LAT = 0;
+    private static final int LON = 8;
+    private static final int MIN_LAT = 16;
+    private static final int MAX_LAT = 24;
+    private static final int MIN_LON = 32;
+    private static final int MAX_LON = 40;
+    private static final int LEFT = 48;
+    private static final int RIGHT = 52;
+    private static final int BUCKET_ID = 56;
+    private static final int BUCKET_SIZE_AND_AXIS = 60; // bucket size << 1 | axis
+
+    private static final int NONE = -1;
+
+    private final ByteBuffer[] chunks;
+    private final int nodeCount;
+    private final int stationCount;
+    private final IntFunction<Station> stations;
+
+    private OffHeapKdTree(ByteBuffer[] chunks, int nodeCount, int stationCount, IntFunction<Station> stations) {
+        this.chunks = chunks;
+        this.nodeCount = nodeCount;
+        this.stationCount = stationCount;
+        this.stations = stations;
+    }
+
+    /**
+     * Copies the tree into direct buffers. Only the tree's id table is kept, so the heap tree can be
+     * dropped afterwards.
+     */
+    public static OffHeapKdTree build(KDTree2 tree) {
+        Objects.requireNonNull(tree, "tree");
+        int nodeCount = tree.size();
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(nodeCount)];
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = ByteBuffer.allocateDirect(chunkBytes(nodeCount, c)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        OffHeapKdTree offHeap = new OffHeapKdTree(chunks, nodeCount, tree.getStationCount(), lookup(tree));
+        offHeap.copy(tree.getRoot(), new int[1]);
+        return offHeap;
+    }
+
+    /**
+     * Copies the tree into a file and maps it, so the nodes are paged in by the OS instead of being
+     * held in memory. An existing file is overwritten.
+     */
+    public static OffHeapKdTree build(KDTree2 tree, Path file) {
+        Objects.requireNonNull(tree, "tree");
+        int nodeCount = tree.size();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                    .putInt(MAGIC).putInt(VERSION).putInt(nodeCount).putInt(tree.getStationCount())
+                    .flip();
+            channel.write(header, 0);
+
+            ByteBuffer[] chunks = map(channel, FileChannel.MapMode.READ_WRITE, nodeCount);
+            OffHeapKdTree offHeap = new OffHeapKdTree(chunks, nodeCount, tree.getStationCount(), lookup(tree));
+            offHeap.copy(tree.getRoot(), new int[1]);
+            for (ByteBuffer chunk : chunks) {
+                ((MappedByteBuffer) chunk).force();
+            }
+            return offHeap;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write off-heap index to " + file, e);
+        }
+    }
+
+    // closes over a copy of the id table only, never over the tree and its nodes
+    private static IntFunction<Station> lookup(KDTree2 tree) {
+        Station[] byId = tree.getStationsById();
+        return id -> byId[id];
+    }
+
+    /**
+     * Maps a file written by {@link #build(KDTree2, Path)} read-only.
+     *
+     * @param stations Station for each id, in the id order of the KDTree2 the file was built from
+     */
+    public static OffHeapKdTree open(Path file, IntFunction<Station> stations) {
+        Objects.requireNonNull(stations, "stations");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (channel.read(header, 0) != HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException(file + " is not an off-heap KD-tree file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("Unsupported off-heap KD-tree version " + header.getInt(4));
+            }
+            int nodeCount = header.getInt(8);
+            if (channel.size() != HEADER_BYTES + (long) nodeCount * NODE_BYTES) {
+                throw new IllegalArgumentException(file + " is truncated");
+            }
+            return new OffHeapKdTree(map(channel, FileChannel.MapMode.READ_ONLY, nodeCount),
+                    nodeCount, header.getInt(12), stations);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open off-heap index " + file, e);
+        }
+    }
+
+    private static ByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, int nodeCount) throws IOException {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(nodeCount)];
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = channel.map(mode, HEADER_BYTES + c * CHUNK_BYTES, chunkBytes(nodeCount, c))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    private static int chunkCount(int nodeCount) {
+        return (int) ((nodeCount + (long) CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+
+    private static int chunkBytes(int nodeCount, int chunk) {
+        return (int) (Math.min(nodeCount - ((long) chunk << CHUNK_SHIFT), 1L << CHUNK_SHIFT) * NODE_BYTES);
+    }
+
+    /**
+     * Writes the subtree in pre-order, so a parent and its left child usually share a page.
+     *
+     * @return Index of the written node, NONE for an empty subtree
+     */
+    private int copy(KDTree2.KdNode node, int[] next) {
+        if (node == null) return NONE;
+
+        int index = next[0]++;
+        ByteBuffer chunk = chunk(index);
+        int at = offset(index);
+        chunk.putDouble(at + LAT, node.lat);
+        chunk.putDouble(at + LON, node.lon);
+        chunk.putDouble(at + MIN_LAT, node.minLat);
+        chunk.putDouble(at + MAX_LAT, node.maxLat);
+        chunk.putDouble(at + MIN_LON, node.minLon);
+        chunk.putDouble(at + MAX_LON, node.maxLon);
+        chunk.putInt(at + BUCKET_ID, node.bucketId);
+        chunk.putInt(at + BUCKET_SIZE_AND_AXIS, node.stationsAtPoint.size() << 1 | node.axis);
+
+        int left = copy(node.left, next);
+        int right = copy(node.right, next);
+        chunk.putInt(at + LEFT, left);
+        chunk.putInt(at + RIGHT, right);
+        return index;
+    }
+
+    private ByteBuffer chunk(int index) {
+        return chunks[index >>> CHUNK_SHIFT];
+    }
+
+    private static int offset(int index) {
+        return (index & CHUNK_MASK) * NODE_BYTES;
+    }
+
+    private int root() {
+        return nodeCount == 0 ? NONE : 0;
+    }
+
+    public int size() {
+        return nodeCount;
+    }
+
+    public int getStationCount() {
+        return stationCount;
+    }
+
+    /**
+     * Bytes held outside the heap by the node records.
+     */
+    public long getOffHeapBytes() {
+        return (long) nodeCount * NODE_BYTES;
+    }
+
+    // ==================== QUERIES ====================
+
+    /**
+     * Stations inside the latitude/longitude box, in station id order.
+     */
+    public List<Station> rangeQuery(double minLat, double maxLat, double minLon, double maxLon) {
+        IdList ids = new IdList();
+        range(root(), minLat, maxLat, minLon, maxLon, ids);
+
+        List<Station> result = new ArrayList<>(ids.size);
+        for (int i = 0; i < ids.size; i++) {
+            result.add(stations.apply(ids.ids[i]));
+        }
+        return result;
+    }
+
+    private void range(int index, double minLat, double maxLat, double minLon, double maxLon, IdList out) {
+        if (index == NONE) return;
+        ByteBuffer chunk = chunk(index);
+        int at = offset(index);
+        if (chunk.getDouble(at + MAX_LAT) < minLat || chunk.getDouble(at + MIN_LAT) > maxLat
+                || chunk.getDouble(at + MAX_LON) < minLon || chunk.getDouble(at + MIN_LON) > maxLon) {
+            return;
+        }
+
+        // in-order, so ids come out ascending
+        range(chunk.getInt(at + LEFT), minLat, maxLat, minLon, maxLon, out);
+        double lat = chunk.getDouble(at + LAT);
+        double lon = chunk.getDouble(at + LON);
+        if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+            out.addBucket(chunk.getInt(at + BUCKET_ID), chunk.getInt(at + BUCKET_SIZE_AND_AXIS) >>> 1, 0.0);
+        }
+        range(chunk.getInt(at + RIGHT), minLat, maxLat, minLon, maxLon, out);
+    }
+
+    /**
+     * Stations within radiusKm of the point, closest first (stations at the same distance in id order).
+     */
+    public List<KDTree2.StationDistance> circularRangeQuery(double lat, double lon, double radiusKm) {
+        IdList hits = new IdList();
+        if (radiusKm >= 0) {
+            circular(root(), lat, lon, radiusKm, hits);
+        }
+        return resolveSorted(hits);
+    }
+
+    private void circular(int index, double lat, double lon, double radiusKm, IdList out) {
+        if (index == NONE) return;
+        ByteBuffer chunk = chunk(index);
+        int at = offset(index);
+        if (minDistanceToBox(lat, lon, chunk, at) > radiusKm) return;
+
+        circular(chunk.getInt(at + LEFT), lat, lon, radiusKm, out);
+        double distance = SphericalDistances.haversineKm(lat, lon, chunk.getDouble(at + LAT), chunk.getDouble(at + LON));
+        if (distance <= radiusKm) {
+            out.addBucket(chunk.getInt(at + BUCKET_ID), chunk.getInt(at + BUCKET_SIZE_AND_AXIS) >>> 1, distance);
+        }
+        circular(chunk.getInt(at + RIGHT), lat, lon, radiusKm, out);
+    }
+
+    public KDTree2.StationDistance nearestNeighbor(double lat, double lon) {
+        List<KDTree2.StationDistance> nearest = kNearestNeighbors(lat, lon, 1);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * The k closest stations, closest first. Stations sharing a coordinate are taken in id order.
+     */
+    public List<KDTree2.StationDistance> kNearestNeighbors(double lat, double lon, int k) {
+        if (k <= 0 || nodeCount == 0) return new ArrayList<>();
+        IdHeap heap = new IdHeap(Math.min(k, stationCount));
+        kNearest(root(), lat, lon, heap);
+        return resolveSorted(heap.toIdList());
+    }
+
+    private void kNearest(int index, double lat, double lon, IdHeap heap) {
+        if (index == NONE) return;
+        ByteBuffer chunk = chunk(index);
+        int at = offset(index);
+        if (heap.isFull() && minDistanceToBox(lat, lon, chunk, at) >= heap.max()) return;
+
+        double nodeLat = chunk.getDouble(at + LAT);
+        double nodeLon = chunk.getDouble(at + LON);
+        double distance = SphericalDistances.haversineKm(lat, lon, nodeLat, nodeLon);
+        int bucketId = chunk.getInt(at + BUCKET_ID);
+        int bucketSize = chunk.getInt(at + BUCKET_SIZE_AND_AXIS) >>> 1;
+        for (int i = 0; i < bucketSize; i++) {
+            if (!heap.offer(bucketId + i, distance)) break;
+        }
+
+        boolean latitudeSplit = (chunk.getInt(at + BUCKET_SIZE_AND_AXIS) & 1) == 0;
+        boolean goLeft = latitudeSplit ? lat < nodeLat : lon < nodeLon;
+        int near = chunk.getInt(at + (goLeft ? LEFT : RIGHT));
+        int far = chunk.getInt(at + (goLeft ? RIGHT : LEFT));
+        kNearest(near, lat, lon, heap);
+        kNearest(far, lat, lon, heap);
+    }
+
+    private List<KDTree2.StationDistance> resolveSorted(IdList hits) {
+        List<KDTree2.StationDistance> result = new ArrayList<>(hits.size);
+        for (int i = 0; i < hits.size; i++) {
+            result.add(new KDTree2.StationDistance(stations.apply(hits.ids[i]), hits.distances[i]));
+        }
+        result.sort(Comparator.comparingDouble(sd -> sd.distanceKm));
+        return result;
+    }
+
+    private static double minDistanceToBox(double lat, double lon, ByteBuffer chunk, int at) {
+        return SphericalDistances.minDistanceToBoxKm(lat, lon, chunk.getDouble(at + MIN_LAT), chunk.getDouble(at + MAX_LAT),
+                chunk.getDouble(at + MIN_LON), chunk.getDouble(at + MAX_LON));
+    }
+
+    // ==================== PRIMITIVE SCRATCH ====================
+
+    private static class IdList {
+        int[] ids = new int[16];
+        double[] distances = new double[16];
+        int size;
+
+        void addBucket(int firstId, int count, double distanceKm) {
+            if (size + count > ids.length) {
+                int capacity = Math.max(ids.length * 2, size + count);
+                ids = Arrays.copyOf(ids, capacity);
+                distances = Arrays.copyOf(distances, capacity);
+            }
+            for (int i = 0; i < count; i++) {
+                ids[size] = firstId + i;
+                distances[size++] = distanceKm;
+            }
+        }
+    }
+
+    /**
+     * Bounded max-heap on distance; on equal distances the larger id is evicted first.
+     */
+    private static class IdHeap {
+        final int[] ids;
+        final double[] distances;
+        int size;
+
+        IdHeap(int capacity) {
+            this.ids = new int[capacity];
+            this.distances = new double[capacity];
+        }
+
+        boolean isFull() {
+            return size == ids.length;
+        }
+
+        double max() {
+            return distances[0];
+        }
+
+        /**
+         * @return false once the candidate no longer fits, so the rest of its bucket can be skipped
+         */
+        boolean offer(int id, double distanceKm) {
+            if (!isFull()) {
+                int i = size++;
+                ids[i] = id;
+                distances[i] = distanceKm;
+                while (i > 0 && worse(i, (i - 1) / 2)) {
+                    swap(i, (i - 1) / 2);
+                    i = (i - 1) / 2;
+                }
+                return true;
+            }
+            if (distanceKm > distances[0] || (distanceKm == distances[0] && id > ids[0])) return false;
+
+            ids[0] = id;
+            distances[0] = distanceKm;
+            int i = 0;
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                if (left < size && worse(left, largest)) largest = left;
+                if (left + 1 < size && worse(left + 1, largest)) largest = left + 1;
+                if (largest == i) return true;
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private boolean worse(int a, int b) {
+            return distances[a] > distances[b] || (distances[a] == distances[b] && ids[a] > ids[b]);
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double distance = distances[a];
+            distances[a] = distances[b];
+            distances[b] = distance;
+        }
+
+        IdList toIdList() {
+            // ascending id order, so the stable distance sort keeps ties in id order
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, Comparator.comparingInt(i -> ids[i]));
+
+            IdList list = new IdList();
+            for (int i : order) list.addBucket(ids[i], 1, distances[i]);
+            return list;
+        }
+    }
+}
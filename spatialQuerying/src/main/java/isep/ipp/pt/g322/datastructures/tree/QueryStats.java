@@ -0,0 +1,106 @@
+package isep.ipp.pt.g322.datastructures.tree;
+
+/**
+ * Work done by one KDTree2 query, recorded while KDTree2.setStatsRecording(true) is on.
+ * A node counts as visited when its point is examined and as pruned when the whole subtree under it is
+ * skipped; the pruning ratio is pruned / (visited + pruned), so a ratio close to 0 with many visited
+ * nodes per result points to a radius or filter that defeats the tree (or to a degenerate tree).
+ */
+public class QueryStats {
+    String queryType;
+    long nodesVisited;
+    long distanceEvaluations;
+    long subtreesPruned;
+    long heapOperations;
+    int resultSize;
+    long elapsedNanos;
+
+    // queries delegating to other public queries are recorded once, as the outermost one
+    int depth;
+    long startNanos;
+    // false for a query that threw before reaching its result
+    boolean finished;
+    // finished and not yet taken by KDTree2.takeLastQueryStats
+    boolean fresh;
+
+    QueryStats() {
+    }
+
+    void start(String queryType) {
+        this.queryType = queryType;
+        this.nodesVisited = 0;
+        this.distanceEvaluations = 0;
+        this.subtreesPruned = 0;
+        this.heapOperations = 0;
+        this.resultSize = 0;
+        this.elapsedNanos = 0;
+        this.finished = false;
+        this.fresh = false;
+        this.startNanos = System.nanoTime();
+    }
+
+    void finish(int resultSize) {
+        this.resultSize = resultSize;
+        this.elapsedNanos = System.nanoTime() - startNanos;
+        this.finished = true;
+        this.fresh = true;
+    }
+
+    QueryStats copy() {
+        QueryStats copy = new QueryStats();
+        copy.queryType = queryType;
+        copy.nodesVisited = nodesVisited;
+        copy.distanceEvaluations = distanceEvaluations;
+        copy.subtreesPruned = subtreesPruned;
+        copy.heapOperations = heapOperations;
+        copy.resultSize = resultSize;
+        copy.elapsedNanos = elapsedNanos;
+        return copy;
+    }
+
+    public String getQueryType() {
+        return queryType;
+    }
+
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * Haversine evaluations, including the ones used to bound subtree boxes.
+     */
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+
+    public long getSubtreesPruned() {
+        return subtreesPruned;
+    }
+
+    /**
+     * Candidates offered to the k-nearest heap.
+     */
+    public long getHeapOperations() {
+        return heapOperations;
+    }
+
+    public int getResultSize() {
+        return resultSize;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getPruningRatio() {
+        long total = nodesVisited + subtreesPruned;
+        return total == 0 ? 0.0 : (double) subtreesPruned / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueryStats{%s: visited=%d, distances=%d, pruned=%d (%.1f%%), heapOps=%d, results=%d, %.3f ms}",
+                queryType, nodesVisited, distanceEvaluations, subtreesPruned, getPruningRatio() * 100,
+                heapOperations, resultSize, elapsedNanos / 1_000_000.0);
+    }
+}
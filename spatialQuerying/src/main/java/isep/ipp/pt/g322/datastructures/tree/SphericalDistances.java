@@ -0,0 +1,51 @@
+package isep.ipp.pt.g322.datastructures.tree;
+
+/**
+ * Distance helpers shared by the array based trees (OffHeapKdTree, LeafKdTree). KDTree2 keeps its own
+ * copies because it counts every evaluation for QueryStats.
+ */
+final class SphericalDistances {
+    static final double EARTH_RADIUS_KM = 6371.0;
+
+    private SphericalDistances() {
+    }
+
+    static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return EARTH_RADIUS_KM * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Exact shortest distance (km) from a point to a latitude/longitude box, same as KDTree2.minDistanceToBox.
+     */
+    static double minDistanceToBoxKm(double lat, double lon, double minLat, double maxLat, double minLon, double maxLon) {
+        if (lon >= minLon && lon <= maxLon) {
+            double latGap = Math.max(0, Math.max(minLat - lat, lat - maxLat));
+            return Math.toRadians(latGap) * EARTH_RADIUS_KM;
+        }
+
+        // nearer edge meridian, possibly the other way round across the antimeridian
+        double toMin = floorMod360(minLon - lon);
+        double toMax = floorMod360(lon - maxLon);
+        double edgeLon = toMin < toMax ? minLon : maxLon;
+        double dLon = Math.toRadians(Math.min(toMin, toMax));
+        if (dLon < Math.PI / 2) {
+            double latRad = Math.toRadians(lat);
+            double footLat = Math.toDegrees(Math.atan2(Math.tan(latRad), Math.cos(dLon)));
+            if (footLat >= minLat && footLat <= maxLat) {
+                return EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.abs(Math.cos(latRad) * Math.sin(dLon))));
+            }
+        }
+        return Math.min(haversineKm(lat, lon, minLat, edgeLon), haversineKm(lat, lon, maxLat, edgeLon));
+    }
+
+    // angle in [0, 360)
+    static double floorMod360(double degrees) {
+        double mod = degrees % 360.0;
+        return mod < 0 ? mod + 360.0 : mod;
+    }
+}
@@ -0,0 +1,197 @@
+package isep.ipp.pt.g322.datastructures.tree;
+
+import isep.ipp.pt.g322.model.Station;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reusable query result: station ids of a KDTree2 and their distances in parallel primitive arrays.
+ * Queries taking a StationHits clear and refill it, growing the arrays only when a result is larger
+ * than any before, so a caller that keeps one instance per thread allocates nothing per hit.
+ * Not thread-safe; the content is only valid until the next query that fills it.
+ */
+public class StationHits {
+    private int[] ids;
+    private double[] distances;
+    private int size;
+    private KDTree2 source;
+
+    // scratch space for sorting, kept between queries
+    private int[] idBuffer = new int[0];
+    private double[] distanceBuffer = new double[0];
+
+    public StationHits() {
+        this(16);
+    }
+
+    public StationHits(int initialCapacity) {
+        this.ids = new int[Math.max(1, initialCapacity)];
+        this.distances = new double[ids.length];
+    }
+
+    void reset(KDTree2 source) {
+        this.source = source;
+        this.size = 0;
+    }
+
+    void add(int id, double distanceKm) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            distances = Arrays.copyOf(distances, size * 2);
+        }
+        ids[size] = id;
+        distances[size] = distanceKm;
+        size++;
+    }
+
+    // ---- bounded max-heap on distance, used by k-nearest queries ----
+
+    void heapOffer(int k, int id, double distanceKm) {
+        if (size < k) {
+            add(id, distanceKm);
+            int i = size - 1;
+            while (i > 0 && distances[(i - 1) / 2] < distances[i]) {
+                swap(i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        } else if (distanceKm < distances[0]) {
+            ids[0] = id;
+            distances[0] = distanceKm;
+            siftDown(0, size);
+        }
+    }
+
+    double heapMax() {
+        return distances[0];
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int largest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < end && distances[left] > distances[largest]) largest = left;
+            if (right < end && distances[right] > distances[largest]) largest = right;
+            if (largest == i) return;
+            swap(i, largest);
+            i = largest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        double distance = distances[a];
+        distances[a] = distances[b];
+        distances[b] = distance;
+    }
+
+    /**
+     * Stable sort by distance (hits of one coordinate bucket stay in name order). Already ordered
+     * stretches are detected and skipped by the merge.
+     */
+    void sortByDistance() {
+        if (idBuffer.length < size) {
+            idBuffer = new int[ids.length];
+            distanceBuffer = new double[ids.length];
+        }
+        mergeSort(0, size);
+    }
+
+    private void mergeSort(int from, int to) {
+        if (to - from < 2) return;
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid);
+        mergeSort(mid, to);
+        if (distances[mid - 1] <= distances[mid]) return;
+
+        System.arraycopy(ids, from, idBuffer, from, to - from);
+        System.arraycopy(distances, from, distanceBuffer, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && distanceBuffer[i] <= distanceBuffer[j])) {
+                ids[k] = idBuffer[i];
+                distances[k] = distanceBuffer[i++];
+            } else {
+                ids[k] = idBuffer[j];
+                distances[k] = distanceBuffer[j++];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getId(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    public double getDistance(int index) {
+        checkIndex(index);
+        return distances[index];
+    }
+
+    public Station getStation(int index) {
+        checkIndex(index);
+        return source.getStation(ids[index]);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    /**
+     * Copies the stations into the given array (grown if too small) and returns it.
+     */
+    public Station[] stationsInto(Station[] target) {
+        Station[] result = target.length >= size ? target : new Station[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = source.getStation(ids[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Copies the distances into the given array (grown if too small) and returns it.
+     */
+    public double[] distancesInto(double[] target) {
+        double[] result = target.length >= size ? target : new double[size];
+        System.arraycopy(distances, 0, result, 0, size);
+        return result;
+    }
+
+    /**
+     * Boxed view for callers of the List based API.
+     */
+    public List<KDTree2.StationDistance> toStationDistances() {
+        List<KDTree2.StationDistance> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new KDTree2.StationDistance(source.getStation(ids[i]), distances[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Current array capacity, i.e. the largest result held without growing.
+     */
+    public int capacity() {
+        return ids.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StationHits{size=%d, capacity=%d}", size, ids.length);
+    }
+}
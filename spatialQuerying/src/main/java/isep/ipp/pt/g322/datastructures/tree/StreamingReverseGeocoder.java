@@ -0,0 +1,279 @@
+package isep.ipp.pt.g322.datastructures.tree;
+
+import isep.ipp.pt.g322.datastructures.tree.KDTree2.KdNode;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2.StationDistance;
+
+/**
+ * Nearest station for a stream of GPS fixes from one vehicle, answering the same as
+ * KDTree2.nearestNeighbor but exploiting that consecutive fixes are close together:
+ * <ol>
+ *   <li>Neighborhood cache: the last answer's point c together with its nearest points. If R is the
+ *   distance from c to the farthest cached point, every point not cached is at least R away from c
+ *   and so, by the triangle inequality, at least R - d(q, c) away from the fix q. When the closest
+ *   cached point is nearer than that it is the answer and the tree is not touched.</li>
+ *   <li>Warm start: otherwise the search restarts from the deepest node on the last answer's
+ *   root-to-node path whose KD cell still contains the circle around q through the closest cached
+ *   point, and prunes with that distance from the start.</li>
+ * </ol>
+ * A fix that jumps far away falls back to a search from the root. Pruning uses exact spherical
+ * distances to the subtree bounding boxes. Keeps state between calls, so use one instance per stream
+ * and per thread; the tree itself is only read.
+ */
+public class StreamingReverseGeocoder {
+    public static final int DEFAULT_NEIGHBORHOOD_SIZE = 16;
+    // the search bound starts just above the cached distance so the cached point itself is found again
+    private static final double BOUND_SLACK_KM = 1e-9;
+
+    private final KDTree2 tree;
+    private final int neighborhoodSize;
+
+    // root-to-node path of the last answer, path[pathLength - 1] is the last answer's node
+    private KdNode[] path;
+    private int pathLength;
+
+    // last answer's node first, then its nearest nodes by distance
+    private final KdNode[] neighbors;
+    private final double[] neighborDistances;
+    private int neighborCount;
+    private double neighborhoodRadiusKm;
+
+    // search scratch
+    private KdNode[] stack;
+    private KdNode best;
+    private double bestDistanceKm;
+    private KdNode[] bestPath;
+    private int bestPathLength;
+
+    private long fixes;
+    private long neighborhoodHits;
+    private long warmStarts;
+    private long fullSearches;
+
+    public StreamingReverseGeocoder(KDTree2 tree) {
+        this(tree, DEFAULT_NEIGHBORHOOD_SIZE);
+    }
+
+    /**
+     * @param neighborhoodSize Points cached around the last answer, including it. Larger caches cover
+     *                         longer moves without a search but cost more per fix.
+     */
+    public StreamingReverseGeocoder(KDTree2 tree, int neighborhoodSize) {
+        if (tree == null) {
+            throw new IllegalArgumentException("tree must not be null");
+        }
+        if (neighborhoodSize < 1) {
+            throw new IllegalArgumentException("neighborhoodSize must be at least 1");
+        }
+        this.tree = tree;
+        this.neighborhoodSize = neighborhoodSize;
+        this.neighbors = new KdNode[neighborhoodSize];
+        this.neighborDistances = new double[neighborhoodSize];
+
+        int depth = Math.max(1, tree.height() + 1);
+        this.path = new KdNode[depth];
+        this.stack = new KdNode[depth];
+        this.bestPath = new KdNode[depth];
+    }
+
+    /**
+     * Nearest station to the fix; among stations sharing a coordinate the first by name, as in
+     * KDTree2.nearestNeighbor.
+     *
+     * @return Closest station with its distance, null if the tree is empty
+     */
+    public StationDistance locate(double lat, double lon) {
+        KdNode root = tree.getRoot();
+        if (root == null) return null;
+        fixes++;
+
+        if (neighborCount == 0) {
+            fullSearches++;
+            best = null;
+            bestDistanceKm = Double.POSITIVE_INFINITY;
+            search(root, 0, lat, lon);
+            return moveTo(lat, lon);
+        }
+
+        KdNode cached = neighbors[0];
+        double cachedDistance = SphericalDistances.haversineKm(lat, lon, cached.lat, cached.lon);
+        double centerDistance = cachedDistance;
+        // within half the distance to its closest other point the last answer is still the nearest
+        double closestOther = neighborCount > 1 ? neighborDistances[1] : neighborhoodRadiusKm;
+        if (centerDistance < closestOther / 2) {
+            neighborhoodHits++;
+            return new StationDistance(cached.stationsAtPoint.get(0), centerDistance);
+        }
+        for (int i = 1; i < neighborCount; i++) {
+            double distance = SphericalDistances.haversineKm(lat, lon, neighbors[i].lat, neighbors[i].lon);
+            if (distance < cachedDistance) {
+                cached = neighbors[i];
+                cachedDistance = distance;
+            }
+        }
+        if (cachedDistance < neighborhoodRadiusKm - centerDistance) {
+            neighborhoodHits++;
+            return new StationDistance(cached.stationsAtPoint.get(0), cachedDistance);
+        }
+
+        int start = warmStartDepth(lat, lon, cachedDistance + BOUND_SLACK_KM);
+        if (start > 0) {
+            warmStarts++;
+        } else {
+            fullSearches++;
+        }
+        System.arraycopy(path, 0, stack, 0, start);
+        best = null;
+        bestDistanceKm = cachedDistance + BOUND_SLACK_KM;
+        search(path[start], start, lat, lon);
+        return moveTo(lat, lon);
+    }
+
+    /**
+     * Forgets the last answer, e.g. when the vehicle restarts somewhere else. The next fix searches
+     * from the root.
+     */
+    public void reset() {
+        neighborCount = 0;
+        pathLength = 0;
+    }
+
+    public long getFixCount() {
+        return fixes;
+    }
+
+    /**
+     * @return Fixes answered from the neighborhood cache alone
+     */
+    public long getNeighborhoodHits() {
+        return neighborhoodHits;
+    }
+
+    /**
+     * @return Fixes searched from a node below the root
+     */
+    public long getWarmStarts() {
+        return warmStarts;
+    }
+
+    /**
+     * @return Fixes searched from the root
+     */
+    public long getFullSearches() {
+        return fullSearches;
+    }
+
+    public int getNeighborhoodSize() {
+        return neighborhoodSize;
+    }
+
+    // deepest level of the last path whose cell keeps every point outside its subtree farther than boundKm
+    private int warmStartDepth(double lat, double lon, double boundKm) {
+        int depth = 0;
+        double margin = Double.POSITIVE_INFINITY;
+        for (int i = 1; i < pathLength; i++) {
+            KdNode parent = path[i - 1];
+            boolean left = path[i] == parent.left;
+            double query = parent.axis == 0 ? lat : lon;
+            double split = parent.axis == 0 ? parent.lat : parent.lon;
+            // equal coordinates may sit on either side of a split, so the cells are closed
+            if (left ? query > split : query < split) break;
+
+            margin = Math.min(margin, distanceToSplitKm(parent, lat, lon));
+            if (margin <= boundKm) break;
+            depth = i;
+        }
+        return depth;
+    }
+
+    // shortest distance from the point to the boundary of the node's children's cells: the split
+    // parallel, or for a longitude split the split meridian and the antimeridian, where a cell that
+    // reaches ±180° borders points on the other side of the split
+    private static double distanceToSplitKm(KdNode node, double lat, double lon) {
+        if (node.axis == 0) {
+            return Math.toRadians(Math.abs(lat - node.lat)) * SphericalDistances.EARTH_RADIUS_KM;
+        }
+        return Math.min(distanceToMeridianKm(lat, Math.abs(lon - node.lon)),
+                distanceToMeridianKm(lat, 180.0 - Math.abs(lon)));
+    }
+
+    // distance to the meridian half from pole to pole that lies dLonDeg (0..360) away
+    private static double distanceToMeridianKm(double lat, double dLonDeg) {
+        double dLon = Math.toRadians(Math.min(dLonDeg, 360.0 - dLonDeg));
+        if (dLon >= Math.PI / 2) {
+            // the meridian is on the far hemisphere, its nearest point is the nearer pole
+            return Math.toRadians(90.0 - Math.abs(lat)) * SphericalDistances.EARTH_RADIUS_KM;
+        }
+        return SphericalDistances.EARTH_RADIUS_KM
+                * Math.asin(Math.min(1.0, Math.cos(Math.toRadians(lat)) * Math.sin(dLon)));
+    }
+
+    private void search(KdNode node, int depth, double lat, double lon) {
+        if (node == null) return;
+        if (SphericalDistances.minDistanceToBoxKm(lat, lon, node.minLat, node.maxLat, node.minLon, node.maxLon)
+                >= bestDistanceKm) {
+            return;
+        }
+        stack[depth] = node;
+
+        double distance = SphericalDistances.haversineKm(lat, lon, node.lat, node.lon);
+        if (distance < bestDistanceKm) {
+            best = node;
+            bestDistanceKm = distance;
+            System.arraycopy(stack, 0, bestPath, 0, depth + 1);
+            bestPathLength = depth + 1;
+        }
+
+        boolean goLeft = node.axis == 0 ? lat < node.lat : lon < node.lon;
+        search(goLeft ? node.left : node.right, depth + 1, lat, lon);
+        search(goLeft ? node.right : node.left, depth + 1, lat, lon);
+    }
+
+    // takes the search result as the new answer, refreshing path and neighborhood if the node changed
+    private StationDistance moveTo(double lat, double lon) {
+        KdNode found = best;
+        double distance = bestDistanceKm;
+        if (neighborCount == 0 || found != neighbors[0]) {
+            KdNode[] previous = path;
+            path = bestPath;
+            bestPath = previous;
+            pathLength = bestPathLength;
+            collectNeighborhood(found);
+        }
+        return new StationDistance(found.stationsAtPoint.get(0), distance);
+    }
+
+    private void collectNeighborhood(KdNode center) {
+        neighborCount = 0;
+        collectNearest(tree.getRoot(), center.lat, center.lon);
+        // fewer points than the cache holds: every point is cached and any answer from it is exact
+        neighborhoodRadiusKm = neighborCount < neighborhoodSize
+                ? Double.POSITIVE_INFINITY
+                : neighborDistances[neighborCount - 1];
+    }
+
+    // k nearest nodes to a point kept sorted by insertion, k is small
+    private void collectNearest(KdNode node, double lat, double lon) {
+        if (node == null) return;
+        if (neighborCount == neighborhoodSize
+                && SphericalDistances.minDistanceToBoxKm(lat, lon, node.minLat, node.maxLat, node.minLon, node.maxLon)
+                >= neighborDistances[neighborCount - 1]) {
+            return;
+        }
+
+        double distance = SphericalDistances.haversineKm(lat, lon, node.lat, node.lon);
+        if (neighborCount < neighborhoodSize || distance < neighborDistances[neighborCount - 1]) {
+            int i = neighborCount < neighborhoodSize ? neighborCount++ : neighborCount - 1;
+            while (i > 0 && neighborDistances[i - 1] > distance) {
+                neighbors[i] = neighbors[i - 1];
+                neighborDistances[i] = neighborDistances[i - 1];
+                i--;
+            }
+            neighbors[i] = node;
+            neighborDistances[i] = distance;
+        }
+
+        boolean goLeft = node.axis == 0 ? lat < node.lat : lon < node.lon;
+        collectNearest(goLeft ? node.left : node.right, lat, lon);
+        collectNearest(goLeft ? node.right : node.left, lat, lon);
+    }
+}
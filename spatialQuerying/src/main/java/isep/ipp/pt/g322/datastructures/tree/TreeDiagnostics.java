@@ -0,0 +1,223 @@
+package isep.ipp.pt.g322.datastructures.tree;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Shape of a KDTree2, gathered in one pass over its nodes (see KDTree2.diagnose()).
+ * Depths are 1-based (the root is at depth 1), so the average node depth is the number of nodes an exact
+ * point lookup visits on average. Split skew of an internal node is |left - right| / (left + right) over
+ * the node counts of its subtrees: 0 for an even split, 1 when everything went to one side. Average skews
+ * are weighted by subtree size, since a lopsided split near the root costs every query while the
+ * unavoidable 1-vs-2 splits of tiny subtrees cost almost nothing.
+ */
+public class TreeDiagnostics {
+    static final int AXIS_LATITUDE = 0;
+    static final int AXIS_LONGITUDE = 1;
+
+    // rough sizes on a 64-bit JVM with compressed oops
+    private static final long NODE_BYTES = 104;
+    private static final long LIST_BYTES = 24;
+    private static final long ARRAY_HEADER_BYTES = 16;
+    private static final long REFERENCE_BYTES = 4;
+
+    private int nodeCount;
+    private int stationCount;
+    private int height;
+    private int leafCount;
+    private long nodeDepthSum;
+    private long leafDepthSum;
+    private long stationDepthSum;
+    private int[] nodesPerDepth = new int[8];
+    private final Map<Integer, Integer> bucketDistribution = new TreeMap<>();
+    private final int[] splits = new int[2];
+    private final double[] weightedSkewSum = new double[2];
+    private final long[] skewWeight = new long[2];
+    private final double[] maxSkew = new double[2];
+    private long memoryBytes;
+
+    TreeDiagnostics(KDTree2.KdNode root, int countryCount) {
+        collect(root, 1, countryCount);
+        memoryBytes += align(ARRAY_HEADER_BYTES + REFERENCE_BYTES * stationCount); // stationsById
+        nodesPerDepth = Arrays.copyOf(nodesPerDepth, height);
+    }
+
+    /**
+     * @return Number of nodes of the subtree
+     */
+    private int collect(KDTree2.KdNode node, int depth, int countryCount) {
+        if (node == null) return 0;
+
+        int bucketSize = node.stationsAtPoint.size();
+        nodeCount++;
+        stationCount += bucketSize;
+        height = Math.max(height, depth);
+        nodeDepthSum += depth;
+        stationDepthSum += (long) depth * bucketSize;
+        if (depth > nodesPerDepth.length) nodesPerDepth = Arrays.copyOf(nodesPerDepth, depth * 2);
+        nodesPerDepth[depth - 1]++;
+        bucketDistribution.merge(bucketSize, 1, Integer::sum);
+
+        memoryBytes += NODE_BYTES + LIST_BYTES + align(ARRAY_HEADER_BYTES + REFERENCE_BYTES * bucketSize);
+        if (node.subtreeCountryCounts != null) {
+            memoryBytes += align(ARRAY_HEADER_BYTES + 4L * countryCount);
+        }
+
+        int left = collect(node.left, depth + 1, countryCount);
+        int right = collect(node.right, depth + 1, countryCount);
+
+        if (left + right == 0) {
+            leafCount++;
+            leafDepthSum += depth;
+        } else if (left + right >= 2) {
+            // a node with a single child cannot split evenly, so it would only add noise
+            double skew = (double) Math.abs(left - right) / (left + right);
+            splits[node.axis]++;
+            weightedSkewSum[node.axis] += skew * (left + right);
+            skewWeight[node.axis] += left + right;
+            maxSkew[node.axis] = Math.max(maxSkew[node.axis], skew);
+        }
+        return 1 + left + right;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getStationCount() {
+        return stationCount;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Height of a perfectly balanced tree with the same number of nodes.
+     */
+    public int getOptimalHeight() {
+        return 32 - Integer.numberOfLeadingZeros(nodeCount);
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    public double getAverageLeafDepth() {
+        return leafCount == 0 ? 0.0 : (double) leafDepthSum / leafCount;
+    }
+
+    public double getAverageNodeDepth() {
+        return nodeCount == 0 ? 0.0 : (double) nodeDepthSum / nodeCount;
+    }
+
+    /**
+     * @return Copy of the depth distribution, index d = number of nodes at depth d + 1
+     */
+    public int[] getNodesPerDepth() {
+        return nodesPerDepth.clone();
+    }
+
+    /**
+     * @return Stations per coordinate -> number of nodes (read-only)
+     */
+    public Map<Integer, Integer> getBucketDistribution() {
+        return Collections.unmodifiableMap(bucketDistribution);
+    }
+
+    public int getLatitudeSplits() {
+        return splits[AXIS_LATITUDE];
+    }
+
+    public int getLongitudeSplits() {
+        return splits[AXIS_LONGITUDE];
+    }
+
+    public double getAverageLatitudeSkew() {
+        return averageSkew(AXIS_LATITUDE);
+    }
+
+    public double getAverageLongitudeSkew() {
+        return averageSkew(AXIS_LONGITUDE);
+    }
+
+    public double getMaxLatitudeSkew() {
+        return maxSkew[AXIS_LATITUDE];
+    }
+
+    public double getMaxLongitudeSkew() {
+        return maxSkew[AXIS_LONGITUDE];
+    }
+
+    private double averageSkew(int axis) {
+        return skewWeight[axis] == 0 ? 0.0 : weightedSkewSum[axis] / skewWeight[axis];
+    }
+
+    /**
+     * Estimated heap used by the nodes, their station lists, country aggregates and the id table.
+     * The Station objects themselves are shared with the AVL indices and not counted.
+     */
+    public long getEstimatedMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Expected nodes visited to reach a station from the root, weighted by how many stations each node
+     * holds; this is the descent every point, nearest-neighbour and k-nearest query pays before backtracking.
+     */
+    public double getExpectedQueryCost() {
+        return stationCount == 0 ? 0.0 : (double) stationDepthSum / stationCount;
+    }
+
+    /**
+     * Average node depth of a perfectly balanced tree with the same number of nodes.
+     */
+    public double getOptimalAverageNodeDepth() {
+        if (nodeCount == 0) return 0.0;
+        long sum = 0;
+        int remaining = nodeCount;
+        for (int depth = 1; remaining > 0; depth++) {
+            int atDepth = (int) Math.min(remaining, 1L << (depth - 1));
+            sum += (long) depth * atDepth;
+            remaining -= atDepth;
+        }
+        return (double) sum / nodeCount;
+    }
+
+    /**
+     * Average node depth over the balanced optimum: 1.0 for a freshly built tree, growing as the shape
+     * degrades. A rebuild pays off once this is clearly above 1 (e.g. 1.2).
+     */
+    public double getDegradation() {
+        double optimal = getOptimalAverageNodeDepth();
+        return optimal == 0.0 ? 1.0 : getAverageNodeDepth() / optimal;
+    }
+
+    public boolean needsRebuild(double maxDegradation) {
+        return getDegradation() > maxDegradation;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Nodes: %d, stations: %d, leaves: %d%n", nodeCount, stationCount, leafCount));
+        sb.append(String.format("Height: %d (optimal %d)%n", height, getOptimalHeight()));
+        sb.append(String.format("Average node depth: %.2f (optimal %.2f, degradation %.2f)%n",
+                getAverageNodeDepth(), getOptimalAverageNodeDepth(), getDegradation()));
+        sb.append(String.format("Average leaf depth: %.2f%n", getAverageLeafDepth()));
+        sb.append(String.format("Expected query cost: %.2f nodes per descent%n", getExpectedQueryCost()));
+        sb.append(String.format("Latitude splits: %d (skew avg %.3f, max %.3f)%n",
+                getLatitudeSplits(), getAverageLatitudeSkew(), getMaxLatitudeSkew()));
+        sb.append(String.format("Longitude splits: %d (skew avg %.3f, max %.3f)%n",
+                getLongitudeSplits(), getAverageLongitudeSkew(), getMaxLongitudeSkew()));
+        sb.append(String.format("Estimated memory: %.1f KB%n", memoryBytes / 1024.0));
+        sb.append("Nodes per depth: ").append(Arrays.toString(nodesPerDepth));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,248 @@
+package isep.ipp.pt.g322.datastructures.trie;
+
+import java.util.Arrays;
+
+/**
+ * Path-compressed trie (radix tree) from string keys to int values.
+ * Chains of single-child nodes are merged into one edge label, children are kept sorted by their
+ * first character and found by binary search. Supports exact prefix lookup and Levenshtein-bounded
+ * search, which walks the trie once carrying one row of the edit distance matrix per character and
+ * abandons a branch as soon as every entry in its row exceeds the allowed edits.
+ *
+ * All searches return values in key order (lexicographic), values of the same key in insertion order.
+ */
+public class CompactTrie {
+    private final Node root = new Node("");
+    private int keyCount;
+    private int nodeCount = 1;
+
+    public void insert(String key, int value) {
+        Node node = root;
+        int pos = 0;
+
+        while (pos < key.length()) {
+            int i = node.childIndex(key.charAt(pos));
+            if (i < 0) {
+                Node leaf = new Node(key.substring(pos));
+                node.insertChild(-(i + 1), leaf);
+                nodeCount++;
+                node = leaf;
+                pos = key.length();
+                break;
+            }
+
+            Node child = node.children[i];
+            int common = commonPrefix(child.label, key, pos);
+            if (common < child.label.length()) {
+                // split the edge at the point where the key diverges
+                Node split = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                split.insertChild(0, child);
+                node.children[i] = split;
+                nodeCount++;
+                child = split;
+            }
+            node = child;
+            pos += common;
+        }
+
+        if (node.valueCount == 0) keyCount++;
+        node.addValue(value);
+    }
+
+    private static int commonPrefix(String label, String key, int from) {
+        int max = Math.min(label.length(), key.length() - from);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(from + i)) i++;
+        return i;
+    }
+
+    /**
+     * @param limit Maximum number of values returned
+     * @return Values of every key starting with prefix
+     */
+    public int[] prefix(String prefix, int limit) {
+        IntCollector out = new IntCollector(limit);
+        Node node = root;
+        int pos = 0;
+
+        while (pos < prefix.length()) {
+            int i = node.childIndex(prefix.charAt(pos));
+            if (i < 0) return out.toArray();
+
+            Node child = node.children[i];
+            int common = commonPrefix(child.label, prefix, pos);
+            if (common < child.label.length() && pos + common < prefix.length()) {
+                return out.toArray(); // diverges inside the edge
+            }
+            node = child;
+            pos += common;
+        }
+
+        collectAll(node, out);
+        return out.toArray();
+    }
+
+    /**
+     * @return Values of every key within maxEdits insertions, deletions or substitutions of query
+     */
+    public int[] withinDistance(String query, int maxEdits, int limit) {
+        return fuzzy(query, maxEdits, false, limit);
+    }
+
+    /**
+     * @return Values of every key that starts with a string within maxEdits of prefix (typo-tolerant type-ahead)
+     */
+    public int[] prefixWithinDistance(String prefix, int maxEdits, int limit) {
+        return fuzzy(prefix, maxEdits, true, limit);
+    }
+
+    private int[] fuzzy(String query, int maxEdits, boolean prefixMode, int limit) {
+        IntCollector out = new IntCollector(limit);
+        int[] firstRow = new int[query.length() + 1];
+        for (int j = 0; j < firstRow.length; j++) firstRow[j] = j;
+
+        if (prefixMode && query.length() <= maxEdits) {
+            collectAll(root, out);
+        } else {
+            fuzzyRecursive(root, query, firstRow, maxEdits, prefixMode, out);
+        }
+        return out.toArray();
+    }
+
+    private void fuzzyRecursive(Node node, String query, int[] previousRow, int maxEdits,
+                                boolean prefixMode, IntCollector out) {
+        int n = query.length();
+
+        for (int c = 0; c < node.childCount && !out.isFull(); c++) {
+            Node child = node.children[c];
+            int[] row = previousRow;
+            boolean matchedPrefix = false;
+            boolean abandoned = false;
+
+            for (int k = 0; k < child.label.length(); k++) {
+                row = nextRow(row, child.label.charAt(k), query);
+                if (prefixMode && row[n] <= maxEdits) {
+                    matchedPrefix = true;
+                    break;
+                }
+                if (min(row) > maxEdits) {
+                    abandoned = true;
+                    break;
+                }
+            }
+
+            if (matchedPrefix) {
+                collectAll(child, out);
+            } else if (!abandoned) {
+                if (!prefixMode && row[n] <= maxEdits) out.addAll(child.values, child.valueCount);
+                fuzzyRecursive(child, query, row, maxEdits, prefixMode, out);
+            }
+        }
+    }
+
+    private static int[] nextRow(int[] previous, char c, String query) {
+        int[] row = new int[previous.length];
+        row[0] = previous[0] + 1;
+        for (int j = 1; j < row.length; j++) {
+            int substitution = previous[j - 1] + (query.charAt(j - 1) == c ? 0 : 1);
+            row[j] = Math.min(Math.min(row[j - 1] + 1, previous[j] + 1), substitution);
+        }
+        return row;
+    }
+
+    private static int min(int[] row) {
+        int min = row[0];
+        for (int value : row) min = Math.min(min, value);
+        return min;
+    }
+
+    private void collectAll(Node node, IntCollector out) {
+        if (out.isFull()) return;
+        out.addAll(node.values, node.valueCount);
+        for (int c = 0; c < node.childCount; c++) {
+            collectAll(node.children[c], out);
+        }
+    }
+
+    /**
+     * Number of distinct keys.
+     */
+    public int size() {
+        return keyCount;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    private static class Node {
+        String label;
+        Node[] children;
+        int childCount;
+        int[] values;
+        int valueCount;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        int childIndex(char first) {
+            int lo = 0;
+            int hi = childCount - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char midFirst = children[mid].label.charAt(0);
+                if (midFirst < first) lo = mid + 1;
+                else if (midFirst > first) hi = mid - 1;
+                else return mid;
+            }
+            return -(lo + 1);
+        }
+
+        void insertChild(int index, Node child) {
+            if (children == null) {
+                children = new Node[2];
+            } else if (childCount == children.length) {
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            System.arraycopy(children, index, children, index + 1, childCount - index);
+            children[index] = child;
+            childCount++;
+        }
+
+        void addValue(int value) {
+            if (values == null) {
+                values = new int[1];
+            } else if (valueCount == values.length) {
+                values = Arrays.copyOf(values, valueCount * 2);
+            }
+            values[valueCount++] = value;
+        }
+    }
+
+    private static class IntCollector {
+        final int limit;
+        int[] data = new int[16];
+        int size;
+
+        IntCollector(int limit) {
+            this.limit = limit;
+        }
+
+        boolean isFull() {
+            return size >= limit;
+        }
+
+        void addAll(int[] values, int count) {
+            for (int i = 0; i < count && size < limit; i++) {
+                if (size == data.length) data = Arrays.copyOf(data, size * 2);
+                data[size++] = values[i];
+            }
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package isep.ipp.pt.g322.model;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Station density raster over a lat/lon rectangle: one total layer plus, optionally, one layer per
+ * country or time zone group. Row 0 is the southernmost band, column 0 the westernmost.
+ */
+public class DensityGrid {
+
+    public enum Grouping { NONE, COUNTRY, TIMEZONE_GROUP }
+
+    public enum Kernel { BOX, GAUSSIAN }
+
+    /** Largest grid accepted, 2^25 cells (256 MB per layer of doubles). */
+    public static final int MAX_CELLS = 1 << 25;
+
+    private static final int BINARY_MAGIC = 0x53444731; // "SDG1"
+    // below this many stations per core a second grid costs more than it saves
+    private static final int MIN_STATIONS_PER_WORKER = 50_000;
+
+    private final double minLat;
+    private final double minLon;
+    private final double cellSizeDeg;
+    private final int rows;
+    private final int cols;
+    private final double[] total;
+    private final Map<String, double[]> layers;
+
+    private DensityGrid(double minLat, double minLon, double cellSizeDeg, int rows, int cols,
+                        double[] total, Map<String, double[]> layers) {
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.cellSizeDeg = cellSizeDeg;
+        this.rows = rows;
+        this.cols = cols;
+        this.total = total;
+        this.layers = layers;
+    }
+
+    /**
+     * Counts stations per cell in a single parallel pass; stations outside the rectangle are ignored.
+     * The stations are split into one contiguous chunk per worker, each counted into its own grid and
+     * merged at the end. A worker holds an int array of rows * cols for the total and one more per group
+     * it sees, so workers are also capped at MAX_CELLS / (rows * cols): large grids are counted by fewer
+     * workers rather than multiplying their memory by the core count.
+     *
+     * @throws IllegalArgumentException if the bounds are invalid or the grid has more than MAX_CELLS cells
+     */
+    public static DensityGrid compute(Collection<Station> stations, double minLat, double maxLat,
+                                      double minLon, double maxLon, double cellSizeDeg, Grouping grouping) {
+        if (cellSizeDeg <= 0 || minLat >= maxLat || minLon >= maxLon) {
+            throw new IllegalArgumentException("Invalid grid bounds or cell size");
+        }
+        double rowCount = Math.ceil((maxLat - minLat) / cellSizeDeg);
+        double colCount = Math.ceil((maxLon - minLon) / cellSizeDeg);
+        if (!(rowCount * colCount <= MAX_CELLS)) {
+            throw new IllegalArgumentException(String.format(
+                    "Grid of %.0f x %.0f cells exceeds the limit of %d cells", rowCount, colCount, MAX_CELLS));
+        }
+        int rows = (int) rowCount;
+        int cols = (int) colCount;
+        int cells = rows * cols;
+
+        Station[] input = stations.toArray(new Station[0]);
+        int workers = (int) Math.max(1, Math.min(Math.min(Runtime.getRuntime().availableProcessors(),
+                (long) input.length / MIN_STATIONS_PER_WORKER), MAX_CELLS / cells));
+        CellCounter counter = IntStream.range(0, workers).parallel()
+                .mapToObj(worker -> {
+                    CellCounter acc = new CellCounter(cells);
+                    int from = (int) ((long) input.length * worker / workers);
+                    int to = (int) ((long) input.length * (worker + 1) / workers);
+                    for (int i = from; i < to; i++) {
+                        Station station = input[i];
+                        if (station.getLatitude() < minLat || station.getLatitude() > maxLat
+                                || station.getLongitude() < minLon || station.getLongitude() > maxLon) {
+                            continue;
+                        }
+                        int row = Math.min(rows - 1, (int) ((station.getLatitude() - minLat) / cellSizeDeg));
+                        int col = Math.min(cols - 1, (int) ((station.getLongitude() - minLon) / cellSizeDeg));
+                        acc.add(row * cols + col, groupOf(station, grouping));
+                    }
+                    return acc;
+                })
+                .reduce((a, b) -> {
+                    a.merge(b);
+                    return a;
+                })
+                .orElseThrow();
+
+        Map<String, double[]> layers = new TreeMap<>();
+        for (Map.Entry<String, int[]> entry : counter.groups.entrySet()) {
+            layers.put(entry.getKey(), toDoubles(entry.getValue()));
+        }
+        return new DensityGrid(minLat, minLon, cellSizeDeg, rows, cols, toDoubles(counter.total), layers);
+    }
+
+    private static String groupOf(Station station, Grouping grouping) {
+        return switch (grouping) {
+            case COUNTRY -> station.getCountry();
+            case TIMEZONE_GROUP -> station.getTimeZoneGroup();
+            case NONE -> null;
+        };
+    }
+
+    private static double[] toDoubles(int[] counts) {
+        double[] result = new double[counts.length];
+        for (int i = 0; i < counts.length; i++) result[i] = counts[i];
+        return result;
+    }
+
+    /**
+     * Kernel-smoothed copy of the grid (every layer), computed as two separable 1D passes.
+     *
+     * @param kernel BOX (moving average) or GAUSSIAN (sigma = radiusCells / 2)
+     * @param radiusCells Kernel half-width in cells, 0 returns an identical copy
+     */
+    public DensityGrid smooth(Kernel kernel, int radiusCells) {
+        if (radiusCells < 0) {
+            throw new IllegalArgumentException("radiusCells must be >= 0");
+        }
+        double[] weights = kernelWeights(kernel, radiusCells);
+
+        Map<String, double[]> smoothedLayers = new TreeMap<>();
+        for (Map.Entry<String, double[]> entry : layers.entrySet()) {
+            smoothedLayers.put(entry.getKey(), convolve(entry.getValue(), weights));
+        }
+        return new DensityGrid(minLat, minLon, cellSizeDeg, rows, cols, convolve(total, weights), smoothedLayers);
+    }
+
+    private static double[] kernelWeights(Kernel kernel, int radius) {
+        double[] weights = new double[2 * radius + 1];
+        double sigma = Math.max(radius / 2.0, 0.5);
+        double sum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            weights[i + radius] = kernel == Kernel.BOX ? 1.0 : Math.exp(-(i * i) / (2 * sigma * sigma));
+            sum += weights[i + radius];
+        }
+        for (int i = 0; i < weights.length; i++) weights[i] /= sum;
+        return weights;
+    }
+
+    // separable convolution, cells beyond the border count as empty
+    private double[] convolve(double[] values, double[] weights) {
+        int radius = weights.length / 2;
+        double[] horizontal = new double[values.length];
+        double[] result = new double[values.length];
+
+        IntStream.range(0, rows).parallel().forEach(r -> {
+            for (int c = 0; c < cols; c++) {
+                double sum = 0;
+                for (int k = -radius; k <= radius; k++) {
+                    int cc = c + k;
+                    if (cc >= 0 && cc < cols) sum += values[r * cols + cc] * weights[k + radius];
+                }
+                horizontal[r * cols + c] = sum;
+            }
+        });
+        IntStream.range(0, rows).parallel().forEach(r -> {
+            for (int c = 0; c < cols; c++) {
+                double sum = 0;
+                for (int k = -radius; k <= radius; k++) {
+                    int rr = r + k;
+                    if (rr >= 0 && rr < rows) sum += horizontal[rr * cols + c] * weights[k + radius];
+                }
+                result[r * cols + c] = sum;
+            }
+        });
+        return result;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public double getMinLon() {
+        return minLon;
+    }
+
+    public double getCellSizeDeg() {
+        return cellSizeDeg;
+    }
+
+    public Set<String> getGroups() {
+        return Collections.unmodifiableSet(layers.keySet());
+    }
+
+    public double getValue(int row, int col) {
+        return total[row * cols + col];
+    }
+
+    /**
+     * @return Value of the group's layer, 0 if the group has no stations in the grid
+     */
+    public double getValue(String group, int row, int col) {
+        double[] layer = layers.get(group);
+        return layer == null ? 0 : layer[row * cols + col];
+    }
+
+    public double getTotal() {
+        double sum = 0;
+        for (double value : total) sum += value;
+        return sum;
+    }
+
+    /**
+     * Sparse CSV: one line per non-empty cell with its center coordinates, total and one column per group.
+     */
+    public void writeCsv(Path path) throws IOException {
+        List<String> groups = new ArrayList<>(layers.keySet());
+
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            StringBuilder header = new StringBuilder("row,col,latitude,longitude,total");
+            for (String group : groups) header.append(',').append(group);
+            writer.write(header.toString());
+            writer.newLine();
+
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    int cell = r * cols + c;
+                    if (total[cell] == 0) continue;
+
+                    StringBuilder line = new StringBuilder();
+                    line.append(r).append(',').append(c).append(',')
+                            .append(minLat + (r + 0.5) * cellSizeDeg).append(',')
+                            .append(minLon + (c + 0.5) * cellSizeDeg).append(',')
+                            .append(total[cell]);
+                    for (String group : groups) line.append(',').append(layers.get(group)[cell]);
+                    writer.write(line.toString());
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Dense binary form: header (magic, rows, cols, minLat, minLon, cell size, layer count) followed by
+     * the total layer and each named layer as float32 values in row-major order.
+     */
+    public void writeBinary(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(rows);
+            out.writeInt(cols);
+            out.writeDouble(minLat);
+            out.writeDouble(minLon);
+            out.writeDouble(cellSizeDeg);
+            out.writeInt(layers.size());
+            writeLayer(out, total);
+            for (Map.Entry<String, double[]> entry : layers.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeLayer(out, entry.getValue());
+            }
+        }
+    }
+
+    private static void writeLayer(DataOutputStream out, double[] layer) throws IOException {
+        for (double value : layer) out.writeFloat((float) value);
+    }
+
+    /**
+     * @throws IOException if the file is not a density grid or its dimensions are out of range
+     */
+    public static DensityGrid readBinary(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != BINARY_MAGIC) {
+                throw new IOException("Not a density grid file: " + path);
+            }
+            int rows = in.readInt();
+            int cols = in.readInt();
+            double minLat = in.readDouble();
+            double minLon = in.readDouble();
+            double cellSizeDeg = in.readDouble();
+            int layerCount = in.readInt();
+            if (rows <= 0 || cols <= 0 || (long) rows * cols > MAX_CELLS || layerCount < 0) {
+                throw new IOException(String.format("Corrupt density grid header (%d x %d cells, %d layers): %s",
+                        rows, cols, layerCount, path));
+            }
+            int cells = rows * cols;
+
+            double[] total = readLayer(in, cells);
+            Map<String, double[]> layers = new TreeMap<>();
+            for (int i = 0; i < layerCount; i++) {
+                String name = in.readUTF();
+                layers.put(name, readLayer(in, cells));
+            }
+            return new DensityGrid(minLat, minLon, cellSizeDeg, rows, cols, total, layers);
+        }
+    }
+
+    private static double[] readLayer(DataInputStream in, int size) throws IOException {
+        double[] layer = new double[size];
+        for (int i = 0; i < size; i++) layer[i] = in.readFloat();
+        return layer;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DensityGrid{%dx%d cells of %.3f deg from (%.4f, %.4f), %d group layer(s)}",
+                rows, cols, cellSizeDeg, minLat, minLon, layers.size());
+    }
+
+    // per-worker partial counts, merged at the end of the parallel pass
+    private static class CellCounter {
+        final int[] total;
+        final Map<String, int[]> groups = new HashMap<>();
+
+        CellCounter(int cells) {
+            this.total = new int[cells];
+        }
+
+        void add(int cell, String group) {
+            total[cell]++;
+            if (group != null) {
+                groups.computeIfAbsent(group, g -> new int[total.length])[cell]++;
+            }
+        }
+
+        void merge(CellCounter other) {
+            for (int i = 0; i < total.length; i++) total[i] += other.total[i];
+            for (Map.Entry<String, int[]> entry : other.groups.entrySet()) {
+                int[] mine = groups.computeIfAbsent(entry.getKey(), g -> new int[total.length]);
+                int[] theirs = entry.getValue();
+                for (int i = 0; i < mine.length; i++) mine[i] += theirs[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package isep.ipp.pt.g322.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Polygon region (e.g. a country border) given as an outer ring and optional holes, each ring a list of
+ * {latitude, longitude} vertices (closing vertex optional). Coordinates are treated as a plane with
+ * longitude as x, which is exact for containment as long as no ring crosses the antimeridian.
+ *
+ * Edges are bucketed into latitude bands, so a point test only looks at the edges of its band and a
+ * box classification only at the bands the box spans.
+ */
+public class GeoPolygon {
+
+    public enum BoxRelation { OUTSIDE, INSIDE, PARTIAL }
+
+    private final int ringCount;
+    private final int vertexCount;
+    // all edges of all rings, edge i goes from (lat1[i], lon1[i]) to (lat2[i], lon2[i])
+    private final double[] lat1;
+    private final double[] lon1;
+    private final double[] lat2;
+    private final double[] lon2;
+
+    private final double minLat;
+    private final double maxLat;
+    private final double minLon;
+    private final double maxLon;
+
+    private final int bandCount;
+    private final double bandHeight;
+    private final int[][] bands;
+
+    public GeoPolygon(double[][] outerRing) {
+        this(outerRing, List.of());
+    }
+
+    /**
+     * @param outerRing {lat, lon} vertices of the border
+     * @param holes {lat, lon} vertices of each excluded area (lakes, enclaves)
+     */
+    public GeoPolygon(double[][] outerRing, List<double[][]> holes) {
+        List<double[][]> rings = new ArrayList<>();
+        rings.add(outerRing);
+        rings.addAll(holes);
+        this.ringCount = rings.size();
+
+        List<double[]> edges = new ArrayList<>();
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        int vertices = 0;
+
+        for (double[][] ring : rings) {
+            int n = ring.length;
+            if (n > 1 && ring[0][0] == ring[n - 1][0] && ring[0][1] == ring[n - 1][1]) n--;
+            if (n < 3) {
+                throw new IllegalArgumentException("A polygon ring needs at least 3 distinct vertices");
+            }
+            vertices += n;
+            for (int i = 0; i < n; i++) {
+                double[] a = ring[i];
+                double[] b = ring[(i + 1) % n];
+                edges.add(new double[]{a[0], a[1], b[0], b[1]});
+                minLat = Math.min(minLat, a[0]);
+                maxLat = Math.max(maxLat, a[0]);
+                minLon = Math.min(minLon, a[1]);
+                maxLon = Math.max(maxLon, a[1]);
+            }
+        }
+
+        this.vertexCount = vertices;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+
+        int edgeCount = edges.size();
+        this.lat1 = new double[edgeCount];
+        this.lon1 = new double[edgeCount];
+        this.lat2 = new double[edgeCount];
+        this.lon2 = new double[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            double[] e = edges.get(i);
+            lat1[i] = e[0];
+            lon1[i] = e[1];
+            lat2[i] = e[2];
+            lon2[i] = e[3];
+        }
+
+        // about 4 edges per band on average keeps point tests close to constant time
+        this.bandCount = Math.max(1, edgeCount / 4);
+        this.bandHeight = Math.max((maxLat - minLat) / bandCount, 1e-12);
+        int[] sizes = new int[bandCount];
+        for (int i = 0; i < edgeCount; i++) {
+            for (int b = band(Math.min(lat1[i], lat2[i])); b <= band(Math.max(lat1[i], lat2[i])); b++) sizes[b]++;
+        }
+        this.bands = new int[bandCount][];
+        for (int b = 0; b < bandCount; b++) bands[b] = new int[sizes[b]];
+        int[] fill = new int[bandCount];
+        for (int i = 0; i < edgeCount; i++) {
+            for (int b = band(Math.min(lat1[i], lat2[i])); b <= band(Math.max(lat1[i], lat2[i])); b++) {
+                bands[b][fill[b]++] = i;
+            }
+        }
+    }
+
+    private int band(double lat) {
+        int b = (int) ((lat - minLat) / bandHeight);
+        return Math.max(0, Math.min(bandCount - 1, b));
+    }
+
+    /**
+     * Even-odd point test: inside the outer ring and outside every hole. Points exactly on an edge may
+     * fall on either side.
+     */
+    public boolean contains(double lat, double lon) {
+        if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) return false;
+
+        boolean inside = false;
+        for (int i : bands[band(lat)]) {
+            // edges whose latitude span straddles the point, crossing to its east
+            if ((lat1[i] > lat) != (lat2[i] > lat)) {
+                double crossLon = lon1[i] + (lat - lat1[i]) / (lat2[i] - lat1[i]) * (lon2[i] - lon1[i]);
+                if (lon < crossLon) inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Relation of an axis-aligned box to the polygon: OUTSIDE or INSIDE when no edge crosses the box
+     * (decided by testing its center), PARTIAL otherwise.
+     */
+    public BoxRelation classify(double boxMinLat, double boxMaxLat, double boxMinLon, double boxMaxLon) {
+        if (boxMaxLat < minLat || boxMinLat > maxLat || boxMaxLon < minLon || boxMinLon > maxLon) {
+            return BoxRelation.OUTSIDE;
+        }
+
+        int firstBand = band(Math.max(boxMinLat, minLat));
+        int lastBand = band(Math.min(boxMaxLat, maxLat));
+        for (int b = firstBand; b <= lastBand; b++) {
+            for (int i : bands[b]) {
+                if (segmentIntersectsBox(i, boxMinLat, boxMaxLat, boxMinLon, boxMaxLon)) {
+                    return BoxRelation.PARTIAL;
+                }
+            }
+        }
+
+        return contains((boxMinLat + boxMaxLat) / 2, (boxMinLon + boxMaxLon) / 2)
+                ? BoxRelation.INSIDE : BoxRelation.OUTSIDE;
+    }
+
+    // Liang-Barsky clipping of edge i against the box
+    private boolean segmentIntersectsBox(int i, double boxMinLat, double boxMaxLat,
+                                         double boxMinLon, double boxMaxLon) {
+        double x0 = lon1[i], y0 = lat1[i];
+        double dx = lon2[i] - x0, dy = lat2[i] - y0;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {x0 - boxMinLon, boxMaxLon - x0, y0 - boxMinLat, boxMaxLat - y0};
+        double t0 = 0.0, t1 = 1.0;
+
+        for (int k = 0; k < 4; k++) {
+            if (p[k] == 0) {
+                if (q[k] < 0) return false;
+            } else {
+                double t = q[k] / p[k];
+                if (p[k] < 0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+                if (t0 > t1) return false;
+            }
+        }
+        return true;
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public double getMinLon() {
+        return minLon;
+    }
+
+    public double getMaxLon() {
+        return maxLon;
+    }
+
+    public int getRingCount() {
+        return ringCount;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GeoPolygon{%d ring(s), %d vertices, lat [%.4f, %.4f], lon [%.4f, %.4f]}",
+                ringCount, vertexCount, minLat, maxLat, minLon, maxLon);
+    }
+}
@@ -0,0 +1,140 @@
+package isep.ipp.pt.g322.model;
+
+import isep.ipp.pt.g322.datastructures.tree.QueryStats;
+
+import java.util.*;
+
+/**
+ * Aggregated KDTree2 query counters per query type: totals plus power-of-two histograms, so
+ * percentiles can be read without keeping every query. Bucket 0 holds the value 0 and bucket b
+ * (b >= 1) holds values in [2^(b-1), 2^b). Safe to record from several threads.
+ */
+public class QueryStatsAggregator {
+
+    public enum Metric { ELAPSED_NANOS, NODES_VISITED, DISTANCE_EVALUATIONS, SUBTREES_PRUNED, HEAP_OPERATIONS, RESULT_SIZE }
+
+    private static final int BUCKETS = 64;
+    private static final Metric[] METRICS = Metric.values();
+
+    private final Map<String, Entry> byQueryType = new TreeMap<>();
+
+    public synchronized void record(QueryStats stats) {
+        Entry entry = byQueryType.computeIfAbsent(stats.getQueryType(), t -> new Entry());
+        entry.count++;
+        for (Metric metric : METRICS) {
+            long value = valueOf(stats, metric);
+            entry.sums[metric.ordinal()] += value;
+            entry.max[metric.ordinal()] = Math.max(entry.max[metric.ordinal()], value);
+            entry.histograms[metric.ordinal()][bucket(value)]++;
+        }
+    }
+
+    private static long valueOf(QueryStats stats, Metric metric) {
+        return switch (metric) {
+            case ELAPSED_NANOS -> stats.getElapsedNanos();
+            case NODES_VISITED -> stats.getNodesVisited();
+            case DISTANCE_EVALUATIONS -> stats.getDistanceEvaluations();
+            case SUBTREES_PRUNED -> stats.getSubtreesPruned();
+            case HEAP_OPERATIONS -> stats.getHeapOperations();
+            case RESULT_SIZE -> stats.getResultSize();
+        };
+    }
+
+    private static int bucket(long value) {
+        return value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    public synchronized Set<String> getQueryTypes() {
+        return new TreeSet<>(byQueryType.keySet());
+    }
+
+    public synchronized long getCount(String queryType) {
+        Entry entry = byQueryType.get(queryType);
+        return entry == null ? 0 : entry.count;
+    }
+
+    public synchronized double getMean(String queryType, Metric metric) {
+        Entry entry = byQueryType.get(queryType);
+        return entry == null || entry.count == 0 ? 0.0 : (double) entry.sums[metric.ordinal()] / entry.count;
+    }
+
+    public synchronized long getMax(String queryType, Metric metric) {
+        Entry entry = byQueryType.get(queryType);
+        return entry == null ? 0 : entry.max[metric.ordinal()];
+    }
+
+    /**
+     * Upper bound of the histogram bucket holding the given percentile (never above the observed max).
+     *
+     * @param percentile In [0, 100]
+     */
+    public synchronized long getPercentile(String queryType, Metric metric, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in [0, 100]");
+        }
+        Entry entry = byQueryType.get(queryType);
+        if (entry == null || entry.count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * entry.count));
+        long[] histogram = entry.histograms[metric.ordinal()];
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += histogram[b];
+            if (seen >= rank) {
+                long upper = b == 0 ? 0 : (b >= 63 ? Long.MAX_VALUE : (1L << b) - 1);
+                return Math.min(upper, entry.max[metric.ordinal()]);
+            }
+        }
+        return entry.max[metric.ordinal()];
+    }
+
+    /**
+     * @return Copy of the histogram, index b = number of queries in bucket b
+     */
+    public synchronized long[] getHistogram(String queryType, Metric metric) {
+        Entry entry = byQueryType.get(queryType);
+        return entry == null ? new long[BUCKETS] : entry.histograms[metric.ordinal()].clone();
+    }
+
+    /**
+     * Share of subtrees skipped over all recorded queries of the type, see QueryStats.getPruningRatio.
+     */
+    public synchronized double getPruningRatio(String queryType) {
+        Entry entry = byQueryType.get(queryType);
+        if (entry == null) return 0.0;
+        long pruned = entry.sums[Metric.SUBTREES_PRUNED.ordinal()];
+        long total = pruned + entry.sums[Metric.NODES_VISITED.ordinal()];
+        return total == 0 ? 0.0 : (double) pruned / total;
+    }
+
+    public synchronized void reset() {
+        byQueryType.clear();
+    }
+
+    /**
+     * One line per query type: count, mean/p50/p99 time, mean nodes visited per result and pruning ratio.
+     */
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder("=== Query Statistics ===\n");
+        for (String type : byQueryType.keySet()) {
+            double meanResults = getMean(type, Metric.RESULT_SIZE);
+            sb.append(String.format("%-28s n=%-7d mean=%.3f ms p50<=%.3f ms p99<=%.3f ms"
+                            + " nodes/result=%.1f distances=%.1f pruned=%.1f%%%n",
+                    type, getCount(type),
+                    getMean(type, Metric.ELAPSED_NANOS) / 1e6,
+                    getPercentile(type, Metric.ELAPSED_NANOS, 50) / 1e6,
+                    getPercentile(type, Metric.ELAPSED_NANOS, 99) / 1e6,
+                    getMean(type, Metric.NODES_VISITED) / Math.max(1.0, meanResults),
+                    getMean(type, Metric.DISTANCE_EVALUATIONS),
+                    getPruningRatio(type) * 100));
+        }
+        return sb.toString();
+    }
+
+    private static final class Entry {
+        long count;
+        final long[] sums = new long[METRICS.length];
+        final long[] max = new long[METRICS.length];
+        final long[][] histograms = new long[METRICS.length][BUCKETS];
+    }
+}
@@ -1,55 +1,111 @@
 package isep.ipp.pt.g322.model;
 
 import isep.ipp.pt.g322.datastructures.tree.AVL;
+import isep.ipp.pt.g322.datastructures.tree.StationHits;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * Representative class for the result of radius search with sorted tree and density summary
+ * Representative class for the result of radius search with sorted tree and density summary.
+ * Hits are kept in plain arrays and ordered once (distance asc, name desc) when first needed;
+ * the AVL view and the density summary are only built if asked for. Results may be shared between
+ * threads (e.g. through StationQueryCache): the lazy views are published through volatile fields
+ * and building one twice in a race gives equal views, so no lock is needed.
  */
 public class RadiusSearchResult {
-    private final AVL<DistanceKey> sortedByDistance;
-    private final StationDensitySummary stationDensitySummary;
+    private final Station[] stations;
+    private final double[] roundedDistances;
     private final double radiusKm;
     private final double centerLat;
     private final double centerLon;
 
+    // built on demand, each one complete before it is published
+    private volatile int[] order;
+    private volatile AVL<DistanceKey> sortedByDistance;
+    private volatile StationDensitySummary stationDensitySummary;
+
     public RadiusSearchResult(List<Station> stations, List<Double> distances,
                               double radiusKm, double centerLat, double centerLon) {
-        this.radiusKm = radiusKm;
-        this.centerLat = centerLat;
-        this.centerLon = centerLon;
-
-        // build AVL tree sorted by distance (asc) and name (desc)
-        this.sortedByDistance = new AVL<>();
+        this(stations.toArray(new Station[0]), toArray(distances), stations.size(),
+                radiusKm, centerLat, centerLon);
+    }
 
-        for (int i = 0; i < stations.size(); i++) {
-            Station station = stations.get(i);
-            double distance = distances.get(i);
+    /**
+     * @param stations Stations found, only the first size entries are used
+     * @param distances Distance in km of each station, same positions as stations
+     * @param size Number of hits
+     */
+    public RadiusSearchResult(Station[] stations, double[] distances, int size,
+                              double radiusKm, double centerLat, double centerLon) {
+        this(Arrays.copyOf(stations, size), Arrays.copyOf(distances, size), radiusKm, centerLat, centerLon);
+    }
 
-            double roundedDistance = Math.round(distance * 100.0) / 100.0;
+    /**
+     * Copies the hits of a KDTree2 query (the container can be reused afterwards).
+     */
+    public RadiusSearchResult(StationHits hits, double radiusKm, double centerLat, double centerLon) {
+        this(hits.stationsInto(new Station[hits.size()]), hits.distancesInto(new double[hits.size()]),
+                radiusKm, centerLat, centerLon);
+    }
 
-            DistanceKey searchKey = new DistanceKey(roundedDistance);
-            DistanceKey existingKey = sortedByDistance.find(searchKey);
+    // takes ownership of both arrays, distances are rounded in place
+    private RadiusSearchResult(Station[] stations, double[] distances,
+                               double radiusKm, double centerLat, double centerLon) {
+        this.radiusKm = radiusKm;
+        this.centerLat = centerLat;
+        this.centerLon = centerLon;
+        this.stations = stations;
+        this.roundedDistances = distances;
 
-            if (existingKey != null) {
-                existingKey.addStation(station);
-            } else {
-                searchKey.addStation(station);
-                sortedByDistance.insert(searchKey);
-            }
+        for (int i = 0; i < distances.length; i++) {
+            roundedDistances[i] = Math.round(distances[i] * 100.0) / 100.0;
         }
+    }
 
-        this.stationDensitySummary = new StationDensitySummary(stations, radiusKm, centerLat, centerLon);
+    private static double[] toArray(List<Double> distances) {
+        double[] result = new double[distances.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = distances.get(i);
+        }
+        return result;
     }
 
+    /**
+     * AVL tree grouped by distance rounded to 2 decimal places (asc), stations inside a group by name (desc).
+     * Built from the already ordered hits on first call. The tree is read-only: insert and remove throw
+     * UnsupportedOperationException.
+     */
     public AVL<DistanceKey> getSortedByDistance() {
-        return sortedByDistance;
+        AVL<DistanceKey> view = sortedByDistance;
+        if (view == null) {
+            ReadOnlyDistanceTree tree = new ReadOnlyDistanceTree();
+            int[] sorted = sortedOrder();
+            int i = 0;
+            while (i < sorted.length) {
+                DistanceKey key = new DistanceKey(roundedDistances[sorted[i]]);
+                int j = i;
+                while (j < sorted.length && roundedDistances[sorted[j]] == roundedDistances[sorted[i]]) {
+                    key.addStation(stations[sorted[j]]);
+                    j++;
+                }
+                tree.add(key);
+                i = j;
+            }
+            view = tree;
+            sortedByDistance = view;
+        }
+        return view;
     }
 
     public StationDensitySummary getStationDensitySummary() {
-        return stationDensitySummary;
+        StationDensitySummary summary = stationDensitySummary;
+        if (summary == null) {
+            summary = new StationDensitySummary(Arrays.asList(stations), radiusKm, centerLat, centerLon);
+            stationDensitySummary = summary;
+        }
+        return summary;
     }
 
     public double getRadiusKm() {
@@ -65,18 +121,89 @@ public class RadiusSearchResult {
     }
 
     public List<Station> getAllStationsSorted() {
-        List<Station> result = new ArrayList<>();
-        List<DistanceKey> keys = (List<DistanceKey>) sortedByDistance.inOrder();
+        int[] sorted = sortedOrder();
+        List<Station> result = new ArrayList<>(sorted.length);
 
-        for (DistanceKey key : keys) {
-            result.addAll(key.getStations());
+        for (int index : sorted) {
+            result.add(stations[index]);
         }
 
         return result;
     }
 
     public int getTotalStations() {
-        return stationDensitySummary.getTotalStations();
+        return stations.length;
+    }
+
+    /**
+     * Number of distinct rounded distances, i.e. the size the AVL view has.
+     */
+    public int getDistanceGroupCount() {
+        int[] sorted = sortedOrder();
+        int groups = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || roundedDistances[sorted[i]] != roundedDistances[sorted[i - 1]]) {
+                groups++;
+            }
+        }
+        return groups;
+    }
+
+    private int[] sortedOrder() {
+        int[] sorted = order;
+        if (sorted == null) {
+            sorted = new int[stations.length];
+            for (int i = 0; i < sorted.length; i++) sorted[i] = i;
+            // merge sort skips already ordered runs, so hits that arrive sorted by distance cost O(k)
+            mergeSort(sorted, new int[sorted.length], 0, sorted.length);
+            order = sorted;
+        }
+        return sorted;
+    }
+
+    private void mergeSort(int[] a, int[] buffer, int from, int to) {
+        if (to - from < 2) return;
+
+        int mid = (from + to) >>> 1;
+        mergeSort(a, buffer, from, mid);
+        mergeSort(a, buffer, mid, to);
+
+        if (compare(a[mid - 1], a[mid]) <= 0) return;
+
+        System.arraycopy(a, from, buffer, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && compare(buffer[i], buffer[j]) <= 0)) {
+                a[k] = buffer[i++];
+            } else {
+                a[k] = buffer[j++];
+            }
+        }
+    }
+
+    // distance asc, name desc as per US10 requirement
+    private int compare(int a, int b) {
+        int byDistance = Double.compare(roundedDistances[a], roundedDistances[b]);
+        if (byDistance != 0) return byDistance;
+        return stations[b].getStation().compareTo(stations[a].getStation());
+    }
+
+    // AVL handed out by getSortedByDistance: filled through add, the public insert and remove are refused
+    private static final class ReadOnlyDistanceTree extends AVL<DistanceKey> {
+        private void add(DistanceKey key) {
+            super.insert(key);
+        }
+
+        @Override
+        public void insert(DistanceKey element) {
+            throw new UnsupportedOperationException("Radius search results are read-only");
+        }
+
+        @Override
+        public void remove(DistanceKey element) {
+            throw new UnsupportedOperationException("Radius search results are read-only");
+        }
     }
 
     @Override
@@ -85,7 +212,7 @@ public class RadiusSearchResult {
         sb.append(String.format("Radius Search: %.1f km around (%.4f, %.4f)\n",
                 radiusKm, centerLat, centerLon));
         sb.append(String.format("Stations found: %d\n", getTotalStations()));
-        sb.append(String.format("Unique distance groups: %d\n", sortedByDistance.size()));
+        sb.append(String.format("Unique distance groups: %d\n", getDistanceGroupCount()));
         return sb.toString();
     }
 }
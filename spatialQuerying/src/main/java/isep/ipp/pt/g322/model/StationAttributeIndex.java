@@ -0,0 +1,121 @@
+package isep.ipp.pt.g322.model;
+
+import isep.ipp.pt.g322.datastructures.bitmap.CompressedBitmap;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+
+import java.util.*;
+
+/**
+ * Secondary bitmap index over the station ids of a KDTree2: one compressed bitmap per time zone
+ * group, per country and per boolean flag. Filters become bitmap AND/OR operations whose result is a
+ * candidate set the tree can intersect with while it walks (KDTree2.kNearestAmong / circularRangeQueryAmong).
+ * Every bitmap handed out is the caller's own, so modifying it never changes the index.
+ */
+public class StationAttributeIndex {
+    private final int stationCount;
+    private final CompressedBitmap all;
+    private final Map<String, CompressedBitmap> byTimezoneGroup = new HashMap<>();
+    private final Map<String, CompressedBitmap> byCountry = new HashMap<>();
+    private final CompressedBitmap mainStations = new CompressedBitmap();
+    private final CompressedBitmap cities = new CompressedBitmap();
+    private final CompressedBitmap airports = new CompressedBitmap();
+
+    public StationAttributeIndex(KDTree2 tree) {
+        this.stationCount = tree.getStationCount();
+        this.all = CompressedBitmap.range(0, stationCount);
+
+        // ids are visited in ascending order, so every bitmap is built by appending
+        for (int id = 0; id < stationCount; id++) {
+            Station station = tree.getStation(id);
+            byTimezoneGroup.computeIfAbsent(station.getTimeZoneGroup(), g -> new CompressedBitmap()).add(id);
+            byCountry.computeIfAbsent(station.getCountry(), c -> new CompressedBitmap()).add(id);
+            if (station.isMainStation()) mainStations.add(id);
+            if (station.isCity()) cities.add(id);
+            if (station.isAirport()) airports.add(id);
+        }
+    }
+
+    /**
+     * AND of every filter set in the criteria; all stations if criteria is null or empty.
+     */
+    public CompressedBitmap candidates(KDTree2.StationFilterCriteria criteria) {
+        CompressedBitmap result = all;
+        if (criteria == null) return result.copy();
+
+        if (criteria.getTimezoneGroup() != null) {
+            result = result.and(forTimezoneGroups(criteria.getTimezoneGroup()));
+        }
+        if (criteria.getCountry() != null) {
+            result = result.and(forCountries(criteria.getCountry()));
+        }
+        result = applyFlag(result, mainStations, criteria.getMainStation());
+        result = applyFlag(result, cities, criteria.getCity());
+        result = applyFlag(result, airports, criteria.getAirport());
+        // with no filter set nothing was combined and result is still the index's own bitmap
+        return result == all ? result.copy() : result;
+    }
+
+    private CompressedBitmap applyFlag(CompressedBitmap current, CompressedBitmap flagged, Boolean required) {
+        if (required == null) return current;
+        return required ? current.and(flagged) : current.andNot(flagged);
+    }
+
+    /**
+     * OR of the given time zone groups; unknown groups match nothing.
+     */
+    public CompressedBitmap forTimezoneGroups(String... groups) {
+        return union(byTimezoneGroup, groups);
+    }
+
+    /**
+     * OR of the given countries; unknown countries match nothing.
+     */
+    public CompressedBitmap forCountries(String... countries) {
+        return union(byCountry, countries);
+    }
+
+    private CompressedBitmap union(Map<String, CompressedBitmap> bitmaps, String[] values) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (String value : values) {
+            CompressedBitmap bitmap = bitmaps.get(value);
+            if (bitmap != null) result = result.or(bitmap);
+        }
+        return result;
+    }
+
+    public CompressedBitmap getMainStations() {
+        return mainStations.copy();
+    }
+
+    public CompressedBitmap getCities() {
+        return cities.copy();
+    }
+
+    public CompressedBitmap getAirports() {
+        return airports.copy();
+    }
+
+    public CompressedBitmap getAll() {
+        return all.copy();
+    }
+
+    public int getStationCount() {
+        return stationCount;
+    }
+
+    /**
+     * Approximate memory used by all bitmaps in bytes.
+     */
+    public long sizeInBytes() {
+        long bytes = all.sizeInBytes() + mainStations.sizeInBytes() + cities.sizeInBytes() + airports.sizeInBytes();
+        for (CompressedBitmap bitmap : byTimezoneGroup.values()) bytes += bitmap.sizeInBytes();
+        for (CompressedBitmap bitmap : byCountry.values()) bytes += bitmap.sizeInBytes();
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StationAttributeIndex{stations=%d, timezoneGroups=%d, countries=%d, ~%d bytes}",
+                stationCount, byTimezoneGroup.size(), byCountry.size(), sizeInBytes());
+    }
+}
@@ -0,0 +1,171 @@
+package isep.ipp.pt.g322.model;
+
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Groups near-duplicate stations (DBSCAN-style, every station is a core point) and merges each group
+ * into one canonical station before indexing.
+ * Two stations are neighbours when they are in the same country, at most maxDistanceKm apart and
+ * their names, normalized with StationNames.normalize, are at least minNameSimilarity alike
+ * (1 - edit distance / longest name).
+ * Neighbourhoods come from KDTree2.circularRangeQuery and are computed in parallel; clusters are the
+ * connected components of the neighbour graph.
+ */
+public class StationDeduplicator {
+    private final double maxDistanceKm;
+    private final double minNameSimilarity;
+
+    public StationDeduplicator(double maxDistanceKm, double minNameSimilarity) {
+        if (maxDistanceKm < 0) {
+            throw new IllegalArgumentException("maxDistanceKm must be >= 0");
+        }
+        if (minNameSimilarity < 0 || minNameSimilarity > 1) {
+            throw new IllegalArgumentException("minNameSimilarity must be between 0 and 1");
+        }
+        this.maxDistanceKm = maxDistanceKm;
+        this.minNameSimilarity = minNameSimilarity;
+    }
+
+    /**
+     * @param stations Stations to cluster
+     * @param index KD-tree containing (at least) those stations
+     * @return Clusters of near-duplicates, singletons included, each sorted by name
+     */
+    public List<List<Station>> cluster(List<Station> stations, KDTree2 index) {
+        int n = stations.size();
+        Map<Station, Integer> position = new IdentityHashMap<>();
+        String[] normalized = new String[n];
+        for (int i = 0; i < n; i++) {
+            position.put(stations.get(i), i);
+            normalized[i] = StationNames.normalize(stations.get(i).getStation());
+        }
+
+        // neighbourhood queries are read-only on the tree, so they can run in parallel
+        int[][] neighbours = new int[n][];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            Station station = stations.get(i);
+            List<KDTree2.StationDistance> nearby =
+                    index.circularRangeQuery(station.getLatitude(), station.getLongitude(), maxDistanceKm);
+
+            int[] found = new int[nearby.size()];
+            int count = 0;
+            for (KDTree2.StationDistance sd : nearby) {
+                Integer j = position.get(sd.station);
+                if (j != null && j > i
+                        && station.getCountry().equals(sd.station.getCountry())
+                        && nameSimilarity(normalized[i], normalized[j]) >= minNameSimilarity) {
+                    found[count++] = j;
+                }
+            }
+            neighbours[i] = Arrays.copyOf(found, count);
+        });
+
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) parent[i] = i;
+        for (int i = 0; i < n; i++) {
+            for (int j : neighbours[i]) {
+                union(parent, i, j);
+            }
+        }
+
+        Map<Integer, List<Station>> byRoot = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            byRoot.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(stations.get(i));
+        }
+
+        List<List<Station>> clusters = new ArrayList<>(byRoot.values());
+        for (List<Station> cluster : clusters) {
+            cluster.sort(Comparator.comparing(Station::getStation));
+        }
+        return clusters;
+    }
+
+    /**
+     * @return One canonical station per cluster
+     */
+    public List<Station> deduplicate(List<Station> stations, KDTree2 index) {
+        List<Station> result = new ArrayList<>();
+        for (List<Station> cluster : cluster(stations, index)) {
+            result.add(merge(cluster));
+        }
+        return result;
+    }
+
+    /**
+     * Canonical station of a cluster: name, coordinates, country and time zone of its representative
+     * (main station first, then city, then first by name); city/main/airport flags are OR-ed.
+     */
+    public Station merge(List<Station> cluster) {
+        if (cluster.size() == 1) {
+            return cluster.get(0);
+        }
+
+        Station representative = cluster.get(0);
+        boolean isCity = false;
+        boolean isMainStation = false;
+        boolean isAirport = false;
+
+        for (Station station : cluster) {
+            if (rank(station) > rank(representative)) {
+                representative = station;
+            }
+            isCity |= station.isCity();
+            isMainStation |= station.isMainStation();
+            isAirport |= station.isAirport();
+        }
+
+        return new Station(representative.getStation(), representative.getLatitude(),
+                representative.getLongitude(), representative.getCountry(), representative.getTimeZone(),
+                representative.getTimeZoneGroup(), isCity, isMainStation, isAirport);
+    }
+
+    private int rank(Station station) {
+        return (station.isMainStation() ? 2 : 0) + (station.isCity() ? 1 : 0);
+    }
+
+    /**
+     * Similarity of two normalized names: 1 - Levenshtein distance / length of the longest name.
+     */
+    public static double nameSimilarity(String a, String b) {
+        int longest = Math.max(a.length(), b.length());
+        if (longest == 0) return 1.0;
+        return 1.0 - (double) levenshtein(a, b) / longest;
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+}
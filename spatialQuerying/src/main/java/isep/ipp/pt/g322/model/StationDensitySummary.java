@@ -1,5 +1,7 @@
 package isep.ipp.pt.g322.model;
 
+import isep.ipp.pt.g322.datastructures.tree.StationHits;
+
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -37,6 +39,41 @@ public class StationDensitySummary {
             this.totalStations = stations.size();
         }
 
+        /**
+         * Summary of the hits of a KDTree2 query, read straight from the container.
+         */
+        public StationDensitySummary(StationHits hits, double radiusKm, double centerLat, double centerLon) {
+            this.radiusKm = radiusKm;
+            this.centerLat = centerLat;
+            this.centerLon = centerLon;
+            this.countByCountry = new TreeMap<>();
+
+            int cityCount = 0;
+            for (int i = 0; i < hits.size(); i++) {
+                Station station = hits.getStation(i);
+                countByCountry.merge(station.getCountry(), 1, Integer::sum);
+                if (station.isCity()) cityCount++;
+            }
+
+            this.cityStations = cityCount;
+            this.nonCityStations = hits.size() - cityCount;
+            this.totalStations = hits.size();
+        }
+
+        /**
+         * Summary from counts that were already aggregated (e.g. by KDTree2.aggregateRadiusQuery).
+         */
+        public StationDensitySummary(Map<String, Integer> countByCountry, int cityStations, int nonCityStations,
+                                     double radiusKm, double centerLat, double centerLon) {
+            this.radiusKm = radiusKm;
+            this.centerLat = centerLat;
+            this.centerLon = centerLon;
+            this.countByCountry = new TreeMap<>(countByCountry);
+            this.cityStations = cityStations;
+            this.nonCityStations = nonCityStations;
+            this.totalStations = cityStations + nonCityStations;
+        }
+
         public Map<String, Integer> getCountByCountry() {
             return new TreeMap<>(countByCountry);
         }
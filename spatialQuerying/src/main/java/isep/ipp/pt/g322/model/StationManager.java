@@ -1,19 +1,39 @@
 package isep.ipp.pt.g322.model;
 
+import isep.ipp.pt.g322.datastructures.bitmap.CompressedBitmap;
 import isep.ipp.pt.g322.datastructures.tree.AVL;
+import isep.ipp.pt.g322.datastructures.tree.DelaunayTriangulation;
 import isep.ipp.pt.g322.datastructures.tree.KDTree2;
 import isep.ipp.pt.g322.datastructures.tree.KdTree;
+import isep.ipp.pt.g322.datastructures.tree.QueryStats;
+import isep.ipp.pt.g322.datastructures.tree.StationHits;
+import isep.ipp.pt.g322.datastructures.tree.StreamingReverseGeocoder;
+import isep.ipp.pt.g322.datastructures.tree.TreeDiagnostics;
 
 import java.io.*;
 import java.util.*;
 
 public class StationManager {
+    private static final int MAX_POOLED_HIT_BUFFERS = 16;
+
     private AVL<LatitudeKey> latitudeIndex;
     private AVL<LongitudeKey> longitudeIndex;
     private AVL<TimezoneCountryKey> timezoneCountryIndex;
+    // lazily built views below are volatile and built under the manager's lock, so concurrent readers
+    // of a built manager (e.g. StationQueryServer) share one instance
+    private volatile TimezoneGroupIndex timezoneGroupIndex;
     private KdTree spatialIndex;
     private KDTree2 spatialIndex2;
     private KDTree2Stats kdTree2Stats;
+    private StationAttributeIndex attributeIndex;
+    private volatile StationNameIndex nameIndex;
+    private StationQueryCache queryCache;
+    private volatile StationQueryPlanner queryPlanner;
+    private volatile DelaunayTriangulation triangulation;
+    private QueryStatsAggregator queryStats;
+    // idle radius search buffers shared by all threads, at most MAX_POOLED_HIT_BUFFERS kept; with a
+    // virtual thread per request a ThreadLocal buffer would be allocated afresh for every request
+    private final ArrayDeque<StationHits> hitBuffers = new ArrayDeque<>();
 
     private int totalStations;
     private int validStations;
@@ -108,6 +128,7 @@ public class StationManager {
     }
 
     private void addStationToIndices(Station station) {
+        queryPlanner = null;
         addToLatitudeIndex(station);
 
         addToLongitudeIndex(station);
@@ -150,6 +171,7 @@ public class StationManager {
             searchKey.addStation(station);
             timezoneCountryIndex.insert(searchKey);
         }
+        timezoneGroupIndex = null;
     }
 
     private LatitudeKey findLatitudeKey(LatitudeKey key) {
@@ -164,37 +186,40 @@ public class StationManager {
         return timezoneCountryIndex.find(key);
     }
 
+    /**
+     * @return Stations of the group sorted by name
+     */
     public List<Station> getStationsByTimeZoneGroup(String timeZoneGroup) {
-        List<Station> result = new ArrayList<>();
-
-        TimezoneCountryKey minKey = new TimezoneCountryKey(timeZoneGroup, "");
-        TimezoneCountryKey maxKey = new TimezoneCountryKey(timeZoneGroup, "\uffff");
-
-        List<TimezoneCountryKey> matchingKeys = timezoneCountryIndex.findRange(minKey, maxKey);
-
-        for (TimezoneCountryKey key : matchingKeys) {
-            result.addAll(key.getStations());
-        }
-
-        result.sort(Comparator.comparing(Station::getStation));
+        return getTimezoneGroupIndex().getByName(timeZoneGroup);
+    }
 
-        return result;
+    /**
+     * @return Stations of the group sorted by country, then name
+     */
+    public List<Station> getStationsByTimeZoneGroupByCountry(String timeZoneGroup) {
+        return getTimezoneGroupIndex().getByCountry(timeZoneGroup);
     }
 
+    /**
+     * @return Stations of the given groups in argument order, each group sorted by country then name
+     */
     public List<Station> getStationsByTimeZoneWindow(String[] timeZoneGroups) {
-        List<Station> result = new ArrayList<>();
-
-        for (String tzGroup : timeZoneGroups) {
-            TimezoneCountryKey minKey = new TimezoneCountryKey(tzGroup, "");
-            TimezoneCountryKey maxKey = new TimezoneCountryKey(tzGroup, "\uffff");
-
-            List<TimezoneCountryKey> keys = timezoneCountryIndex.findRange(minKey, maxKey);
-            for (TimezoneCountryKey key : keys) {
-                result.addAll(key.getStations());
+        return getTimezoneGroupIndex().getWindow(timeZoneGroups);
+    }
+
+    // rebuilt from the AVL on the first group query after stations were added
+    private TimezoneGroupIndex getTimezoneGroupIndex() {
+        TimezoneGroupIndex index = timezoneGroupIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = timezoneGroupIndex;
+                if (index == null) {
+                    index = new TimezoneGroupIndex(timezoneCountryIndex.inOrder());
+                    timezoneGroupIndex = index;
+                }
             }
         }
-
-        return result;
+        return index;
     }
 
     public List<Station> getStationsByLatitudeRange(double minLat, double maxLat) {
@@ -278,6 +303,43 @@ public class StationManager {
         }
     }
 
+    /**
+     * Merges near-duplicate stations (same country, within maxDistanceKm, similar names) into canonical
+     * stations and rebuilds the AVL indices with them, so the spatial index built afterwards has fewer points.
+     * Must be followed by buildSpatialIndex() to query the deduplicated set. The loaded station counts
+     * (getTotalStations, getValidStations) are updated to the canonical set.
+     *
+     * @return number of stations removed by merging
+     */
+    public int deduplicateStations(double maxDistanceKm, double minNameSimilarity) {
+        if (latitudeIndex.size() == 0) {
+            return 0;
+        }
+
+        List<Station> allStations = getStationsByLatitudeRange(-90.0, 90.0);
+        KDTree2 index = new KDTree2(latitudeIndex, longitudeIndex);
+
+        List<Station> canonical = new StationDeduplicator(maxDistanceKm, minNameSimilarity)
+                .deduplicate(allStations, index);
+
+        this.latitudeIndex = new AVL<>();
+        this.longitudeIndex = new AVL<>();
+        this.timezoneCountryIndex = new AVL<>();
+        this.timezoneGroupIndex = null;
+        this.spatialIndex = null;
+        this.spatialIndex2 = null;
+        this.attributeIndex = null;
+        this.nameIndex = null;
+        for (Station station : canonical) {
+            addStationToIndices(station);
+        }
+        // merged records no longer count as loaded; rejected rows are unaffected
+        this.validStations = canonical.size();
+        this.totalStations = validStations + invalidStations;
+
+        return allStations.size() - canonical.size();
+    }
+
     /* US07 - Helder*/
     public void buildSpatialIndex() {
         if (latitudeIndex.size() == 0 || longitudeIndex.size() == 0) {
@@ -287,7 +349,7 @@ public class StationManager {
         System.out.println("Building 2D-Tree from AVL indices..."); // just for console feedback
         long startTime = System.nanoTime(); // just for console feedback purposes
 
-        this.spatialIndex2 = new KDTree2(latitudeIndex, longitudeIndex);
+        installSpatialIndex(new KDTree2(latitudeIndex, longitudeIndex));
         // to delete later, it is just for console feedback purposes
         long endTime = System.nanoTime();
         double elapsedMs = (endTime - startTime) / 1_000_000.0;
@@ -295,16 +357,86 @@ public class StationManager {
         System.out.printf("2D-Tree built in %.2f ms%n", elapsedMs);
     }
 
+    /**
+     * Starts recording counters for every spatial query of this manager (nodes visited, distance
+     * evaluations, pruning, heap operations, time), aggregated per query type.
+     */
+    public void enableQueryStats() {
+        if (queryStats == null) {
+            queryStats = new QueryStatsAggregator();
+        }
+        if (spatialIndex2 != null) {
+            spatialIndex2.setStatsRecording(true);
+        }
+    }
+
+    public void disableQueryStats() {
+        queryStats = null;
+        if (spatialIndex2 != null) {
+            spatialIndex2.setStatsRecording(false);
+        }
+    }
+
+    /**
+     * @return Aggregated query counters, or null if recording is off
+     */
+    public QueryStatsAggregator getQueryStats() {
+        return queryStats;
+    }
+
+    // adds the counters of the query just run by this thread (none when the result came from the cache)
+    private <T> T recordQuery(T result) {
+        if (queryStats != null) {
+            QueryStats stats = spatialIndex2.takeLastQueryStats();
+            if (stats != null) {
+                queryStats.record(stats);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes the engine the one tree behind every spatial query of this manager, both the KDTree2
+     * queries and the US08 KdTree view returned to the CLI.
+     */
+    private void installSpatialIndex(KDTree2 engine) {
+        this.spatialIndex2 = engine;
+        this.spatialIndex = KdTree.of(engine);
+        engine.setStatsRecording(queryStats != null);
+        this.attributeIndex = new StationAttributeIndex(engine);
+        this.nameIndex = null;
+        this.queryPlanner = null;
+        this.triangulation = null;
+        if (queryCache != null) {
+            queryCache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return US08 view of the current spatial index, or null if none was built or loaded
+     */
+    public KdTree getKdTree() {
+        return spatialIndex;
+    }
+
     public KDTree2Stats getSpatialIndexStatistics() {
         if (spatialIndex2 == null) {
             throw new IllegalStateException("Spatial index not built yet. Call buildSpatialIndex() first.");
         }
 
-        int size = spatialIndex2.size();
-        int height = spatialIndex2.height();
-        Map<Integer, Integer> bucketDistribution = spatialIndex2.getBucketSizeDistribution();
+        TreeDiagnostics diagnostics = spatialIndex2.diagnose();
+        return new KDTree2Stats(diagnostics.getNodeCount(), diagnostics.getHeight(),
+                new TreeMap<>(diagnostics.getBucketDistribution()));
+    }
 
-        return new KDTree2Stats(size, height, bucketDistribution);
+    /**
+     * One-pass shape report of the current spatial index, e.g. to decide whether a rebuild pays off.
+     */
+    public TreeDiagnostics getSpatialIndexDiagnostics() {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built yet. Call buildSpatialIndex() first.");
+        }
+        return spatialIndex2.diagnose();
     }
 
     public void printSpatialIndexStatistics() {
@@ -313,17 +445,17 @@ public class StationManager {
             return;
         }
 
-        KDTree2Stats stats = getSpatialIndexStatistics();
+        TreeDiagnostics diagnostics = spatialIndex2.diagnose();
 
         System.out.println("=== 2D-Tree (KD-Tree) Statistics ===");
-        System.out.println("Tree size (nodes): " + stats.size);
-        System.out.println("Tree height: " + stats.height);
+        System.out.println("Tree size (nodes): " + diagnostics.getNodeCount());
+        System.out.println("Tree height: " + diagnostics.getHeight());
 
         System.out.println("\nBucket Size Distribution:");
         System.out.println("(Stations per coordinate point)");
 
         int totalStationsInTree = 0;
-        for (Map.Entry<Integer, Integer> entry : stats.bucketDistribution.entrySet()) {
+        for (Map.Entry<Integer, Integer> entry : diagnostics.getBucketDistribution().entrySet()) {
             int stationsPerPoint = entry.getKey();
             int numberOfPoints = entry.getValue();
             int stationsInThisBucket = stationsPerPoint * numberOfPoints;
@@ -335,7 +467,10 @@ public class StationManager {
         }
 
         System.out.println("\nTotal stations in tree: " + totalStationsInTree);
-        System.out.println("Unique coordinate points: " + stats.size);
+        System.out.println("Unique coordinate points: " + diagnostics.getNodeCount());
+
+        System.out.println("\nDiagnostics:");
+        System.out.println(diagnostics);
     }
 
     public String getComplexityAnalysis() {
@@ -394,19 +529,23 @@ public class StationManager {
         sb.append("      - Average: O(n^0.5 + k) where k is results found\n");
         sb.append("      - Uses Haversine distance for accurate km\n");
         sb.append("   \n");
-        sb.append("   b) Building AVL tree from results:\n");
-        sb.append("      - Insert k results into AVL: O(k log k)\n");
+        sb.append("   b) Ordering results:\n");
+        sb.append("      - Hits kept in arrays, sorted once: O(k) when already by distance, O(k log k) otherwise\n");
         sb.append("      - Grouped by rounded distance (2 decimal places)\n");
         sb.append("      - Stations at same distance sorted by name DESC\n");
+        sb.append("      - AVL view built only on demand: O(k log g), g = distance groups\n");
         sb.append("   \n");
         sb.append("   c) Density summary computation:\n");
         sb.append("      - Count by country: O(k) with TreeMap\n");
         sb.append("      - Count city vs non-city: O(k) single pass\n");
+        sb.append("      - Computed only when the summary is requested\n");
+        sb.append("      - Summary-only queries (radiusDensitySummary) add whole-subtree counters when a\n");
+        sb.append("        subtree's box is inside the circle: O(boundary nodes) instead of O(k)\n");
         sb.append("   \n");
         sb.append("   d) TOTAL complexity:\n");
         sb.append("      - O(n^0.5 + k log k) where n=total stations, k=matches\n");
-        sb.append("      - Dominated by AVL construction when k is large\n");
-        sb.append("      - Space: O(k) for AVL tree + summary\n");
+        sb.append("      - Dominated by the distance sort when k is large\n");
+        sb.append("      - Space: O(k) for result arrays (+ AVL/summary when requested)\n");
 
         return sb.toString();
     }
@@ -418,7 +557,11 @@ public class StationManager {
         if (spatialIndex2 == null) {
             throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
         }
-        return spatialIndex2.kNearestNeighbors(lat, lon, k);
+        if (queryCache == null) {
+            return recordQuery(spatialIndex2.kNearestNeighbors(lat, lon, k));
+        }
+        return new ArrayList<>(queryCache.get("knn", lat, lon, k, 0, null,
+                () -> List.copyOf(recordQuery(spatialIndex2.kNearestNeighbors(lat, lon, k)))));
     }
 
 
@@ -430,7 +573,7 @@ public class StationManager {
         if (spatialIndex2 == null) {
             throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
         }
-        return spatialIndex2.kNearestNeighborsWithFilter(lat, lon, k, timezoneFilter);
+        return recordQuery(spatialIndex2.kNearestNeighborsWithFilter(lat, lon, k, timezoneFilter));
     }
 
     /**
@@ -442,27 +585,147 @@ public class StationManager {
         if (spatialIndex2 == null) {
             throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
         }
-        return spatialIndex2.kNearestNeighborsWithCriteria(lat, lon, k, criteria);
+        if (queryCache == null) {
+            return kNearestFiltered(lat, lon, k, criteria);
+        }
+        // criteria is a mutable builder, so its value string is used as the key
+        String filterKey = criteria == null ? null : criteria.toString();
+        return new ArrayList<>(queryCache.get("knnCriteria", lat, lon, k, 0, filterKey,
+                () -> List.copyOf(kNearestFiltered(lat, lon, k, criteria))));
     }
 
+    // filters are resolved to a candidate bitmap first, so the tree skips subtrees with no match
+    private List<KDTree2.StationDistance> kNearestFiltered(double lat, double lon, int k,
+                                                           KDTree2.StationFilterCriteria criteria) {
+        if (criteria == null) {
+            return recordQuery(spatialIndex2.kNearestNeighbors(lat, lon, k));
+        }
+        return recordQuery(spatialIndex2.kNearestAmong(lat, lon, k, attributeIndex.candidates(criteria)));
+    }
 
-    public KdTree buildKdTreeFromIndices() {
-        List<Station> allStations = getStationsByLatitudeRange(-90.0, 90.0);
+    /**
+     * Bitmap index over the spatial index' station ids, for building custom AND/OR candidate sets.
+     */
+    public StationAttributeIndex getAttributeIndex() {
+        if (attributeIndex == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        return attributeIndex;
+    }
+
+    /**
+     * Accent-insensitive name index over the spatial index' station ids, built on first use.
+     */
+    public StationNameIndex getNameIndex() {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        StationNameIndex index = nameIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = nameIndex;
+                if (index == null) {
+                    index = new StationNameIndex(spatialIndex2);
+                    nameIndex = index;
+                }
+            }
+        }
+        return index;
+    }
 
-        return new KdTree(allStations);
+    /**
+     * Type-ahead lookup: stations whose name starts with the prefix, then names one typo away.
+     */
+    public List<Station> suggestStations(String prefix, int limit) {
+        return getNameIndex().suggest(prefix, limit);
     }
 
-    public KdTree loadStationsDirectlyToKdTree2(String csvPath) {
-        List<Station> allStations = new ArrayList<>();
+    /**
+     * K-nearest stations among an arbitrary candidate set from getAttributeIndex().
+     */
+    public List<KDTree2.StationDistance> kNearestStationsAmong(double lat, double lon, int k,
+                                                               CompressedBitmap candidates) {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        return recordQuery(spatialIndex2.kNearestAmong(lat, lon, k, candidates));
+    }
 
-        loadStationsFromCSV(csvPath);
+    /**
+     * Stations of an arbitrary candidate set within radiusKm, sorted by distance.
+     */
+    public List<KDTree2.StationDistance> radiusSearchAmong(double centerLat, double centerLon, double radiusKm,
+                                                           CompressedBitmap candidates) {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        return recordQuery(spatialIndex2.circularRangeQueryAmong(centerLat, centerLon, radiusKm, candidates));
+    }
+
+    /**
+     * Enables an LRU cache in front of kNearestStations, kNearestStationsWithCriteria and
+     * radiusSearchWithSummary, cleared whenever the spatial index is rebuilt.
+     *
+     * @param capacity Maximum number of cached results
+     * @param quantumDeg Coordinates closer than this (degrees) share a cache entry
+     */
+    public void enableQueryCache(int capacity, double quantumDeg) {
+        this.queryCache = new StationQueryCache(capacity, quantumDeg);
+    }
+
+    public void disableQueryCache() {
+        this.queryCache = null;
+    }
 
-        for (LatitudeKey key : latitudeIndex.inOrder()) {
-            allStations.addAll(key.getStations());
+    /**
+     * @return the active query cache (for hit/miss metrics), or null if disabled
+     */
+    public StationQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * US09: Find up to k nearest stations within maxKm, with optional filter criteria
+     */
+    public List<KDTree2.StationDistance> kNearestStationsWithin(double lat, double lon, int k, double maxKm,
+                                                                KDTree2.StationFilterCriteria criteria) {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
         }
+        return recordQuery(spatialIndex2.kNearestWithin(lat, lon, k, maxKm, criteria));
+    }
 
 
-        return new KdTree(allStations);
+    /**
+     * Nearest station of this manager's index for every station of another manager's index
+     * (e.g. "for every depot, nearest station"), computed with a dual-tree join.
+     */
+    public List<KDTree2.StationPair> nearestStationJoin(StationManager queryManager) {
+        if (spatialIndex2 == null || queryManager.spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        return recordQuery(spatialIndex2.nearestNeighborJoin(queryManager.spatialIndex2));
+    }
+
+    /**
+     * All pairs of distinct stations at most maxKm apart, e.g. to spot near-duplicate entries.
+     */
+    public List<KDTree2.StationPair> findStationPairsWithin(double maxKm) {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        return recordQuery(spatialIndex2.selfWithinDistanceJoin(maxKm));
+    }
+
+    public KdTree buildKdTreeFromIndices() {
+        installSpatialIndex(new KDTree2(latitudeIndex, longitudeIndex));
+        return spatialIndex;
+    }
+
+    public KdTree loadStationsDirectlyToKdTree2(String csvPath) {
+        loadStationsFromCSV(csvPath);
+
+        return buildKdTreeFromIndices();
     }
 
     /**
@@ -472,19 +735,160 @@ public class StationManager {
         if (spatialIndex2 == null) {
             throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
         }
+        if (queryCache != null) {
+            return queryCache.get("radius", centerLat, centerLon, 0, radiusKm, null,
+                    () -> computeRadiusSearch(centerLat, centerLon, radiusKm));
+        }
+        return computeRadiusSearch(centerLat, centerLon, radiusKm);
+    }
 
-        // to get all stations within radius using KD-tree circular range query - coming from KDTree2 class
-        List<KDTree2.StationDistance> results = spatialIndex2.circularRangeQuery(centerLat, centerLon, radiusKm);
+    private RadiusSearchResult computeRadiusSearch(double centerLat, double centerLon, double radiusKm) {
+        StationHits hits = borrowHitBuffer();
+        try {
+            recordQuery(spatialIndex2.circularRangeQuery(centerLat, centerLon, radiusKm, hits));
+            return new RadiusSearchResult(hits, radiusKm, centerLat, centerLon);
+        } finally {
+            releaseHitBuffer(hits);
+        }
+    }
 
-        List<Station> stations = new ArrayList<>();
-        List<Double> distances = new ArrayList<>();
+    private StationHits borrowHitBuffer() {
+        synchronized (hitBuffers) {
+            StationHits hits = hitBuffers.pollLast();
+            return hits != null ? hits : new StationHits();
+        }
+    }
 
-        for (KDTree2.StationDistance sd : results) {
-            stations.add(sd.station);
-            distances.add(sd.distanceKm);
+    // results copy out of the buffer, so it can be handed to the next search once they are built
+    private void releaseHitBuffer(StationHits hits) {
+        synchronized (hitBuffers) {
+            if (hitBuffers.size() < MAX_POOLED_HIT_BUFFERS) {
+                hitBuffers.addLast(hits);
+            }
         }
+    }
+
+    /**
+     * Stations inside a latitude/longitude rectangle matching the criteria (null for none), sorted by
+     * name. The access path (AVL band scan, KD-tree search or filter bitmap first) is picked per query
+     * by a StationQueryPlanner from cardinality estimates, see explainRectangleSearch.
+     */
+    public List<Station> searchRectangle(double minLat, double maxLat, double minLon, double maxLon,
+                                         KDTree2.StationFilterCriteria criteria) {
+        return getQueryPlanner().search(minLat, maxLat, minLon, maxLon, criteria);
+    }
+
+    /**
+     * Plan searchRectangle would use, with the estimated rows and cost of every path.
+     */
+    public StationQueryPlanner.QueryPlan explainRectangleSearch(double minLat, double maxLat, double minLon, double maxLon,
+                                                                KDTree2.StationFilterCriteria criteria) {
+        return getQueryPlanner().plan(minLat, maxLat, minLon, maxLon, criteria);
+    }
 
-        return new RadiusSearchResult(stations, distances, radiusKm, centerLat, centerLon);
+    /**
+     * Planner over the current AVL and spatial indices, built on first use and dropped when either changes.
+     */
+    public StationQueryPlanner getQueryPlanner() {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        StationQueryPlanner planner = queryPlanner;
+        if (planner == null) {
+            synchronized (this) {
+                planner = queryPlanner;
+                if (planner == null) {
+                    planner = new StationQueryPlanner(latitudeIndex, longitudeIndex, spatialIndex2, attributeIndex);
+                    queryPlanner = planner;
+                }
+            }
+        }
+        return planner;
+    }
+
+    /**
+     * Nearest-station lookup for one stream of GPS fixes (e.g. one train), faster than
+     * kNearestStations(lat, lon, 1) for consecutive nearby fixes. Bound to the current spatial index:
+     * create a new one after rebuilding it.
+     */
+    public StreamingReverseGeocoder createReverseGeocoder() {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        return new StreamingReverseGeocoder(spatialIndex2);
+    }
+
+    /**
+     * Delaunay triangulation of the spatial index' coordinates, built on first use.
+     */
+    public DelaunayTriangulation getDelaunayTriangulation() {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        DelaunayTriangulation delaunay = triangulation;
+        if (delaunay == null) {
+            synchronized (this) {
+                delaunay = triangulation;
+                if (delaunay == null) {
+                    delaunay = new DelaunayTriangulation(spatialIndex2);
+                    triangulation = delaunay;
+                }
+            }
+        }
+        return delaunay;
+    }
+
+    /**
+     * Stations whose Voronoi cells border the given station's (its "neighboring stations"), closest first.
+     */
+    public List<KDTree2.StationDistance> neighboringStations(Station station) {
+        DelaunayTriangulation delaunay = getDelaunayTriangulation();
+        int vertex = delaunay.nearestVertex(station.getLatitude(), station.getLongitude());
+        if (vertex < 0 || delaunay.getLatitude(vertex) != station.getLatitude()
+                || delaunay.getLongitude(vertex) != station.getLongitude()) {
+            throw new IllegalArgumentException("Station not in the spatial index: " + station.getStation());
+        }
+        return delaunay.neighboringStations(vertex);
+    }
+
+    /**
+     * Stations inside a latitude/longitude rectangle, sorted by name and cut to the first limit.
+     */
+    public List<Station> rectangleSearch(double minLat, double maxLat, double minLon, double maxLon, int limit) {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        return recordQuery(spatialIndex2.rangeQuery(minLat, maxLat, minLon, maxLon, limit));
+    }
+
+    /**
+     * Stations inside a polygon region (e.g. a country border), sorted by name.
+     */
+    public List<Station> polygonSearch(GeoPolygon polygon) {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        return recordQuery(spatialIndex2.polygonQuery(polygon));
+    }
+
+    /**
+     * Stations within bufferKm of a route ({lat, lon} vertices), ordered along the route.
+     */
+    public List<KDTree2.CorridorHit> corridorSearch(double[][] route, double bufferKm) {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        return recordQuery(spatialIndex2.corridorQuery(route, bufferKm));
+    }
+
+    /**
+     * US10: density summary only (no station list), answered from the KD-tree subtree counters
+     */
+    public StationDensitySummary radiusDensitySummary(double centerLat, double centerLon, double radiusKm) {
+        if (spatialIndex2 == null) {
+            throw new IllegalStateException("Spatial index not built. Call buildSpatialIndex() first.");
+        }
+        return recordQuery(spatialIndex2.aggregateRadiusQuery(centerLat, centerLon, radiusKm));
     }
 
     public RadiusSearchResult radiusSearchWithSummaryFiltered(double centerLat, double centerLon,
@@ -495,24 +899,47 @@ public class StationManager {
         }
 
         // to get all stations within radius using KDTree2 class
-        List<KDTree2.StationDistance> results = spatialIndex2.circularRangeQuery(centerLat, centerLon, radiusKm);
-
-        List<Station> stations = new ArrayList<>();
-        List<Double> distances = new ArrayList<>();
-
-        for (KDTree2.StationDistance sd : results) {
-            if (criteria == null || criteria.matches(sd.station)) {
-                stations.add(sd.station);
-                distances.add(sd.distanceKm);
+        StationHits hits = borrowHitBuffer();
+        Station[] stations;
+        double[] distances;
+        int size = 0;
+        try {
+            recordQuery(spatialIndex2.circularRangeQuery(centerLat, centerLon, radiusKm, hits));
+
+            stations = new Station[hits.size()];
+            distances = new double[hits.size()];
+            for (int i = 0; i < hits.size(); i++) {
+                Station station = hits.getStation(i);
+                if (criteria == null || criteria.matches(station)) {
+                    stations[size] = station;
+                    distances[size] = hits.getDistance(i);
+                    size++;
+                }
             }
+        } finally {
+            releaseHitBuffer(hits);
         }
 
-        return new RadiusSearchResult(stations, distances, radiusKm, centerLat, centerLon);
+        return new RadiusSearchResult(stations, distances, size, radiusKm, centerLat, centerLon);
+    }
+
+    /**
+     * Station density raster for a rectangle in one parallel pass over the stations of its latitude band
+     * (instead of repeated radius searches over a lattice of centers).
+     *
+     * @param cellSizeDeg Cell size in degrees (same for latitude and longitude)
+     * @param grouping Extra per-country or per-time-zone-group layers, or NONE
+     */
+    public DensityGrid computeDensityGrid(double minLat, double maxLat, double minLon, double maxLon,
+                                          double cellSizeDeg, DensityGrid.Grouping grouping) {
+        List<Station> band = getStationsByLatitudeRange(minLat, maxLat);
+        return DensityGrid.compute(band, minLat, maxLat, minLon, maxLon, cellSizeDeg, grouping);
     }
 
     /**
      * Metodido para carregar estações diretamente para uma KD-Tree a partir de um ficheiro CSV.
      * Usar apenas para spacial queries (US08) sem necessidade dos índices AVL.
+     * A árvore carregada passa também a ser o índice espacial deste manager (kNearest, radius, ...).
      */
     public KdTree loadStationsDirectlyToKdTree(String csvFilePath) {
         List<Station> stations = new ArrayList<>();
@@ -549,6 +976,7 @@ public class StationManager {
             return null;
         }
 
-        return new KdTree(stations);
+        installSpatialIndex(new KDTree2(stations));
+        return spatialIndex;
     }
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package isep.ipp.pt.g322.model;
+
+import isep.ipp.pt.g322.datastructures.bitmap.CompressedBitmap;
+import isep.ipp.pt.g322.datastructures.trie.CompactTrie;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+
+import java.util.*;
+
+/**
+ * Name lookup over the stations of a KDTree2. Names are normalized with StationNames.normalize
+ * (lower case, no accents, punctuation as single spaces), so "santa apol" finds "Santa Apolónia".
+ * Results are station ids of the tree, either as stations in name order or as a CompressedBitmap
+ * that can be passed to the spatial queries (KDTree2.kNearestAmong / circularRangeQueryAmong).
+ */
+public class StationNameIndex {
+    private final KDTree2 tree;
+    private final CompactTrie trie = new CompactTrie();
+
+    public StationNameIndex(KDTree2 tree) {
+        this.tree = tree;
+        for (int id = 0; id < tree.getStationCount(); id++) {
+            trie.insert(StationNames.normalize(tree.getStation(id).getStation()), id);
+        }
+    }
+
+    /**
+     * @return Up to limit stations whose normalized name starts with the normalized prefix, in name order
+     */
+    public List<Station> findByPrefix(String prefix, int limit) {
+        return toStations(trie.prefix(StationNames.normalize(prefix), limit));
+    }
+
+    /**
+     * @return Up to limit stations whose normalized name is within one edit of the normalized name
+     */
+    public List<Station> findSimilar(String name, int limit) {
+        return toStations(trie.withinDistance(StationNames.normalize(name), 1, limit));
+    }
+
+    /**
+     * Type-ahead search: exact prefix matches first, then names starting within one edit of the prefix.
+     */
+    public List<Station> suggest(String prefix, int limit) {
+        String normalized = StationNames.normalize(prefix);
+        int[] exact = trie.prefix(normalized, limit);
+        if (exact.length >= limit) {
+            return toStations(exact);
+        }
+
+        Set<Integer> seen = new LinkedHashSet<>();
+        for (int id : exact) seen.add(id);
+        for (int id : trie.prefixWithinDistance(normalized, 1, limit + exact.length)) {
+            if (seen.size() >= limit) break;
+            seen.add(id);
+        }
+
+        List<Station> result = new ArrayList<>(seen.size());
+        for (int id : seen) result.add(tree.getStation(id));
+        return result;
+    }
+
+    /**
+     * @return Ids of every station whose normalized name starts with the prefix
+     */
+    public CompressedBitmap prefixIds(String prefix) {
+        return toBitmap(trie.prefix(StationNames.normalize(prefix), Integer.MAX_VALUE));
+    }
+
+    /**
+     * @return Ids of every station whose normalized name is within one edit of the name
+     */
+    public CompressedBitmap similarIds(String name) {
+        return toBitmap(trie.withinDistance(StationNames.normalize(name), 1, Integer.MAX_VALUE));
+    }
+
+    public int getDistinctNames() {
+        return trie.size();
+    }
+
+    private List<Station> toStations(int[] ids) {
+        List<Station> result = new ArrayList<>(ids.length);
+        for (int id : ids) result.add(tree.getStation(id));
+        return result;
+    }
+
+    private static CompressedBitmap toBitmap(int[] ids) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int id : ids) bitmap.add(id);
+        return bitmap;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StationNameIndex{stations=%d, distinctNames=%d, trieNodes=%d}",
+                tree.getStationCount(), trie.size(), trie.nodeCount());
+    }
+}
@@ -0,0 +1,52 @@
+package isep.ipp.pt.g322.model;
+
+import java.text.Normalizer;
+
+/**
+ * Station name folding shared by StationDeduplicator (name similarity) and StationNameIndex (lookups),
+ * so a name is matched the same way it was compared when stations were merged.
+ */
+public final class StationNames {
+
+    private StationNames() {
+    }
+
+    /**
+     * Lower-case, accent-free form of a station name with punctuation collapsed to single spaces
+     * ("Santa Apolónia" and "santa-apolonia" both become "santa apolonia").
+     */
+    public static String normalize(String name) {
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean pendingSpace = false;
+
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+
+            if (Character.isLetterOrDigit(c)) {
+                if (pendingSpace && sb.length() > 0) sb.append(' ');
+                sb.append(foldLetter(Character.toLowerCase(c)));
+                pendingSpace = false;
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    // letters that have no canonical decomposition into base letter + accent
+    private static String foldLetter(char c) {
+        return switch (c) {
+            case 'ł' -> "l";
+            case 'ø' -> "o";
+            case 'đ', 'ð' -> "d";
+            case 'ı' -> "i";
+            case 'ß' -> "ss";
+            case 'æ' -> "ae";
+            case 'œ' -> "oe";
+            case 'þ' -> "th";
+            default -> String.valueOf(c);
+        };
+    }
+}
@@ -0,0 +1,160 @@
+package isep.ipp.pt.g322.model;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache for spatial query results.
+ * Keys are the query type, the coordinates quantized to a grid of quantumDeg degrees, the numeric
+ * parameters and the filter, so repeated queries for the same hub hit the cache even with slightly
+ * different floating point input. The spatial index is immutable once built, so entries only go
+ * stale when it is rebuilt, which clears everything.
+ * <p>
+ * The lock is held only to look up or insert an entry, never while a query runs. A miss inserts a
+ * pending entry first, so concurrent callers asking for the same key wait for that one run instead
+ * of repeating it, while queries for other keys go ahead.
+ */
+public class StationQueryCache {
+    private final int capacity;
+    private final double quantumDeg;
+    private final LinkedHashMap<QueryKey, CompletableFuture<Object>> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param capacity Maximum number of cached results
+     * @param quantumDeg Coordinate quantization step in degrees (e.g. 1e-5 ≈ 1 m)
+     */
+    public StationQueryCache(int capacity, double quantumDeg) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        if (quantumDeg <= 0) {
+            throw new IllegalArgumentException("quantumDeg must be > 0");
+        }
+        this.capacity = capacity;
+        this.quantumDeg = quantumDeg;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<QueryKey, CompletableFuture<Object>> eldest) {
+                if (size() > StationQueryCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for the query or runs it and caches the result.
+     *
+     * @param queryType Query name, part of the key
+     * @param lat Query latitude
+     * @param lon Query longitude
+     * @param count Integer parameter (k), 0 if unused
+     * @param distanceKm Distance parameter (radius / max distance), 0 if unused
+     * @param filter Filter object with value equality, or null
+     * @param query Runs the query on a miss, outside the cache lock
+     */
+    public <T> T get(String queryType, double lat, double lon, int count, double distanceKm,
+                     Object filter, Supplier<T> query) {
+        QueryKey key = new QueryKey(queryType, Math.round(lat / quantumDeg), Math.round(lon / quantumDeg),
+                count, distanceKm, filter);
+
+        CompletableFuture<Object> cached;
+        CompletableFuture<Object> pending = null;
+        synchronized (this) {
+            cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+            } else {
+                misses++;
+                pending = new CompletableFuture<>();
+                entries.put(key, pending);
+            }
+        }
+        if (cached != null) {
+            // waits outside the lock if another caller is still running this query
+            return await(cached);
+        }
+
+        T value;
+        try {
+            value = query.get();
+        } catch (RuntimeException | Error e) {
+            // failures are not cached: the next caller runs the query again
+            synchronized (this) {
+                entries.remove(key, pending);
+            }
+            pending.completeExceptionally(e);
+            throw e;
+        }
+        pending.complete(value);
+        return value;
+    }
+
+    /**
+     * Drops every cached result (e.g. after the spatial index is rebuilt). Queries still running
+     * complete for their callers but are not kept.
+     */
+    public synchronized void invalidateAll() {
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("QueryCache{size=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, invalidations=%d}",
+                entries.size(), capacity, hits, misses, 100.0 * getHitRate(), evictions, invalidations);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T await(CompletableFuture<Object> entry) {
+        try {
+            return (T) entry.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+    }
+
+    private record QueryKey(String queryType, long latCell, long lonCell, int count, double distanceKm,
+                            Object filter) {
+    }
+}
@@ -0,0 +1,302 @@
+package isep.ipp.pt.g322.model;
+
+import isep.ipp.pt.g322.datastructures.bitmap.CompressedBitmap;
+import isep.ipp.pt.g322.datastructures.tree.AVL;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+
+import java.util.*;
+
+/**
+ * Cost-based choice of access path for rectangle queries with optional attribute filters. Every path
+ * returns the same stations, sorted by name; only the work differs:
+ * <ul>
+ *   <li>LATITUDE_SCAN / LONGITUDE_SCAN: AVL range on one axis, the other axis and the filter checked per station</li>
+ *   <li>KD_SEARCH: KDTree2.rangeQuery, the filter checked per matching bucket</li>
+ *   <li>BITMAP_FIRST: the filter's candidate bitmap, the rectangle checked per candidate id</li>
+ * </ul>
+ * Cardinalities come from prefix counts over the AVL keys (exact per axis, O(log n)), the KD-tree subtree
+ * aggregates (KDTree2.estimateRangeCount) and the bitmap cardinality of the filter. Filters and the
+ * rectangle are assumed independent when estimating the result size.
+ * <p>
+ * Costs are in "stations examined" units with rough relative weights per step; only their ratios matter.
+ */
+public class StationQueryPlanner {
+    public enum AccessPath { LATITUDE_SCAN, LONGITUDE_SCAN, KD_SEARCH, BITMAP_FIRST }
+
+    static final int ESTIMATE_DEPTH = 10;
+
+    private static final double AVL_ROW_COST = 1.0;
+    private static final double KD_NODE_COST = 2.0;
+    private static final double KD_ROW_COST = 1.0;
+    private static final double BITMAP_ROW_COST = 1.5;
+    private static final double SORT_COST = 0.5;
+
+    private final AVL<LatitudeKey> latitudeIndex;
+    private final AVL<LongitudeKey> longitudeIndex;
+    private final KDTree2 tree;
+    private final StationAttributeIndex attributes;
+    private final AxisCounts latitudeCounts;
+    private final AxisCounts longitudeCounts;
+
+    public StationQueryPlanner(AVL<LatitudeKey> latitudeIndex, AVL<LongitudeKey> longitudeIndex,
+                               KDTree2 tree, StationAttributeIndex attributes) {
+        this.latitudeIndex = latitudeIndex;
+        this.longitudeIndex = longitudeIndex;
+        this.tree = tree;
+        this.attributes = attributes;
+
+        List<double[]> latitudes = new ArrayList<>();
+        for (LatitudeKey key : latitudeIndex.inOrder()) {
+            latitudes.add(new double[]{key.getLatitude(), key.getStations().size()});
+        }
+        this.latitudeCounts = new AxisCounts(latitudes);
+
+        List<double[]> longitudes = new ArrayList<>();
+        for (LongitudeKey key : longitudeIndex.inOrder()) {
+            longitudes.add(new double[]{key.getLongitude(), key.getStations().size()});
+        }
+        this.longitudeCounts = new AxisCounts(longitudes);
+    }
+
+    /**
+     * Estimates the cost of every applicable path and picks the cheapest.
+     *
+     * @param criteria Attribute filter, null or empty for none
+     */
+    public QueryPlan plan(double minLat, double maxLat, double minLon, double maxLon,
+                          KDTree2.StationFilterCriteria criteria) {
+        if (minLat > maxLat || minLon > maxLon) {
+            throw new IllegalArgumentException("Rectangle minimum must not exceed maximum");
+        }
+        int stations = tree.getStationCount();
+        boolean filtered = criteria != null && !criteria.isEmpty();
+
+        long latitudeRows = latitudeCounts.count(minLat, maxLat);
+        long longitudeRows = longitudeCounts.count(minLon, maxLon);
+        double rectangleRows = tree.estimateRangeCount(minLat, maxLat, minLon, maxLon, ESTIMATE_DEPTH);
+        CompressedBitmap candidates = filtered ? attributes.candidates(criteria) : null;
+        long candidateRows = filtered ? candidates.cardinality() : stations;
+        double selectivity = stations == 0 ? 0.0 : (double) candidateRows / stations;
+        double resultRows = rectangleRows * selectivity;
+
+        Map<AccessPath, Double> costs = new EnumMap<>(AccessPath.class);
+        costs.put(AccessPath.LATITUDE_SCAN, log2(latitudeCounts.keys()) + latitudeRows * AVL_ROW_COST + sortCost(resultRows));
+        costs.put(AccessPath.LONGITUDE_SCAN, log2(longitudeCounts.keys()) + longitudeRows * AVL_ROW_COST + sortCost(resultRows));
+        // boundary nodes of a 2-d range search grow with sqrt(n), the bucket runs are merged, not sorted
+        double bucketSize = tree.size() == 0 ? 1.0 : (double) stations / tree.size();
+        costs.put(AccessPath.KD_SEARCH, KD_NODE_COST * (2 * Math.sqrt(tree.size()) + rectangleRows / bucketSize)
+                + KD_ROW_COST * rectangleRows);
+        if (filtered) {
+            costs.put(AccessPath.BITMAP_FIRST, candidateRows * BITMAP_ROW_COST + sortCost(resultRows));
+        }
+
+        AccessPath best = AccessPath.KD_SEARCH;
+        for (Map.Entry<AccessPath, Double> entry : costs.entrySet()) {
+            if (entry.getValue() < costs.get(best)) best = entry.getKey();
+        }
+        return new QueryPlan(minLat, maxLat, minLon, maxLon, criteria, best, costs, latitudeRows, longitudeRows,
+                rectangleRows, candidateRows, resultRows, candidates);
+    }
+
+    public List<Station> search(double minLat, double maxLat, double minLon, double maxLon,
+                                KDTree2.StationFilterCriteria criteria) {
+        QueryPlan plan = plan(minLat, maxLat, minLon, maxLon, criteria);
+        return execute(plan, plan.getAccessPath());
+    }
+
+    /**
+     * Runs the plan's query through the given path, whatever the planner chose (e.g. to compare paths).
+     */
+    public List<Station> execute(QueryPlan plan, AccessPath path) {
+        KDTree2.StationFilterCriteria criteria = plan.criteria != null && !plan.criteria.isEmpty() ? plan.criteria : null;
+        List<Station> result = new ArrayList<>();
+
+        switch (path) {
+            case KD_SEARCH -> {
+                return tree.rangeQuery(plan.minLat, plan.maxLat, plan.minLon, plan.maxLon,
+                        criteria == null ? null : criteria::matches, Integer.MAX_VALUE);
+            }
+            case LATITUDE_SCAN -> {
+                for (LatitudeKey key : latitudeIndex.findRange(new LatitudeKey(plan.minLat), new LatitudeKey(plan.maxLat))) {
+                    for (Station station : key.getStations()) {
+                        if (station.getLongitude() >= plan.minLon && station.getLongitude() <= plan.maxLon
+                                && (criteria == null || criteria.matches(station))) {
+                            result.add(station);
+                        }
+                    }
+                }
+            }
+            case LONGITUDE_SCAN -> {
+                for (LongitudeKey key : longitudeIndex.findRange(new LongitudeKey(plan.minLon), new LongitudeKey(plan.maxLon))) {
+                    for (Station station : key.getStations()) {
+                        if (station.getLatitude() >= plan.minLat && station.getLatitude() <= plan.maxLat
+                                && (criteria == null || criteria.matches(station))) {
+                            result.add(station);
+                        }
+                    }
+                }
+            }
+            case BITMAP_FIRST -> {
+                CompressedBitmap candidates = plan.candidates != null ? plan.candidates : attributes.candidates(criteria);
+                candidates.forEach(id -> {
+                    Station station = tree.getStation(id);
+                    if (station.getLatitude() >= plan.minLat && station.getLatitude() <= plan.maxLat
+                            && station.getLongitude() >= plan.minLon && station.getLongitude() <= plan.maxLon) {
+                        result.add(station);
+                    }
+                });
+            }
+        }
+        result.sort(Comparator.comparing(Station::getStation));
+        return result;
+    }
+
+    private static double log2(long n) {
+        return Math.log(Math.max(2, n)) / Math.log(2);
+    }
+
+    private static double sortCost(double rows) {
+        return rows < 2 ? 0.0 : SORT_COST * rows * log2((long) rows);
+    }
+
+    /**
+     * Sorted distinct coordinates of one AVL index with prefix station counts, so the number of
+     * stations in a coordinate range is two binary searches.
+     */
+    private static class AxisCounts {
+        private final double[] values;
+        // prefix[i] = stations with coordinate < values[i]
+        private final long[] prefix;
+
+        AxisCounts(List<double[]> keysInOrder) {
+            values = new double[keysInOrder.size()];
+            prefix = new long[keysInOrder.size() + 1];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = keysInOrder.get(i)[0];
+                prefix[i + 1] = prefix[i] + (long) keysInOrder.get(i)[1];
+            }
+        }
+
+        long count(double from, double to) {
+            return prefix[upperBound(to)] - prefix[lowerBound(from)];
+        }
+
+        long keys() {
+            return values.length;
+        }
+
+        // first index with values[i] >= value
+        private int lowerBound(double value) {
+            int lo = 0, hi = values.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < value) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        // first index with values[i] > value
+        private int upperBound(double value) {
+            int lo = 0, hi = values.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] <= value) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * Chosen path with the estimates behind it, see toString for an EXPLAIN-like summary.
+     */
+    public static class QueryPlan {
+        private final double minLat;
+        private final double maxLat;
+        private final double minLon;
+        private final double maxLon;
+        private final KDTree2.StationFilterCriteria criteria;
+        private final AccessPath accessPath;
+        private final Map<AccessPath, Double> costs;
+        private final long latitudeRows;
+        private final long longitudeRows;
+        private final double rectangleRows;
+        private final long candidateRows;
+        private final double estimatedResultSize;
+        // filter candidates computed while planning, reused by BITMAP_FIRST
+        private final CompressedBitmap candidates;
+
+        QueryPlan(double minLat, double maxLat, double minLon, double maxLon, KDTree2.StationFilterCriteria criteria,
+                  AccessPath accessPath, Map<AccessPath, Double> costs, long latitudeRows, long longitudeRows,
+                  double rectangleRows, long candidateRows, double estimatedResultSize, CompressedBitmap candidates) {
+            this.minLat = minLat;
+            this.maxLat = maxLat;
+            this.minLon = minLon;
+            this.maxLon = maxLon;
+            this.criteria = criteria;
+            this.accessPath = accessPath;
+            this.costs = Collections.unmodifiableMap(costs);
+            this.latitudeRows = latitudeRows;
+            this.longitudeRows = longitudeRows;
+            this.rectangleRows = rectangleRows;
+            this.candidateRows = candidateRows;
+            this.estimatedResultSize = estimatedResultSize;
+            this.candidates = candidates;
+        }
+
+        public AccessPath getAccessPath() {
+            return accessPath;
+        }
+
+        /**
+         * @return Estimated cost per applicable path (BITMAP_FIRST only when there is a filter)
+         */
+        public Map<AccessPath, Double> getCosts() {
+            return costs;
+        }
+
+        /**
+         * Exact number of stations in the latitude band.
+         */
+        public long getLatitudeRows() {
+            return latitudeRows;
+        }
+
+        /**
+         * Exact number of stations in the longitude band.
+         */
+        public long getLongitudeRows() {
+            return longitudeRows;
+        }
+
+        /**
+         * Estimated number of stations in the rectangle, before the filter.
+         */
+        public double getRectangleRows() {
+            return rectangleRows;
+        }
+
+        /**
+         * Stations passing the filter anywhere (all stations without a filter).
+         */
+        public long getCandidateRows() {
+            return candidateRows;
+        }
+
+        public double getEstimatedResultSize() {
+            return estimatedResultSize;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Plan: %s (estimated %.0f results)%n", accessPath, estimatedResultSize));
+            sb.append(String.format("  rows: latitude band %d, longitude band %d, rectangle ~%.0f, filter %d%n",
+                    latitudeRows, longitudeRows, rectangleRows, candidateRows));
+            for (Map.Entry<AccessPath, Double> entry : costs.entrySet()) {
+                sb.append(String.format("  %-15s cost %.1f%s%n", entry.getKey(), entry.getValue(),
+                        entry.getKey() == accessPath ? "  <-" : ""));
+            }
+            return sb.toString();
+        }
+    }
+}
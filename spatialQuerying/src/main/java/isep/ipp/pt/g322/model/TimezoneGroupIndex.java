@@ -0,0 +1,95 @@
+package isep.ipp.pt.g322.model;
+
+import isep.ipp.pt.g322.datastructures.merge.KWayMerge;
+
+import java.util.*;
+
+/**
+ * Read-only index from time zone group to its stations, precomputed from the (time zone group, country)
+ * AVL. Each group keeps two arrays: stations by name and stations by country then name, so group
+ * lookups need no sorting and a window of groups is a concatenation of the by-country arrays.
+ * Every list handed out is a new ArrayList owned by the caller.
+ */
+public class TimezoneGroupIndex {
+    private static final Station[] EMPTY = new Station[0];
+
+    private final Map<String, Station[]> byName = new HashMap<>();
+    private final Map<String, Station[]> byCountry = new HashMap<>();
+
+    /**
+     * @param keys Keys in AVL in-order, i.e. sorted by group then country, each with its stations sorted by name
+     */
+    public TimezoneGroupIndex(Iterable<TimezoneCountryKey> keys) {
+        Map<String, List<List<Station>>> runsByGroup = new LinkedHashMap<>();
+        for (TimezoneCountryKey key : keys) {
+            runsByGroup.computeIfAbsent(key.getTimezoneGroup(), g -> new ArrayList<>()).add(key.getStations());
+        }
+
+        for (Map.Entry<String, List<List<Station>>> entry : runsByGroup.entrySet()) {
+            List<Station[]> runs = new ArrayList<>();
+            int total = 0;
+            for (List<Station> run : entry.getValue()) {
+                runs.add(run.toArray(EMPTY));
+                total += run.size();
+            }
+
+            // country runs come in country order, so their concatenation is already the by-country view
+            Station[] countryOrder = new Station[total];
+            int pos = 0;
+            for (Station[] run : runs) {
+                System.arraycopy(run, 0, countryOrder, pos, run.length);
+                pos += run.length;
+            }
+
+            byCountry.put(entry.getKey(), countryOrder);
+            byName.put(entry.getKey(), merge(runs, total));
+        }
+    }
+
+    /**
+     * @return Stations of the group sorted by name, empty if the group is unknown
+     */
+    public List<Station> getByName(String timeZoneGroup) {
+        return copy(byName.get(timeZoneGroup));
+    }
+
+    /**
+     * @return Stations of the group sorted by country, then name, empty if the group is unknown
+     */
+    public List<Station> getByCountry(String timeZoneGroup) {
+        return copy(byCountry.get(timeZoneGroup));
+    }
+
+    /**
+     * Stations of the given groups in argument order, each group sorted by country then name.
+     * A group listed twice appears twice.
+     */
+    public List<Station> getWindow(String[] timeZoneGroups) {
+        int total = 0;
+        for (String group : timeZoneGroups) {
+            Station[] run = byCountry.get(group);
+            if (run != null) total += run.length;
+        }
+
+        List<Station> result = new ArrayList<>(total);
+        for (String group : timeZoneGroups) {
+            Station[] run = byCountry.get(group);
+            if (run != null) result.addAll(Arrays.asList(run));
+        }
+        return result;
+    }
+
+    public Set<String> getGroups() {
+        return Collections.unmodifiableSet(byName.keySet());
+    }
+
+    private static List<Station> copy(Station[] stations) {
+        return stations == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(stations));
+    }
+
+    private static Station[] merge(List<Station[]> runs, int total) {
+        List<List<Station>> lists = new ArrayList<>(runs.size());
+        for (Station[] run : runs) lists.add(Arrays.asList(run));
+        return KWayMerge.merge(lists, Comparator.naturalOrder(), total).toArray(EMPTY);
+    }
+}
@@ -0,0 +1,90 @@
+import isep.ipp.pt.g322.datastructures.trie.CompactTrie;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactTrieTest {
+    private static final String[] KEYS = {
+            "lisbon oriente", "lisbon gama", "lisboa santa apolonia", "porto campanha",
+            "paris nord", "paris est", "paris", "parma", "berlin hbf", "bern"
+    };
+
+    private CompactTrie trie;
+
+    @BeforeEach
+    void setUp() {
+        trie = new CompactTrie();
+        for (int i = 0; i < KEYS.length; i++) {
+            trie.insert(KEYS[i], i);
+        }
+    }
+
+    private static Set<String> keysOf(int[] values) {
+        Set<String> result = new TreeSet<>();
+        for (int value : values) result.add(KEYS[value]);
+        return result;
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) d[i][0] = i;
+        for (int j = 0; j <= b.length(); j++) d[0][j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+                        d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    @Test
+    void testPrefix() {
+        assertEquals(Set.of("paris nord", "paris est", "paris"), keysOf(trie.prefix("paris", 100)));
+        assertEquals(Set.of("lisbon oriente", "lisbon gama", "lisboa santa apolonia"), keysOf(trie.prefix("lisb", 100)));
+        assertEquals(Set.of("lisbon oriente"), keysOf(trie.prefix("lisbon o", 100)));
+        assertEquals(0, trie.prefix("lisbx", 100).length);
+        assertEquals(KEYS.length, trie.prefix("", 100).length);
+    }
+
+    @Test
+    void testPrefixResultsAreInKeyOrderAndLimited() {
+        int[] values = trie.prefix("par", 3);
+
+        assertEquals(3, values.length);
+        assertEquals("paris", KEYS[values[0]]);
+        assertEquals("paris est", KEYS[values[1]]);
+        assertEquals("paris nord", KEYS[values[2]]);
+    }
+
+    @Test
+    void testWithinDistanceMatchesBruteForce() {
+        for (String query : new String[]{"bern", "berm", "paris", "pari", "parisx", "lisbon gamma", "xyz"}) {
+            Set<String> expected = new TreeSet<>();
+            for (String key : KEYS) {
+                if (levenshtein(query, key) <= 1) expected.add(key);
+            }
+            assertEquals(expected, keysOf(trie.withinDistance(query, 1, 100)), query);
+        }
+    }
+
+    @Test
+    void testPrefixWithinDistanceToleratesTypo() {
+        // "lisboa" is two edits away from "lisbin"
+        assertEquals(Set.of("lisbon oriente", "lisbon gama"), keysOf(trie.prefixWithinDistance("lisbin", 1, 100)));
+        assertTrue(keysOf(trie.prefixWithinDistance("prto", 1, 100)).contains("porto campanha"));
+    }
+
+    @Test
+    void testDuplicateKeysKeepAllValues() {
+        trie.insert("paris", 42);
+
+        int[] values = trie.prefix("paris", 1);
+        assertEquals(1, values.length);
+        assertEquals(KEYS.length, trie.size());
+        assertEquals(4, trie.prefix("paris", 100).length);
+    }
+}
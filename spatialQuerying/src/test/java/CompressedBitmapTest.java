@@ -0,0 +1,124 @@
+import isep.ipp.pt.g322.datastructures.bitmap.CompressedBitmap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedBitmapTest {
+
+    private static CompressedBitmap of(TreeSet<Integer> values) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int value : values) bitmap.add(value);
+        return bitmap;
+    }
+
+    private static int[] toArray(TreeSet<Integer> values) {
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // sparse and dense chunks mixed, so both container kinds and their conversions are exercised
+    private static TreeSet<Integer> randomSet(Random random, int dense, int sparse) {
+        TreeSet<Integer> values = new TreeSet<>();
+        for (int i = 0; i < dense; i++) values.add(random.nextInt(65536));
+        for (int i = 0; i < sparse; i++) values.add(65536 + random.nextInt(300000));
+        return values;
+    }
+
+    @Test
+    void testAddContainsAndCardinality() {
+        TreeSet<Integer> values = randomSet(new Random(1), 10000, 500);
+        CompressedBitmap bitmap = of(values);
+
+        assertEquals(values.size(), bitmap.cardinality());
+        assertArrayEquals(toArray(values), bitmap.toArray());
+        for (int probe = 0; probe < 400000; probe += 37) {
+            assertEquals(values.contains(probe), bitmap.contains(probe), "value " + probe);
+        }
+    }
+
+    @Test
+    void testAddingDuplicatesDoesNotChangeCardinality() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int i = 0; i < 5000; i++) {
+            bitmap.add(i % 100);
+            bitmap.add(i);
+        }
+        assertEquals(5000, bitmap.cardinality());
+    }
+
+    @Test
+    void testBooleanOperationsMatchSets() {
+        Random random = new Random(2);
+        for (int round = 0; round < 5; round++) {
+            TreeSet<Integer> a = randomSet(random, 3000 + random.nextInt(8000), 400);
+            TreeSet<Integer> b = randomSet(random, 3000 + random.nextInt(8000), 400);
+            CompressedBitmap bitmapA = of(a);
+            CompressedBitmap bitmapB = of(b);
+
+            TreeSet<Integer> and = new TreeSet<>(a);
+            and.retainAll(b);
+            TreeSet<Integer> or = new TreeSet<>(a);
+            or.addAll(b);
+            TreeSet<Integer> andNot = new TreeSet<>(a);
+            andNot.removeAll(b);
+
+            assertArrayEquals(toArray(and), bitmapA.and(bitmapB).toArray());
+            assertArrayEquals(toArray(or), bitmapA.or(bitmapB).toArray());
+            assertArrayEquals(toArray(andNot), bitmapA.andNot(bitmapB).toArray());
+            assertEquals(a.size(), bitmapA.cardinality(), "Operands must not be modified");
+        }
+    }
+
+    @Test
+    void testIntersectsRange() {
+        TreeSet<Integer> values = randomSet(new Random(3), 6000, 200);
+        CompressedBitmap bitmap = of(values);
+        Random random = new Random(4);
+
+        for (int i = 0; i < 2000; i++) {
+            int from = random.nextInt(400000);
+            int to = from + random.nextInt(i % 2 == 0 ? 50 : 100000);
+            Integer ceiling = values.ceiling(from);
+            boolean expected = ceiling != null && ceiling < to;
+            assertEquals(expected, bitmap.intersects(from, to), "[" + from + ", " + to + ")");
+        }
+    }
+
+    @Test
+    void testRange() {
+        CompressedBitmap range = CompressedBitmap.range(100, 140000);
+
+        assertEquals(139900, range.cardinality());
+        assertFalse(range.contains(99));
+        assertTrue(range.contains(100));
+        assertTrue(range.contains(139999));
+        assertFalse(range.contains(140000));
+        assertTrue(CompressedBitmap.range(0, 0).isEmpty());
+    }
+
+    @Test
+    void testCopyIsIndependent() {
+        CompressedBitmap original = CompressedBitmap.range(0, 70000);
+        original.add(200000);
+        CompressedBitmap copy = original.copy();
+
+        copy.add(300000);
+        copy.add(70000);
+        original.add(400000);
+
+        assertEquals(70002, original.cardinality());
+        assertFalse(original.contains(300000));
+        assertFalse(original.contains(70000));
+        assertFalse(copy.contains(400000));
+        assertTrue(copy.contains(200000));
+        assertEquals(70003, copy.cardinality());
+    }
+
+    @Test
+    void testDenseBitmapUsesLessMemoryThanArrayOfInts() {
+        CompressedBitmap dense = CompressedBitmap.range(0, 1_000_000);
+        assertTrue(dense.sizeInBytes() < 1_000_000 * 4L / 2);
+    }
+}
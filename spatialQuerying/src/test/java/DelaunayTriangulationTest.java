@@ -0,0 +1,186 @@
+import isep.ipp.pt.g322.Service.SyntheticStationGenerator;
+import isep.ipp.pt.g322.datastructures.tree.DelaunayTriangulation;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.model.Station;
+import isep.ipp.pt.g322.model.StationManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DelaunayTriangulationTest {
+
+    private static List<Station> synthetic(int count, long seed) {
+        List<Station> stations = new ArrayList<>();
+        new SyntheticStationGenerator(seed).stations(count).forEachRemaining(stations::add);
+        return stations;
+    }
+
+    private static double[] unit(double lat, double lon) {
+        double latRad = Math.toRadians(lat), lonRad = Math.toRadians(lon);
+        return new double[]{Math.cos(latRad) * Math.cos(lonRad), Math.cos(latRad) * Math.sin(lonRad), Math.sin(latRad)};
+    }
+
+    private static double[] unit(DelaunayTriangulation delaunay, int v) {
+        return unit(delaunay.getLatitude(v), delaunay.getLongitude(v));
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 6371.0 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private static double bruteForceDistance(List<Station> stations, double lat, double lon) {
+        double best = Double.MAX_VALUE;
+        for (Station station : stations) {
+            best = Math.min(best, haversine(lat, lon, station.getLatitude(), station.getLongitude()));
+        }
+        return best;
+    }
+
+    @Test
+    void everyCircumcircleIsEmptyOnTheSphere() {
+        KDTree2 tree = new KDTree2(synthetic(3000, 2));
+        DelaunayTriangulation delaunay = new DelaunayTriangulation(tree);
+        int[] triangles = delaunay.getTriangles();
+
+        assertEquals(tree.size(), delaunay.getVertexCount());
+        assertTrue(delaunay.getTriangleCount() > delaunay.getVertexCount());
+        for (int t = 0; t < triangles.length; t += 3) {
+            double[] a = unit(delaunay, triangles[t]);
+            double[] b = unit(delaunay, triangles[t + 1]);
+            double[] c = unit(delaunay, triangles[t + 2]);
+            // centre of the circle through a, b, c on the sphere, on the triangle's side
+            double[] ab = {b[0] - a[0], b[1] - a[1], b[2] - a[2]};
+            double[] ac = {c[0] - a[0], c[1] - a[1], c[2] - a[2]};
+            double[] centre = {ab[1] * ac[2] - ab[2] * ac[1], ab[2] * ac[0] - ab[0] * ac[2], ab[0] * ac[1] - ab[1] * ac[0]};
+            if (dot(centre, a) < 0) {
+                centre[0] = -centre[0];
+                centre[1] = -centre[1];
+                centre[2] = -centre[2];
+            }
+            double norm = Math.sqrt(dot(centre, centre));
+            double radius = dot(centre, a) / norm;
+
+            for (int v = 0; v < delaunay.getVertexCount(); v++) {
+                assertTrue(dot(centre, unit(delaunay, v)) / norm <= radius + 1e-12,
+                        "vertex " + v + " inside the circumcircle of triangle " + t / 3);
+            }
+        }
+    }
+
+    @Test
+    void neighborsAreSymmetric() {
+        DelaunayTriangulation delaunay = new DelaunayTriangulation(new KDTree2(synthetic(5000, 4)));
+
+        for (int v = 0; v < delaunay.getVertexCount(); v++) {
+            int vertex = v;
+            int[] neighbors = delaunay.getNeighbors(vertex);
+            assertTrue(neighbors.length >= 2);
+            for (int u : neighbors) {
+                assertNotEquals(vertex, u);
+                assertTrue(Arrays.stream(delaunay.getNeighbors(u)).anyMatch(w -> w == vertex));
+            }
+        }
+    }
+
+    @Test
+    void nearestIsExactFromAnyStart() {
+        List<Station> stations = synthetic(20000, 6);
+        DelaunayTriangulation delaunay = new DelaunayTriangulation(new KDTree2(stations));
+        DelaunayTriangulation.Cursor cursor = delaunay.cursor();
+        Random random = new Random(9);
+
+        for (int i = 0; i < 1000; i++) {
+            // well beyond the stations too, where walks end on the hull
+            double lat = 25 + random.nextDouble() * 45;
+            double lon = -25 + random.nextDouble() * 70;
+            double expected = bruteForceDistance(stations, lat, lon);
+
+            assertEquals(expected, delaunay.nearestStation(lat, lon).distanceKm, 1e-9);
+            assertEquals(expected, cursor.nearest(lat, lon).distanceKm, 1e-9);
+            int start = random.nextInt(delaunay.getVertexCount());
+            int vertex = delaunay.nearestVertex(lat, lon, start);
+            assertEquals(expected, haversine(lat, lon, delaunay.getLatitude(vertex), delaunay.getLongitude(vertex)), 1e-9);
+        }
+    }
+
+    @Test
+    void cursorFollowsATrajectory() {
+        List<Station> stations = synthetic(20000, 7);
+        DelaunayTriangulation delaunay = new DelaunayTriangulation(new KDTree2(stations));
+        DelaunayTriangulation.Cursor cursor = delaunay.cursor();
+        double lat = 45.0, lon = 5.0;
+
+        for (int i = 0; i < 500; i++) {
+            lat += 0.004;
+            lon += 0.006;
+            KDTree2.StationDistance nearest = cursor.nearest(lat, lon);
+            assertEquals(bruteForceDistance(stations, lat, lon), nearest.distanceKm, 1e-9);
+            assertEquals(delaunay.getLatitude(cursor.getVertex()), nearest.station.getLatitude());
+        }
+    }
+
+    @Test
+    void naturalNeighborsSurroundTheQuery() {
+        DelaunayTriangulation delaunay = new DelaunayTriangulation(new KDTree2(synthetic(2000, 8)));
+        int v = delaunay.nearestVertex(48.0, 8.0);
+        int u = delaunay.getNeighbors(v)[0];
+
+        assertArrayEquals(new int[]{v}, delaunay.naturalNeighbors(delaunay.getLatitude(v), delaunay.getLongitude(v)));
+
+        double midLat = (delaunay.getLatitude(v) + delaunay.getLatitude(u)) / 2;
+        double midLon = (delaunay.getLongitude(v) + delaunay.getLongitude(u)) / 2;
+        int[] natural = delaunay.naturalNeighbors(midLat, midLon);
+        Set<Integer> naturalSet = new HashSet<>();
+        for (int w : natural) naturalSet.add(w);
+        assertEquals(natural.length, naturalSet.size());
+        assertTrue(naturalSet.contains(v));
+        assertTrue(naturalSet.contains(u));
+        assertTrue(naturalSet.contains(delaunay.nearestVertex(midLat, midLon)));
+        assertTrue(natural.length >= 3);
+    }
+
+    @Test
+    void emptyTreeAndInvalidArguments() {
+        DelaunayTriangulation empty = new DelaunayTriangulation(new KDTree2(List.of()));
+        assertEquals(0, empty.getVertexCount());
+        assertEquals(-1, empty.nearestVertex(40, 0));
+        assertNull(empty.nearestStation(40, 0));
+        assertEquals(0, empty.naturalNeighbors(40, 0).length);
+
+        assertThrows(IllegalArgumentException.class, () -> new DelaunayTriangulation(null));
+        DelaunayTriangulation small = new DelaunayTriangulation(new KDTree2(synthetic(10, 1)));
+        assertThrows(IllegalArgumentException.class, () -> small.getNeighbors(10));
+        assertThrows(IllegalArgumentException.class, () -> small.nearestVertex(40, 0, -1));
+    }
+
+    @Test
+    void managerListsNeighboringStations() {
+        StationManager manager = new StationManager();
+        manager.loadStationsFromCSV("/test_stations.csv");
+        assertThrows(IllegalStateException.class, manager::getDelaunayTriangulation);
+        manager.buildSpatialIndex();
+
+        Station oriente = manager.getStationsByLatitudeRange(38.7679, 38.7679).get(0);
+        List<String> names = new ArrayList<>();
+        for (KDTree2.StationDistance neighbor : manager.neighboringStations(oriente)) {
+            names.add(neighbor.station.getStation());
+        }
+        assertTrue(names.contains("Lisbon Gama"));
+        assertTrue(names.contains("Porto Campanhã"));
+        assertFalse(names.contains("Berlin Hbf"));
+        assertFalse(names.contains("Lisbon Oriente"));
+
+        Station elsewhere = new Station("Nowhere", 40.0, 0.0, "ES", "Europe/Madrid", "CET", false, false, false);
+        assertThrows(IllegalArgumentException.class, () -> manager.neighboringStations(elsewhere));
+    }
+}
@@ -0,0 +1,184 @@
+import isep.ipp.pt.g322.Service.SyntheticStationGenerator;
+import isep.ipp.pt.g322.model.DensityGrid;
+import isep.ipp.pt.g322.model.Station;
+import isep.ipp.pt.g322.model.StationManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DensityGridTest {
+
+    private List<Station> stations;
+
+    @BeforeEach
+    void setUp() {
+        stations = List.of(
+                new Station("Lisbon Oriente", 38.7679, -9.0997, "PT", "Europe/Lisbon", "WET", true, true, false),
+                new Station("Lisbon Gama", 38.7673, -9.0993, "PT", "Europe/Lisbon", "WET", true, true, false),
+                new Station("Porto Campanha", 41.1505, -8.5850, "PT", "Europe/Lisbon", "WET", true, true, false),
+                new Station("Madrid Atocha", 40.4065, -3.6895, "ES", "Europe/Madrid", "CET", true, true, false),
+                new Station("Paris Nord", 48.8809, 2.3553, "FR", "Europe/Paris", "CET", true, true, false));
+    }
+
+    @Test
+    @DisplayName("Should count stations per cell and ignore those outside the rectangle")
+    void testCompute() {
+        DensityGrid grid = DensityGrid.compute(stations, 36.0, 44.0, -10.0, 4.0, 1.0, DensityGrid.Grouping.NONE);
+
+        assertEquals(8, grid.getRows());
+        assertEquals(14, grid.getCols());
+        assertEquals(2.0, grid.getValue(2, 0), 1e-9);
+        assertEquals(1.0, grid.getValue(5, 1), 1e-9);
+        assertEquals(4.0, grid.getTotal(), 1e-9);
+        assertTrue(grid.getGroups().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should build one layer per country")
+    void testGroupingByCountry() {
+        DensityGrid grid = DensityGrid.compute(stations, 36.0, 50.0, -10.0, 4.0, 1.0, DensityGrid.Grouping.COUNTRY);
+
+        assertEquals(java.util.Set.of("PT", "ES", "FR"), grid.getGroups());
+        assertEquals(2.0, grid.getValue("PT", 2, 0), 1e-9);
+        assertEquals(0.0, grid.getValue("ES", 2, 0), 1e-9);
+        assertEquals(0.0, grid.getValue("XX", 2, 0), 1e-9);
+    }
+
+    @Test
+    @DisplayName("Should give the same counts when the input is split across workers")
+    void testLargeInputMatchesSequentialCount() {
+        List<Station> many = new ArrayList<>();
+        new SyntheticStationGenerator(3).stations(300_000).forEachRemaining(many::add);
+        double minLat = 36.0, maxLat = 56.0, minLon = -10.0, maxLon = 20.0, cell = 0.5;
+
+        DensityGrid grid = DensityGrid.compute(many, minLat, maxLat, minLon, maxLon, cell, DensityGrid.Grouping.COUNTRY);
+
+        double[][] expected = new double[grid.getRows()][grid.getCols()];
+        Map<String, Integer> byCountry = new HashMap<>();
+        int inside = 0;
+        for (Station station : many) {
+            double lat = station.getLatitude(), lon = station.getLongitude();
+            if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) continue;
+            int row = Math.min(grid.getRows() - 1, (int) ((lat - minLat) / cell));
+            int col = Math.min(grid.getCols() - 1, (int) ((lon - minLon) / cell));
+            expected[row][col]++;
+            byCountry.merge(station.getCountry(), 1, Integer::sum);
+            inside++;
+        }
+
+        assertEquals(inside, grid.getTotal(), 1e-9);
+        assertEquals(byCountry.keySet(), grid.getGroups());
+        for (int r = 0; r < grid.getRows(); r++) {
+            for (int c = 0; c < grid.getCols(); c++) {
+                assertEquals(expected[r][c], grid.getValue(r, c), 1e-9);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : byCountry.entrySet()) {
+            double sum = 0;
+            for (int r = 0; r < grid.getRows(); r++) {
+                for (int c = 0; c < grid.getCols(); c++) sum += grid.getValue(entry.getKey(), r, c);
+            }
+            assertEquals(entry.getValue(), sum, 1e-9);
+        }
+    }
+
+    @Test
+    @DisplayName("Smoothing should spread counts while keeping the total away from the border")
+    void testSmoothing() {
+        DensityGrid grid = DensityGrid.compute(stations, 30.0, 55.0, -15.0, 10.0, 1.0, DensityGrid.Grouping.TIMEZONE_GROUP);
+
+        for (DensityGrid.Kernel kernel : DensityGrid.Kernel.values()) {
+            DensityGrid smoothed = grid.smooth(kernel, 2);
+
+            assertEquals(grid.getTotal(), smoothed.getTotal(), 1e-9);
+            assertTrue(smoothed.getValue(8, 5) < grid.getValue(8, 5));
+            assertTrue(smoothed.getValue(8, 6) > 0);
+        }
+        assertEquals(grid.getValue(8, 5), grid.smooth(DensityGrid.Kernel.GAUSSIAN, 0).getValue(8, 5), 1e-9);
+    }
+
+    @Test
+    @DisplayName("Binary export should round-trip")
+    void testBinaryRoundTrip(@TempDir Path dir) throws IOException {
+        DensityGrid grid = DensityGrid.compute(stations, 36.0, 50.0, -10.0, 4.0, 0.5, DensityGrid.Grouping.COUNTRY);
+        Path file = dir.resolve("grid.bin");
+
+        grid.writeBinary(file);
+        DensityGrid read = DensityGrid.readBinary(file);
+
+        assertEquals(grid.getRows(), read.getRows());
+        assertEquals(grid.getCols(), read.getCols());
+        assertEquals(grid.getGroups(), read.getGroups());
+        assertEquals(grid.getTotal(), read.getTotal(), 1e-6);
+        assertEquals(grid.getValue("PT", 5, 1), read.getValue("PT", 5, 1), 1e-6);
+    }
+
+    @Test
+    @DisplayName("CSV export should have one line per non-empty cell")
+    void testCsvExport(@TempDir Path dir) throws IOException {
+        DensityGrid grid = DensityGrid.compute(stations, 36.0, 50.0, -10.0, 4.0, 1.0, DensityGrid.Grouping.COUNTRY);
+        Path file = dir.resolve("grid.csv");
+
+        grid.writeCsv(file);
+        List<String> lines = Files.readAllLines(file);
+
+        assertEquals("row,col,latitude,longitude,total,ES,FR,PT", lines.get(0));
+        assertEquals(5, lines.size());
+    }
+
+    @Test
+    @DisplayName("Should reject invalid bounds")
+    void testInvalidBounds() {
+        assertThrows(IllegalArgumentException.class,
+                () -> DensityGrid.compute(stations, 44.0, 36.0, -10.0, 4.0, 1.0, DensityGrid.Grouping.NONE));
+        assertThrows(IllegalArgumentException.class,
+                () -> DensityGrid.compute(stations, 36.0, 44.0, -10.0, 4.0, 0.0, DensityGrid.Grouping.NONE));
+    }
+
+    @Test
+    @DisplayName("Should reject grids above the cell limit instead of overflowing")
+    void testTooManyCells() {
+        // 180 x 360 degrees at 0.001 is 6.48e10 cells, which wraps around as an int product
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> DensityGrid.compute(stations, -90.0, 90.0, -180.0, 180.0, 0.001, DensityGrid.Grouping.NONE));
+        assertTrue(e.getMessage().contains(String.valueOf(DensityGrid.MAX_CELLS)));
+    }
+
+    @Test
+    @DisplayName("Should reject binary files with out of range dimensions")
+    void testCorruptBinaryHeader(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("grid.bin");
+        DensityGrid.compute(stations, 36.0, 50.0, -10.0, 4.0, 0.5, DensityGrid.Grouping.NONE).writeBinary(file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        // rows and cols follow the magic number: 65536 x 65536 overflows to 0 cells as an int product
+        ByteBuffer.wrap(bytes).putInt(4, 65536).putInt(8, 65536);
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> DensityGrid.readBinary(file));
+    }
+
+    @Test
+    @DisplayName("StationManager grid should cover the loaded stations")
+    void testManagerGrid() {
+        StationManager manager = new StationManager();
+        manager.loadStationsFromCSV("/test_stations.csv");
+
+        DensityGrid grid = manager.computeDensityGrid(35.0, 60.0, -10.0, 25.0, 0.5, DensityGrid.Grouping.COUNTRY);
+
+        assertEquals(25.0, grid.getTotal(), 1e-9);
+        assertEquals(2.0, grid.getValue("ES", (int) ((41.3809 - 35.0) / 0.5), (int) ((2.1407 + 10.0) / 0.5)), 1e-9);
+    }
+}
@@ -0,0 +1,60 @@
+import isep.ipp.pt.g322.model.GeoPolygon;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeoPolygonTest {
+
+    private static final double[][] SQUARE = {{0, 0}, {0, 10}, {10, 10}, {10, 0}};
+    private static final double[][] HOLE = {{4, 4}, {4, 6}, {6, 6}, {6, 4}, {4, 4}};
+
+    @Test
+    void testContainsSquare() {
+        GeoPolygon polygon = new GeoPolygon(SQUARE);
+
+        assertTrue(polygon.contains(5, 5));
+        assertTrue(polygon.contains(0.1, 9.9));
+        assertFalse(polygon.contains(11, 5));
+        assertFalse(polygon.contains(5, -0.1));
+    }
+
+    @Test
+    void testHoleIsExcluded() {
+        GeoPolygon polygon = new GeoPolygon(SQUARE, Collections.singletonList(HOLE));
+
+        assertFalse(polygon.contains(5, 5));
+        assertTrue(polygon.contains(3, 5));
+        assertEquals(2, polygon.getRingCount());
+        assertEquals(8, polygon.getVertexCount(), "Closing vertex should not be counted");
+    }
+
+    @Test
+    void testConcavePolygon() {
+        // U shape opening to the north
+        GeoPolygon polygon = new GeoPolygon(new double[][]{{0, 0}, {0, 9}, {9, 9}, {9, 6}, {3, 6}, {3, 3}, {9, 3}, {9, 0}});
+
+        assertTrue(polygon.contains(1, 4.5));
+        assertFalse(polygon.contains(6, 4.5));
+        assertTrue(polygon.contains(6, 1));
+        assertTrue(polygon.contains(6, 8));
+    }
+
+    @Test
+    void testClassifyBoxes() {
+        GeoPolygon polygon = new GeoPolygon(SQUARE, Collections.singletonList(HOLE));
+
+        assertEquals(GeoPolygon.BoxRelation.INSIDE, polygon.classify(1, 2, 1, 2));
+        assertEquals(GeoPolygon.BoxRelation.OUTSIDE, polygon.classify(20, 21, 1, 2));
+        assertEquals(GeoPolygon.BoxRelation.OUTSIDE, polygon.classify(4.5, 5.5, 4.5, 5.5), "Box inside the hole");
+        assertEquals(GeoPolygon.BoxRelation.PARTIAL, polygon.classify(9, 11, 1, 2));
+        assertEquals(GeoPolygon.BoxRelation.PARTIAL, polygon.classify(3, 5, 3, 5), "Box overlapping the hole");
+        assertEquals(GeoPolygon.BoxRelation.PARTIAL, polygon.classify(-1, 11, -1, 11), "Box containing the polygon");
+    }
+
+    @Test
+    void testDegenerateRingRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new GeoPolygon(new double[][]{{0, 0}, {1, 1}, {0, 0}}));
+    }
+}
@@ -1,16 +1,23 @@
+import isep.ipp.pt.g322.datastructures.bitmap.CompressedBitmap;
 import isep.ipp.pt.g322.datastructures.tree.AVL;
 import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.datastructures.tree.QueryStats;
+import isep.ipp.pt.g322.datastructures.tree.StationHits;
+import isep.ipp.pt.g322.datastructures.tree.TreeDiagnostics;
 
+import isep.ipp.pt.g322.model.GeoPolygon;
 import isep.ipp.pt.g322.model.LatitudeKey;
 import isep.ipp.pt.g322.model.LongitudeKey;
+import isep.ipp.pt.g322.model.RadiusSearchResult;
 import isep.ipp.pt.g322.model.Station;
+import isep.ipp.pt.g322.model.StationDensitySummary;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Predicate;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -72,6 +79,27 @@ class KDTree2Test {
             assertNull(kdTree.getRoot());
         }
 
+        @Test
+        @DisplayName("Should build the same tree from a station list as from the AVL indices")
+        void testListConstructorMatchesAvlConstructor() {
+            List<Station> stations = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                stations.add(createStation("S" + i, 38.0 + (i % 7) * 0.5, -9.0 + (i % 5) * 0.7, "Europe/Lisbon", "PT"));
+            }
+            stations.forEach(KDTree2Test.this::addStationToIndices);
+
+            KDTree2 fromIndices = new KDTree2(latitudeIndex, longitudeIndex);
+            KDTree2 fromList = new KDTree2(stations);
+
+            assertEquals(fromIndices.size(), fromList.size());
+            assertEquals(fromIndices.height(), fromList.height());
+            assertEquals(fromIndices.getBucketSizeDistribution(), fromList.getBucketSizeDistribution());
+            for (int id = 0; id < fromList.getStationCount(); id++) {
+                assertSame(fromIndices.getStation(id), fromList.getStation(id));
+            }
+            assertThrows(NullPointerException.class, () -> new KDTree2((List<Station>) null));
+        }
+
         @Test
         @DisplayName("Should create KD-tree with single station")
         void testSingleStation() {
@@ -152,6 +180,16 @@ class KDTree2Test {
                 assertTrue(result.get(i).getStation().compareTo(result.get(i + 1).getStation()) <= 0);
             }
         }
+
+        @Test
+        @DisplayName("Should return the first stations by name when limited")
+        void testRangeQueryWithLimit() {
+            List<Station> all = kdTree.rangeQuery(38.0, 42.0, -76.0, -72.0);
+            List<Station> limited = kdTree.rangeQuery(38.0, 42.0, -76.0, -72.0, 3);
+
+            assertEquals(all.subList(0, 3), limited);
+            assertTrue(kdTree.rangeQuery(38.0, 42.0, -76.0, -72.0, 0).isEmpty());
+        }
     }
 
     @Nested
@@ -203,6 +241,18 @@ class KDTree2Test {
                 assertTrue(sd.distanceKm >= 0);
             }
         }
+
+        @Test
+        @DisplayName("Should return only the closest stations when limited")
+        void testCircularRangeQueryWithLimit() {
+            List<KDTree2.StationDistance> all = kdTree.circularRangeQuery(40.0, -74.0, 1000.0);
+            List<KDTree2.StationDistance> limited = kdTree.circularRangeQuery(40.0, -74.0, 1000.0, 2);
+
+            assertEquals(2, limited.size());
+            for (int i = 0; i < limited.size(); i++) {
+                assertEquals(all.get(i).distanceKm, limited.get(i).distanceKm, 1e-9);
+            }
+        }
     }
 
     @Nested
@@ -449,6 +499,780 @@ class KDTree2Test {
         }
     }
 
+    @Nested
+    @DisplayName("K-Nearest Within Radius Tests")
+    class KNearestWithinTests {
+
+        @BeforeEach
+        void setUpStations() {
+            addStationToIndices(new Station("S1", 40.0, -74.0, "US",
+                    "America/New_York", "America/New_York", true, true, false));
+            addStationToIndices(new Station("S2", 40.1, -74.0, "US",
+                    "America/New_York", "America/New_York", false, true, false));
+            addStationToIndices(new Station("S3", 40.2, -74.0, "US",
+                    "America/New_York", "America/New_York", true, false, false));
+            addStationToIndices(new Station("S4", 41.0, -74.0, "US",
+                    "America/New_York", "America/New_York", true, true, false));
+            addStationToIndices(new Station("S5", 45.0, -74.0, "CA",
+                    "America/Toronto", "America/Toronto", true, true, false));
+
+            kdTree = new KDTree2(latitudeIndex, longitudeIndex);
+        }
+
+        @Test
+        @DisplayName("Should stop at k when enough stations are within radius")
+        void testLimitedByK() {
+            List<KDTree2.StationDistance> result = kdTree.kNearestWithin(40.0, -74.0, 2, 500.0, null);
+
+            assertEquals(2, result.size());
+            assertEquals("S1", result.get(0).station.getStation());
+            assertEquals("S2", result.get(1).station.getStation());
+        }
+
+        @Test
+        @DisplayName("Should stop at radius when fewer than k stations are within it")
+        void testLimitedByRadius() {
+            List<KDTree2.StationDistance> result = kdTree.kNearestWithin(40.0, -74.0, 10, 50.0, null);
+
+            assertEquals(3, result.size());
+            assertTrue(result.stream().allMatch(sd -> sd.distanceKm <= 50.0));
+        }
+
+        @Test
+        @DisplayName("Should apply criteria together with k and radius")
+        void testWithCriteria() {
+            KDTree2.StationFilterCriteria criteria = new KDTree2.StationFilterCriteria()
+                    .mainStationOnly(true);
+
+            List<KDTree2.StationDistance> result = kdTree.kNearestWithin(40.0, -74.0, 10, 150.0, criteria);
+
+            assertEquals(3, result.size());
+            assertEquals("S1", result.get(0).station.getStation());
+            assertEquals("S2", result.get(1).station.getStation());
+            assertEquals("S4", result.get(2).station.getStation());
+        }
+
+        @Test
+        @DisplayName("Should match circular range query truncated to k")
+        void testMatchesCircularRangeQuery() {
+            List<KDTree2.StationDistance> expected = kdTree.circularRangeQuery(40.5, -74.0, 200.0);
+            List<KDTree2.StationDistance> result = kdTree.kNearestWithin(40.5, -74.0, 3, 200.0, null);
+
+            assertEquals(3, result.size());
+            for (int i = 0; i < result.size(); i++) {
+                assertEquals(expected.get(i).distanceKm, result.get(i).distanceKm, 0.0001);
+            }
+        }
+
+        @Test
+        @DisplayName("Should return empty list for invalid k or radius")
+        void testInvalidArguments() {
+            assertTrue(kdTree.kNearestWithin(40.0, -74.0, 0, 50.0, null).isEmpty());
+            assertTrue(kdTree.kNearestWithin(40.0, -74.0, 5, -1.0, null).isEmpty());
+        }
+    }
+
+    @Nested
+    @DisplayName("Spatial Join Tests")
+    class SpatialJoinTests {
+
+        private final Random random = new Random(42);
+
+        private KDTree2 buildTree(List<Station> stations) {
+            latitudeIndex = new AVL<>();
+            longitudeIndex = new AVL<>();
+            for (Station s : stations) {
+                addStationToIndices(s);
+            }
+            return new KDTree2(latitudeIndex, longitudeIndex);
+        }
+
+        private List<Station> randomStations(String prefix, int n) {
+            List<Station> stations = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                stations.add(createStation(prefix + i, 40.0 + random.nextDouble() * 2.0,
+                        -8.0 + random.nextDouble() * 2.0, "WET", "PT"));
+            }
+            return stations;
+        }
+
+        private double haversine(Station a, Station b) {
+            double dLat = Math.toRadians(b.getLatitude() - a.getLatitude());
+            double dLon = Math.toRadians(b.getLongitude() - a.getLongitude());
+            double h = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                    Math.cos(Math.toRadians(a.getLatitude())) * Math.cos(Math.toRadians(b.getLatitude())) *
+                            Math.sin(dLon / 2) * Math.sin(dLon / 2);
+            return 6371.0 * 2 * Math.atan2(Math.sqrt(h), Math.sqrt(1 - h));
+        }
+
+        @Test
+        @DisplayName("Nearest-neighbor join should match per-station nearest neighbor")
+        void testNearestNeighborJoin() {
+            List<Station> reference = randomStations("R", 300);
+            List<Station> depots = randomStations("D", 100);
+            KDTree2 referenceTree = buildTree(reference);
+            KDTree2 depotTree = buildTree(depots);
+
+            List<KDTree2.StationPair> pairs = referenceTree.nearestNeighborJoin(depotTree);
+
+            assertEquals(depots.size(), pairs.size());
+            for (KDTree2.StationPair pair : pairs) {
+                KDTree2.StationDistance expected = referenceTree.nearestNeighbor(
+                        pair.first.getLatitude(), pair.first.getLongitude());
+                assertEquals(expected.distanceKm, pair.distanceKm, 1e-9);
+            }
+        }
+
+        @Test
+        @DisplayName("Distance join should find exactly the brute-force pairs")
+        void testWithinDistanceJoin() {
+            List<Station> left = randomStations("A", 200);
+            List<Station> right = randomStations("B", 200);
+            KDTree2 leftTree = buildTree(left);
+            KDTree2 rightTree = buildTree(right);
+
+            int expected = 0;
+            for (Station a : left) {
+                for (Station b : right) {
+                    if (haversine(a, b) <= 10.0) expected++;
+                }
+            }
+
+            List<KDTree2.StationPair> pairs = leftTree.withinDistanceJoin(rightTree, 10.0);
+
+            assertEquals(expected, pairs.size());
+            assertTrue(pairs.stream().allMatch(p -> p.first.getStation().startsWith("A")
+                    && p.second.getStation().startsWith("B") && p.distanceKm <= 10.0));
+        }
+
+        @Test
+        @DisplayName("Self join should report each close pair once, including shared coordinates")
+        void testSelfWithinDistanceJoin() {
+            List<Station> stations = randomStations("S", 250);
+            stations.add(createStation("Twin", stations.get(0).getLatitude(),
+                    stations.get(0).getLongitude(), "WET", "PT"));
+            KDTree2 tree = buildTree(stations);
+
+            int expected = 0;
+            for (int i = 0; i < stations.size(); i++) {
+                for (int j = i + 1; j < stations.size(); j++) {
+                    if (haversine(stations.get(i), stations.get(j)) <= 5.0) expected++;
+                }
+            }
+
+            List<KDTree2.StationPair> pairs = tree.selfWithinDistanceJoin(5.0);
+
+            assertEquals(expected, pairs.size());
+            assertEquals(0.0, pairs.get(0).distanceKm, 1e-9);
+        }
+
+        @Test
+        @DisplayName("Joins should match brute force at high latitudes with wide longitude gaps")
+        void testJoinsAtHighLatitudes() {
+            List<Station> left = new ArrayList<>();
+            List<Station> right = new ArrayList<>();
+            for (int i = 0; i < 150; i++) {
+                left.add(createStation("A" + i, 60.0 + random.nextDouble() * 20.0,
+                        -180.0 + random.nextDouble() * 360.0, "CET", "NO"));
+                right.add(createStation("B" + i, 60.0 + random.nextDouble() * 20.0,
+                        -180.0 + random.nextDouble() * 360.0, "CET", "NO"));
+            }
+            KDTree2 leftTree = buildTree(left);
+            KDTree2 rightTree = buildTree(right);
+
+            int expected = 0;
+            for (Station a : left) {
+                for (Station b : right) {
+                    if (haversine(a, b) <= 1500.0) expected++;
+                }
+            }
+            assertEquals(expected, leftTree.withinDistanceJoin(rightTree, 1500.0).size());
+
+            List<KDTree2.StationPair> pairs = rightTree.nearestNeighborJoin(leftTree);
+            assertEquals(left.size(), pairs.size());
+            for (KDTree2.StationPair pair : pairs) {
+                double nearest = Double.MAX_VALUE;
+                for (Station b : right) {
+                    nearest = Math.min(nearest, haversine(pair.first, b));
+                }
+                assertEquals(nearest, pair.distanceKm, 1e-9);
+            }
+        }
+
+        @Test
+        @DisplayName("Joins against an empty tree should return empty lists")
+        void testEmptyJoin() {
+            KDTree2 tree = buildTree(randomStations("S", 10));
+            KDTree2 empty = buildTree(List.of());
+
+            assertTrue(tree.nearestNeighborJoin(empty).isEmpty());
+            assertTrue(empty.nearestNeighborJoin(tree).isEmpty());
+            assertTrue(tree.withinDistanceJoin(empty, 100.0).isEmpty());
+        }
+    }
+
+    @Nested
+    @DisplayName("Aggregate Radius Query Tests")
+    class AggregateRadiusQueryTests {
+
+        @BeforeEach
+        void setUpStations() {
+            Random random = new Random(7);
+            String[] countries = {"PT", "ES", "FR", "DE"};
+            for (int i = 0; i < 2000; i++) {
+                addStationToIndices(new Station("S" + i, 36.0 + random.nextDouble() * 16.0,
+                        -9.0 + random.nextDouble() * 22.0, countries[random.nextInt(countries.length)],
+                        "CET", "CET", random.nextBoolean(), false, false));
+            }
+            // shared coordinate bucket
+            addStationToIndices(new Station("Twin A", 45.0, 2.0, "FR", "CET", "CET", true, false, false));
+            addStationToIndices(new Station("Twin B", 45.0, 2.0, "FR", "CET", "CET", false, false, false));
+
+            kdTree = new KDTree2(latitudeIndex, longitudeIndex);
+        }
+
+        @Test
+        @DisplayName("Should match the counts of a full circular range query")
+        void testMatchesCircularRangeQuery() {
+            double[][] queries = {{45.0, 2.0, 50.0}, {40.0, -3.0, 300.0}, {48.0, 8.0, 800.0}, {44.0, 2.0, 3000.0}};
+
+            for (double[] q : queries) {
+                List<KDTree2.StationDistance> hits = kdTree.circularRangeQuery(q[0], q[1], q[2]);
+                StationDensitySummary expected = new StationDensitySummary(
+                        hits.stream().map(sd -> sd.station).toList(), q[2], q[0], q[1]);
+
+                StationDensitySummary summary = kdTree.aggregateRadiusQuery(q[0], q[1], q[2]);
+
+                assertEquals(expected.getTotalStations(), summary.getTotalStations());
+                assertEquals(expected.getCityStations(), summary.getCityStations());
+                assertEquals(expected.getCountByCountry(), summary.getCountByCountry());
+            }
+        }
+
+        @Test
+        @DisplayName("Should return an empty summary when nothing is in range")
+        void testEmptyCircle() {
+            StationDensitySummary summary = kdTree.aggregateRadiusQuery(-30.0, 100.0, 10.0);
+
+            assertEquals(0, summary.getTotalStations());
+            assertTrue(summary.getCountByCountry().isEmpty());
+        }
+    }
+
+    @Nested
+    @DisplayName("Candidate Set Query Tests")
+    class CandidateSetQueryTests {
+
+        private List<Station> stations;
+
+        @BeforeEach
+        void setUpStations() {
+            Random random = new Random(11);
+            String[] countries = {"PT", "ES", "FR", "DE"};
+            stations = new ArrayList<>();
+            for (int i = 0; i < 1500; i++) {
+                stations.add(new Station("S" + i, 36.0 + random.nextDouble() * 16.0,
+                        -9.0 + random.nextDouble() * 22.0, countries[random.nextInt(countries.length)],
+                        "CET", "CET", random.nextInt(10) == 0, false, false));
+            }
+            stations.add(new Station("Twin A", 45.0, 2.0, "FR", "CET", "CET", true, false, false));
+            stations.add(new Station("Twin B", 45.0, 2.0, "FR", "CET", "CET", false, false, false));
+            stations.forEach(KDTree2Test.this::addStationToIndices);
+
+            kdTree = new KDTree2(latitudeIndex, longitudeIndex);
+        }
+
+        private CompressedBitmap idsWhere(Predicate<Station> predicate) {
+            CompressedBitmap ids = new CompressedBitmap();
+            for (int id = 0; id < kdTree.getStationCount(); id++) {
+                if (predicate.test(kdTree.getStation(id))) ids.add(id);
+            }
+            return ids;
+        }
+
+        @Test
+        @DisplayName("Should give every station exactly one id")
+        void testStationIds() {
+            assertEquals(stations.size(), kdTree.getStationCount());
+            Set<Station> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int id = 0; id < kdTree.getStationCount(); id++) {
+                assertTrue(seen.add(kdTree.getStation(id)));
+            }
+            assertEquals(stations.size(), seen.size());
+        }
+
+        @Test
+        @DisplayName("Should match a brute force filtered k-nearest search")
+        void testKNearestAmongMatchesBruteForce() {
+            Predicate<Station> filter = s -> s.isCity() && !s.getCountry().equals("DE");
+            CompressedBitmap candidates = idsWhere(filter);
+
+            for (double[] q : new double[][]{{45.0, 2.0}, {38.7, -9.1}, {52.0, 13.0}}) {
+                List<KDTree2.StationDistance> result = kdTree.kNearestAmong(q[0], q[1], 7, candidates);
+                List<KDTree2.StationDistance> expected = kdTree.kNearestNeighborsWithCriteria(q[0], q[1],
+                        stations.size(), null).stream().filter(sd -> filter.test(sd.station)).limit(7).toList();
+
+                assertEquals(7, result.size());
+                for (int i = 0; i < 7; i++) {
+                    assertEquals(expected.get(i).distanceKm, result.get(i).distanceKm, 1e-9);
+                    assertTrue(filter.test(result.get(i).station));
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("Should use the candidate scan for tiny sets and still be correct")
+        void testSmallCandidateSet() {
+            CompressedBitmap candidates = idsWhere(s -> s.getStation().startsWith("Twin"));
+
+            List<KDTree2.StationDistance> result = kdTree.kNearestAmong(40.0, 0.0, 5, candidates);
+
+            assertEquals(2, result.size());
+            assertTrue(result.stream().allMatch(sd -> sd.station.getStation().startsWith("Twin")));
+        }
+
+        @Test
+        @DisplayName("Should match a filtered circular range query")
+        void testCircularRangeAmong() {
+            Predicate<Station> filter = s -> s.getCountry().equals("PT");
+            CompressedBitmap candidates = idsWhere(filter);
+
+            List<KDTree2.StationDistance> result = kdTree.circularRangeQueryAmong(42.0, 0.0, 600.0, candidates);
+            long expected = kdTree.circularRangeQuery(42.0, 0.0, 600.0).stream()
+                    .filter(sd -> filter.test(sd.station)).count();
+
+            assertEquals(expected, result.size());
+            assertTrue(result.stream().allMatch(sd -> filter.test(sd.station)));
+        }
+
+        @Test
+        @DisplayName("Should return nothing for an empty candidate set")
+        void testEmptyCandidates() {
+            CompressedBitmap empty = new CompressedBitmap();
+            assertTrue(kdTree.kNearestAmong(45.0, 2.0, 3, empty).isEmpty());
+            assertTrue(kdTree.circularRangeQueryAmong(45.0, 2.0, 100.0, empty).isEmpty());
+        }
+    }
+
+    @Nested
+    @DisplayName("Polygon Query Tests")
+    class PolygonQueryTests {
+
+        private List<Station> stations;
+
+        @BeforeEach
+        void setUpStations() {
+            Random random = new Random(5);
+            stations = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                stations.add(createStation("S" + i, 36.0 + random.nextDouble() * 16.0,
+                        -9.0 + random.nextDouble() * 22.0, "CET", "XX"));
+            }
+            stations.forEach(KDTree2Test.this::addStationToIndices);
+            kdTree = new KDTree2(latitudeIndex, longitudeIndex);
+        }
+
+        // star-shaped ring with many vertices around a center
+        private double[][] star(double lat, double lon, double outer, double inner, int points) {
+            double[][] ring = new double[points * 2][];
+            for (int i = 0; i < ring.length; i++) {
+                double angle = Math.PI * i / points;
+                double r = i % 2 == 0 ? outer : inner;
+                ring[i] = new double[]{lat + r * Math.sin(angle), lon + r * Math.cos(angle)};
+            }
+            return ring;
+        }
+
+        @Test
+        @DisplayName("Should match brute force point-in-polygon tests")
+        void testMatchesBruteForce() {
+            GeoPolygon polygon = new GeoPolygon(star(44.0, 2.0, 6.0, 3.0, 200),
+                    Collections.singletonList(star(44.0, 2.0, 1.5, 1.0, 40)));
+
+            List<Station> result = kdTree.polygonQuery(polygon);
+
+            List<Station> expected = stations.stream()
+                    .filter(s -> polygon.contains(s.getLatitude(), s.getLongitude()))
+                    .sorted(Comparator.comparing(Station::getStation))
+                    .toList();
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, result);
+        }
+
+        @Test
+        @DisplayName("Should return every station when the polygon covers the whole tree")
+        void testPolygonCoveringEverything() {
+            GeoPolygon polygon = new GeoPolygon(new double[][]{{30, -20}, {30, 20}, {60, 20}, {60, -20}});
+
+            assertEquals(stations.size(), kdTree.polygonQuery(polygon).size());
+        }
+
+        @Test
+        @DisplayName("Should return nothing for a polygon away from all stations")
+        void testPolygonOutside() {
+            GeoPolygon polygon = new GeoPolygon(new double[][]{{-10, 100}, {-10, 110}, {-5, 105}});
+
+            assertTrue(kdTree.polygonQuery(polygon).isEmpty());
+        }
+    }
+
+    @Nested
+    @DisplayName("Corridor Query Tests")
+    class CorridorQueryTests {
+
+        private static final double[][] ROUTE = {{38.7, -9.1}, {40.2, -8.4}, {41.1, -8.6}, {43.3, -2.9}, {48.8, 2.3}};
+
+        private List<Station> stations;
+
+        @BeforeEach
+        void setUpStations() {
+            Random random = new Random(9);
+            stations = new ArrayList<>();
+            for (int i = 0; i < 4000; i++) {
+                stations.add(createStation("S" + i, 36.0 + random.nextDouble() * 16.0,
+                        -9.5 + random.nextDouble() * 22.0, "CET", "XX"));
+            }
+            stations.forEach(KDTree2Test.this::addStationToIndices);
+            kdTree = new KDTree2(latitudeIndex, longitudeIndex);
+        }
+
+        // distance to a route of great-circle arcs, minimised over each arc by ternary search
+        private double bruteForceDistance(double[][] route, Station station) {
+            double[] p = unit(station.getLatitude(), station.getLongitude());
+            double best = Double.MAX_VALUE;
+            for (int i = 0; i + 1 < route.length; i++) {
+                double[] a = unit(route[i][0], route[i][1]);
+                double[] b = unit(route[i + 1][0], route[i + 1][1]);
+                double lo = 0, hi = 1;
+                for (int k = 0; k < 200; k++) {
+                    double m1 = lo + (hi - lo) / 3, m2 = hi - (hi - lo) / 3;
+                    if (angle(p, slerp(a, b, m1)) < angle(p, slerp(a, b, m2))) hi = m2;
+                    else lo = m1;
+                }
+                best = Math.min(best, Math.min(angle(p, slerp(a, b, lo)), Math.min(angle(p, a), angle(p, b))));
+            }
+            return 6371.0 * best;
+        }
+
+        private double[] unit(double lat, double lon) {
+            double latRad = Math.toRadians(lat), lonRad = Math.toRadians(lon);
+            return new double[]{Math.cos(latRad) * Math.cos(lonRad), Math.cos(latRad) * Math.sin(lonRad), Math.sin(latRad)};
+        }
+
+        private double[] slerp(double[] a, double[] b, double t) {
+            double omega = angle(a, b);
+            if (omega == 0) return a;
+            double wa = Math.sin((1 - t) * omega) / Math.sin(omega), wb = Math.sin(t * omega) / Math.sin(omega);
+            return new double[]{wa * a[0] + wb * b[0], wa * a[1] + wb * b[1], wa * a[2] + wb * b[2]};
+        }
+
+        private double angle(double[] u, double[] v) {
+            double cx = u[1] * v[2] - u[2] * v[1], cy = u[2] * v[0] - u[0] * v[2], cz = u[0] * v[1] - u[1] * v[0];
+            return Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), u[0] * v[0] + u[1] * v[1] + u[2] * v[2]);
+        }
+
+        private void assertMatchesBruteForce(double[][] route, double buffer, List<Station> candidates,
+                                             List<KDTree2.CorridorHit> hits) {
+            Map<Station, KDTree2.CorridorHit> found = new IdentityHashMap<>();
+            for (KDTree2.CorridorHit hit : hits) {
+                assertNull(found.put(hit.station, hit), "Duplicate hit " + hit.station);
+            }
+            for (Station station : candidates) {
+                double distance = bruteForceDistance(route, station);
+                KDTree2.CorridorHit hit = found.get(station);
+                if (distance < buffer - 1e-6) assertNotNull(hit, station + " " + distance);
+                if (distance > buffer + 1e-6) assertNull(hit, station + " " + distance);
+                if (hit != null) assertEquals(distance, hit.distanceKm, 1e-6);
+            }
+        }
+
+        private double haversine(double lat1, double lon1, double lat2, double lon2) {
+            double dLat = Math.toRadians(lat2 - lat1);
+            double dLon = Math.toRadians(lon2 - lon1);
+            double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1))
+                    * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+            return 6371.0 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        }
+
+        @Test
+        @DisplayName("Should find the stations within the buffer, each once")
+        void testMatchesBruteForce() {
+            double buffer = 15.0;
+            List<KDTree2.CorridorHit> hits = kdTree.corridorQuery(ROUTE, buffer);
+
+            assertFalse(hits.isEmpty());
+            for (KDTree2.CorridorHit hit : hits) assertTrue(hit.distanceKm <= buffer);
+            assertMatchesBruteForce(ROUTE, buffer, stations, hits);
+        }
+
+        @Test
+        @DisplayName("Should follow the great circle where it bulges poleward of the vertices")
+        void testLongEastWestSegment() {
+            Random random = new Random(13);
+            List<Station> north = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                north.add(createStation("N" + i, 59.0 + random.nextDouble() * 5.0,
+                        -12.0 + random.nextDouble() * 44.0, "CET", "XX"));
+            }
+            KDTree2 tree = new KDTree2(north);
+            double[][] route = {{60.0, -10.0}, {60.0, 30.0}};
+
+            List<KDTree2.CorridorHit> hits = tree.corridorQuery(route, 20.0);
+
+            // the arc peaks near 61.9 degrees halfway, so hits there lie north of both vertices
+            assertTrue(hits.stream().anyMatch(h -> h.station.getLatitude() > 61.5));
+            assertMatchesBruteForce(route, 20.0, north, hits);
+        }
+
+        @Test
+        @DisplayName("Should order hits along the route")
+        void testOrderedAlongRoute() {
+            List<KDTree2.CorridorHit> hits = kdTree.corridorQuery(ROUTE, 20.0);
+
+            for (int i = 1; i < hits.size(); i++) {
+                assertTrue(hits.get(i - 1).routeKm <= hits.get(i).routeKm);
+            }
+            assertTrue(hits.get(0).routeKm < 200, "First hits should be near Lisbon");
+            assertTrue(hits.get(hits.size() - 1).routeKm > 1200, "Last hits should be near Paris");
+        }
+
+        @Test
+        @DisplayName("Should reject invalid routes")
+        void testInvalidArguments() {
+            assertThrows(IllegalArgumentException.class, () -> kdTree.corridorQuery(new double[][]{{1, 1}}, 5));
+            assertThrows(IllegalArgumentException.class, () -> kdTree.corridorQuery(ROUTE, -1));
+        }
+    }
+
+    @Nested
+    @DisplayName("Primitive Hits Tests")
+    class StationHitsTests {
+
+        @BeforeEach
+        void setUpStations() {
+            Random random = new Random(21);
+            String[] countries = {"PT", "ES", "FR"};
+            for (int i = 0; i < 1000; i++) {
+                addStationToIndices(new Station("S" + i, 36.0 + random.nextDouble() * 10.0,
+                        -9.0 + random.nextDouble() * 12.0, countries[random.nextInt(countries.length)],
+                        "CET", "CET", random.nextBoolean(), false, false));
+            }
+            addStationToIndices(new Station("Twin B", 40.0, -3.0, "ES", "CET", "CET", true, false, false));
+            addStationToIndices(new Station("Twin A", 40.0, -3.0, "ES", "CET", "CET", false, false, false));
+            kdTree = new KDTree2(latitudeIndex, longitudeIndex);
+        }
+
+        @Test
+        @DisplayName("Should fill the same hits as the list based circular query")
+        void testCircularHitsMatchList() {
+            List<KDTree2.StationDistance> expected = kdTree.circularRangeQuery(40.0, -3.0, 250.0);
+            StationHits hits = kdTree.circularRangeQuery(40.0, -3.0, 250.0, new StationHits());
+
+            assertEquals(expected.size(), hits.size());
+            for (int i = 0; i < hits.size(); i++) {
+                assertSame(expected.get(i).station, hits.getStation(i));
+                assertEquals(expected.get(i).distanceKm, hits.getDistance(i), 1e-12);
+                assertSame(hits.getStation(i), kdTree.getStation(hits.getId(i)));
+                if (i > 0) assertTrue(hits.getDistance(i - 1) <= hits.getDistance(i));
+            }
+            assertEquals("Twin A", hits.getStation(0).getStation(), "Bucket stations should stay in name order");
+        }
+
+        @Test
+        @DisplayName("Should reuse the container without growing it")
+        void testContainerReuse() {
+            StationHits hits = new StationHits();
+            kdTree.circularRangeQuery(40.0, -3.0, 600.0, hits);
+            int capacity = hits.capacity();
+            int largeSize = hits.size();
+
+            kdTree.circularRangeQuery(41.0, -4.0, 100.0, hits);
+
+            assertTrue(hits.size() < largeSize);
+            assertEquals(capacity, hits.capacity());
+            assertThrows(IndexOutOfBoundsException.class, () -> hits.getId(hits.size()));
+        }
+
+        @Test
+        @DisplayName("Should fill the k nearest hits sorted by distance")
+        void testKNearestHits() {
+            StationHits hits = kdTree.kNearestNeighbors(38.0, -5.0, 15, new StationHits(4));
+
+            assertEquals(15, hits.size());
+            List<KDTree2.StationDistance> all = kdTree.circularRangeQuery(38.0, -5.0, 20000.0);
+            for (int i = 0; i < hits.size(); i++) {
+                assertEquals(all.get(i).distanceKm, hits.getDistance(i), 1e-9);
+            }
+            assertTrue(kdTree.kNearestNeighbors(38.0, -5.0, 0, hits).isEmpty());
+        }
+
+        @Test
+        @DisplayName("Should build radius results and summaries from the hits")
+        void testResultsFromHits() {
+            StationHits hits = kdTree.circularRangeQuery(40.0, -3.0, 300.0, new StationHits());
+            List<Station> stations = new ArrayList<>();
+            for (int i = 0; i < hits.size(); i++) stations.add(hits.getStation(i));
+
+            RadiusSearchResult result = new RadiusSearchResult(hits, 300.0, 40.0, -3.0);
+            StationDensitySummary summary = new StationDensitySummary(hits, 300.0, 40.0, -3.0);
+            StationDensitySummary expected = new StationDensitySummary(stations, 300.0, 40.0, -3.0);
+
+            kdTree.circularRangeQuery(50.0, 10.0, 1.0, hits); // reusing the container must not affect the result
+            assertEquals(stations.size(), result.getTotalStations());
+            assertEquals(expected.getCountByCountry(), summary.getCountByCountry());
+            assertEquals(expected.getCityStations(), summary.getCityStations());
+            assertEquals(expected.getTotalStations(), summary.getTotalStations());
+        }
+    }
+
+    @Nested
+    @DisplayName("Query Instrumentation Tests")
+    class QueryInstrumentationTests {
+
+        @BeforeEach
+        void setUpStations() {
+            Random random = new Random(5);
+            for (int i = 0; i < 2000; i++) {
+                addStationToIndices(createStation("S" + i, 36.0 + random.nextDouble() * 10.0,
+                        -9.0 + random.nextDouble() * 12.0, "CET", "ES"));
+            }
+            kdTree = new KDTree2(latitudeIndex, longitudeIndex);
+        }
+
+        @Test
+        @DisplayName("Should record nothing while recording is off")
+        void testRecordingOffByDefault() {
+            kdTree.kNearestNeighbors(40.0, -3.0, 5);
+
+            assertFalse(kdTree.isStatsRecording());
+            assertNull(kdTree.getLastQueryStats());
+            assertNull(kdTree.takeLastQueryStats());
+        }
+
+        @Test
+        @DisplayName("Should count the work of a k-nearest query")
+        void testKNearestCounters() {
+            kdTree.setStatsRecording(true);
+            kdTree.kNearestNeighbors(40.0, -3.0, 5);
+
+            QueryStats stats = kdTree.getLastQueryStats();
+            assertEquals("kNearestNeighbors", stats.getQueryType());
+            assertEquals(5, stats.getResultSize());
+            assertTrue(stats.getNodesVisited() > 0 && stats.getNodesVisited() < kdTree.size());
+            assertEquals(stats.getNodesVisited(), stats.getDistanceEvaluations());
+            assertTrue(stats.getHeapOperations() >= 5);
+            assertTrue(stats.getSubtreesPruned() > 0);
+            assertTrue(stats.getElapsedNanos() > 0);
+        }
+
+        @Test
+        @DisplayName("Should record a delegating query once, under its own name")
+        void testNestedQueriesRecordedOnce() {
+            kdTree.setStatsRecording(true);
+            List<KDTree2.StationDistance> result = kdTree.circularRangeQuery(40.0, -3.0, 50.0);
+            QueryStats stats = kdTree.takeLastQueryStats();
+
+            assertEquals("circularRangeQuery", stats.getQueryType());
+            assertEquals(result.size(), stats.getResultSize());
+            assertNull(kdTree.takeLastQueryStats(), "Stats are only taken once per query");
+
+            kdTree.circularRangeQuery(40.0, -3.0, 50.0, 3);
+            assertEquals("circularRangeQuery", kdTree.takeLastQueryStats().getQueryType());
+        }
+
+        @Test
+        @DisplayName("Should prune more with a smaller radius")
+        void testPruningRatio() {
+            kdTree.setStatsRecording(true);
+            kdTree.aggregateRadiusQuery(40.0, -3.0, 20.0);
+            QueryStats small = kdTree.getLastQueryStats();
+            kdTree.aggregateRadiusQuery(40.0, -3.0, 5000.0);
+            QueryStats everything = kdTree.getLastQueryStats();
+
+            assertTrue(small.getPruningRatio() > 0.0);
+            assertEquals(kdTree.getStationCount(), everything.getResultSize());
+            assertTrue(everything.getNodesVisited() < kdTree.size(), "Aggregates should stop at covered subtrees");
+        }
+
+        @Test
+        @DisplayName("Should keep recording after a query throws")
+        void testThrowingFilterDoesNotLoseStats() {
+            kdTree.setStatsRecording(true);
+            assertThrows(IllegalStateException.class, () -> kdTree.rangeQuery(36.0, 46.0, -9.0, 3.0,
+                    station -> { throw new IllegalStateException("bad filter"); }, 10));
+
+            assertNull(kdTree.getLastQueryStats(), "A failed query has no stats");
+            assertNull(kdTree.takeLastQueryStats());
+
+            kdTree.kNearestNeighbors(40.0, -3.0, 5);
+            QueryStats stats = kdTree.takeLastQueryStats();
+            assertEquals("kNearestNeighbors", stats.getQueryType());
+            assertEquals(5, stats.getResultSize());
+        }
+    }
+
+    @Nested
+    @DisplayName("Diagnostics Tests")
+    class DiagnosticsTests {
+
+        @Test
+        @DisplayName("Should agree with the separate statistics passes")
+        void testDiagnosticsMatchStatistics() {
+            Random random = new Random(9);
+            for (int i = 0; i < 3000; i++) {
+                // coarse grid so that some coordinates are shared
+                addStationToIndices(createStation("S" + i, 40.0 + random.nextInt(60) * 0.1,
+                        -5.0 + random.nextInt(60) * 0.1, "CET", "ES"));
+            }
+            kdTree = new KDTree2(latitudeIndex, longitudeIndex);
+
+            TreeDiagnostics diagnostics = kdTree.diagnose();
+
+            assertEquals(kdTree.size(), diagnostics.getNodeCount());
+            assertEquals(kdTree.height(), diagnostics.getHeight());
+            assertEquals(kdTree.getBucketSizeDistribution(), diagnostics.getBucketDistribution());
+            assertEquals(3000, diagnostics.getStationCount());
+            assertEquals(kdTree.size(), Arrays.stream(diagnostics.getNodesPerDepth()).sum());
+            assertEquals(1, diagnostics.getNodesPerDepth()[0]);
+        }
+
+        @Test
+        @DisplayName("Should report a freshly built tree as balanced")
+        void testFreshTreeIsBalanced() {
+            Random random = new Random(3);
+            for (int i = 0; i < 5000; i++) {
+                addStationToIndices(createStation("S" + i, 36.0 + random.nextDouble() * 10.0,
+                        -9.0 + random.nextDouble() * 12.0, "CET", "ES"));
+            }
+            kdTree = new KDTree2(latitudeIndex, longitudeIndex);
+
+            TreeDiagnostics diagnostics = kdTree.diagnose();
+
+            assertEquals(diagnostics.getOptimalHeight(), diagnostics.getHeight());
+            assertEquals(1.0, diagnostics.getDegradation(), 0.01);
+            assertFalse(diagnostics.needsRebuild(1.2));
+            assertTrue(diagnostics.getAverageLatitudeSkew() < 0.05);
+            assertTrue(diagnostics.getAverageLongitudeSkew() < 0.05);
+            assertTrue(diagnostics.getLatitudeSplits() > 0 && diagnostics.getLongitudeSplits() > 0);
+            assertTrue(diagnostics.getAverageLeafDepth() <= diagnostics.getHeight());
+            assertTrue(diagnostics.getExpectedQueryCost() >= diagnostics.getAverageNodeDepth() - 0.01);
+            assertTrue(diagnostics.getEstimatedMemoryBytes() > 5000L * 100);
+        }
+
+        @Test
+        @DisplayName("Should describe an empty tree without failing")
+        void testEmptyTreeDiagnostics() {
+            kdTree = new KDTree2(latitudeIndex, longitudeIndex);
+
+            TreeDiagnostics diagnostics = kdTree.diagnose();
+
+            assertEquals(0, diagnostics.getNodeCount());
+            assertEquals(0, diagnostics.getNodesPerDepth().length);
+            assertEquals(1.0, diagnostics.getDegradation());
+            assertNotNull(diagnostics.toString());
+        }
+    }
+
     @Nested
     @DisplayName("Statistics Tests")
     class StatisticsTests {
@@ -0,0 +1,44 @@
+import isep.ipp.pt.g322.datastructures.merge.KWayMerge;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KWayMergeTest {
+
+    @Test
+    void testMergeMatchesSortedConcatenation() {
+        Random random = new Random(3);
+        List<List<Integer>> runs = new ArrayList<>();
+        List<Integer> all = new ArrayList<>();
+        for (int r = 0; r < 20; r++) {
+            List<Integer> run = new ArrayList<>();
+            int size = random.nextInt(30);
+            for (int i = 0; i < size; i++) run.add(random.nextInt(100));
+            Collections.sort(run);
+            runs.add(run);
+            all.addAll(run);
+        }
+        Collections.sort(all);
+
+        assertEquals(all, KWayMerge.merge(runs, Comparator.naturalOrder(), Integer.MAX_VALUE));
+        assertEquals(all.subList(0, 10), KWayMerge.merge(runs, Comparator.naturalOrder(), 10));
+    }
+
+    @Test
+    void testEqualElementsKeepRunOrder() {
+        List<String> first = List.of("a1", "b1");
+        List<String> second = List.of("a2", "b2");
+        Comparator<String> byLetter = Comparator.comparing(s -> s.charAt(0));
+
+        assertEquals(List.of("a1", "a2", "b1", "b2"), KWayMerge.merge(List.of(first, second), byLetter, 10));
+    }
+
+    @Test
+    void testEmptyInputs() {
+        assertTrue(KWayMerge.merge(List.<List<Integer>>of(), Comparator.naturalOrder(), 5).isEmpty());
+        assertTrue(KWayMerge.merge(List.of(List.of(1, 2)), Comparator.<Integer>naturalOrder(), 0).isEmpty());
+        assertEquals(List.of(1), KWayMerge.merge(List.of(List.of(1, 2)), Comparator.<Integer>naturalOrder(), 1));
+    }
+}
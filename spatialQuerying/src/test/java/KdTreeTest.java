@@ -331,5 +331,37 @@ class KdTreeTest {
         assertTrue(result.isEmpty());
     }
 
-}
+    @Test
+    void searchRegion_NodeOutsideButSplitInside_StillSearchesChildren() {
+        List<Station> stations = IntStream.range(0, 200)
+                .mapToObj(i -> stWithFlags("S" + i, 38.0 + (i * 37 % 200) * 0.03, -9.0 + (i * 91 % 200) * 0.03,
+                        "PT", true, false))
+                .collect(Collectors.toList());
+        KdTree tree = new KdTree(stations);
+
+        List<Station> result = tree.searchRegion(39.0, 41.0, -7.0, -5.0, null, null, null);
+
+        long expected = stations.stream().filter(s -> s.getLatitude() >= 39.0 && s.getLatitude() <= 41.0
+                && s.getLongitude() >= -7.0 && s.getLongitude() <= -5.0).count();
+        assertEquals(expected, result.size());
+    }
+
+    @Test
+    void searchRegionSorted_ReturnsFirstStationsByName() {
+        List<Station> stations = IntStream.range(0, 100)
+                .mapToObj(i -> stWithFlags("S" + (char) ('A' + i % 26) + i, 40.0 + i * 0.01, -8.0 + (i % 10) * 0.01,
+                        i % 4 == 0 ? "ES" : "PT", i % 2 == 0, false))
+                .collect(Collectors.toList());
+        stations.add(stWithFlags("Twin B", 40.5, -7.95, "PT", true, false));
+        stations.add(stWithFlags("Twin A", 40.5, -7.95, "PT", true, false));
+        KdTree tree = new KdTree(stations);
 
+        List<Station> expected = tree.searchRegion(40.0, 41.0, -8.0, -7.9, true, null, "PT").stream()
+                .sorted(Comparator.comparing(Station::getStation))
+                .collect(Collectors.toList());
+        List<Station> page = tree.searchRegionSorted(40.0, 41.0, -8.0, -7.9, true, null, "PT", 5);
+
+        assertEquals(expected.subList(0, 5), page);
+        assertEquals(expected, tree.searchRegionSorted(40.0, 41.0, -8.0, -7.9, true, null, "PT", Integer.MAX_VALUE));
+    }
+}
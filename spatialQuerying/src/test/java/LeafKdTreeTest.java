@@ -0,0 +1,92 @@
+import isep.ipp.pt.g322.Service.SyntheticStationGenerator;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.datastructures.tree.LeafKdTree;
+import isep.ipp.pt.g322.model.Station;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeafKdTreeTest {
+
+    private List<Station> stations;
+    private KDTree2 reference;
+
+    @BeforeEach
+    void setUp() {
+        stations = new ArrayList<>();
+        new SyntheticStationGenerator(21).stations(8000).forEachRemaining(stations::add);
+        reference = new KDTree2(stations);
+    }
+
+    private static Set<Station> stationsOf(List<KDTree2.StationDistance> hits) {
+        Set<Station> result = new HashSet<>();
+        for (KDTree2.StationDistance hit : hits) result.add(hit.station);
+        return result;
+    }
+
+    private void assertMatchesReference(LeafKdTree tree, LeafKdTree.Scan scan) {
+        Random random = new Random(4);
+        for (int q = 0; q < 40; q++) {
+            double lat = 40.0 + random.nextDouble() * 15.0;
+            double lon = -5.0 + random.nextDouble() * 25.0;
+            double radius = 5.0 + random.nextDouble() * 150.0;
+
+            List<KDTree2.StationDistance> expected = reference.circularRangeQuery(lat, lon, radius);
+            List<KDTree2.StationDistance> actual = tree.circularRangeQuery(lat, lon, radius, scan);
+            assertEquals(stationsOf(expected), stationsOf(actual));
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).distanceKm, actual.get(i).distanceKm, 1e-9);
+            }
+
+            assertEquals(new HashSet<>(reference.rangeQuery(lat - 1, lat + 1, lon - 2, lon + 2)),
+                    new HashSet<>(tree.rangeQuery(lat - 1, lat + 1, lon - 2, lon + 2, scan)));
+        }
+    }
+
+    @Test
+    void batchedScanMatchesKdTree2() {
+        assertMatchesReference(new LeafKdTree(stations), LeafKdTree.Scan.BATCHED);
+    }
+
+    @Test
+    void scalarScanMatchesKdTree2() {
+        assertMatchesReference(new LeafKdTree(stations), LeafKdTree.Scan.SCALAR);
+    }
+
+    @Test
+    void anyLeafSizeGivesSameResults() {
+        for (int leafSize : new int[]{1, 7, 64}) {
+            LeafKdTree tree = new LeafKdTree(stations, leafSize);
+            assertEquals(stations.size(), tree.size());
+            assertEquals(leafSize, tree.getLeafSize());
+            assertMatchesReference(tree, LeafKdTree.Scan.BATCHED);
+        }
+    }
+
+    @Test
+    void leavesAreBounded() {
+        LeafKdTree tree = new LeafKdTree(stations, 32);
+        // median splits: at most 2 * n / (leafSize / 2) nodes
+        assertTrue(tree.getNodeCount() < 2 * stations.size() / 16);
+    }
+
+    @Test
+    void hugeRadiusReturnsEverything() {
+        LeafKdTree tree = new LeafKdTree(stations);
+        assertEquals(stations.size(), tree.circularRangeQuery(48.0, 8.0, 30000.0).size());
+        assertEquals(stations.size(), tree.rangeQuery(-90, 90, -180, 180).size());
+    }
+
+    @Test
+    void emptyTreeAndInvalidArguments() {
+        LeafKdTree empty = new LeafKdTree(List.of());
+        assertTrue(empty.circularRangeQuery(48.0, 8.0, 100.0).isEmpty());
+        assertTrue(empty.rangeQuery(-90, 90, -180, 180).isEmpty());
+
+        assertThrows(IllegalArgumentException.class, () -> new LeafKdTree(stations, 0));
+        assertThrows(NullPointerException.class, () -> new LeafKdTree(null));
+    }
+}
@@ -0,0 +1,131 @@
+import isep.ipp.pt.g322.Service.SyntheticStationGenerator;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.datastructures.tree.OffHeapKdTree;
+import isep.ipp.pt.g322.model.Station;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapKdTreeTest {
+
+    @TempDir
+    Path tmp;
+
+    private KDTree2 tree;
+    private OffHeapKdTree offHeap;
+
+    @BeforeEach
+    void setUp() {
+        List<Station> stations = new ArrayList<>();
+        new SyntheticStationGenerator(11).stations(5000).forEachRemaining(stations::add);
+        tree = new KDTree2(stations);
+        offHeap = OffHeapKdTree.build(tree);
+    }
+
+    private static Set<Station> stationsOf(List<KDTree2.StationDistance> hits) {
+        Set<Station> result = new HashSet<>();
+        for (KDTree2.StationDistance hit : hits) result.add(hit.station);
+        return result;
+    }
+
+    private static void assertSameDistances(List<KDTree2.StationDistance> expected, List<KDTree2.StationDistance> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).distanceKm, actual.get(i).distanceKm, 1e-9);
+        }
+    }
+
+    @Test
+    void copiesTheWholeTree() {
+        assertEquals(tree.size(), offHeap.size());
+        assertEquals(5000, offHeap.getStationCount());
+        assertEquals(64L * tree.size(), offHeap.getOffHeapBytes());
+    }
+
+    @Test
+    void queriesMatchHeapTree() {
+        Random random = new Random(2);
+        for (int q = 0; q < 50; q++) {
+            double lat = 40.0 + random.nextDouble() * 15.0;
+            double lon = -5.0 + random.nextDouble() * 25.0;
+
+            assertSameDistances(tree.kNearestNeighbors(lat, lon, 10), offHeap.kNearestNeighbors(lat, lon, 10));
+            assertEquals(tree.nearestNeighbor(lat, lon).distanceKm, offHeap.nearestNeighbor(lat, lon).distanceKm, 1e-9);
+
+            List<KDTree2.StationDistance> expected = tree.circularRangeQuery(lat, lon, 80.0);
+            List<KDTree2.StationDistance> actual = offHeap.circularRangeQuery(lat, lon, 80.0);
+            assertSameDistances(expected, actual);
+            assertEquals(stationsOf(expected), stationsOf(actual));
+
+            assertEquals(new HashSet<>(tree.rangeQuery(lat - 1, lat + 1, lon - 1, lon + 1)),
+                    new HashSet<>(offHeap.rangeQuery(lat - 1, lat + 1, lon - 1, lon + 1)));
+        }
+    }
+
+    @Test
+    void fileBackedTreeCanBeReopened() throws Exception {
+        Path file = tmp.resolve("stations.kdoh");
+        OffHeapKdTree written = OffHeapKdTree.build(tree, file);
+        assertEquals(16 + written.getOffHeapBytes(), Files.size(file));
+
+        OffHeapKdTree reopened = OffHeapKdTree.open(file, tree::getStation);
+        assertEquals(tree.size(), reopened.size());
+        assertEquals(tree.getStationCount(), reopened.getStationCount());
+
+        List<KDTree2.StationDistance> expected = offHeap.kNearestNeighbors(48.85, 2.35, 25);
+        List<KDTree2.StationDistance> actual = reopened.kNearestNeighbors(48.85, 2.35, 25);
+        assertSameDistances(expected, actual);
+        assertEquals(stationsOf(expected), stationsOf(actual));
+    }
+
+    @Test
+    void rejectsForeignFiles() throws Exception {
+        Path file = tmp.resolve("not-a-tree.bin");
+        Files.write(file, new byte[64]);
+
+        assertThrows(IllegalArgumentException.class, () -> OffHeapKdTree.open(file, tree::getStation));
+    }
+
+    @Test
+    void heapTreeCanBeDroppedAfterBuilding() throws Exception {
+        WeakReference<KDTree2>[] source = new WeakReference[1];
+        OffHeapKdTree copy = buildAndForget(source);
+
+        for (int i = 0; i < 50 && source[0].get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(source[0].get(), "The off-heap copy should not keep the heap tree reachable");
+
+        KDTree2.StationDistance nearest = copy.nearestNeighbor(48.85, 2.35);
+        assertEquals(tree.nearestNeighbor(48.85, 2.35).distanceKm, nearest.distanceKm, 1e-9);
+        assertEquals(tree.nearestNeighbor(48.85, 2.35).station.getStation(), nearest.station.getStation());
+    }
+
+    // builds from a tree only referenced from this frame, so it is unreachable once the method returns
+    private static OffHeapKdTree buildAndForget(WeakReference<KDTree2>[] source) {
+        List<Station> stations = new ArrayList<>();
+        new SyntheticStationGenerator(11).stations(5000).forEachRemaining(stations::add);
+        KDTree2 heapTree = new KDTree2(stations);
+        source[0] = new WeakReference<>(heapTree);
+        return OffHeapKdTree.build(heapTree);
+    }
+
+    @Test
+    void emptyTreeReturnsNothing() {
+        OffHeapKdTree empty = OffHeapKdTree.build(new KDTree2(List.of()));
+
+        assertEquals(0, empty.size());
+        assertNull(empty.nearestNeighbor(40.0, 0.0));
+        assertTrue(empty.kNearestNeighbors(40.0, 0.0, 5).isEmpty());
+        assertTrue(empty.circularRangeQuery(40.0, 0.0, 1000.0).isEmpty());
+        assertTrue(empty.rangeQuery(-90, 90, -180, 180).isEmpty());
+    }
+}
@@ -1,4 +1,4 @@
-
+import isep.ipp.pt.g322.datastructures.tree.AVL;
 import isep.ipp.pt.g322.model.DistanceKey;
 import isep.ipp.pt.g322.model.RadiusSearchResult;
 import isep.ipp.pt.g322.model.Station;
@@ -152,4 +152,80 @@ class RadiusSearchResultTest {
         assertEquals(2, summary.getTotalStations());
         assertEquals(50.0, summary.getRadiusKm(), 0.001);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Array constructor should only use the first size hits")
+    void testArrayConstructor() {
+        Station[] hits = {station1, station2, station3};
+        double[] hitDistances = {10.0, 20.0, 30.0};
+
+        RadiusSearchResult result = new RadiusSearchResult(hits, hitDistances, 2, 50.0, 41.0, -8.0);
+
+        assertEquals(2, result.getTotalStations());
+        assertEquals(List.of(station1, station2), result.getAllStationsSorted());
+    }
+
+    @Test
+    @DisplayName("getAllStationsSorted should order unsorted input by distance then name descending")
+    void testGetAllStationsSorted_UnsortedInput() {
+        stations.add(station3);
+        stations.add(station2);
+        stations.add(station1);
+        distances.add(30.0);
+        distances.add(10.001);
+        distances.add(9.999);
+
+        RadiusSearchResult result = new RadiusSearchResult(stations, distances, 50.0, 41.0, -8.0);
+
+        // Lisbon and Porto both round to 10.00 km, so they tie and go by name descending
+        assertEquals(List.of(station1, station2, station3), result.getAllStationsSorted());
+        assertEquals(2, result.getDistanceGroupCount());
+    }
+
+    @Test
+    @DisplayName("AVL view should agree with the array ordering")
+    void testSortedByDistanceMatchesArrayOrder() {
+        stations.add(station1);
+        stations.add(station2);
+        stations.add(station3);
+        distances.add(15.0);
+        distances.add(15.0);
+        distances.add(5.0);
+
+        RadiusSearchResult result = new RadiusSearchResult(stations, distances, 50.0, 41.0, -8.0);
+
+        List<Station> fromAvl = new ArrayList<>();
+        for (DistanceKey key : result.getSortedByDistance().inOrder()) {
+            fromAvl.addAll(key.getStations());
+        }
+        assertEquals(result.getAllStationsSorted(), fromAvl);
+        assertEquals(result.getDistanceGroupCount(), result.getSortedByDistance().size());
+    }
+
+    @Test
+    @DisplayName("Summary should be built once and reused")
+    void testSummaryIsCached() {
+        stations.add(station1);
+        distances.add(10.0);
+
+        RadiusSearchResult result = new RadiusSearchResult(stations, distances, 50.0, 41.0, -8.0);
+
+        assertSame(result.getStationDensitySummary(), result.getStationDensitySummary());
+        assertSame(result.getSortedByDistance(), result.getSortedByDistance());
+    }
+
+    @Test
+    @DisplayName("AVL view should be read-only")
+    void testSortedByDistanceIsReadOnly() {
+        stations.add(station1);
+        distances.add(10.0);
+
+        RadiusSearchResult result = new RadiusSearchResult(stations, distances, 50.0, 41.0, -8.0);
+        AVL<DistanceKey> view = result.getSortedByDistance();
+
+        assertThrows(UnsupportedOperationException.class, () -> view.insert(new DistanceKey(20.0)));
+        assertThrows(UnsupportedOperationException.class, () -> view.remove(view.smallestElement()));
+        assertEquals(1, view.size());
+        assertEquals(1, result.getDistanceGroupCount());
+    }
+}
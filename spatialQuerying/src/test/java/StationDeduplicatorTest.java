@@ -0,0 +1,138 @@
+import isep.ipp.pt.g322.datastructures.tree.AVL;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.model.LatitudeKey;
+import isep.ipp.pt.g322.model.LongitudeKey;
+import isep.ipp.pt.g322.model.Station;
+import isep.ipp.pt.g322.model.StationDeduplicator;
+import isep.ipp.pt.g322.model.StationManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationDeduplicatorTest {
+
+    private List<Station> stations;
+
+    @BeforeEach
+    void setUp() {
+        stations = new ArrayList<>();
+        stations.add(new Station("Chateau-Arnoux-St-Auban", 44.08179, 6.001625, "FR",
+                "Europe/Paris", "CET", true, false, false));
+        stations.add(new Station("Chateau-Arnoux-St-Auban", 44.0615651, 5.9973734, "FR",
+                "Europe/Paris", "CET", false, true, false));
+        stations.add(new Station("Chateau-Arnoux Mairie", 44.063863, 6.011248, "FR",
+                "Europe/Paris", "CET", false, false, false));
+        stations.add(new Station("Digne-les-Bains", 44.35, 6.35, "FR",
+                "Europe/Paris", "CET", true, false, false));
+    }
+
+    private KDTree2 buildTree(List<Station> list) {
+        AVL<LatitudeKey> latitudeIndex = new AVL<>();
+        AVL<LongitudeKey> longitudeIndex = new AVL<>();
+        for (Station station : list) {
+            LatitudeKey latKey = latitudeIndex.find(new LatitudeKey(station.getLatitude()));
+            if (latKey == null) {
+                latKey = new LatitudeKey(station.getLatitude());
+                latitudeIndex.insert(latKey);
+            }
+            latKey.addStation(station);
+
+            LongitudeKey lonKey = longitudeIndex.find(new LongitudeKey(station.getLongitude()));
+            if (lonKey == null) {
+                lonKey = new LongitudeKey(station.getLongitude());
+                longitudeIndex.insert(lonKey);
+            }
+            lonKey.addStation(station);
+        }
+        return new KDTree2(latitudeIndex, longitudeIndex);
+    }
+
+    @Test
+    @DisplayName("Should cluster close stations with the same name only")
+    void testClusterByDistanceAndName() {
+        StationDeduplicator deduplicator = new StationDeduplicator(3.0, 0.85);
+
+        List<List<Station>> clusters = deduplicator.cluster(stations, buildTree(stations));
+
+        assertEquals(3, clusters.size());
+        assertTrue(clusters.stream().anyMatch(c -> c.size() == 2
+                && c.stream().allMatch(s -> s.getStation().equals("Chateau-Arnoux-St-Auban"))));
+    }
+
+    @Test
+    @DisplayName("Should not merge stations farther apart than the distance limit")
+    void testDistanceLimit() {
+        StationDeduplicator deduplicator = new StationDeduplicator(1.0, 0.85);
+
+        List<List<Station>> clusters = deduplicator.cluster(stations, buildTree(stations));
+
+        assertEquals(4, clusters.size());
+    }
+
+    @Test
+    @DisplayName("Should not merge stations from different countries")
+    void testDifferentCountries() {
+        List<Station> border = List.of(
+                new Station("Valenca", 42.0270, -8.6440, "PT", "Europe/Lisbon", "WET", true, true, false),
+                new Station("Valenca", 42.0280, -8.6430, "ES", "Europe/Madrid", "CET", true, true, false));
+        StationDeduplicator deduplicator = new StationDeduplicator(5.0, 0.5);
+
+        assertEquals(2, deduplicator.cluster(border, buildTree(border)).size());
+    }
+
+    @Test
+    @DisplayName("Merged station should keep the main station coordinates and OR the flags")
+    void testMerge() {
+        StationDeduplicator deduplicator = new StationDeduplicator(3.0, 0.85);
+
+        Station merged = deduplicator.merge(List.of(stations.get(0), stations.get(1)));
+
+        assertEquals("Chateau-Arnoux-St-Auban", merged.getStation());
+        assertEquals(44.0615651, merged.getLatitude(), 1e-9);
+        assertTrue(merged.isCity());
+        assertTrue(merged.isMainStation());
+        assertFalse(merged.isAirport());
+    }
+
+    @Test
+    @DisplayName("Name similarity should be 1 for equal names and lower for different ones")
+    void testNameSimilarity() {
+        assertEquals(1.0, StationDeduplicator.nameSimilarity("porto", "porto"), 1e-9);
+        assertEquals(0.8, StationDeduplicator.nameSimilarity("porto", "porta"), 1e-9);
+        assertEquals(1.0, StationDeduplicator.nameSimilarity("", ""), 1e-9);
+    }
+
+    @Test
+    @DisplayName("Should reject invalid parameters")
+    void testInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new StationDeduplicator(-1.0, 0.5));
+        assertThrows(IllegalArgumentException.class, () -> new StationDeduplicator(1.0, 1.5));
+    }
+
+    @Test
+    @DisplayName("StationManager should rebuild its indices with canonical stations")
+    void testManagerDeduplication() {
+        StationManager manager = new StationManager();
+        manager.loadStationsFromCSV("/test_stations.csv");
+        int loaded = manager.getValidStations();
+        int processed = manager.getTotalStations();
+
+        int removed = manager.deduplicateStations(3.0, 0.85);
+        manager.buildSpatialIndex();
+
+        // Chateau-Arnoux-St-Auban pair and the Lisbon stations with different names stay apart
+        assertEquals(1, removed);
+        assertEquals(24, manager.getStationsByLatitudeRange(-90.0, 90.0).size());
+        assertEquals(loaded - removed, manager.getValidStations());
+        assertEquals(24, manager.getValidStations());
+        assertEquals(processed - removed, manager.getTotalStations());
+        assertEquals(manager.getValidStations() + manager.getInvalidStations(), manager.getTotalStations());
+        assertEquals(1, manager.kNearestStationsWithin(44.07, 6.0, 5, 3.0,
+                new KDTree2.StationFilterCriteria().mainStationOnly(true)).size());
+    }
+}
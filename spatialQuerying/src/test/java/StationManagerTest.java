@@ -2,10 +2,13 @@ import isep.ipp.pt.g322.model.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.datastructures.tree.KdTree;
+import isep.ipp.pt.g322.datastructures.tree.TreeDiagnostics;
 
 
 class StationManagerTest {
@@ -178,6 +181,59 @@ class StationManagerTest {
         assertEquals(singleStations.size(), windowStations.size());
     }
 
+    @Test
+    void testGetStationsByTimeZoneWindow_ConcatenatedPerGroup() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+
+        List<Station> stations = manager.getStationsByTimeZoneWindow(new String[]{"WET/GMT", "CET", "WET/GMT"});
+
+        List<Station> expected = new ArrayList<>(manager.getStationsByTimeZoneGroupByCountry("WET/GMT"));
+        expected.addAll(manager.getStationsByTimeZoneGroupByCountry("CET"));
+        expected.addAll(manager.getStationsByTimeZoneGroupByCountry("WET/GMT"));
+        assertEquals(expected, stations, "Groups should follow argument order, each by country then name");
+    }
+
+    @Test
+    void testGetStationsByTimeZoneGroup_ReturnsCallerOwnedLists() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+
+        List<Station> group = manager.getStationsByTimeZoneGroup("CET");
+        int size = group.size();
+        group.clear();
+        manager.getStationsByTimeZoneWindow(new String[]{"CET"}).clear();
+        manager.getStationsByTimeZoneGroupByCountry("CET").clear();
+
+        assertEquals(size, manager.getStationsByTimeZoneGroup("CET").size());
+        assertEquals(size, manager.getStationsByTimeZoneWindow(new String[]{"CET"}).size());
+    }
+
+    @Test
+    void testGetStationsByTimeZoneGroupByCountry_SortedByCountryThenName() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+
+        List<Station> byCountry = manager.getStationsByTimeZoneGroupByCountry("CET");
+
+        assertEquals(manager.getStationsByTimeZoneGroup("CET").size(), byCountry.size());
+        for (int i = 1; i < byCountry.size(); i++) {
+            Station previous = byCountry.get(i - 1);
+            Station current = byCountry.get(i);
+            int byCountryOrder = previous.getCountry().compareTo(current.getCountry());
+            assertTrue(byCountryOrder < 0 || (byCountryOrder == 0
+                    && previous.getStation().compareTo(current.getStation()) <= 0));
+        }
+    }
+
+    @Test
+    void testGetStationsByTimeZoneGroup_ReflectsLaterLoads() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        int before = manager.getStationsByTimeZoneGroup("CET").size();
+
+        manager.loadStationsFromCSV("/test_stations.csv");
+
+        assertTrue(manager.getStationsByTimeZoneGroup("CET").size() > before,
+                "Index should be rebuilt after new stations are added");
+    }
+
     @Test
     void testGetStationsByTimeZoneWindow_EmptyArray() {
         manager.loadStationsFromCSV("/test_stations.csv");
@@ -1280,6 +1336,48 @@ class StationManagerTest {
         }
     }
 
+    @Test
+    void testFindStationPairsWithin_DetectsNearDuplicates() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+
+        List<KDTree2.StationPair> pairs = manager.findStationPairsWithin(2.5);
+
+        // 3 Chateau-Arnoux pairs, the Barcelona twins and 3 Lisbon pairs
+        assertEquals(7, pairs.size());
+        for (KDTree2.StationPair pair : pairs) {
+            assertTrue(pair.distanceKm <= 2.5);
+            assertEquals(calculateDistance(pair.first.getLatitude(), pair.first.getLongitude(),
+                    pair.second.getLatitude(), pair.second.getLongitude()), pair.distanceKm, 0.001);
+        }
+    }
+
+    @Test
+    void testNearestStationJoin_AgainstSelfIsZeroDistance() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+
+        List<KDTree2.StationPair> pairs = manager.nearestStationJoin(manager);
+
+        assertEquals(EXPECTED_VALID_STATIONS, pairs.size());
+        assertTrue(pairs.stream().allMatch(p -> p.distanceKm == 0.0));
+    }
+
+    @Test
+    void testRadiusDensitySummary_MatchesRadiusSearchSummary() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+
+        StationDensitySummary expected = manager.radiusSearchWithSummary(46.0, 5.0, 800.0)
+                .getStationDensitySummary();
+        StationDensitySummary summary = manager.radiusDensitySummary(46.0, 5.0, 800.0);
+
+        assertEquals(expected.getTotalStations(), summary.getTotalStations());
+        assertEquals(expected.getCityStations(), summary.getCityStations());
+        assertEquals(expected.getNonCityStations(), summary.getNonCityStations());
+        assertEquals(expected.getCountByCountry(), summary.getCountByCountry());
+    }
+
     private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
         final double EARTH_RADIUS_KM = 6371.0;
         double dLat = Math.toRadians(lat2 - lat1);
@@ -1290,4 +1388,246 @@ class StationManagerTest {
         double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
         return EARTH_RADIUS_KM * c;
     }
+
+    @Test
+    void testQueryCache_ReturnsSameResultsAndCountsHits() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+        List<KDTree2.StationDistance> uncached = manager.kNearestStations(38.7223, -9.1393, 3);
+
+        manager.enableQueryCache(16, 1e-5);
+        List<KDTree2.StationDistance> first = manager.kNearestStations(38.7223, -9.1393, 3);
+        List<KDTree2.StationDistance> second = manager.kNearestStations(38.7223, -9.1393, 3);
+        RadiusSearchResult r1 = manager.radiusSearchWithSummary(38.7223, -9.1393, 50);
+        RadiusSearchResult r2 = manager.radiusSearchWithSummary(38.7223, -9.1393, 50);
+
+        assertEquals(uncached.size(), first.size());
+        for (int i = 0; i < uncached.size(); i++) {
+            assertSame(uncached.get(i).station, first.get(i).station);
+            assertSame(first.get(i).station, second.get(i).station);
+        }
+        assertSame(r1, r2);
+        assertEquals(2, manager.getQueryCache().getHits());
+        assertEquals(2, manager.getQueryCache().getMisses());
+
+        second.clear();
+        assertEquals(3, manager.kNearestStations(38.7223, -9.1393, 3).size(),
+                "Callers must not be able to modify the cached list");
+
+        manager.buildSpatialIndex();
+        assertEquals(0, manager.getQueryCache().size(), "Rebuilding the index should clear the cache");
+    }
+
+    @Test
+    void testAttributeIndex_CandidatesMatchCriteria() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+        StationAttributeIndex index = manager.getAttributeIndex();
+
+        KDTree2.StationFilterCriteria criteria = new KDTree2.StationFilterCriteria()
+                .timezoneGroup("CET").cityOnly(true);
+        int[] ids = index.candidates(criteria).toArray();
+
+        int expected = 0;
+        for (Station station : manager.getStationsByTimeZoneGroup("CET")) {
+            if (station.isCity()) expected++;
+        }
+        assertEquals(expected, ids.length);
+        assertEquals(index.getStationCount(), index.candidates(null).cardinality());
+        assertEquals(manager.getStationsByTimeZoneWindow(new String[]{"CET", "WET/GMT"}).size(),
+                index.forTimezoneGroups("CET", "WET/GMT").cardinality());
+    }
+
+    @Test
+    void testAttributeIndexHandsOutCopies() {
+        StationManager manager = new StationManager();
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+        StationAttributeIndex index = manager.getAttributeIndex();
+        int stations = index.getStationCount();
+        int cities = index.getCities().cardinality();
+        KDTree2.StationFilterCriteria noFilter = new KDTree2.StationFilterCriteria();
+
+        index.candidates(null).add(stations + 10);
+        index.candidates(noFilter).add(stations + 11);
+        index.getAll().add(stations + 12);
+        index.getCities().add(stations + 13);
+        index.getMainStations().add(stations + 14);
+        index.getAirports().add(stations + 15);
+
+        assertEquals(stations, index.candidates(null).cardinality());
+        assertEquals(stations, index.candidates(noFilter).cardinality());
+        assertEquals(stations, index.getAll().cardinality());
+        assertEquals(cities, index.getCities().cardinality());
+        assertFalse(index.getMainStations().contains(stations + 14));
+        assertFalse(index.getAirports().contains(stations + 15));
+        assertEquals(cities, index.candidates(new KDTree2.StationFilterCriteria().cityOnly(true)).cardinality());
+    }
+
+    @Test
+    void testKNearestStationsAmong_OnlyReturnsCandidates() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+        StationAttributeIndex index = manager.getAttributeIndex();
+
+        List<KDTree2.StationDistance> result = manager.kNearestStationsAmong(38.7223, -9.1393, 3,
+                index.forCountries("FR").andNot(index.getCities()));
+
+        assertFalse(result.isEmpty());
+        for (KDTree2.StationDistance sd : result) {
+            assertEquals("FR", sd.station.getCountry());
+            assertFalse(sd.station.isCity());
+        }
+    }
+
+    @Test
+    void testGetAttributeIndex_WithoutSpatialIndexThrows() {
+        assertThrows(IllegalStateException.class, () -> manager.getAttributeIndex());
+    }
+
+    @Test
+    void testSuggestStations_AccentInsensitivePrefix() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+
+        List<Station> krakow = manager.suggestStations("krakow", 5);
+        assertEquals(1, krakow.size());
+        assertEquals("Kraków Główny", krakow.get(0).getStation());
+
+        List<Station> lisbon = manager.suggestStations("Lisbon", 10);
+        assertEquals(3, lisbon.size());
+        assertTrue(lisbon.stream().allMatch(st -> st.getStation().startsWith("Lisbon")));
+    }
+
+    @Test
+    void testSuggestStations_ToleratesOneTypo() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+
+        List<Station> result = manager.suggestStations("Amsterdan", 5);
+
+        assertEquals(1, result.size());
+        assertEquals("Amsterdam Centraal", result.get(0).getStation());
+    }
+
+    @Test
+    void testNameIndexIds_FeedSpatialQueries() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+
+        List<KDTree2.StationDistance> result = manager.kNearestStationsAmong(48.8566, 2.3522, 10,
+                manager.getNameIndex().prefixIds("london"));
+
+        assertEquals(2, result.size());
+        assertTrue(result.stream().allMatch(sd -> sd.station.getStation().startsWith("London")));
+    }
+
+    @Test
+    void testPolygonSearch_Portugal() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+
+        // rough mainland Portugal border
+        GeoPolygon portugal = new GeoPolygon(new double[][]{
+                {42.15, -8.9}, {42.0, -6.2}, {41.0, -6.9}, {39.6, -7.5}, {38.2, -7.0}, {37.2, -7.4}, {37.0, -8.9}, {38.7, -9.6}});
+
+        List<Station> result = manager.polygonSearch(portugal);
+
+        assertFalse(result.isEmpty());
+        for (Station station : result) {
+            assertEquals("PT", station.getCountry());
+        }
+    }
+
+    @Test
+    void testCorridorSearch_LisbonToPorto() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+
+        List<KDTree2.CorridorHit> hits = manager.corridorSearch(
+                new double[][]{{38.72, -9.14}, {40.2, -8.42}, {41.15, -8.61}}, 10.0);
+
+        assertEquals(4, hits.size());
+        assertTrue(hits.get(0).station.getStation().startsWith("Lisbon"));
+        assertEquals("Porto Campanhã", hits.get(3).station.getStation());
+    }
+
+    @Test
+    void testDirectLoadSharesOneTree() {
+        KdTree kdTree = manager.loadStationsDirectlyToKdTree("/test_stations.csv");
+
+        assertNotNull(kdTree);
+        assertSame(kdTree, manager.getKdTree());
+        // the manager queries run on the tree handed to the US08 caller, no second index is built
+        assertEquals(kdTree.size(), manager.getSpatialIndexStatistics().size);
+        List<KDTree2.StationDistance> nearest = manager.kNearestStations(38.7223, -9.1393, 1);
+        assertEquals(1, nearest.size());
+        assertTrue(kdTree.searchRegion(38.0, 39.0, -10.0, -9.0, null, null, null).contains(nearest.get(0).station));
+    }
+
+    @Test
+    void testBuildSpatialIndexExposesKdTreeView() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+
+        KdTree kdTree = manager.getKdTree();
+
+        assertNotNull(kdTree);
+        assertEquals(manager.getSpatialIndexStatistics().height, kdTree.computeStats().height);
+        assertEquals(kdTree.getEngine().rangeQuery(36.0, 44.0, -10.0, 4.0),
+                kdTree.searchRegionSorted(36.0, 44.0, -10.0, 4.0, null, null, "all", Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testQueryStatsAggregation() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.enableQueryStats();
+        manager.buildSpatialIndex();
+        manager.enableQueryCache(16, 0.01);
+
+        manager.kNearestStations(38.7223, -9.1393, 3);
+        manager.kNearestStations(38.7223, -9.1393, 3); // cache hit, no tree work
+        manager.radiusSearchWithSummary(48.8566, 2.3522, 500.0);
+
+        QueryStatsAggregator stats = manager.getQueryStats();
+        assertEquals(1, stats.getCount("kNearestNeighbors"));
+        assertEquals(1, stats.getCount("circularRangeQuery"));
+        assertEquals(3.0, stats.getMean("kNearestNeighbors", QueryStatsAggregator.Metric.RESULT_SIZE));
+        assertTrue(stats.getPercentile("circularRangeQuery", QueryStatsAggregator.Metric.NODES_VISITED, 99)
+                <= stats.getMax("circularRangeQuery", QueryStatsAggregator.Metric.NODES_VISITED));
+        assertTrue(stats.report().contains("kNearestNeighbors"));
+
+        manager.disableQueryStats();
+        assertNull(manager.getQueryStats());
+    }
+
+    @Test
+    void testSpatialIndexDiagnostics() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        assertThrows(IllegalStateException.class, () -> manager.getSpatialIndexDiagnostics());
+
+        manager.buildSpatialIndex();
+        TreeDiagnostics diagnostics = manager.getSpatialIndexDiagnostics();
+        KDTree2Stats stats = manager.getSpatialIndexStatistics();
+
+        assertEquals(stats.size, diagnostics.getNodeCount());
+        assertEquals(stats.height, diagnostics.getHeight());
+        assertEquals(stats.bucketDistribution, diagnostics.getBucketDistribution());
+        assertEquals(manager.getKdTree().computeStats().nodeCount, diagnostics.getNodeCount());
+    }
+
+    @Test
+    void testSearchRectangleUsesPlanner() {
+        manager.loadStationsFromCSV("/test_stations.csv");
+        assertThrows(IllegalStateException.class, () -> manager.searchRectangle(38, 42, -10, -8, null));
+        manager.buildSpatialIndex();
+
+        List<Station> lisbonAndPorto = manager.searchRectangle(38, 42, -10, -8, null);
+        assertEquals(4, lisbonAndPorto.size());
+        assertEquals("Lisbon Another", lisbonAndPorto.get(0).getStation());
+
+        KDTree2.StationFilterCriteria spain = new KDTree2.StationFilterCriteria().country("ES");
+        assertEquals(2, manager.searchRectangle(35, 45, -10, 5, spain).size());
+        assertNotNull(manager.explainRectangleSearch(35, 45, -10, 5, spain).getAccessPath());
+    }
 }
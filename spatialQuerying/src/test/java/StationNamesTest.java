@@ -0,0 +1,24 @@
+import isep.ipp.pt.g322.model.StationNames;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationNamesTest {
+
+    @Test
+    @DisplayName("Should normalize accents, case and punctuation")
+    void testNormalize() {
+        assertEquals("santa apolonia", StationNames.normalize("Santa Apolónia"));
+        assertEquals("santa apolonia", StationNames.normalize("  SANTA-apolonia "));
+        assertEquals("krakow glowny", StationNames.normalize("Kraków Główny"));
+    }
+
+    @Test
+    @DisplayName("Should fold letters without a canonical decomposition")
+    void testFoldsUndecomposableLetters() {
+        assertEquals("strasse", StationNames.normalize("Straße"));
+        assertEquals("kobenhavn h", StationNames.normalize("København H"));
+        assertEquals("", StationNames.normalize(" - "));
+    }
+}
@@ -0,0 +1,144 @@
+import isep.ipp.pt.g322.model.StationQueryCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationQueryCacheTest {
+
+    @Test
+    void testRepeatedQueryHitsCache() {
+        StationQueryCache cache = new StationQueryCache(10, 1e-4);
+        AtomicInteger runs = new AtomicInteger();
+
+        String first = cache.get("knn", 38.7, -9.1, 5, 0, null, () -> "r" + runs.incrementAndGet());
+        String second = cache.get("knn", 38.70001, -9.10001, 5, 0, null, () -> "r" + runs.incrementAndGet());
+
+        assertEquals("r1", first);
+        assertEquals("r1", second, "Coordinates in the same quantum should share the entry");
+        assertEquals(1, runs.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    void testDifferentParametersAreSeparateEntries() {
+        StationQueryCache cache = new StationQueryCache(10, 1e-4);
+
+        cache.get("knn", 38.7, -9.1, 5, 0, null, () -> "a");
+        cache.get("knn", 38.7, -9.1, 6, 0, null, () -> "b");
+        cache.get("radius", 38.7, -9.1, 0, 5.0, null, () -> "c");
+        cache.get("knn", 38.7, -9.1, 5, 0, "country=PT", () -> "d");
+
+        assertEquals(4, cache.size());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        StationQueryCache cache = new StationQueryCache(2, 1e-4);
+
+        cache.get("q", 1, 1, 0, 0, null, () -> "a");
+        cache.get("q", 2, 2, 0, 0, null, () -> "b");
+        cache.get("q", 1, 1, 0, 0, null, () -> "a2"); // touch a
+        cache.get("q", 3, 3, 0, 0, null, () -> "c");  // evicts b
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals("a", cache.get("q", 1, 1, 0, 0, null, () -> "a3"));
+        assertEquals("b2", cache.get("q", 2, 2, 0, 0, null, () -> "b2"));
+    }
+
+    @Test
+    void testSlowQueryDoesNotBlockOtherKeys() throws Exception {
+        StationQueryCache cache = new StationQueryCache(10, 1e-4);
+        cache.get("q", 2, 2, 0, 0, null, () -> "b");
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread slow = new Thread(() -> cache.get("q", 1, 1, 0, 0, null, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "a";
+        }));
+        slow.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        // the slow query is still running here, other keys are served meanwhile
+        assertEquals("b", cache.get("q", 2, 2, 0, 0, null, () -> "b2"));
+        assertEquals("c", cache.get("q", 3, 3, 0, 0, null, () -> "c"));
+
+        release.countDown();
+        slow.join();
+        assertEquals("a", cache.get("q", 1, 1, 0, 0, null, () -> "a2"));
+    }
+
+    @Test
+    void testConcurrentMissesRunTheQueryOnce() throws Exception {
+        StationQueryCache cache = new StationQueryCache(10, 1e-4);
+        AtomicInteger runs = new AtomicInteger();
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return cache.get("q", 1, 1, 0, 0, null, () -> {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "r" + runs.incrementAndGet();
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertEquals("r1", result.get(5, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        assertEquals(1, runs.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(threads - 1, cache.getHits());
+    }
+
+    @Test
+    void testFailedQueryIsNotCached() {
+        StationQueryCache cache = new StationQueryCache(10, 1e-4);
+
+        assertThrows(IllegalStateException.class,
+                () -> cache.get("q", 1, 1, 0, 0, null, () -> { throw new IllegalStateException("boom"); }));
+        assertEquals(0, cache.size());
+        assertEquals("a", cache.get("q", 1, 1, 0, 0, null, () -> "a"));
+    }
+
+    @Test
+    void testInvalidateAllClearsEverything() {
+        StationQueryCache cache = new StationQueryCache(10, 1e-4);
+        cache.get("q", 1, 1, 0, 0, null, () -> "a");
+        cache.get("q", 2, 2, 0, 0, null, () -> "b");
+
+        cache.invalidateAll();
+
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getInvalidations());
+    }
+
+    @Test
+    void testInvalidArgumentsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new StationQueryCache(0, 1e-4));
+        assertThrows(IllegalArgumentException.class, () -> new StationQueryCache(10, 0));
+    }
+}
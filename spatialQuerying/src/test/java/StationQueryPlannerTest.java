@@ -0,0 +1,134 @@
+import isep.ipp.pt.g322.Service.SyntheticStationGenerator;
+import isep.ipp.pt.g322.datastructures.tree.AVL;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.model.*;
+import isep.ipp.pt.g322.model.StationQueryPlanner.AccessPath;
+import isep.ipp.pt.g322.model.StationQueryPlanner.QueryPlan;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationQueryPlannerTest {
+
+    // the planner and its indices are read-only, so one fixture serves every test
+    private static List<Station> stations;
+    private static StationQueryPlanner planner;
+
+    @BeforeAll
+    static void setUp() {
+        stations = new ArrayList<>();
+        new SyntheticStationGenerator(5).stations(5000).forEachRemaining(stations::add);
+
+        AVL<LatitudeKey> latitudeIndex = new AVL<>();
+        AVL<LongitudeKey> longitudeIndex = new AVL<>();
+        for (Station station : stations) {
+            LatitudeKey latKey = latitudeIndex.find(new LatitudeKey(station.getLatitude()));
+            if (latKey == null) {
+                latKey = new LatitudeKey(station.getLatitude());
+                latitudeIndex.insert(latKey);
+            }
+            latKey.addStation(station);
+
+            LongitudeKey lonKey = longitudeIndex.find(new LongitudeKey(station.getLongitude()));
+            if (lonKey == null) {
+                lonKey = new LongitudeKey(station.getLongitude());
+                longitudeIndex.insert(lonKey);
+            }
+            lonKey.addStation(station);
+        }
+
+        KDTree2 tree = new KDTree2(stations);
+        planner = new StationQueryPlanner(latitudeIndex, longitudeIndex, tree, new StationAttributeIndex(tree));
+    }
+
+    private static List<Station> bruteForce(double minLat, double maxLat, double minLon, double maxLon,
+                                     KDTree2.StationFilterCriteria criteria) {
+        List<Station> result = new ArrayList<>();
+        for (Station station : stations) {
+            if (station.getLatitude() >= minLat && station.getLatitude() <= maxLat
+                    && station.getLongitude() >= minLon && station.getLongitude() <= maxLon
+                    && (criteria == null || criteria.matches(station))) {
+                result.add(station);
+            }
+        }
+        return result;
+    }
+
+    private static List<String> names(List<Station> stations) {
+        List<String> names = new ArrayList<>();
+        for (Station station : stations) names.add(station.getStation());
+        return names;
+    }
+
+    @Test
+    void everyPathReturnsTheSameStationsByName() {
+        Random random = new Random(8);
+        List<KDTree2.StationFilterCriteria> filters = Arrays.asList(null,
+                new KDTree2.StationFilterCriteria().country("FR"),
+                new KDTree2.StationFilterCriteria().cityOnly(true).timezoneGroup("CET"));
+
+        for (int q = 0; q < 20; q++) {
+            double minLat = 38 + random.nextDouble() * 15;
+            double minLon = -5 + random.nextDouble() * 20;
+            double maxLat = minLat + random.nextDouble() * 5;
+            double maxLon = minLon + random.nextDouble() * 5;
+            for (KDTree2.StationFilterCriteria criteria : filters) {
+                List<Station> expected = bruteForce(minLat, maxLat, minLon, maxLon, criteria);
+                QueryPlan plan = planner.plan(minLat, maxLat, minLon, maxLon, criteria);
+
+                for (AccessPath path : plan.getCosts().keySet()) {
+                    List<Station> actual = planner.execute(plan, path);
+                    assertEquals(new HashSet<>(expected), new HashSet<>(actual), path.name());
+                    assertEquals(expected.size(), actual.size(), path.name());
+                    List<String> sortedNames = names(actual);
+                    sortedNames.sort(Comparator.naturalOrder());
+                    assertEquals(sortedNames, names(actual), path + " must be sorted by name");
+                }
+            }
+        }
+    }
+
+    @Test
+    void estimatesFollowTheData() {
+        QueryPlan plan = planner.plan(45.0, 50.0, 0.0, 8.0, null);
+
+        assertEquals(bruteForce(45.0, 50.0, -180, 180, null).size(), plan.getLatitudeRows());
+        assertEquals(bruteForce(-90, 90, 0.0, 8.0, null).size(), plan.getLongitudeRows());
+        int actual = bruteForce(45.0, 50.0, 0.0, 8.0, null).size();
+        assertEquals(actual, plan.getRectangleRows(), actual * 0.25);
+        assertEquals(stations.size(), plan.getCandidateRows());
+        assertFalse(plan.getCosts().containsKey(AccessPath.BITMAP_FIRST), "No filter, no bitmap path");
+    }
+
+    @Test
+    void thinBandsUseTheMatchingAvl() {
+        assertEquals(AccessPath.LATITUDE_SCAN, planner.plan(48.0, 48.001, -10, 30, null).getAccessPath());
+        assertEquals(AccessPath.LONGITUDE_SCAN, planner.plan(35, 60, 2.0, 2.001, null).getAccessPath());
+    }
+
+    @Test
+    void selectiveFilterOverLargeAreaUsesBitmap() {
+        KDTree2.StationFilterCriteria airports = new KDTree2.StationFilterCriteria().airportOnly(true);
+        QueryPlan plan = planner.plan(35, 60, -10, 30, airports);
+
+        assertEquals(AccessPath.BITMAP_FIRST, plan.getAccessPath());
+        assertTrue(plan.getCandidateRows() < stations.size() / 20);
+        assertEquals(bruteForce(35, 60, -10, 30, airports).size(), planner.search(35, 60, -10, 30, airports).size());
+    }
+
+    @Test
+    void compactBoxUsesKdTree() {
+        QueryPlan plan = planner.plan(48.0, 49.5, 1.5, 3.5, null);
+
+        assertEquals(AccessPath.KD_SEARCH, plan.getAccessPath());
+        assertTrue(plan.toString().contains("KD_SEARCH"));
+    }
+
+    @Test
+    void rejectsInvertedRectangle() {
+        assertThrows(IllegalArgumentException.class, () -> planner.plan(50, 40, 0, 10, null));
+    }
+}
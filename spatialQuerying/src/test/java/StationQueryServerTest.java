@@ -0,0 +1,161 @@
+import isep.ipp.pt.g322.Service.StationQueryServer;
+import isep.ipp.pt.g322.model.StationManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationQueryServerTest {
+
+    private StationManager manager;
+    private StationQueryServer server;
+    private HttpClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        manager = new StationManager();
+        manager.loadStationsFromCSV("/test_stations.csv");
+        manager.buildSpatialIndex();
+
+        server = new StationQueryServer(manager, 0);
+        server.start();
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    private HttpResponse<String> get(String pathAndQuery) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + pathAndQuery)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static int occurrences(String text, String token) {
+        int count = 0;
+        for (int i = text.indexOf(token); i >= 0; i = text.indexOf(token, i + 1)) count++;
+        return count;
+    }
+
+    @Test
+    void nearestReturnsKStations() throws Exception {
+        HttpResponse<String> response = get("/nearest?lat=38.7223&lon=-9.1393&k=3");
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("application/json"));
+        assertTrue(response.body().startsWith("{\"count\":3,"));
+        assertEquals(3, occurrences(response.body(), "\"distanceKm\""));
+        assertEquals(3, occurrences(response.body(), "\"station\":\"Lisbon"));
+    }
+
+    @Test
+    void radiusRectangleAndTimezoneEndpoints() throws Exception {
+        HttpResponse<String> radius = get("/radius?lat=38.7679&lon=-9.0997&radiusKm=5");
+        assertEquals(200, radius.statusCode());
+        assertTrue(radius.body().startsWith("{\"total\":3,\"count\":3,"));
+        assertTrue(radius.body().contains("\"countByCountry\":{\"PT\":3}"));
+
+        // the whole globe: every station is counted, only the nearest are listed
+        HttpResponse<String> everything = get("/radius?lat=38.7679&lon=-9.0997&radiusKm=25000&limit=2");
+        assertEquals(200, everything.statusCode());
+        assertTrue(everything.body().startsWith("{\"total\":" + manager.getValidStations() + ",\"count\":2,"));
+        assertEquals(2, occurrences(everything.body(), "\"distanceKm\""));
+        assertTrue(everything.body().contains("\"station\":\"Lisbon Oriente\""));
+
+        HttpResponse<String> rectangle = get("/rectangle?minLat=38&maxLat=42&minLon=-10&maxLon=-8&limit=2");
+        assertEquals(200, rectangle.statusCode());
+        assertTrue(rectangle.body().startsWith("{\"count\":2,"));
+
+        HttpResponse<String> timezone = get("/timezone?group=WET");
+        assertEquals(200, timezone.statusCode());
+        assertTrue(timezone.body().contains("\"total\":4"));
+        assertTrue(timezone.body().contains("\"timeZoneGroup\":\"WET\""));
+
+        HttpResponse<String> window = get("/timezone?group=WET,GMT");
+        assertTrue(window.body().contains("\"total\":7"));
+    }
+
+    @Test
+    void badRequestsAreRejected() throws Exception {
+        assertEquals(400, get("/nearest?lat=38.7&lon=-9.1").statusCode());
+        assertEquals(400, get("/nearest?lat=abc&lon=-9.1&k=3").statusCode());
+        assertEquals(400, get("/nearest?lat=95&lon=-9.1&k=3").statusCode());
+        assertEquals(400, get("/nearest?lat=38.7&lon=-9.1&k=0").statusCode());
+        assertEquals(400, get("/radius?lat=38.7&lon=-9.1&radiusKm=-1").statusCode());
+        assertEquals(400, get("/radius?lat=38.7&lon=-9.1&radiusKm=5&limit=0").statusCode());
+        assertEquals(404, get("/unknown").statusCode());
+        assertEquals(405, get("/batch").statusCode());
+
+        HttpResponse<String> response = get("/timezone");
+        assertEquals(400, response.statusCode());
+        assertEquals("{\"error\":\"Missing parameter: group\"}", response.body());
+    }
+
+    @Test
+    void batchAnswersEachLineInOrder() throws Exception {
+        HttpResponse<String> response = post("/batch",
+                "nearest?lat=38.7223&lon=-9.1393&k=1\n"
+                        + "/timezone?group=GMT\n"
+                        + "nearest?lat=38.7&lon=-9.1\n"
+                        + "nowhere?x=1\n");
+
+        assertEquals(200, response.statusCode());
+        String body = response.body();
+        assertTrue(body.startsWith("[{\"count\":1,"));
+        assertTrue(body.contains("{\"error\":\"Missing parameter: k\"}"));
+        assertTrue(body.endsWith("{\"error\":\"Unknown endpoint: nowhere\"}]"));
+    }
+
+    @Test
+    void oversizedBatchBodyIsRejected() throws Exception {
+        String line = "nearest?lat=38.7223&lon=-9.1393&k=1\n";
+        HttpResponse<String> response = post("/batch",
+                line.repeat(StationQueryServer.MAX_BATCH_BYTES / line.length() + 1));
+
+        assertEquals(413, response.statusCode());
+        assertTrue(response.body().contains("larger than " + StationQueryServer.MAX_BATCH_BYTES));
+    }
+
+    @Test
+    void concurrentClientsShareTheIndexAndAreCounted() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort()
+                    + "/nearest?lat=" + (40 + i * 0.1) + "&lon=2.0&k=5")).build();
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals(200, response.get().statusCode());
+            assertTrue(response.get().body().startsWith("{\"count\":5,"));
+        }
+        get("/nearest?lat=38.7&lon=-9.1");
+
+        String metrics = get("/metrics").body();
+        assertTrue(metrics.contains("\"nearest\":{\"count\":51,\"errors\":1,"));
+        assertTrue(metrics.contains("\"p99Ms\":"));
+    }
+
+    @Test
+    void requiresBuiltIndex() {
+        manager = new StationManager();
+        manager.loadStationsFromCSV("/test_stations.csv");
+
+        assertThrows(IllegalStateException.class, () -> new StationQueryServer(manager, 0));
+    }
+}
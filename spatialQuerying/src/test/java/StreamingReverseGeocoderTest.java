@@ -0,0 +1,151 @@
+import isep.ipp.pt.g322.Service.SyntheticStationGenerator;
+import isep.ipp.pt.g322.datastructures.tree.KDTree2;
+import isep.ipp.pt.g322.datastructures.tree.StreamingReverseGeocoder;
+import isep.ipp.pt.g322.model.Station;
+import isep.ipp.pt.g322.model.StationManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingReverseGeocoderTest {
+
+    private List<Station> stations;
+    private KDTree2 tree;
+
+    @BeforeEach
+    void setUp() {
+        stations = new ArrayList<>();
+        new SyntheticStationGenerator(11).stations(20000).forEachRemaining(stations::add);
+        tree = new KDTree2(stations);
+    }
+
+    private double bruteForceDistance(double lat, double lon) {
+        double best = Double.MAX_VALUE;
+        for (Station station : stations) {
+            best = Math.min(best, haversine(lat, lon, station.getLatitude(), station.getLongitude()));
+        }
+        return best;
+    }
+
+    private static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 6371.0 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private void assertNearest(KDTree2.StationDistance actual, double lat, double lon) {
+        assertNotNull(actual);
+        assertEquals(bruteForceDistance(lat, lon), actual.distanceKm, 1e-9);
+        assertEquals(actual.distanceKm,
+                haversine(lat, lon, actual.station.getLatitude(), actual.station.getLongitude()), 1e-9);
+    }
+
+    @Test
+    void trainTrajectoryIsExactAndMostlyCached() {
+        StreamingReverseGeocoder geocoder = new StreamingReverseGeocoder(tree);
+        Random random = new Random(3);
+        double lat = 48.0, lon = 2.0;
+        double heading = 0.3;
+
+        for (int i = 0; i < 3000; i++) {
+            heading += (random.nextDouble() - 0.5) * 0.2;
+            // ~100 m per fix
+            lat += 0.0009 * Math.cos(heading);
+            lon += 0.0013 * Math.sin(heading);
+            assertNearest(geocoder.locate(lat, lon), lat, lon);
+        }
+
+        assertEquals(3000, geocoder.getFixCount());
+        assertEquals(geocoder.getFixCount(),
+                geocoder.getNeighborhoodHits() + geocoder.getWarmStarts() + geocoder.getFullSearches());
+        assertTrue(geocoder.getNeighborhoodHits() > 2400, "hits: " + geocoder.getNeighborhoodHits());
+        assertTrue(geocoder.getWarmStarts() > geocoder.getFullSearches());
+    }
+
+    @Test
+    void jumpsAndRepeatsStayExact() {
+        StreamingReverseGeocoder geocoder = new StreamingReverseGeocoder(tree, 4);
+        Random random = new Random(17);
+
+        for (int i = 0; i < 500; i++) {
+            double lat = 36 + random.nextDouble() * 22;
+            double lon = -9 + random.nextDouble() * 30;
+            assertNearest(geocoder.locate(lat, lon), lat, lon);
+            assertNearest(geocoder.locate(lat, lon), lat, lon);
+        }
+        assertEquals(1000, geocoder.getNeighborhoodHits() + geocoder.getWarmStarts() + geocoder.getFullSearches());
+
+        Station station = stations.get(1234);
+        KDTree2.StationDistance exact = geocoder.locate(station.getLatitude(), station.getLongitude());
+        assertEquals(0.0, exact.distanceKm, 1e-9);
+    }
+
+    @Test
+    void trajectoryAcrossTheAntimeridianIsExact() {
+        stations = new ArrayList<>();
+        Random random = new Random(29);
+        for (int i = 0; i < 4000; i++) {
+            double lon = 160 + random.nextDouble() * 40;
+            stations.add(new Station("S" + i, -10 + random.nextDouble() * 20, lon > 180 ? lon - 360 : lon,
+                    "FJ", "Pacific/Fiji", "FJT", false, false, false));
+        }
+        tree = new KDTree2(stations);
+        StreamingReverseGeocoder geocoder = new StreamingReverseGeocoder(tree, 4);
+
+        double lat = 0.0, lon = 175.0;
+        for (int i = 0; i < 2000; i++) {
+            lat = 3 * Math.sin(i / 50.0);
+            lon += 0.01;
+            if (lon >= 180) lon -= 360;
+            if (i % 400 == 399) lon = 179.5;
+            assertNearest(geocoder.locate(lat, lon), lat, lon);
+        }
+        assertTrue(geocoder.getWarmStarts() > 0);
+    }
+
+    @Test
+    void smallTreeIsAnsweredFromTheCacheAfterTheFirstFix() {
+        KDTree2 small = new KDTree2(stations.subList(0, 10));
+        StreamingReverseGeocoder geocoder = new StreamingReverseGeocoder(small);
+        Random random = new Random(5);
+
+        for (int i = 0; i < 100; i++) {
+            double lat = 36 + random.nextDouble() * 22;
+            double lon = -9 + random.nextDouble() * 30;
+            KDTree2.StationDistance actual = geocoder.locate(lat, lon);
+            assertEquals(small.nearestNeighbor(lat, lon).distanceKm, actual.distanceKm, 1e-9);
+        }
+        assertEquals(1, geocoder.getFullSearches());
+        assertEquals(99, geocoder.getNeighborhoodHits());
+
+        geocoder.reset();
+        geocoder.locate(40, 0);
+        assertEquals(2, geocoder.getFullSearches());
+    }
+
+    @Test
+    void emptyTreeAndInvalidArguments() {
+        assertNull(new StreamingReverseGeocoder(new KDTree2(List.of())).locate(40, 0));
+        assertThrows(IllegalArgumentException.class, () -> new StreamingReverseGeocoder(null));
+        assertThrows(IllegalArgumentException.class, () -> new StreamingReverseGeocoder(tree, 0));
+    }
+
+    @Test
+    void managerCreatesGeocoderForBuiltIndex() {
+        StationManager manager = new StationManager();
+        manager.loadStationsFromCSV("/test_stations.csv");
+        assertThrows(IllegalStateException.class, manager::createReverseGeocoder);
+
+        manager.buildSpatialIndex();
+        StreamingReverseGeocoder geocoder = manager.createReverseGeocoder();
+        assertEquals("Lisbon Oriente", geocoder.locate(38.7680, -9.0998).station.getStation());
+        assertEquals("Porto Campanhã", geocoder.locate(41.15, -8.58).station.getStation());
+    }
+}
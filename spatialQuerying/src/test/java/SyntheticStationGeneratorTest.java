@@ -0,0 +1,97 @@
+import isep.ipp.pt.g322.Service.StationCsvLoader;
+import isep.ipp.pt.g322.Service.SyntheticStationGenerator;
+import isep.ipp.pt.g322.model.Station;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntheticStationGeneratorTest {
+
+    @TempDir
+    Path tmp;
+
+    private String csv(long seed, long rows) throws Exception {
+        StringWriter out = new StringWriter();
+        new SyntheticStationGenerator(seed).writeCsv(out, rows);
+        return out.toString();
+    }
+
+    private List<Station> stations(long seed, long rows) {
+        List<Station> result = new ArrayList<>();
+        new SyntheticStationGenerator(seed).stations(rows).forEachRemaining(result::add);
+        return result;
+    }
+
+    @Test
+    void sameSeedGivesSameRows() throws Exception {
+        assertEquals(csv(7, 500), csv(7, 500));
+        assertNotEquals(csv(7, 500), csv(8, 500));
+    }
+
+    @Test
+    void smallerDatasetIsPrefixOfLargerOne() throws Exception {
+        String small = csv(7, 100);
+        String large = csv(7, 1000);
+
+        assertTrue(large.startsWith(small));
+        assertEquals(1001, large.split("\n").length);
+        assertTrue(large.startsWith(SyntheticStationGenerator.HEADER + "\n"));
+    }
+
+    @Test
+    void writtenCsvLoadsAsTheStreamedStations() throws Exception {
+        Path file = tmp.resolve("stations.csv");
+        new SyntheticStationGenerator(11).writeCsv(file, 2000);
+
+        List<Station> loaded = new StationCsvLoader().load(file.toString());
+        List<Station> streamed = stations(11, 2000);
+
+        assertEquals(streamed.size(), loaded.size());
+        for (int i = 0; i < streamed.size(); i++) {
+            Station expected = streamed.get(i);
+            Station actual = loaded.get(i);
+            assertEquals(expected.getStation(), actual.getStation());
+            assertEquals(expected.getLatitude(), actual.getLatitude());
+            assertEquals(expected.getLongitude(), actual.getLongitude());
+            assertEquals(expected.getCountry(), actual.getCountry());
+            assertEquals(expected.getTimeZoneGroup(), actual.getTimeZoneGroup());
+            assertEquals(expected.isCity(), actual.isCity());
+            assertEquals(expected.isMainStation(), actual.isMainStation());
+            assertEquals(expected.isAirport(), actual.isAirport());
+        }
+    }
+
+    @Test
+    void datasetLooksLikeTheRealOne() {
+        List<Station> stations = stations(3, 20000);
+
+        Set<String> coordinates = new HashSet<>();
+        int shared = 0;
+        int airports = 0;
+        int mainStations = 0;
+        Set<String> groups = new HashSet<>();
+        for (Station station : stations) {
+            assertTrue(station.isValid());
+            if (!coordinates.add(station.getLatitude() + "#" + station.getLongitude())) shared++;
+            if (station.isAirport()) airports++;
+            if (station.isMainStation()) mainStations++;
+            groups.add(station.getTimeZoneGroup());
+        }
+
+        assertTrue(shared > 100, "expected coordinate ties, got " + shared);
+        assertTrue(airports > 0 && airports < mainStations);
+        assertEquals(Set.of("WET", "GMT", "CET", "EET"), groups);
+    }
+
+    @Test
+    void rejectsNegativeRowCount() {
+        SyntheticStationGenerator generator = new SyntheticStationGenerator(1);
+        assertThrows(IllegalArgumentException.class, () -> generator.stations(-1));
+        assertThrows(IllegalArgumentException.class, () -> generator.writeCsv(new StringWriter(), -1));
+    }
+}